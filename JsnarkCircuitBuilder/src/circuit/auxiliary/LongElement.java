@@ -11,6 +11,7 @@ import util.Util;
 import circuit.config.Config;
 import circuit.eval.CircuitEvaluator;
 import circuit.eval.Instruction;
+import circuit.eval.WitnessComputation;
 import circuit.structure.CircuitGenerator;
 import circuit.structure.ConstantWire;
 import circuit.structure.Wire;
@@ -240,7 +241,7 @@ public class LongElement {
 			// for safety
 			final Wire[] array1 = this.array;
 			final Wire[] array2 = o.array;
-			generator.specifyProverWitnessComputation(new Instruction() {
+			generator.specifyProverWitnessComputation(new WitnessComputation(Util.concat(array1, array2), result) {
 				@Override
 				public void evaluate(CircuitEvaluator evaluator) {
 					BigInteger[] a = evaluator.getWiresValues(array1);
@@ -438,18 +439,7 @@ public class LongElement {
 	}
 
 	private BigInteger[] multiplyPolys(BigInteger[] aiVals, BigInteger[] biVals) {
-
-		BigInteger[] solution = new BigInteger[aiVals.length + biVals.length
-				- 1];
-		Arrays.fill(solution, BigInteger.ZERO);
-		for (int i = 0; i < aiVals.length; i++) {
-			for (int j = 0; j < biVals.length; j++) {
-				solution[i + j] = solution[i + j].add(
-						aiVals[i].multiply(biVals[j])).mod(Config.FIELD_PRIME);
-			}
-		}
-		return solution;
-
+		return PolynomialMultiplication.multiply(aiVals, biVals);
 	}
 
 	public LongElement muxBit(LongElement other, Wire w) {
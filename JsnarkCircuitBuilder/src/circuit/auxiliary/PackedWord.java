@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.auxiliary;
+
+import java.math.BigInteger;
+
+import util.Util;
+import circuit.config.Config;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.ConstantWire;
+import circuit.structure.Wire;
+
+/**
+ * An unsigned machine word (e.g. 32 or 64 bits) for ARX-style gadgets (SHA-256,
+ * Speck, Chaskey). The value is kept packed, and the additions modulo 2^n are
+ * not normalized right away: the word keeps the exact sum together with an
+ * upper bound on it, as LongElement does for its chunks, so that several
+ * additions cost a single split when the bits are finally needed. The bits are
+ * only computed when a bitwise operation, a rotation or getWire() needs them,
+ * and the splits of the underlying wires are reused.
+ *
+ * Usage (one round of Speck):
+ *
+ * <pre>
+ * x = x.rotateRight(8).add(y).xor(k);
+ * y = y.rotateLeft(3).xor(x);
+ * </pre>
+ */
+public class PackedWord {
+
+	// the sums are normalized before their bound gets close to the field size
+	private static final int MAX_BITWIDTH = Config.LOG2_FIELD_PRIME - 2;
+
+	private final int numBits;
+	private Wire value;
+	private BigInteger maxValue;
+	// whether value is known to be less than 2^numBits, which is the case
+	// when its bits were computed
+	private boolean normalized;
+
+	/**
+	 * The wire is assumed to hold a value of at most numBits bits only if it
+	 * was already split (or is constant). Otherwise, it is split the first
+	 * time the word is used, which enforces its range.
+	 */
+	public PackedWord(Wire w, int numBits) {
+		this.numBits = numBits;
+		this.value = w;
+		this.maxValue = Util.computeMaxValue(numBits);
+		if (w instanceof ConstantWire) {
+			BigInteger v = ((ConstantWire) w).getConstant();
+			if (v.bitLength() > numBits) {
+				throw new IllegalArgumentException("The constant does not fit in " + numBits + " bits");
+			}
+			normalized = true;
+		} else {
+			normalized = w.getBitWiresIfExistAlready() != null && w.getBitWiresIfExistAlready().size() <= numBits;
+		}
+	}
+
+	private PackedWord(Wire value, BigInteger maxValue, int numBits) {
+		this.numBits = numBits;
+		this.value = value;
+		this.maxValue = maxValue;
+		this.normalized = maxValue.bitLength() <= numBits;
+	}
+
+	public static PackedWord uint32(Wire w) {
+		return new PackedWord(w, 32);
+	}
+
+	public static PackedWord uint64(Wire w) {
+		return new PackedWord(w, 64);
+	}
+
+	public static PackedWord[] uint32(Wire[] ws) {
+		PackedWord[] words = new PackedWord[ws.length];
+		for (int i = 0; i < ws.length; i++) {
+			words[i] = uint32(ws[i]);
+		}
+		return words;
+	}
+
+	public static PackedWord[] uint64(Wire[] ws) {
+		PackedWord[] words = new PackedWord[ws.length];
+		for (int i = 0; i < ws.length; i++) {
+			words[i] = uint64(ws[i]);
+		}
+		return words;
+	}
+
+	public int getNumBits() {
+		return numBits;
+	}
+
+	/**
+	 * Addition modulo 2^numBits. The result is normalized lazily.
+	 */
+	public PackedWord add(PackedWord o) {
+		checkSize(o);
+		PackedWord a = this, b = o;
+		a.checkRange();
+		b.checkRange();
+		if (a.maxValue.add(b.maxValue).bitLength() > MAX_BITWIDTH) {
+			a = a.normalize();
+			b = b.normalize();
+		}
+		return new PackedWord(a.value.add(b.value), a.maxValue.add(b.maxValue), numBits);
+	}
+
+	public PackedWord add(long c) {
+		return add(new PackedWord(CircuitGenerator.getActiveCircuitGenerator().createConstantWire(c), numBits));
+	}
+
+	public PackedWord xor(PackedWord o) {
+		checkSize(o);
+		return new PackedWord(getWire().xorBitwise(o.getWire(), numBits), numBits);
+	}
+
+	public PackedWord and(PackedWord o) {
+		checkSize(o);
+		return new PackedWord(getWire().andBitwise(o.getWire(), numBits), numBits);
+	}
+
+	public PackedWord or(PackedWord o) {
+		checkSize(o);
+		return new PackedWord(getWire().orBitwise(o.getWire(), numBits), numBits);
+	}
+
+	public PackedWord not() {
+		return new PackedWord(getWire().invBits(numBits), numBits);
+	}
+
+	public PackedWord rotateLeft(int s) {
+		return new PackedWord(getWire().rotateLeft(numBits, s), numBits);
+	}
+
+	public PackedWord rotateRight(int s) {
+		return new PackedWord(getWire().rotateRight(numBits, s), numBits);
+	}
+
+	public PackedWord shiftLeft(int s) {
+		return new PackedWord(getWire().shiftLeft(numBits, s), numBits);
+	}
+
+	public PackedWord shiftRight(int s) {
+		return new PackedWord(getWire().shiftRight(numBits, s), numBits);
+	}
+
+	/**
+	 * Returns the bits of the word (least significant first).
+	 */
+	public Wire[] getBits() {
+		return getWire().getBitWires(numBits).asArray();
+	}
+
+	/**
+	 * Returns the normalized value, i.e. the word modulo 2^numBits.
+	 */
+	public Wire getWire() {
+		checkRange();
+		if (!normalized) {
+			PackedWord w = normalize();
+			value = w.value;
+			maxValue = w.maxValue;
+			normalized = true;
+		}
+		return value;
+	}
+
+	// splits the sum once, and keeps the lower bits
+	private PackedWord normalize() {
+		if (normalized) {
+			return this;
+		}
+		Wire w = value.trimBits(maxValue.bitLength(), numBits);
+		return new PackedWord(w, Util.computeMaxValue(numBits), numBits);
+	}
+
+	// the input words that were not split yet are split to check their range
+	private void checkRange() {
+		if (!normalized && maxValue.bitLength() <= numBits) {
+			value.restrictBitLength(numBits);
+			normalized = true;
+		}
+	}
+
+	private void checkSize(PackedWord o) {
+		if (o.numBits != numBits) {
+			throw new IllegalArgumentException("Words of different sizes");
+		}
+	}
+}
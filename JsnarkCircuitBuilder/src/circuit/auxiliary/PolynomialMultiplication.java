@@ -0,0 +1,330 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.auxiliary;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+import circuit.config.Config;
+import circuit.eval.LazyReduction;
+
+/**
+ * Multiplication of polynomials with coefficients in the field, as needed by
+ * the witness computation of LongElement.mul(). The result of all the methods
+ * is the same: the exact product coefficients reduced modulo the field prime.
+ *
+ * multiply() uses the schoolbook method for short operands, Karatsuba's method
+ * for medium ones, and a number theoretic transform (NTT) over several 31-bit
+ * primes, followed by CRT reconstruction, for long ones.
+ */
+public class PolynomialMultiplication {
+
+	// minimum length of the shorter operand for Karatsuba's method
+	public static final int KARATSUBA_THRESHOLD = 16;
+
+	// minimum length of the shorter operand for the NTT
+	public static final int NTT_THRESHOLD = 32;
+
+	// the NTT primes have the form c * 2^LOG2_MAX_NTT_SIZE + 1, with c chosen
+	// so that they lie in (2^30, 2^31), and each contributes 30 bits to the
+	// CRT modulus
+	private static final int LOG2_MAX_NTT_SIZE = 20;
+	private static final int MAX_NUM_OF_PRIMES = 24;
+
+	private static final long[] primes;
+	private static final long[] roots; // of order 2^LOG2_MAX_NTT_SIZE
+	private static final BigInteger[] bigPrimes;
+	// garnerInverses[i][j] = primes[j]^-1 mod primes[i], for j < i
+	private static final long[][] garnerInverses;
+
+	static {
+		ArrayList<Long> list = new ArrayList<Long>();
+		for (long c = (1L << (31 - LOG2_MAX_NTT_SIZE)) - 1; list.size() < MAX_NUM_OF_PRIMES; c--) {
+			long p = (c << LOG2_MAX_NTT_SIZE) + 1;
+			if (BigInteger.valueOf(p).isProbablePrime(64)) {
+				list.add(p);
+			}
+		}
+		primes = new long[list.size()];
+		roots = new long[list.size()];
+		bigPrimes = new BigInteger[list.size()];
+		garnerInverses = new long[list.size()][];
+		for (int i = 0; i < primes.length; i++) {
+			long p = list.get(i);
+			primes[i] = p;
+			bigPrimes[i] = BigInteger.valueOf(p);
+			long c = (p - 1) >> LOG2_MAX_NTT_SIZE;
+			// w = g^c has order 2^LOG2_MAX_NTT_SIZE iff w^(2^(LOG2_MAX_NTT_SIZE-1)) = -1
+			for (long g = 2;; g++) {
+				long w = pow(g, c, p);
+				if (pow(w, 1L << (LOG2_MAX_NTT_SIZE - 1), p) == p - 1) {
+					roots[i] = w;
+					break;
+				}
+			}
+			garnerInverses[i] = new long[i];
+			for (int j = 0; j < i; j++) {
+				garnerInverses[i][j] = pow(primes[j] % p, p - 2, p);
+			}
+		}
+	}
+
+	public static BigInteger[] multiply(BigInteger[] a, BigInteger[] b) {
+		int shorter = Math.min(a.length, b.length);
+		if (shorter >= NTT_THRESHOLD) {
+			BigInteger[] result = ntt(a, b);
+			if (result != null) {
+				return result;
+			}
+		}
+		if (shorter >= KARATSUBA_THRESHOLD) {
+			return karatsuba(a, b);
+		}
+		return reduce(schoolbookExact(a, b));
+	}
+
+	/**
+	 * The quadratic method, reducing after every step.
+	 */
+	public static BigInteger[] schoolbook(BigInteger[] a, BigInteger[] b) {
+		BigInteger[] solution = zeros(a.length + b.length - 1);
+		for (int i = 0; i < a.length; i++) {
+			for (int j = 0; j < b.length; j++) {
+				solution[i + j] = solution[i + j].add(a[i].multiply(b[j])).mod(Config.FIELD_PRIME);
+			}
+		}
+		return solution;
+	}
+
+	/**
+	 * Karatsuba's method. The longer operand is processed in blocks of the
+	 * length of the shorter one.
+	 */
+	public static BigInteger[] karatsuba(BigInteger[] a, BigInteger[] b) {
+		if (a.length < b.length) {
+			BigInteger[] tmp = a;
+			a = b;
+			b = tmp;
+		}
+		int n = b.length;
+		BigInteger[] result = zeros(a.length + n - 1);
+		for (int offset = 0; offset < a.length; offset += n) {
+			BigInteger[] block = new BigInteger[n];
+			for (int i = 0; i < n; i++) {
+				block[i] = offset + i < a.length ? a[offset + i] : BigInteger.ZERO;
+			}
+			BigInteger[] product = karatsubaBalanced(block, b);
+			for (int i = 0; i < product.length && offset + i < result.length; i++) {
+				result[offset + i] = result[offset + i].add(product[i]);
+			}
+		}
+		return reduce(result);
+	}
+
+	/**
+	 * Multiplies using number theoretic transforms, or returns null if the
+	 * operands are too large for the available primes (or have negative
+	 * coefficients).
+	 */
+	public static BigInteger[] ntt(BigInteger[] a, BigInteger[] b) {
+		int resultLength = a.length + b.length - 1;
+		int logSize = 0;
+		while ((1 << logSize) < resultLength) {
+			logSize++;
+		}
+		int aBits = maxBitLength(a);
+		int bBits = maxBitLength(b);
+		if (aBits < 0 || bBits < 0 || logSize > LOG2_MAX_NTT_SIZE) {
+			return null;
+		}
+		if (aBits == 0 || bBits == 0) {
+			return zeros(resultLength);
+		}
+		// every product coefficient is less than 2^bound
+		int bound = aBits + bBits + 32 - Integer.numberOfLeadingZeros(Math.min(a.length, b.length));
+		int numOfPrimes = (bound + 29) / 30;
+		if (numOfPrimes > primes.length) {
+			return null;
+		}
+		int size = 1 << logSize;
+
+		long[][] residues = new long[numOfPrimes][];
+		for (int k = 0; k < numOfPrimes; k++) {
+			long p = primes[k];
+			long[] fa = residues(a, k, size);
+			long[] fb = residues(b, k, size);
+			long w = pow(roots[k], 1L << (LOG2_MAX_NTT_SIZE - logSize), p);
+			transform(fa, w, p);
+			transform(fb, w, p);
+			for (int i = 0; i < size; i++) {
+				fa[i] = fa[i] * fb[i] % p;
+			}
+			transform(fa, pow(w, p - 2, p), p);
+			long sizeInverse = pow(size, p - 2, p);
+			for (int i = 0; i < resultLength; i++) {
+				fa[i] = fa[i] * sizeInverse % p;
+			}
+			residues[k] = fa;
+		}
+
+		// CRT reconstruction (Garner's algorithm)
+		BigInteger[] result = new BigInteger[resultLength];
+		long[] digits = new long[numOfPrimes];
+		for (int i = 0; i < resultLength; i++) {
+			for (int k = 0; k < numOfPrimes; k++) {
+				long p = primes[k];
+				long x = residues[k][i];
+				for (int j = 0; j < k; j++) {
+					x = (x - digits[j] % p + p) % p * garnerInverses[k][j] % p;
+				}
+				digits[k] = x;
+			}
+			int top = numOfPrimes - 1;
+			while (top > 0 && digits[top] == 0) {
+				top--;
+			}
+			BigInteger v = BigInteger.valueOf(digits[top]);
+			for (int k = top - 1; k >= 0; k--) {
+				v = v.multiply(bigPrimes[k]).add(BigInteger.valueOf(digits[k]));
+			}
+			result[i] = v;
+		}
+		return reduce(result);
+	}
+
+	private static BigInteger[] karatsubaBalanced(BigInteger[] a, BigInteger[] b) {
+		int n = a.length;
+		if (n < KARATSUBA_THRESHOLD) {
+			return schoolbookExact(a, b);
+		}
+		int h = n / 2;
+		int l = n - h;
+		BigInteger[] a0 = new BigInteger[h], a1 = new BigInteger[l];
+		BigInteger[] b0 = new BigInteger[h], b1 = new BigInteger[l];
+		BigInteger[] aSum = new BigInteger[l], bSum = new BigInteger[l];
+		for (int i = 0; i < l; i++) {
+			a1[i] = a[h + i];
+			b1[i] = b[h + i];
+			if (i < h) {
+				a0[i] = a[i];
+				b0[i] = b[i];
+				aSum[i] = a0[i].add(a1[i]);
+				bSum[i] = b0[i].add(b1[i]);
+			} else {
+				aSum[i] = a1[i];
+				bSum[i] = b1[i];
+			}
+		}
+		BigInteger[] z0 = karatsubaBalanced(a0, b0);
+		BigInteger[] z2 = karatsubaBalanced(a1, b1);
+		BigInteger[] z1 = karatsubaBalanced(aSum, bSum);
+
+		BigInteger[] result = zeros(2 * n - 1);
+		for (int i = 0; i < z1.length; i++) {
+			BigInteger middle = z1[i].subtract(z2[i]);
+			if (i < z0.length) {
+				middle = middle.subtract(z0[i]);
+				result[i] = result[i].add(z0[i]);
+			}
+			result[i + h] = result[i + h].add(middle);
+			result[i + 2 * h] = result[i + 2 * h].add(z2[i]);
+		}
+		return result;
+	}
+
+	private static BigInteger[] schoolbookExact(BigInteger[] a, BigInteger[] b) {
+		BigInteger[] solution = zeros(a.length + b.length - 1);
+		for (int i = 0; i < a.length; i++) {
+			for (int j = 0; j < b.length; j++) {
+				solution[i + j] = solution[i + j].add(a[i].multiply(b[j]));
+			}
+		}
+		return solution;
+	}
+
+	// in-place iterative radix-2 transform, w being a root of unity of order
+	// values.length
+	private static void transform(long[] values, long w, long p) {
+		int n = values.length;
+		for (int i = 1, j = 0; i < n; i++) {
+			int bit = n >> 1;
+			for (; (j & bit) != 0; bit >>= 1) {
+				j ^= bit;
+			}
+			j ^= bit;
+			if (i < j) {
+				long tmp = values[i];
+				values[i] = values[j];
+				values[j] = tmp;
+			}
+		}
+		long[] twiddles = new long[n / 2];
+		for (int len = 2; len <= n; len <<= 1) {
+			int half = len / 2;
+			long step = pow(w, n / len, p);
+			twiddles[0] = 1;
+			for (int i = 1; i < half; i++) {
+				twiddles[i] = twiddles[i - 1] * step % p;
+			}
+			for (int i = 0; i < n; i += len) {
+				for (int j = 0; j < half; j++) {
+					long u = values[i + j];
+					long v = values[i + j + half] * twiddles[j] % p;
+					values[i + j] = u + v < p ? u + v : u + v - p;
+					values[i + j + half] = u - v >= 0 ? u - v : u - v + p;
+				}
+			}
+		}
+	}
+
+	private static long[] residues(BigInteger[] values, int k, int size) {
+		long[] result = new long[size];
+		long p = primes[k];
+		for (int i = 0; i < values.length; i++) {
+			BigInteger v = values[i];
+			result[i] = v.bitLength() < 63 ? v.longValue() % p : v.mod(bigPrimes[k]).longValue();
+		}
+		return result;
+	}
+
+	// returns -1 if any of the values is negative
+	private static int maxBitLength(BigInteger[] values) {
+		int max = 0;
+		for (BigInteger v : values) {
+			if (v.signum() < 0) {
+				return -1;
+			}
+			max = Math.max(max, v.bitLength());
+		}
+		return max;
+	}
+
+	private static long pow(long base, long exp, long p) {
+		long result = 1;
+		base %= p;
+		while (exp > 0) {
+			if ((exp & 1) == 1) {
+				result = result * base % p;
+			}
+			base = base * base % p;
+			exp >>= 1;
+		}
+		return result;
+	}
+
+	private static BigInteger[] reduce(BigInteger[] values) {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = LazyReduction.reduce(values[i]);
+		}
+		return values;
+	}
+
+	private static BigInteger[] zeros(int n) {
+		BigInteger[] values = new BigInteger[n];
+		for (int i = 0; i < n; i++) {
+			values[i] = BigInteger.ZERO;
+		}
+		return values;
+	}
+}
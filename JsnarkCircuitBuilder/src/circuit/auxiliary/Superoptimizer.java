@@ -0,0 +1,636 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.auxiliary;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import circuit.config.Config;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.Wire;
+import circuit.structure.WireArray;
+
+/**
+ * Searches for encodings of small functions on bits that use the minimum
+ * number of multiplications (i.e. constraints), to replace the hand-derived
+ * encodings in gadgets such as the Ch and Maj functions of SHA-256.
+ *
+ * The function is given by its truth table: entry x is the value of the
+ * function when input i is bit i of x. The values may be any small integers,
+ * so arithmetic functions of bits (e.g. a + b + c) are supported as well. An
+ * encoding computes a sequence of products, each of two linear combinations
+ * of the constant one, the inputs and the previous products, and the output
+ * is a linear combination of all of them. Linear combinations are free in the
+ * circuit, so the cost is the number of products.
+ *
+ * Signals that are already available in the circuit can be declared with
+ * addAvailableSignal(), e.g. a product computed by the previous invocation of
+ * the function, so that the search can reuse them for free. For example, the
+ * majority function needs two products, but only one when a*b is available,
+ * which is the case in consecutive rounds of SHA-256 (see SHA256Gadget).
+ *
+ * The search is exhaustive by iterative deepening on the number of products.
+ * The operands of the products are enumerated with coefficients in {-1, 0, 1},
+ * except for the second operand of the last product and for the output, whose
+ * coefficients are found by solving a linear system, and so can be any field
+ * elements. The search runs modulo a 31-bit prime, and the encoding that is
+ * found is then computed again modulo the field prime and verified on all the
+ * inputs. The cost grows exponentially with the number of inputs and
+ * products, so this is meant to be run offline (see main()), for functions of
+ * up to 4 or 5 inputs.
+ */
+public class Superoptimizer {
+
+	private static final long Q = 2147483647L;
+
+	private final int numOfInputs;
+	private final int numOfPoints;
+	private final ArrayList<int[]> availableSignals = new ArrayList<int[]>();
+
+	// the state of the search
+	private int[] target;
+	private ArrayList<long[]> signals;
+	private ArrayList<int[][]> products;
+	private int[] lastLeft;
+
+	public Superoptimizer(int numOfInputs) {
+		if (numOfInputs < 1 || numOfInputs > 6) {
+			throw new IllegalArgumentException("The number of inputs must be between 1 and 6");
+		}
+		this.numOfInputs = numOfInputs;
+		this.numOfPoints = 1 << numOfInputs;
+	}
+
+	/**
+	 * Declares a signal (given by its truth table) that is available for free
+	 * to the encodings. Its wire is passed to Encoding.apply().
+	 */
+	public void addAvailableSignal(int[] truthTable) {
+		checkTable(truthTable);
+		availableSignals.add(truthTable.clone());
+	}
+
+	/**
+	 * Returns an encoding of the function with the minimum number of products,
+	 * or null if there is none with at most maxNumOfMultiplications products.
+	 */
+	public Encoding search(int[] truthTable, int maxNumOfMultiplications) {
+		checkTable(truthTable);
+		target = truthTable.clone();
+		for (int m = 0; m <= maxNumOfMultiplications; m++) {
+			signals = new ArrayList<long[]>();
+			products = new ArrayList<int[][]>();
+			long[] one = new long[numOfPoints];
+			Arrays.fill(one, 1);
+			signals.add(one);
+			for (int i = 0; i < numOfInputs; i++) {
+				long[] v = new long[numOfPoints];
+				for (int x = 0; x < numOfPoints; x++) {
+					v[x] = (x >>> i) & 1;
+				}
+				signals.add(v);
+			}
+			for (int[] table : availableSignals) {
+				signals.add(reduce(table));
+			}
+			Encoding encoding = search(m);
+			if (encoding != null) {
+				return encoding;
+			}
+		}
+		return null;
+	}
+
+	private Encoding search(int remaining) {
+		long[] t = reduce(target);
+		int s = signals.size();
+		if (remaining == 0) {
+			if (solve(signals, t) != null) {
+				lastLeft = null;
+				return buildEncoding();
+			}
+			return null;
+		}
+		ArrayList<int[]> forms = enumerateForms(s);
+		if (remaining == 1) {
+			// the last product l * r, where r is unknown: the output is
+			// sum_j (l * s_j) * r_j + sum_j s_j * c_j, which is linear in r
+			// and c
+			ArrayList<long[]> columns = new ArrayList<long[]>();
+			for (int[] l : forms) {
+				long[] lv = combine(l);
+				columns.clear();
+				for (long[] sig : signals) {
+					columns.add(multiply(lv, sig));
+				}
+				columns.addAll(signals);
+				if (solve(columns, t) != null) {
+					lastLeft = l;
+					Encoding encoding = buildEncoding();
+					if (encoding != null) {
+						return encoding;
+					}
+				}
+			}
+			return null;
+		}
+		HashSet<String> seen = new HashSet<String>();
+		for (int i = 0; i < forms.size(); i++) {
+			long[] li = combine(forms.get(i));
+			for (int j = i; j < forms.size(); j++) {
+				long[] p = multiply(li, combine(forms.get(j)));
+				// products that are linear in the signals are useless, and
+				// products that are multiples of each other are equivalent
+				if (solve(signals, p) != null || !seen.add(Arrays.toString(normalize(p)))) {
+					continue;
+				}
+				signals.add(p);
+				products.add(new int[][] { forms.get(i), forms.get(j) });
+				Encoding encoding = search(remaining - 1);
+				if (encoding != null) {
+					return encoding;
+				}
+				signals.remove(signals.size() - 1);
+				products.remove(products.size() - 1);
+			}
+		}
+		return null;
+	}
+
+	// the non-constant linear combinations of the first s signals with
+	// coefficients in {-1, 0, 1}, up to the sign, without duplicate values
+	private ArrayList<int[]> enumerateForms(int s) {
+		ArrayList<int[]> forms = new ArrayList<int[]>();
+		HashSet<String> seen = new HashSet<String>();
+		int[] c = new int[s];
+		int total = 1;
+		for (int i = 0; i < s; i++) {
+			total *= 3;
+		}
+		for (int idx = 0; idx < total; idx++) {
+			int v = idx;
+			int firstNonZero = -1;
+			for (int i = 0; i < s; i++) {
+				c[i] = v % 3 - 1;
+				v /= 3;
+				if (c[i] != 0 && firstNonZero == -1) {
+					firstNonZero = i;
+				}
+			}
+			if (firstNonZero == -1 || c[firstNonZero] < 0) {
+				continue;
+			}
+			long[] value = combine(c);
+			boolean constant = true;
+			for (int x = 1; x < numOfPoints; x++) {
+				constant &= value[x] == value[0];
+			}
+			if (!constant && seen.add(Arrays.toString(value))) {
+				forms.add(c.clone());
+			}
+		}
+		return forms;
+	}
+
+	private long[] combine(int[] coefficients) {
+		long[] v = new long[numOfPoints];
+		for (int j = 0; j < coefficients.length; j++) {
+			if (coefficients[j] != 0) {
+				long[] sig = signals.get(j);
+				for (int x = 0; x < numOfPoints; x++) {
+					v[x] = (v[x] + (coefficients[j] + Q) * sig[x]) % Q;
+				}
+			}
+		}
+		return v;
+	}
+
+	private long[] multiply(long[] a, long[] b) {
+		long[] v = new long[numOfPoints];
+		for (int x = 0; x < numOfPoints; x++) {
+			v[x] = a[x] * b[x] % Q;
+		}
+		return v;
+	}
+
+	private long[] normalize(long[] a) {
+		long[] v = a.clone();
+		for (int x = 0; x < numOfPoints; x++) {
+			if (a[x] != 0) {
+				long inv = BigInteger.valueOf(a[x]).modInverse(BigInteger.valueOf(Q)).longValue();
+				for (int y = 0; y < numOfPoints; y++) {
+					v[y] = a[y] * inv % Q;
+				}
+				break;
+			}
+		}
+		return v;
+	}
+
+	private long[] reduce(int[] table) {
+		long[] v = new long[numOfPoints];
+		for (int x = 0; x < numOfPoints; x++) {
+			v[x] = ((table[x] % Q) + Q) % Q;
+		}
+		return v;
+	}
+
+	private void checkTable(int[] truthTable) {
+		if (truthTable.length != numOfPoints) {
+			throw new IllegalArgumentException("The truth table must have " + numOfPoints + " entries");
+		}
+	}
+
+	// returns a solution of sum_j columns[j] * y_j = t modulo Q, or null
+	private long[] solve(ArrayList<long[]> columns, long[] t) {
+		int c = columns.size();
+		long[][] m = new long[numOfPoints][c + 1];
+		for (int x = 0; x < numOfPoints; x++) {
+			for (int j = 0; j < c; j++) {
+				m[x][j] = columns.get(j)[x];
+			}
+			m[x][c] = t[x];
+		}
+		int[] pivotColumns = new int[numOfPoints];
+		int rank = 0;
+		for (int j = 0; j < c && rank < numOfPoints; j++) {
+			int pivot = rank;
+			while (pivot < numOfPoints && m[pivot][j] == 0) {
+				pivot++;
+			}
+			if (pivot == numOfPoints) {
+				continue;
+			}
+			long[] tmp = m[pivot];
+			m[pivot] = m[rank];
+			m[rank] = tmp;
+			long inv = BigInteger.valueOf(m[rank][j]).modInverse(BigInteger.valueOf(Q)).longValue();
+			for (int k = j; k <= c; k++) {
+				m[rank][k] = m[rank][k] * inv % Q;
+			}
+			for (int x = 0; x < numOfPoints; x++) {
+				if (x != rank && m[x][j] != 0) {
+					long f = m[x][j];
+					for (int k = j; k <= c; k++) {
+						m[x][k] = (m[x][k] - f * m[rank][k] % Q + Q) % Q;
+					}
+				}
+			}
+			pivotColumns[rank++] = j;
+		}
+		for (int x = rank; x < numOfPoints; x++) {
+			if (m[x][c] != 0) {
+				return null;
+			}
+		}
+		long[] y = new long[c];
+		for (int r = 0; r < rank; r++) {
+			y[pivotColumns[r]] = m[r][c];
+		}
+		return y;
+	}
+
+	// computes the encoding found by the search modulo the field prime
+	private Encoding buildEncoding() {
+		BigInteger p = Config.FIELD_PRIME;
+		int base = 1 + numOfInputs + availableSignals.size();
+		int numOfProducts = products.size() + (lastLeft == null ? 0 : 1);
+		BigInteger[][] left = new BigInteger[numOfProducts][];
+		BigInteger[][] right = new BigInteger[numOfProducts][];
+
+		ArrayList<BigInteger[]> values = new ArrayList<BigInteger[]>();
+		for (int j = 0; j < base; j++) {
+			BigInteger[] v = new BigInteger[numOfPoints];
+			for (int x = 0; x < numOfPoints; x++) {
+				v[x] = BigInteger.valueOf(signals.get(j)[x]);
+			}
+			values.add(v);
+		}
+		// the values of the available signals are small, so they are the same
+		// modulo Q and p, except for the negative ones
+		for (int j = 0; j < availableSignals.size(); j++) {
+			for (int x = 0; x < numOfPoints; x++) {
+				values.get(1 + numOfInputs + j)[x] = BigInteger.valueOf(availableSignals.get(j)[x]).mod(p);
+			}
+		}
+		for (int i = 0; i < products.size(); i++) {
+			left[i] = toField(products.get(i)[0]);
+			right[i] = toField(products.get(i)[1]);
+			values.add(multiply(combine(values, left[i]), combine(values, right[i])));
+		}
+
+		BigInteger[] t = new BigInteger[numOfPoints];
+		for (int x = 0; x < numOfPoints; x++) {
+			t[x] = BigInteger.valueOf(target[x]).mod(p);
+		}
+		BigInteger[] output;
+		if (lastLeft == null) {
+			output = solve(values, t);
+			if (output == null) {
+				return null;
+			}
+		} else {
+			int s = values.size();
+			BigInteger[] l = toField(lastLeft);
+			BigInteger[] lv = combine(values, l);
+			ArrayList<BigInteger[]> columns = new ArrayList<BigInteger[]>();
+			for (BigInteger[] v : values) {
+				columns.add(multiply(lv, v));
+			}
+			columns.addAll(values);
+			BigInteger[] y = solve(columns, t);
+			if (y == null) {
+				return null;
+			}
+			left[numOfProducts - 1] = l;
+			right[numOfProducts - 1] = Arrays.copyOfRange(y, 0, s);
+			output = Arrays.copyOf(Arrays.copyOfRange(y, s, 2 * s), s + 1);
+			output[s] = BigInteger.ONE;
+		}
+		Encoding encoding = new Encoding(numOfInputs, availableSignals, target, left, right, output);
+		return encoding.verify() ? encoding : null;
+	}
+
+	private static BigInteger[] toField(int[] coefficients) {
+		BigInteger[] c = new BigInteger[coefficients.length];
+		for (int i = 0; i < c.length; i++) {
+			c[i] = BigInteger.valueOf(coefficients[i]).mod(Config.FIELD_PRIME);
+		}
+		return c;
+	}
+
+	private static BigInteger[] combine(ArrayList<BigInteger[]> values, BigInteger[] coefficients) {
+		BigInteger[] v = new BigInteger[values.get(0).length];
+		Arrays.fill(v, BigInteger.ZERO);
+		for (int j = 0; j < coefficients.length; j++) {
+			for (int x = 0; x < v.length; x++) {
+				v[x] = v[x].add(coefficients[j].multiply(values.get(j)[x]));
+			}
+		}
+		for (int x = 0; x < v.length; x++) {
+			v[x] = v[x].mod(Config.FIELD_PRIME);
+		}
+		return v;
+	}
+
+	private static BigInteger[] multiply(BigInteger[] a, BigInteger[] b) {
+		BigInteger[] v = new BigInteger[a.length];
+		for (int x = 0; x < v.length; x++) {
+			v[x] = a[x].multiply(b[x]).mod(Config.FIELD_PRIME);
+		}
+		return v;
+	}
+
+	// returns a solution of sum_j columns[j] * y_j = t modulo the field prime,
+	// or null
+	private static BigInteger[] solve(ArrayList<BigInteger[]> columns, BigInteger[] t) {
+		BigInteger p = Config.FIELD_PRIME;
+		int n = t.length;
+		int c = columns.size();
+		BigInteger[][] m = new BigInteger[n][c + 1];
+		for (int x = 0; x < n; x++) {
+			for (int j = 0; j < c; j++) {
+				m[x][j] = columns.get(j)[x];
+			}
+			m[x][c] = t[x];
+		}
+		int[] pivotColumns = new int[n];
+		int rank = 0;
+		for (int j = 0; j < c && rank < n; j++) {
+			int pivot = rank;
+			while (pivot < n && m[pivot][j].signum() == 0) {
+				pivot++;
+			}
+			if (pivot == n) {
+				continue;
+			}
+			BigInteger[] tmp = m[pivot];
+			m[pivot] = m[rank];
+			m[rank] = tmp;
+			BigInteger inv = m[rank][j].modInverse(p);
+			for (int k = j; k <= c; k++) {
+				m[rank][k] = m[rank][k].multiply(inv).mod(p);
+			}
+			for (int x = 0; x < n; x++) {
+				if (x != rank && m[x][j].signum() != 0) {
+					BigInteger f = m[x][j];
+					for (int k = j; k <= c; k++) {
+						m[x][k] = m[x][k].subtract(f.multiply(m[rank][k])).mod(p);
+					}
+				}
+			}
+			pivotColumns[rank++] = j;
+		}
+		for (int x = rank; x < n; x++) {
+			if (m[x][c].signum() != 0) {
+				return null;
+			}
+		}
+		BigInteger[] y = new BigInteger[c];
+		Arrays.fill(y, BigInteger.ZERO);
+		for (int r = 0; r < rank; r++) {
+			y[pivotColumns[r]] = m[r][c];
+		}
+		return y;
+	}
+
+	/**
+	 * An encoding found by the search. The signals are numbered as follows:
+	 * 0 is the constant one, 1 to numOfInputs are the inputs, followed by the
+	 * available signals and then by the products.
+	 */
+	public static class Encoding {
+
+		private final int numOfInputs;
+		private final ArrayList<int[]> availableSignals;
+		private final int[] truthTable;
+		private final BigInteger[][] left;
+		private final BigInteger[][] right;
+		private final BigInteger[] output;
+
+		private Encoding(int numOfInputs, ArrayList<int[]> availableSignals, int[] truthTable, BigInteger[][] left,
+				BigInteger[][] right, BigInteger[] output) {
+			this.numOfInputs = numOfInputs;
+			this.availableSignals = new ArrayList<int[]>(availableSignals);
+			this.truthTable = truthTable.clone();
+			this.left = left;
+			this.right = right;
+			this.output = output;
+		}
+
+		public int getNumOfMultiplications() {
+			return left.length;
+		}
+
+		/**
+		 * Evaluates the encoding on all the inputs modulo the field prime, and
+		 * compares the results with the truth table.
+		 */
+		public boolean verify() {
+			BigInteger p = Config.FIELD_PRIME;
+			int base = 1 + numOfInputs + availableSignals.size();
+			for (int x = 0; x < truthTable.length; x++) {
+				BigInteger[] values = new BigInteger[base + left.length];
+				values[0] = BigInteger.ONE;
+				for (int i = 0; i < numOfInputs; i++) {
+					values[1 + i] = BigInteger.valueOf((x >>> i) & 1);
+				}
+				for (int j = 0; j < availableSignals.size(); j++) {
+					values[1 + numOfInputs + j] = BigInteger.valueOf(availableSignals.get(j)[x]).mod(p);
+				}
+				for (int k = 0; k < left.length; k++) {
+					values[base + k] = dot(left[k], values).multiply(dot(right[k], values)).mod(p);
+				}
+				if (!dot(output, values).equals(BigInteger.valueOf(truthTable[x]).mod(p))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static BigInteger dot(BigInteger[] coefficients, BigInteger[] values) {
+			BigInteger s = BigInteger.ZERO;
+			for (int j = 0; j < coefficients.length; j++) {
+				s = s.add(coefficients[j].multiply(values[j]));
+			}
+			return s.mod(Config.FIELD_PRIME);
+		}
+
+		/**
+		 * Builds the encoding in the circuit. The inputs must be bits, and the
+		 * available wires must carry the available signals (as functions of
+		 * the inputs). Returns the output wire, followed by the products, which
+		 * may be passed as available signals to other invocations.
+		 */
+		public Wire[] apply(Wire[] inputs, Wire... available) {
+			if (inputs.length != numOfInputs || available.length != availableSignals.size()) {
+				throw new IllegalArgumentException("Unexpected number of wires");
+			}
+			CircuitGenerator generator = CircuitGenerator.getActiveCircuitGenerator();
+			Wire[] values = new Wire[1 + numOfInputs + available.length + left.length];
+			values[0] = generator.getOneWire();
+			System.arraycopy(inputs, 0, values, 1, numOfInputs);
+			System.arraycopy(available, 0, values, 1 + numOfInputs, available.length);
+			int base = 1 + numOfInputs + available.length;
+			Wire[] result = new Wire[1 + left.length];
+			for (int k = 0; k < left.length; k++) {
+				values[base + k] = combine(generator, left[k], values).mul(combine(generator, right[k], values));
+				result[1 + k] = values[base + k];
+			}
+			result[0] = combine(generator, output, values);
+			return result;
+		}
+
+		/**
+		 * Applies the function to each bit position of the words, which is
+		 * only possible when there are no available signals.
+		 */
+		public Wire applyToWords(Wire[] words, int numBits) {
+			if (!availableSignals.isEmpty()) {
+				throw new IllegalArgumentException("The encoding depends on available signals");
+			}
+			Wire[][] bits = new Wire[words.length][];
+			for (int i = 0; i < words.length; i++) {
+				bits[i] = words[i].getBitWires(numBits).asArray();
+			}
+			Wire[] result = new Wire[numBits];
+			Wire[] inputs = new Wire[words.length];
+			for (int b = 0; b < numBits; b++) {
+				for (int i = 0; i < words.length; i++) {
+					inputs[i] = bits[i][b];
+				}
+				result[b] = apply(inputs)[0];
+			}
+			return new WireArray(result).packAsBits();
+		}
+
+		private static Wire combine(CircuitGenerator generator, BigInteger[] coefficients, Wire[] values) {
+			Wire s = generator.getZeroWire();
+			for (int j = 0; j < coefficients.length; j++) {
+				if (coefficients[j].signum() != 0) {
+					s = s.add(coefficients[j].equals(BigInteger.ONE) ? values[j] : values[j].mul(coefficients[j]));
+				}
+			}
+			return s;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (int k = 0; k < left.length; k++) {
+				sb.append("p" + k + " = (" + toString(left[k]) + ") * (" + toString(right[k]) + ")\n");
+			}
+			sb.append("out = " + toString(output) + "\n");
+			return sb.toString();
+		}
+
+		private String toString(BigInteger[] coefficients) {
+			StringBuilder sb = new StringBuilder();
+			int base = 1 + numOfInputs + availableSignals.size();
+			for (int j = 0; j < coefficients.length; j++) {
+				if (coefficients[j].signum() == 0) {
+					continue;
+				}
+				String c = toRational(coefficients[j]);
+				boolean negative = c.startsWith("-");
+				if (negative) {
+					c = c.substring(1);
+				}
+				sb.append(sb.length() == 0 ? (negative ? "-" : "") : (negative ? " - " : " + "));
+				String name = j <= numOfInputs ? "x" + (j - 1) : j < base ? "a" + (j - 1 - numOfInputs) : "p"
+						+ (j - base);
+				if (j == 0) {
+					sb.append(c);
+				} else if (c.equals("1")) {
+					sb.append(name);
+				} else {
+					sb.append(c + "*" + name);
+				}
+			}
+			return sb.length() == 0 ? "0" : sb.toString();
+		}
+
+		// shows the coefficients that are small fractions (e.g. 1/2) as such
+		private static String toRational(BigInteger c) {
+			BigInteger p = Config.FIELD_PRIME;
+			for (int d = 1; d <= 64; d++) {
+				BigInteger n = c.multiply(BigInteger.valueOf(d)).mod(p);
+				boolean negative = n.compareTo(p.shiftRight(1)) > 0;
+				if (negative) {
+					n = p.subtract(n);
+				}
+				if (n.bitLength() <= 32) {
+					return (negative ? "-" : "") + n + (d == 1 ? "" : "/" + d);
+				}
+			}
+			return c.toString();
+		}
+	}
+
+	/**
+	 * Usage: Superoptimizer numOfInputs v0,v1,...,v(2^numOfInputs - 1)
+	 * [maxNumOfMultiplications]
+	 */
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Usage: Superoptimizer <numOfInputs> <truth table values, comma separated> [max multiplications]");
+			System.exit(1);
+		}
+		int numOfInputs = Integer.parseInt(args[0]);
+		String[] entries = args[1].split(",");
+		int[] table = new int[entries.length];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = Integer.parseInt(entries[i].trim());
+		}
+		int max = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+		Encoding encoding = new Superoptimizer(numOfInputs).search(table, max);
+		if (encoding == null) {
+			System.out.println("No encoding with at most " + max + " multiplications");
+		} else {
+			System.out.print(encoding);
+		}
+	}
+}
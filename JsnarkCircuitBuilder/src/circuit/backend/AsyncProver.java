@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import util.CompressedStreams;
+import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.structure.CircuitGenerator;
+
+/**
+ * Runs the steps of a circuit (generation, evaluation, writing the files and
+ * proving) as CompletableFuture stages on bounded executors, instead of
+ * blocking the caller.
+ *
+ * Circuit construction and evaluation run on the circuit executor, while
+ * proving runs on a separate prover executor. This allows the witness of the
+ * next request to be computed while the previous proof is still running. Each
+ * evaluation returns a new CircuitEvaluator, so several witnesses of the same
+ * circuit can be in flight at the same time. When circuits of different
+ * generators are handled concurrently, RUNNING_GENERATORS_IN_PARALLEL must be
+ * enabled, so that each task can set its generator as the active one.
+ *
+ * Both executors have bounded queues. When a queue is full, the submitting
+ * call fails with a RejectedExecutionException (or the dependent stage
+ * completes exceptionally with it), which the caller can use as backpressure.
+ */
+public class AsyncProver implements Closeable {
+
+	private final ThreadPoolExecutor circuitExecutor;
+	private final ThreadPoolExecutor proverExecutor;
+
+	/**
+	 * @param numOfCircuitThreads
+	 *            the number of circuits that can be generated or evaluated at
+	 *            the same time
+	 * @param numOfProverThreads
+	 *            the number of libsnark processes that can run at the same
+	 *            time
+	 * @param queueCapacity
+	 *            the number of pending tasks allowed for each executor
+	 */
+	public AsyncProver(int numOfCircuitThreads, int numOfProverThreads, int queueCapacity) {
+		circuitExecutor = new ThreadPoolExecutor(numOfCircuitThreads, numOfCircuitThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ProverPool.DaemonThreadFactory("circuit-worker"));
+		proverExecutor = new ThreadPoolExecutor(numOfProverThreads, numOfProverThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ProverPool.DaemonThreadFactory("libsnark-runner"));
+	}
+
+	public CompletableFuture<CircuitGenerator> generateCircuit(final CircuitGenerator generator) {
+		return CompletableFuture.supplyAsync(new Supplier<CircuitGenerator>() {
+			@Override
+			public CircuitGenerator get() {
+				generator.setAsActiveGenerator();
+				generator.generateCircuit();
+				return generator;
+			}
+		}, circuitExecutor);
+	}
+
+	/**
+	 * Evaluates the circuit on the sample input of the generator. The
+	 * evaluator of the generator itself (used by evalCircuit()) is not
+	 * modified.
+	 */
+	public CompletableFuture<CircuitEvaluator> evalCircuit(final CircuitGenerator generator) {
+		return CompletableFuture.supplyAsync(new Supplier<CircuitEvaluator>() {
+			@Override
+			public CircuitEvaluator get() {
+				generator.setAsActiveGenerator();
+				CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+				generator.generateSampleInput(evaluator);
+				evaluator.evaluate();
+				return evaluator;
+			}
+		}, circuitExecutor);
+	}
+
+	/**
+	 * Writes the .arith file and the .in file of the given evaluator, using
+	 * the default file names.
+	 */
+	public CompletableFuture<CircuitEvaluator> prepFiles(final CircuitGenerator generator,
+			final CircuitEvaluator evaluator) {
+		return CompletableFuture.supplyAsync(new Supplier<CircuitEvaluator>() {
+			@Override
+			public CircuitEvaluator get() {
+				generator.writeCircuitFile();
+				evaluator.writeInputFile();
+				return evaluator;
+			}
+		}, circuitExecutor);
+	}
+
+	/**
+	 * Writes the .in file of the evaluator to the given path. Using a
+	 * different path per witness avoids overwriting a file that a running
+	 * libsnark process has not read yet.
+	 */
+	public CompletableFuture<String> writeInputFile(final CircuitEvaluator evaluator, final String inputFilePath) {
+		return CompletableFuture.supplyAsync(new Supplier<String>() {
+			@Override
+			public String get() {
+				evaluator.writeInputFile(inputFilePath);
+				return inputFilePath;
+			}
+		}, circuitExecutor);
+	}
+
+	public CompletableFuture<ProverResult> runLibsnark(CircuitGenerator generator) {
+		return runLibsnark(CompressedStreams.outputFileName(generator.getName() + ".arith"),
+				CompressedStreams.outputFileName(generator.getName() + ".in"));
+	}
+
+	/**
+	 * Runs the libsnark executable once on the given files. The standard
+	 * output is parsed while the process is running, and is not printed.
+	 * Compressed (.gz) files are passed to the executable as decompressed
+	 * temporary copies.
+	 */
+	public CompletableFuture<ProverResult> runLibsnark(String arithFilePath, String inputFilePath) {
+		return runProcess(Config.LIBSNARK_EXEC, arithFilePath, inputFilePath);
+	}
+
+	/**
+	 * Proves using the keys stored for the circuit. If there are none, the
+	 * setup runs first (on the prover executor as well).
+	 *
+	 * Experimental: splitExecutable has to be a libsnark build with separate
+	 * setup and prove modes (see KeyStore.SETUP_MODE_ARG). The default
+	 * Config.LIBSNARK_EXEC does not have them.
+	 */
+	public CompletableFuture<ProverResult> runLibsnark(final String arithFilePath, final String inputFilePath,
+			final KeyStore keyStore, final String splitExecutable) {
+		return CompletableFuture.supplyAsync(new Supplier<KeyStore.Entry>() {
+			@Override
+			public KeyStore.Entry get() {
+				try {
+					return keyStore.getOrCreate(Paths.get(arithFilePath), KeyStore.libsnarkSetup(splitExecutable));
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				}
+			}
+		}, proverExecutor).thenCompose(new Function<KeyStore.Entry, CompletableFuture<ProverResult>>() {
+			@Override
+			public CompletableFuture<ProverResult> apply(final KeyStore.Entry keys) {
+				CompletableFuture<ProverResult> result;
+				try {
+					result = runProcess(splitExecutable, KeyStore.PROVE_MODE_ARG, arithFilePath, inputFilePath,
+							keys.getProvingKey().toString(), keys.getVerificationKey().toString());
+				} catch (RuntimeException e) {
+					keys.close();
+					throw e;
+				}
+				// the keys can be evicted once the prover is done
+				return result.whenComplete(new BiConsumer<ProverResult, Throwable>() {
+					@Override
+					public void accept(ProverResult r, Throwable t) {
+						keys.close();
+					}
+				});
+			}
+		});
+	}
+
+	private CompletableFuture<ProverResult> runProcess(final String... command) {
+		return CompletableFuture.supplyAsync(new Supplier<ProverResult>() {
+			@Override
+			public ProverResult get() {
+				String[] args = command;
+				try {
+					args = CompressedStreams.plainCopies(command);
+					Process p = new ProcessBuilder(args).redirectError(Redirect.INHERIT).start();
+					LibsnarkOutputParser parser = new LibsnarkOutputParser();
+					parser.parse(p.getInputStream());
+					int exitCode = p.waitFor();
+					return parser.createResult(exitCode == 0, null);
+				} catch (IOException e) {
+					throw new CompletionException(e);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new CompletionException(e);
+				} finally {
+					CompressedStreams.deletePlainCopies(command, args);
+				}
+			}
+		}, proverExecutor);
+	}
+
+	/**
+	 * Encodes the witness on the circuit executor, and sends it to the pool.
+	 * No thread is blocked while the pool is proving.
+	 */
+	public CompletableFuture<ProverResult> prove(final CircuitGenerator generator, final CircuitEvaluator evaluator,
+			final ProverPool pool) {
+		return CompletableFuture.supplyAsync(new Supplier<byte[]>() {
+			@Override
+			public byte[] get() {
+				return ProverProtocol.encodeWitness(generator, evaluator);
+			}
+		}, circuitExecutor).thenCompose(new Function<byte[], CompletableFuture<ProverResult>>() {
+			@Override
+			public CompletableFuture<ProverResult> apply(byte[] witness) {
+				return pool.submit(witness);
+			}
+		});
+	}
+
+	/**
+	 * The asynchronous equivalent of calling generateCircuit(), evalCircuit(),
+	 * prepFiles() and runLibsnark() on the generator.
+	 */
+	public CompletableFuture<ProverResult> run(final CircuitGenerator generator) {
+		return generateCircuit(generator).thenCompose(new Function<CircuitGenerator, CompletableFuture<CircuitEvaluator>>() {
+			@Override
+			public CompletableFuture<CircuitEvaluator> apply(CircuitGenerator g) {
+				return evalCircuit(g);
+			}
+		}).thenCompose(new Function<CircuitEvaluator, CompletableFuture<CircuitEvaluator>>() {
+			@Override
+			public CompletableFuture<CircuitEvaluator> apply(CircuitEvaluator evaluator) {
+				return prepFiles(generator, evaluator);
+			}
+		}).thenCompose(new Function<CircuitEvaluator, CompletableFuture<ProverResult>>() {
+			@Override
+			public CompletableFuture<ProverResult> apply(CircuitEvaluator evaluator) {
+				return runLibsnark(generator);
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		circuitExecutor.shutdown();
+		proverExecutor.shutdown();
+	}
+}
@@ -0,0 +1,396 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import util.CompressedStreams;
+
+/**
+ * A local directory of proving and verification keys, indexed by the SHA-256
+ * fingerprint of the .arith file they were generated for. A circuit whose
+ * serialized form did not change reuses its keys instead of running the
+ * setup again.
+ *
+ * Each entry is a sub-directory named after the fingerprint, containing
+ * proving.key and verification.key. Entries are created in a temporary
+ * directory and then renamed into place, so readers (in this process or
+ * another one) either see a complete entry or no entry at all. When the total
+ * size exceeds the limit, the least recently used entries are removed.
+ *
+ * The entries returned by get() and getOrCreate() are leased: they are not
+ * evicted by this store until they are closed. Other processes sharing the
+ * directory do not see these leases.
+ */
+public class KeyStore {
+
+	public static final String PROVING_KEY_FILE = "proving.key";
+	public static final String VERIFICATION_KEY_FILE = "verification.key";
+
+	/**
+	 * The arguments of a libsnark executable for generating the keys only, and
+	 * for proving with existing keys. The run_ppzksnark executable of
+	 * jsnark_interface (Config.LIBSNARK_EXEC) does not have these modes yet,
+	 * so the executable that has them is always given explicitly.
+	 */
+	public static final String SETUP_MODE_ARG = "setup";
+	public static final String PROVE_MODE_ARG = "prove";
+
+	private static final String TEMP_PREFIX = ".tmp-";
+
+	// the number of times the keys are generated again when they are evicted
+	// by another process before they could be leased
+	private static final int MAX_ATTEMPTS = 3;
+
+	/**
+	 * Produces the keys of a circuit. There is no default generator.
+	 */
+	public interface KeyGenerator {
+		public void generate(Path arithFile, Path provingKey, Path verificationKey) throws IOException;
+	}
+
+	/**
+	 * Experimental: runs the given executable in setup mode. It has to be a
+	 * libsnark build that implements the setup/prove split, not the default
+	 * Config.LIBSNARK_EXEC.
+	 */
+	public static KeyGenerator libsnarkSetup(final String splitExecutable) {
+		return new KeyGenerator() {
+			@Override
+			public void generate(Path arithFile, Path provingKey, Path verificationKey) throws IOException {
+				runSetup(splitExecutable, arithFile, provingKey, verificationKey);
+			}
+		};
+	}
+
+	private static void runSetup(String executable, Path arithFile, Path provingKey, Path verificationKey)
+			throws IOException {
+		String[] command = { executable, SETUP_MODE_ARG, arithFile.toString(), provingKey.toString(),
+				verificationKey.toString() };
+		String[] args = CompressedStreams.plainCopies(command);
+		try {
+			Process p = new ProcessBuilder(args).redirectErrorStream(true).redirectOutput(Redirect.INHERIT).start();
+			try {
+				if (p.waitFor() != 0) {
+					throw new IOException("The key generation failed for " + arithFile);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				p.destroy();
+				throw new IOException("Interrupted while generating keys", e);
+			}
+		} finally {
+			CompressedStreams.deletePlainCopies(command, args);
+		}
+	}
+
+	/**
+	 * The key files of one circuit. The files are kept until the entry is
+	 * closed.
+	 */
+	public static class Entry implements Closeable {
+
+		private final KeyStore store;
+		private final String fingerprint;
+		private final Path directory;
+		private boolean closed;
+
+		Entry(KeyStore store, String fingerprint, Path directory) {
+			this.store = store;
+			this.fingerprint = fingerprint;
+			this.directory = directory;
+		}
+
+		public String getFingerprint() {
+			return fingerprint;
+		}
+
+		public Path getProvingKey() {
+			return directory.resolve(PROVING_KEY_FILE);
+		}
+
+		public Path getVerificationKey() {
+			return directory.resolve(VERIFICATION_KEY_FILE);
+		}
+
+		@Override
+		public void close() {
+			synchronized (store) {
+				if (!closed) {
+					closed = true;
+					store.release(fingerprint);
+				}
+			}
+		}
+	}
+
+	private final Path directory;
+	private final long maxSizeInBytes;
+	private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+	// the number of open entries per fingerprint (guarded by this)
+	private final HashMap<String, Integer> leases = new HashMap<String, Integer>();
+
+	/**
+	 * @param maxSizeInBytes
+	 *            the total size of the stored keys, or 0 for no limit. Leased
+	 *            entries are always kept, even if they are larger.
+	 */
+	public KeyStore(Path directory, long maxSizeInBytes) throws IOException {
+		this.directory = directory;
+		this.maxSizeInBytes = maxSizeInBytes;
+		Files.createDirectories(directory);
+	}
+
+	public static String fingerprint(Path arithFile) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+		// a compressed file has the fingerprint of its content, which does not
+		// depend on the compression settings
+		InputStream in = CompressedStreams.openInput(arithFile.toString());
+		try {
+			byte[] buffer = new byte[1 << 16];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hex.append(String.format("%02x", b & 0xff));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Returns a lease on the stored keys for the fingerprint, or null if there
+	 * are none. The returned entry must be closed once the keys are not needed
+	 * anymore.
+	 */
+	public synchronized Entry get(String fingerprint) {
+		Path entryDir = directory.resolve(fingerprint);
+		if (!Files.isDirectory(entryDir)) {
+			return null;
+		}
+		try {
+			// the modification time of the entry directory is used as its
+			// last access time for eviction
+			Files.setLastModifiedTime(entryDir, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// the entry was evicted by another process
+			return null;
+		}
+		Integer count = leases.get(fingerprint);
+		leases.put(fingerprint, count == null ? 1 : count + 1);
+		return new Entry(this, fingerprint, entryDir);
+	}
+
+	private synchronized void release(String fingerprint) {
+		int count = leases.get(fingerprint);
+		if (count == 1) {
+			leases.remove(fingerprint);
+		} else {
+			leases.put(fingerprint, count - 1);
+		}
+	}
+
+	/**
+	 * Returns a lease on the keys of the circuit file, generating and storing
+	 * them first if needed. Concurrent calls for the same circuit in this
+	 * process run the generator only once. The returned entry must be closed
+	 * once the keys are not needed anymore.
+	 */
+	public Entry getOrCreate(Path arithFile, KeyGenerator generator) throws IOException {
+		String fingerprint = fingerprint(arithFile);
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			Entry entry = get(fingerprint);
+			if (entry != null) {
+				return entry;
+			}
+			Object lock = new Object();
+			Object previous = locks.putIfAbsent(fingerprint, lock);
+			if (previous != null) {
+				lock = previous;
+			}
+			try {
+				synchronized (lock) {
+					entry = create(fingerprint, arithFile, generator);
+				}
+			} finally {
+				// later calls find the stored entry, so the lock is only
+				// needed while it is being created
+				locks.remove(fingerprint, lock);
+			}
+			if (entry != null) {
+				return entry;
+			}
+		}
+		throw new IOException("The keys of " + arithFile
+				+ " were repeatedly removed by another process before they could be used");
+	}
+
+	private Entry create(String fingerprint, Path arithFile, KeyGenerator generator) throws IOException {
+		Entry entry = get(fingerprint);
+		if (entry != null) {
+			return entry;
+		}
+		Path tempDir = Files.createTempDirectory(directory, TEMP_PREFIX + fingerprint + "-");
+		try {
+			generator.generate(arithFile, tempDir.resolve(PROVING_KEY_FILE),
+					tempDir.resolve(VERIFICATION_KEY_FILE));
+			if (!Files.exists(tempDir.resolve(PROVING_KEY_FILE))
+					|| !Files.exists(tempDir.resolve(VERIFICATION_KEY_FILE))) {
+				throw new IOException("The key generator did not produce both keys for " + arithFile);
+			}
+			Path entryDir = directory.resolve(fingerprint);
+			try {
+				moveAtomically(tempDir, entryDir);
+			} catch (IOException e) {
+				// another process may have stored the same keys first
+				if (!Files.isDirectory(entryDir)) {
+					throw e;
+				}
+			}
+		} finally {
+			deleteRecursively(tempDir);
+		}
+		entry = get(fingerprint);
+		if (entry != null) {
+			try {
+				evict();
+			} catch (IOException e) {
+				entry.close();
+				throw e;
+			}
+		}
+		return entry;
+	}
+
+	public long getTotalSize() throws IOException {
+		long size = 0;
+		for (Path entryDir : listEntries()) {
+			size += sizeOf(entryDir);
+		}
+		return size;
+	}
+
+	private synchronized void evict() throws IOException {
+		if (maxSizeInBytes <= 0) {
+			return;
+		}
+		ArrayList<Path> entries = new ArrayList<Path>();
+		final HashMap<Path, Long> lastAccess = new HashMap<Path, Long>();
+		HashMap<Path, Long> sizes = new HashMap<Path, Long>();
+		long total = 0;
+		for (Path entryDir : listEntries()) {
+			try {
+				lastAccess.put(entryDir, Files.getLastModifiedTime(entryDir).toMillis());
+				sizes.put(entryDir, sizeOf(entryDir));
+				total += sizes.get(entryDir);
+				entries.add(entryDir);
+			} catch (IOException e) {
+				// removed by another process in the meantime
+			}
+		}
+		Collections.sort(entries, new Comparator<Path>() {
+			@Override
+			public int compare(Path p1, Path p2) {
+				return Long.compare(lastAccess.get(p1), lastAccess.get(p2));
+			}
+		});
+		for (Path entryDir : entries) {
+			if (total <= maxSizeInBytes) {
+				break;
+			}
+			if (leases.containsKey(entryDir.getFileName().toString())) {
+				continue;
+			}
+			// the entry is renamed first, so that it disappears at once for
+			// readers, and then deleted
+			Path removed = directory.resolve(TEMP_PREFIX + "evicted-" + entryDir.getFileName() + "-"
+					+ System.nanoTime());
+			try {
+				moveAtomically(entryDir, removed);
+			} catch (IOException e) {
+				continue;
+			}
+			deleteRecursively(removed);
+			total -= sizes.get(entryDir);
+		}
+	}
+
+	private ArrayList<Path> listEntries() throws IOException {
+		ArrayList<Path> entries = new ArrayList<Path>();
+		DirectoryStream<Path> stream = Files.newDirectoryStream(directory);
+		try {
+			for (Path p : stream) {
+				if (Files.isDirectory(p) && !p.getFileName().toString().startsWith(TEMP_PREFIX)) {
+					entries.add(p);
+				}
+			}
+		} finally {
+			stream.close();
+		}
+		return entries;
+	}
+
+	private static void moveAtomically(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target);
+		}
+	}
+
+	private static long sizeOf(Path entryDir) throws IOException {
+		long size = 0;
+		DirectoryStream<Path> stream = Files.newDirectoryStream(entryDir);
+		try {
+			for (Path p : stream) {
+				size += Files.size(p);
+			}
+		} finally {
+			stream.close();
+		}
+		return size;
+	}
+
+	private static void deleteRecursively(Path path) throws IOException {
+		if (!Files.exists(path)) {
+			return;
+		}
+		if (Files.isDirectory(path)) {
+			DirectoryStream<Path> stream = Files.newDirectoryStream(path);
+			try {
+				for (Path p : stream) {
+					deleteRecursively(p);
+				}
+			} finally {
+				stream.close();
+			}
+		}
+		Files.deleteIfExists(path);
+	}
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.backend;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the log printed by libsnark line by line, as it is produced, instead
+ * of buffering the whole output first. Two kinds of lines are recognized:
+ *
+ * (leave) Call to r1cs_ppzksnark_prover [0.1234s x1.00] (...)
+ *
+ * * The verification result is: PASS
+ *
+ * All other lines are only kept as part of the raw output.
+ */
+public class LibsnarkOutputParser {
+
+	private static final Pattern TIMING_PATTERN = Pattern.compile("\\(leave\\)\\s+(?:Call to\\s+)?(.+?)\\s*\\[(\\d+(?:\\.\\d+)?)s");
+	private static final Pattern VERIFICATION_PATTERN = Pattern.compile("verification result is:\\s*(PASS|FAIL)");
+
+	private final StringBuilder output = new StringBuilder();
+	private final LinkedHashMap<String, Double> timings = new LinkedHashMap<String, Double>();
+	private Boolean verificationResult;
+
+	public void parseLine(String line) {
+		output.append(line).append('\n');
+		matchLine(line);
+	}
+
+	private void matchLine(String line) {
+		Matcher m = TIMING_PATTERN.matcher(line);
+		if (m.find()) {
+			String block = m.group(1).trim();
+			double seconds = Double.parseDouble(m.group(2));
+			// blocks that are entered several times are accumulated
+			Double previous = timings.get(block);
+			timings.put(block, previous == null ? seconds : previous + seconds);
+			return;
+		}
+		m = VERIFICATION_PATTERN.matcher(line);
+		if (m.find()) {
+			verificationResult = m.group(1).equals("PASS");
+		}
+	}
+
+	/**
+	 * Consumes the stream until its end.
+	 */
+	public void parse(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			parseLine(line);
+		}
+	}
+
+	public static LibsnarkOutputParser parse(String log) {
+		LibsnarkOutputParser parser = new LibsnarkOutputParser();
+		if (log != null) {
+			for (String line : log.split("\n")) {
+				parser.matchLine(line);
+			}
+			parser.output.append(log);
+		}
+		return parser;
+	}
+
+	/**
+	 * The time in seconds of every block reported by libsnark, in the order
+	 * they were completed.
+	 */
+	public Map<String, Double> getTimings() {
+		return Collections.unmodifiableMap(timings);
+	}
+
+	/**
+	 * Returns null if the output did not include a verification result.
+	 */
+	public Boolean getVerificationResult() {
+		return verificationResult;
+	}
+
+	public String getOutput() {
+		return output.toString();
+	}
+
+	/**
+	 * @param processSucceeded
+	 *            whether the prover reported success by other means, e.g. its
+	 *            exit code or the status of a response frame
+	 */
+	public ProverResult createResult(boolean processSucceeded, byte[] proof) {
+		boolean successful = processSucceeded && (verificationResult == null || verificationResult);
+		return new ProverResult(successful, proof, getOutput(), timings, verificationResult);
+	}
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.backend;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+
+import util.CompressedStreams;
+
+/**
+ * Runs a libsnark prover as a long-lived process for one circuit. The circuit
+ * and the keys are loaded once when the process starts, and every call to
+ * prove() sends a witness over the standard input and reads the response from
+ * the standard output, using the framing described in ProverProtocol.
+ *
+ * Experimental: this is only the Java side of the protocol. The run_ppzksnark
+ * executable of jsnark_interface (Config.LIBSNARK_EXEC) does not implement
+ * the serve mode, so this backend is never used by default, and the path of
+ * an executable that implements it has to be given explicitly.
+ */
+public class LibsnarkServerBackend implements ProverBackend {
+
+	public static final String SERVE_MODE_ARG = "serve";
+
+	private final Process process;
+	// the command, and the command with plain copies of the compressed files
+	private final String[] files;
+	private final String[] plainFiles;
+	private final DataOutputStream toProcess;
+	private final DataInputStream fromProcess;
+
+	/**
+	 * @param serverExecutable
+	 *            a prover executable that implements the serve mode. This is
+	 *            not the default Config.LIBSNARK_EXEC.
+	 */
+	public LibsnarkServerBackend(String serverExecutable, String arithFilePath, String... extraArgs)
+			throws IOException {
+		String[] command = new String[3 + extraArgs.length];
+		command[0] = serverExecutable;
+		command[1] = SERVE_MODE_ARG;
+		command[2] = arithFilePath;
+		System.arraycopy(extraArgs, 0, command, 3, extraArgs.length);
+		files = command;
+		plainFiles = CompressedStreams.plainCopies(command);
+
+		// stderr is not part of the protocol. It is inherited so that the
+		// process can never block on a full stderr pipe.
+		try {
+			process = new ProcessBuilder(plainFiles).redirectError(Redirect.INHERIT).start();
+		} catch (IOException e) {
+			CompressedStreams.deletePlainCopies(files, plainFiles);
+			throw e;
+		}
+		toProcess = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+		fromProcess = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+	}
+
+	public static ProverPool.BackendFactory experimentalFactory(final String serverExecutable,
+			final String arithFilePath, final String... extraArgs) {
+		return new ProverPool.BackendFactory() {
+			@Override
+			public ProverBackend create() throws IOException {
+				return new LibsnarkServerBackend(serverExecutable, arithFilePath, extraArgs);
+			}
+		};
+	}
+
+	@Override
+	public ProverResult prove(byte[] witness) throws IOException {
+		ProverProtocol.writeFrame(toProcess, witness);
+		byte[] response = ProverProtocol.readFrame(fromProcess);
+		if (response == null) {
+			throw new IOException("The prover process terminated unexpectedly");
+		}
+		return ProverProtocol.decodeResponse(response);
+	}
+
+	@Override
+	public boolean isAlive() {
+		return process.isAlive();
+	}
+
+	@Override
+	public void close() {
+		// closing the standard input is enough for a well-behaved process to
+		// exit, but close() is also used to abort a request that timed out.
+		process.destroy();
+		CompressedStreams.deletePlainCopies(files, plainFiles);
+	}
+
+}
@@ -0,0 +1,32 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A prover that has already loaded a circuit (and its keys), and that can
+ * produce proofs for different witnesses of that circuit. Instances are not
+ * expected to be thread-safe; see ProverPool for concurrent dispatch.
+ */
+public interface ProverBackend extends Closeable {
+
+	/**
+	 * @param witness
+	 *            the input and prover witness values, encoded as in
+	 *            ProverProtocol.encodeWitness()
+	 */
+	public ProverResult prove(byte[] witness) throws IOException;
+
+	public boolean isAlive();
+
+	/**
+	 * Stops the backend. This may be called from a different thread while a
+	 * request is in progress, in which case that request should fail.
+	 */
+	@Override
+	public void close();
+
+}
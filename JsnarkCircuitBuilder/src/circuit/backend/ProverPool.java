@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.backend;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps a fixed number of warm prover backends for one circuit, and dispatches
+ * proof requests to them concurrently. Each backend handles one request at a
+ * time. A backend that fails or exceeds the timeout is closed and replaced by
+ * a new one, so that a stuck prover does not reduce the capacity of the pool.
+ * If no replacement can be created and the last backend is gone, the pending
+ * and later requests fail with the error of the factory instead of waiting.
+ *
+ * Example (after writing the circuit file):
+ *
+ * ProverPool pool = new ProverPool(factory, 4, 60000);
+ * ProverResult result = generator.prove(pool);
+ *
+ * There is no default factory for the libsnark executable shipped with
+ * jsnark, since it does not keep running between proofs. StubProverBackend
+ * can be used to test the dispatching, and the experimental
+ * LibsnarkServerBackend needs a separate executable that implements the serve
+ * mode.
+ */
+public class ProverPool implements Closeable {
+
+	public interface BackendFactory {
+		public ProverBackend create() throws IOException;
+	}
+
+	private final BackendFactory factory;
+	private final BlockingQueue<ProverBackend> idleBackends;
+	private final ArrayList<ProverBackend> allBackends;
+	private final ExecutorService dispatcher;
+	private final ScheduledExecutorService watchdog;
+	private final Set<CompletableFuture<ProverResult>> pendingRequests;
+	private final long timeoutMillis;
+	private volatile boolean closed;
+	private volatile IOException replacementFailure;
+
+	private static final int MAX_REPLACEMENT_ATTEMPTS = 3;
+	private static final long POLL_INTERVAL_MILLIS = 100;
+
+	/**
+	 * @param size
+	 *            the number of backend processes
+	 * @param timeoutMillis
+	 *            the maximum time a request waits for a free backend, and the
+	 *            maximum time of a single proof, or 0 for no timeout
+	 */
+	public ProverPool(BackendFactory factory, int size, long timeoutMillis) throws IOException {
+		if (size <= 0) {
+			throw new IllegalArgumentException("The pool size must be positive");
+		}
+		this.factory = factory;
+		this.timeoutMillis = timeoutMillis;
+		idleBackends = new ArrayBlockingQueue<ProverBackend>(size);
+		allBackends = new ArrayList<ProverBackend>();
+		pendingRequests = Collections.newSetFromMap(new ConcurrentHashMap<CompletableFuture<ProverResult>, Boolean>());
+		// backends are started eagerly, so that loading the circuit and the
+		// keys does not happen on the first requests
+		try {
+			for (int i = 0; i < size; i++) {
+				ProverBackend backend = factory.create();
+				allBackends.add(backend);
+				idleBackends.add(backend);
+			}
+		} catch (IOException e) {
+			for (ProverBackend backend : allBackends) {
+				backend.close();
+			}
+			throw e;
+		}
+		dispatcher = Executors.newFixedThreadPool(size, new DaemonThreadFactory("prover-dispatcher"));
+		watchdog = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("prover-watchdog"));
+	}
+
+	/**
+	 * Sends the witness to the next available backend without blocking the
+	 * caller. The returned future fails with a TimeoutException if the request
+	 * takes longer than the timeout of the pool, with an IOException if the
+	 * pool has no backends left, and with an IllegalStateException if the pool
+	 * is closed before the request completes.
+	 */
+	public CompletableFuture<ProverResult> submit(final byte[] witness) {
+		if (closed) {
+			throw new IllegalStateException("The prover pool has been closed");
+		}
+		final CompletableFuture<ProverResult> future = new CompletableFuture<ProverResult>();
+		pendingRequests.add(future);
+		try {
+			dispatcher.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						future.complete(proveWithBackend(witness));
+					} catch (Throwable e) {
+						future.completeExceptionally(e);
+					} finally {
+						pendingRequests.remove(future);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			pendingRequests.remove(future);
+			throw new IllegalStateException("The prover pool has been closed");
+		}
+		return future;
+	}
+
+	public ProverResult prove(byte[] witness) throws IOException, TimeoutException {
+		try {
+			return submit(witness).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the prover", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof TimeoutException) {
+				throw (TimeoutException) cause;
+			} else if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else {
+				throw new IOException(cause);
+			}
+		}
+	}
+
+	private ProverResult proveWithBackend(byte[] witness) throws IOException, TimeoutException,
+			InterruptedException {
+		final ProverBackend backend = acquireBackend();
+		final AtomicBoolean timedOut = new AtomicBoolean();
+		ScheduledFuture<?> timer = null;
+		if (timeoutMillis > 0) {
+			timer = watchdog.schedule(new Runnable() {
+				@Override
+				public void run() {
+					timedOut.set(true);
+					backend.close();
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		boolean healthy = false;
+		try {
+			ProverResult result = backend.prove(witness);
+			healthy = true;
+			return result;
+		} catch (IOException e) {
+			if (timedOut.get()) {
+				throw new TimeoutException("The prover did not respond within " + timeoutMillis + " ms");
+			}
+			throw e;
+		} finally {
+			if (timer != null) {
+				timer.cancel(false);
+			}
+			release(backend, healthy && !timedOut.get() && backend.isAlive());
+		}
+	}
+
+	private ProverBackend acquireBackend() throws IOException, TimeoutException, InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (true) {
+			if (closed) {
+				throw new IllegalStateException("The prover pool has been closed");
+			}
+			synchronized (allBackends) {
+				if (allBackends.isEmpty()) {
+					throw new IOException("The prover pool has no backends left", replacementFailure);
+				}
+			}
+			long wait = POLL_INTERVAL_MILLIS;
+			if (timeoutMillis > 0) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0) {
+					throw new TimeoutException("No prover backend became available within " + timeoutMillis + " ms");
+				}
+				wait = Math.min(wait, remaining);
+			}
+			// the wait is bounded, so that a request does not block forever
+			// once the last backend is lost
+			ProverBackend backend = idleBackends.poll(wait, TimeUnit.MILLISECONDS);
+			if (backend != null) {
+				return backend;
+			}
+		}
+	}
+
+	private void release(ProverBackend backend, boolean healthy) {
+		if (healthy && !closed) {
+			idleBackends.add(backend);
+			return;
+		}
+		backend.close();
+		synchronized (allBackends) {
+			allBackends.remove(backend);
+			if (closed) {
+				return;
+			}
+			IOException failure = null;
+			for (int attempt = 0; attempt < MAX_REPLACEMENT_ATTEMPTS; attempt++) {
+				try {
+					ProverBackend replacement = factory.create();
+					allBackends.add(replacement);
+					idleBackends.add(replacement);
+					return;
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+			// reported to the callers through the requests that find the
+			// pool empty
+			replacementFailure = failure;
+		}
+	}
+
+	public int getNumOfIdleBackends() {
+		return idleBackends.size();
+	}
+
+	public int getNumOfBackends() {
+		synchronized (allBackends) {
+			return allBackends.size();
+		}
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		// queued requests are dropped by shutdownNow(), so their futures have
+		// to be completed here
+		dispatcher.shutdownNow();
+		watchdog.shutdownNow();
+		for (CompletableFuture<ProverResult> future : pendingRequests) {
+			future.completeExceptionally(new IllegalStateException("The prover pool has been closed"));
+		}
+		pendingRequests.clear();
+		synchronized (allBackends) {
+			for (ProverBackend backend : allBackends) {
+				backend.close();
+			}
+			allBackends.clear();
+		}
+	}
+
+	static class DaemonThreadFactory implements ThreadFactory {
+
+		private final String prefix;
+		private final AtomicInteger counter = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.backend;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.Instruction;
+import circuit.operations.WireLabelInstruction;
+import circuit.operations.WireLabelInstruction.LabelType;
+import circuit.structure.CircuitGenerator;
+
+/**
+ * The framing used to talk to a long-lived prover process over its standard
+ * input and output.
+ *
+ * Every message is a frame: a 4-byte big-endian length followed by that many
+ * bytes. A prover process is started once per circuit (it loads the .arith
+ * file and the keys at startup), and then serves requests one at a time:
+ *
+ * Request payload (witness): a 4-byte count n, followed by n entries of the
+ * form [4-byte wire id][1-byte length l][l bytes of the big-endian unsigned
+ * value]. These are the same entries that are written in the .in file.
+ *
+ * Response payload: [1-byte status (0 = success)][4-byte proof length k][k
+ * bytes of proof][the remaining bytes are the log output of the prover
+ * (UTF-8)].
+ *
+ * The process is expected to exit when its standard input is closed.
+ */
+public class ProverProtocol {
+
+	public static final int MAX_FRAME_LENGTH = 1 << 30;
+
+	public static final byte STATUS_OK = 0;
+	public static final byte STATUS_ERROR = 1;
+
+	public static void writeFrame(DataOutputStream out, byte[] payload) throws IOException {
+		out.writeInt(payload.length);
+		out.write(payload);
+		out.flush();
+	}
+
+	/**
+	 * Returns null if the stream was closed before a new frame started.
+	 */
+	public static byte[] readFrame(DataInputStream in) throws IOException {
+		int length;
+		try {
+			length = in.readInt();
+		} catch (EOFException e) {
+			return null;
+		}
+		if (length < 0 || length > MAX_FRAME_LENGTH) {
+			throw new IOException("Invalid frame length: " + length);
+		}
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return payload;
+	}
+
+	/**
+	 * Encodes the input and prover witness values of an evaluated circuit,
+	 * i.e. the content of the .in file in a binary form.
+	 */
+	public static byte[] encodeWitness(CircuitGenerator generator, CircuitEvaluator evaluator) {
+		LinkedHashMap<Integer, BigInteger> values = new LinkedHashMap<Integer, BigInteger>();
+		BigInteger[] assignment = evaluator.getAssignment();
+		for (Instruction e : generator.getEvaluationQueue().keySet()) {
+			if (e instanceof WireLabelInstruction
+					&& (((WireLabelInstruction) e).getType() == LabelType.input || ((WireLabelInstruction) e)
+							.getType() == LabelType.nizkinput)) {
+				int id = ((WireLabelInstruction) e).getWire().getWireId();
+				values.put(id, assignment[id]);
+			}
+		}
+		return encodeWitness(values);
+	}
+
+	public static byte[] encodeWitness(Map<Integer, BigInteger> values) {
+		int size = 4;
+		byte[][] encoded = new byte[values.size()][];
+		int i = 0;
+		for (BigInteger v : values.values()) {
+			encoded[i] = toUnsignedBytes(v);
+			size += 5 + encoded[i].length;
+			i++;
+		}
+		byte[] out = new byte[size];
+		int idx = writeInt(out, 0, values.size());
+		i = 0;
+		for (int id : values.keySet()) {
+			idx = writeInt(out, idx, id);
+			out[idx++] = (byte) encoded[i].length;
+			System.arraycopy(encoded[i], 0, out, idx, encoded[i].length);
+			idx += encoded[i].length;
+			i++;
+		}
+		return out;
+	}
+
+	public static LinkedHashMap<Integer, BigInteger> decodeWitness(byte[] payload) throws IOException {
+		LinkedHashMap<Integer, BigInteger> values = new LinkedHashMap<Integer, BigInteger>();
+		try {
+			int count = readInt(payload, 0);
+			int idx = 4;
+			for (int i = 0; i < count; i++) {
+				int id = readInt(payload, idx);
+				int length = payload[idx + 4] & 0xff;
+				idx += 5;
+				byte[] magnitude = new byte[length];
+				System.arraycopy(payload, idx, magnitude, 0, length);
+				idx += length;
+				values.put(id, new BigInteger(1, magnitude));
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			throw new IOException("Truncated witness payload");
+		}
+		return values;
+	}
+
+	public static byte[] encodeResponse(ProverResult result) {
+		byte[] proof = result.getProof() == null ? new byte[0] : result.getProof();
+		byte[] output = result.getOutput().getBytes(StandardCharsets.UTF_8);
+		byte[] out = new byte[5 + proof.length + output.length];
+		out[0] = result.isSuccessful() ? STATUS_OK : STATUS_ERROR;
+		int idx = writeInt(out, 1, proof.length);
+		System.arraycopy(proof, 0, out, idx, proof.length);
+		System.arraycopy(output, 0, out, idx + proof.length, output.length);
+		return out;
+	}
+
+	public static ProverResult decodeResponse(byte[] payload) throws IOException {
+		if (payload.length < 5) {
+			throw new IOException("Truncated prover response");
+		}
+		int proofLength = readInt(payload, 1);
+		if (proofLength < 0 || 5 + proofLength > payload.length) {
+			throw new IOException("Invalid proof length in prover response: " + proofLength);
+		}
+		byte[] proof = new byte[proofLength];
+		System.arraycopy(payload, 5, proof, 0, proofLength);
+		String output = new String(payload, 5 + proofLength, payload.length - 5 - proofLength,
+				StandardCharsets.UTF_8);
+		return LibsnarkOutputParser.parse(output).createResult(payload[0] == STATUS_OK, proof);
+	}
+
+	private static byte[] toUnsignedBytes(BigInteger v) {
+		if (v.signum() < 0) {
+			throw new IllegalArgumentException("Witness values must be non-negative");
+		}
+		byte[] bytes = v.toByteArray();
+		if (bytes.length > 1 && bytes[0] == 0) {
+			byte[] trimmed = new byte[bytes.length - 1];
+			System.arraycopy(bytes, 1, trimmed, 0, trimmed.length);
+			bytes = trimmed;
+		}
+		if (bytes.length > 255) {
+			throw new IllegalArgumentException("Witness value is too large to be encoded");
+		}
+		return bytes;
+	}
+
+	private static int writeInt(byte[] out, int idx, int v) {
+		out[idx] = (byte) (v >>> 24);
+		out[idx + 1] = (byte) (v >>> 16);
+		out[idx + 2] = (byte) (v >>> 8);
+		out[idx + 3] = (byte) v;
+		return idx + 4;
+	}
+
+	private static int readInt(byte[] in, int idx) {
+		return ((in[idx] & 0xff) << 24) | ((in[idx + 1] & 0xff) << 16) | ((in[idx + 2] & 0xff) << 8)
+				| (in[idx + 3] & 0xff);
+	}
+}
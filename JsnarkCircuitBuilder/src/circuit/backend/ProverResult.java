@@ -0,0 +1,75 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.backend;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a single proof request sent to a prover backend.
+ */
+public class ProverResult {
+
+	private final boolean successful;
+	private final byte[] proof;
+	private final String output;
+	private final Map<String, Double> timings;
+	private final Boolean verificationResult;
+
+	public ProverResult(boolean successful, byte[] proof, String output) {
+		this(successful, proof, output, null, null);
+	}
+
+	public ProverResult(boolean successful, byte[] proof, String output, Map<String, Double> timings,
+			Boolean verificationResult) {
+		this.successful = successful;
+		this.proof = proof;
+		this.output = output == null ? "" : output;
+		this.timings = timings == null ? Collections.<String, Double> emptyMap() : Collections
+				.unmodifiableMap(new LinkedHashMap<String, Double>(timings));
+		this.verificationResult = verificationResult;
+	}
+
+	public boolean isSuccessful() {
+		return successful;
+	}
+
+	/**
+	 * The serialized proof, or null if the backend did not return one.
+	 */
+	public byte[] getProof() {
+		return proof;
+	}
+
+	/**
+	 * The log output printed by the prover for this request.
+	 */
+	public String getOutput() {
+		return output;
+	}
+
+	/**
+	 * The time in seconds of the blocks reported in the log, e.g.
+	 * "r1cs_ppzksnark_prover".
+	 */
+	public Map<String, Double> getTimings() {
+		return timings;
+	}
+
+	/**
+	 * The verification result printed by the prover, or null if it did not
+	 * print one.
+	 */
+	public Boolean getVerificationResult() {
+		return verificationResult;
+	}
+
+	public String toString() {
+		return "ProverResult [" + (successful ? "success" : "failure") + ", proof size = "
+				+ (proof == null ? 0 : proof.length) + " bytes"
+				+ (verificationResult == null ? "" : ", verification = " + (verificationResult ? "PASS" : "FAIL"))
+				+ "]";
+	}
+}
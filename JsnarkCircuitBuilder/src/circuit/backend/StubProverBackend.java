@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.backend;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local backend that does not run libsnark. It decodes the witness it
+ * receives, and returns the SHA-256 digest of the request as a "proof". This
+ * is useful for testing the dispatching logic without the native executable.
+ */
+public class StubProverBackend implements ProverBackend {
+
+	// counts how many backends were created, i.e. how many times a real
+	// backend would have loaded the circuit and the keys
+	private static final AtomicInteger numOfInstances = new AtomicInteger();
+
+	private final long delayMillis;
+	private int numOfRequests;
+	private volatile boolean closed;
+
+	public StubProverBackend() {
+		this(0);
+	}
+
+	/**
+	 * @param delayMillis
+	 *            an artificial proving time for every request
+	 */
+	public StubProverBackend(long delayMillis) {
+		this.delayMillis = delayMillis;
+		numOfInstances.incrementAndGet();
+	}
+
+	public static ProverPool.BackendFactory factory(final long delayMillis) {
+		return new ProverPool.BackendFactory() {
+			@Override
+			public ProverBackend create() {
+				return new StubProverBackend(delayMillis);
+			}
+		};
+	}
+
+	@Override
+	public ProverResult prove(byte[] witness) throws IOException {
+		if (closed) {
+			throw new IOException("The backend has been closed");
+		}
+		int numOfValues = ProverProtocol.decodeWitness(witness).size();
+		if (delayMillis > 0) {
+			long deadline = System.currentTimeMillis() + delayMillis;
+			while (!closed && System.currentTimeMillis() < deadline) {
+				try {
+					Thread.sleep(Math.min(10, delayMillis));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			if (closed) {
+				throw new IOException("The backend was closed while proving");
+			}
+		}
+		numOfRequests++;
+		try {
+			byte[] proof = MessageDigest.getInstance("SHA-256").digest(witness);
+			return new ProverResult(true, proof, "Stub prover: " + numOfValues + " witness values\n");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public int getNumOfRequests() {
+		return numOfRequests;
+	}
+
+	public static int getNumOfInstances() {
+		return numOfInstances.get();
+	}
+
+	@Override
+	public boolean isAlive() {
+		return !closed;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+	}
+
+}
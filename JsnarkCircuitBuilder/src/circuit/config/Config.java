@@ -3,6 +3,7 @@
  *******************************************************************************/
 package circuit.config;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -37,5 +38,49 @@ public class Config {
 	public static boolean outputVerbose = properties.getProperty("OUTPUT_VERBOSE").equals("1");
 	public static boolean debugVerbose = properties.getProperty("DEBUG_VERBOSE").equals("1");
 
+	// the number of threads used to write the .arith file (0: one per core)
+	public static int numOfSerializationThreads = Integer.parseInt(properties.getProperty("SERIALIZATION_THREADS", "0").trim());
+
+	// when enabled, the .arith and .in files are written with gzip compression
+	// (the .gz extension is appended to their names). Files that end with .gz
+	// are always decompressed when read.
+	public static boolean compressOutputFiles = properties.getProperty("COMPRESS_OUTPUT", "0").trim().equals("1");
+	public static int compressionLevel = Integer.parseInt(properties.getProperty("COMPRESSION_LEVEL", "6").trim());
+	public static int numOfCompressionThreads = Integer.parseInt(properties.getProperty("COMPRESSION_THREADS", "1").trim());
+
+	// keeps values below 2^63 in primitive longs during evaluation
+	public static boolean smallValueEvaluation = properties.getProperty("SMALL_VALUE_EVALUATION", "1").trim().equals("1");
+
+	// evaluates circuits using a compiled program (see CircuitProgram)
+	public static boolean compiledEvaluation = properties.getProperty("COMPILED_EVALUATION", "1").trim().equals("1");
+	// checks that the inputs of every operation are assigned, and its outputs
+	// are not. Can be disabled in production for faster evaluation.
+	public static boolean evaluationChecks = properties.getProperty("EVALUATION_CHECKS", "1").trim().equals("1");
+
+	// evaluates circuits using generated Java code compiled at runtime (see
+	// WitnessKernel). The first evaluation of a circuit pays the compilation
+	// cost, so this is meant for circuits that are evaluated many times.
+	public static boolean witnessKernelEvaluation = properties.getProperty("WITNESS_KERNEL_EVALUATION", "0").trim().equals("1");
+
+	// resolves the divisions of prover witness computations together, using
+	// one inversion per batch (see CircuitEvaluator.scheduleDivision())
+	public static boolean batchedInversions = properties.getProperty("BATCHED_INVERSIONS", "1").trim().equals("1");
+
+	// keeps the results of additions and multiplications by constants
+	// unreduced during evaluation, until they are needed (see LazyReduction)
+	public static boolean lazyReduction = properties.getProperty("LAZY_REDUCTION", "1").trim().equals("1");
+
+	// the number of threads that run the witness computations which declare
+	// their inputs and outputs (see WitnessComputation). With more than one
+	// thread, the instructions are evaluated one by one, and the other
+	// computations proceed while the workers are busy.
+	public static int numOfWitnessThreads = Integer.parseInt(properties.getProperty("WITNESS_THREADS", "1").trim());
+
+	// the directory where the preprocessing results of the AES S-box gadgets
+	// are cached across runs (see CoefficientCache), by default under the
+	// temporary directory. An empty value disables the cache.
+	public static String sBoxCacheDirectory = properties.getProperty("SBOX_CACHE_DIR",
+			new File(System.getProperty("java.io.tmpdir"), "jsnark_sbox_cache").getPath()).trim();
+
 	public static boolean printStackTraceAtWarnings = false;
 }
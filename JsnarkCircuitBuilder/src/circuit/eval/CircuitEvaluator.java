@@ -3,21 +3,24 @@
  *******************************************************************************/
 package circuit.eval;
 
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Scanner;
 
+import util.CompressedStreams;
 import util.Util;
 import circuit.auxiliary.LongElement;
 import circuit.config.Config;
 import circuit.operations.WireLabelInstruction;
 import circuit.operations.WireLabelInstruction.LabelType;
+import circuit.operations.primitive.AssertBasicOp;
+import circuit.operations.primitive.BasicOp;
 import circuit.structure.CircuitGenerator;
 import circuit.structure.Wire;
 import circuit.structure.WireArray;
@@ -27,27 +30,371 @@ public class CircuitEvaluator {
 	private CircuitGenerator circuitGenerator;
 	private BigInteger[] valueAssignment;
 
+	// Values that fit in a non-negative long are also kept in smallValues, so
+	// that the basic operations can compute on them without BigIntegers
+	// (see BasicOp.computeSmall()). A wire whose value is only known as a
+	// small value has a null entry in valueAssignment until it is needed.
+	private long[] smallValues;
+	private boolean[] hasSmallValue;
+
+	// Divisions scheduled by scheduleDivision() are resolved together using
+	// one inversion (see resolveInversions()), when one of their results is
+	// first needed. Assertions on pending results are deferred until then.
+	private boolean[] pendingInversion;
+	private ArrayList<Integer> pendingResults = new ArrayList<Integer>();
+	private ArrayList<BigInteger> pendingNumerators = new ArrayList<BigInteger>();
+	private ArrayList<BigInteger> pendingDenominators = new ArrayList<BigInteger>();
+	private ArrayList<Instruction> deferredInstructions = new ArrayList<Instruction>();
+
+	// notified before a wire is assigned (see IncrementalEvaluator)
+	interface WriteListener {
+		void beforeWrite(int wireId);
+	}
+
+	private WriteListener writeListener;
+
+	// the wires freeList[freeStart[i] .. freeStart[i+1]) are freed after the
+	// i-th instruction of the evaluation queue (see freeValuesAfterLastUse())
+	private int[] freeStart;
+	private int[] freeList;
+	private BitSet freed;
+
+	// replaces valueAssignment when set (see the second constructor)
+	private MappedAssignment mappedAssignment;
+
 	public CircuitEvaluator(CircuitGenerator circuitGenerator) {
 		this.circuitGenerator = circuitGenerator;
 		valueAssignment = new BigInteger[circuitGenerator.getNumWires()];
-		valueAssignment[circuitGenerator.getOneWire().getWireId()] = BigInteger.ONE;
+		if (Config.smallValueEvaluation) {
+			smallValues = new long[valueAssignment.length];
+			hasSmallValue = new boolean[valueAssignment.length];
+		}
+		storeValue(circuitGenerator.getOneWire().getWireId(), BigInteger.ONE);
+	}
+
+	/**
+	 * An evaluator that stores the values of the wires in a memory-mapped
+	 * assignment instead of a BigInteger per wire, for witnesses that do not
+	 * fit in the heap. The file of the assignment is then the binary full
+	 * witness (see MappedAssignment). getWireValue() and setWireValue() read
+	 * and write through it, and evaluate() computes the basic operations on
+	 * FieldLimbs without creating BigIntegers, so the assignment does not add
+	 * any per-wire object to the heap.
+	 * 
+	 * In this mode, unassigned wires read as zero, so the checks for
+	 * unassigned inputs and reassigned outputs are not done, and
+	 * getAssignment() is not available. The basic operations of unknown
+	 * subclasses (see CircuitProgram) cannot be evaluated. The caller closes
+	 * the assignment.
+	 */
+	public CircuitEvaluator(CircuitGenerator circuitGenerator, MappedAssignment mappedAssignment) {
+		if (!FieldLimbs.isSupported()) {
+			throw new IllegalArgumentException("The field prime is not supported by FieldLimbs");
+		}
+		if (mappedAssignment.getNumOfWires() < circuitGenerator.getNumWires()) {
+			throw new IllegalArgumentException("The assignment has " + mappedAssignment.getNumOfWires()
+					+ " wires, and the circuit has " + circuitGenerator.getNumWires());
+		}
+		this.circuitGenerator = circuitGenerator;
+		this.mappedAssignment = mappedAssignment;
+		storeValue(circuitGenerator.getOneWire().getWireId(), BigInteger.ONE);
+	}
+
+	public MappedAssignment getMappedAssignment() {
+		return mappedAssignment;
 	}
 
 	public void setWireValue(Wire w, BigInteger v) {
 		if(v.signum() < 0 || v.compareTo(Config.FIELD_PRIME) >=0){
 			throw new IllegalArgumentException("Only positive values that are less than the modulus are allowed for this method.");
 		}
-		valueAssignment[w.getWireId()] = v;
+		storeValue(w.getWireId(), v);
+	}
+
+	private void storeValue(int id, BigInteger v) {
+		if (writeListener != null) {
+			writeListener.beforeWrite(id);
+		}
+		assignValue(id, v);
+	}
+
+	// does not notify the write listener
+	private void assignValue(int id, BigInteger v) {
+		if (mappedAssignment != null) {
+			mappedAssignment.set(id, LazyReduction.reduce(v));
+			return;
+		}
+		valueAssignment[id] = v;
+		if (hasSmallValue != null) {
+			hasSmallValue[id] = v != null && v.signum() >= 0 && v.bitLength() < 64;
+			if (hasSmallValue[id]) {
+				smallValues[id] = v.longValue();
+			}
+		}
+	}
+
+	BigInteger value(int id) {
+		if (mappedAssignment != null) {
+			return mappedAssignment.get(id);
+		}
+		BigInteger v = valueAssignment[id];
+		if (v == null) {
+			if (hasSmallValue != null && hasSmallValue[id]) {
+				v = BigInteger.valueOf(smallValues[id]);
+				valueAssignment[id] = v;
+			} else if (isPendingInversion(id)) {
+				resolveInversions();
+				v = value(id);
+			}
+		}
+		return v;
+	}
+
+	// used by the generated code of WitnessKernel
+	BigInteger[] getValueArray() {
+		return valueAssignment;
+	}
+
+	long[] getSmallValueArray() {
+		return smallValues;
+	}
+
+	boolean[] getHasSmallValueArray() {
+		return hasSmallValue;
+	}
+
+	public boolean isSmallValueEvaluationEnabled() {
+		return hasSmallValue != null;
+	}
+
+	/**
+	 * Returns true if the wire has a value that is available as a
+	 * non-negative long.
+	 */
+	public boolean hasSmallValue(int wireId) {
+		return hasSmallValue != null && hasSmallValue[wireId];
+	}
+
+	public long getSmallValue(int wireId) {
+		return smallValues[wireId];
+	}
+
+	/**
+	 * Assigns a value in [0, 2^63). The BigInteger form is only created if
+	 * another instruction needs it.
+	 */
+	public void setSmallValue(int wireId, long v) {
+		if (writeListener != null) {
+			writeListener.beforeWrite(wireId);
+		}
+		smallValues[wireId] = v;
+		hasSmallValue[wireId] = true;
+	}
+
+	CircuitGenerator getCircuitGenerator() {
+		return circuitGenerator;
+	}
+
+	void setWriteListener(WriteListener writeListener) {
+		this.writeListener = writeListener;
+	}
+
+	/**
+	 * The current value of the wire, without resolving pending inversions.
+	 */
+	BigInteger currentValue(int id) {
+		if (mappedAssignment != null) {
+			return mappedAssignment.get(id);
+		}
+		BigInteger v = valueAssignment[id];
+		if (v == null && hasSmallValue(id)) {
+			v = BigInteger.valueOf(smallValues[id]);
+		}
+		return v;
+	}
+
+	/**
+	 * Unassigns a wire, so that the instruction that computes it can be
+	 * evaluated again.
+	 */
+	void clearValue(int id) {
+		valueAssignment[id] = null;
+		if (hasSmallValue != null) {
+			hasSmallValue[id] = false;
+		}
+	}
+
+	// the value of the wire in [0, FIELD_PRIME), see LazyReduction
+	private BigInteger reducedValue(int id) {
+		BigInteger v = value(id);
+		if (v != null && (v.bitLength() >= Config.LOG2_FIELD_PRIME || v.signum() < 0)) {
+			// the same field element in another form, so this is not a write
+			v = LazyReduction.reduce(v);
+			assignValue(id, v);
+		}
+		return v;
+	}
+
+	/**
+	 * Returns true if the wire has a value, or will get one when the pending
+	 * inversions are resolved.
+	 */
+	public boolean isAssigned(int wireId) {
+		if (mappedAssignment != null) {
+			// unassigned wires read as zero
+			return true;
+		}
+		return valueAssignment[wireId] != null || hasSmallValue(wireId) || isPendingInversion(wireId);
+	}
+
+	/**
+	 * Assigns c = a / b (or c = 1 / b when a is null) in the field. When
+	 * Config.batchedInversions is enabled, the inversion is delayed, so that
+	 * the independent divisions that come before the first use of their
+	 * results are computed together with Montgomery's trick: one modular
+	 * inversion and 3(n-1) multiplications for n divisions.
+	 * 
+	 * As in BigInteger.modInverse(), an ArithmeticException is thrown if b is
+	 * zero.
+	 */
+	public void scheduleDivision(Wire a, Wire b, Wire c) {
+		BigInteger numerator = a == null ? null : getWireValue(a);
+		BigInteger denominator = getWireValue(b);
+		if (!Config.batchedInversions || WitnessScheduler.isWorkerThread() || freeStart != null
+				|| mappedAssignment != null) {
+			BigInteger inverse = denominator.modInverse(Config.FIELD_PRIME);
+			setWireValue(c, numerator == null ? inverse : numerator.multiply(inverse).mod(Config.FIELD_PRIME));
+			return;
+		}
+		if (pendingInversion == null) {
+			pendingInversion = new boolean[valueAssignment.length];
+		}
+		pendingInversion[c.getWireId()] = true;
+		pendingResults.add(c.getWireId());
+		pendingNumerators.add(numerator);
+		pendingDenominators.add(denominator);
+	}
+
+	public boolean hasPendingInversions() {
+		return !pendingResults.isEmpty();
+	}
+
+	public boolean isPendingInversion(int wireId) {
+		return pendingInversion != null && pendingInversion[wireId];
+	}
+
+	/**
+	 * If one of the wires is the result of a pending division, the instruction
+	 * is evaluated after the inversions are resolved, and true is returned.
+	 * This is used by assertions, which do not need to be checked right away.
+	 */
+	public boolean deferIfPending(Instruction e, Wire[]... wires) {
+		if (pendingResults.isEmpty()) {
+			return false;
+		}
+		for (Wire[] array : wires) {
+			for (Wire w : array) {
+				if (pendingInversion[w.getWireId()]) {
+					deferredInstructions.add(e);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	boolean deferIfPending(Instruction e, int a, int b, int c) {
+		if (pendingInversion[a] || pendingInversion[b] || pendingInversion[c]) {
+			deferredInstructions.add(e);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Computes the results of all the pending divisions, and then evaluates
+	 * the instructions that were deferred until then.
+	 */
+	public void resolveInversions() {
+		int n = pendingResults.size();
+		if (n > 0) {
+			BigInteger prime = Config.FIELD_PRIME;
+			BigInteger[] prefixProducts = new BigInteger[n];
+			BigInteger product = BigInteger.ONE;
+			for (int i = 0; i < n; i++) {
+				product = product.multiply(pendingDenominators.get(i)).mod(prime);
+				prefixProducts[i] = product;
+			}
+			// throws an ArithmeticException if one of the denominators is zero
+			BigInteger inverse = product.modInverse(prime);
+			for (int i = n - 1; i >= 0; i--) {
+				// inverse is the inverse of the product of the first i + 1
+				// denominators
+				BigInteger result = i > 0 ? inverse.multiply(prefixProducts[i - 1]).mod(prime) : inverse;
+				inverse = inverse.multiply(pendingDenominators.get(i)).mod(prime);
+				BigInteger numerator = pendingNumerators.get(i);
+				if (numerator != null) {
+					result = numerator.multiply(result).mod(prime);
+				}
+				int id = pendingResults.get(i);
+				pendingInversion[id] = false;
+				storeValue(id, result);
+			}
+			pendingResults.clear();
+			pendingNumerators.clear();
+			pendingDenominators.clear();
+		}
+		while (!deferredInstructions.isEmpty()) {
+			ArrayList<Instruction> instructions = deferredInstructions;
+			deferredInstructions = new ArrayList<Instruction>();
+			for (Instruction e : instructions) {
+				e.evaluate(this);
+			}
+		}
+	}
+
+	/**
+	 * Returns the assignment array, after making sure that the given wires
+	 * have their BigInteger values set (if they are assigned). Unlike
+	 * getAssignment(), the other wires are not converted, and the pending
+	 * inversions are only resolved if one of the given wires needs them.
+	 * The values of the given wires may also be unreduced (see LazyReduction).
+	 */
+	public BigInteger[] getAssignment(Wire[]... wires) {
+		checkNotMapped();
+		if (hasSmallValue != null || !pendingResults.isEmpty()) {
+			for (Wire[] array : wires) {
+				for (Wire w : array) {
+					value(w.getWireId());
+				}
+			}
+		}
+		return valueAssignment;
+	}
+
+	/**
+	 * Records the small values of wires that were just assigned using the
+	 * BigInteger array.
+	 */
+	public void updateSmallValues(Wire[] wires) {
+		if (hasSmallValue != null) {
+			for (Wire w : wires) {
+				int id = w.getWireId();
+				if (!hasSmallValue[id]) {
+					storeValue(id, valueAssignment[id]);
+				}
+			}
+		}
 	}
 
 	public BigInteger getWireValue(Wire w) {
-		BigInteger v = valueAssignment[w.getWireId()];
+		BigInteger v = reducedValue(w.getWireId());
 		if (v == null) {
 			WireArray bits = w.getBitWiresIfExistAlready();
 			if (bits != null) {
 				BigInteger sum = BigInteger.ZERO;
 				for (int i = 0; i < bits.size(); i++) {
-					sum = sum.add(valueAssignment[bits.get(i).getWireId()]
+					sum = sum.add(reducedValue(bits.get(i).getWireId())
 							.shiftLeft(i));
 				}
 				v = sum;
@@ -65,6 +412,11 @@ public class CircuitEvaluator {
 	}
 
 	public BigInteger getWireValue(LongElement e, int bitwidthPerChunk) {
+		// makes sure that the chunks are reduced
+		BigInteger[] chunks = getWiresValues(e.getArray());
+		if (mappedAssignment != null) {
+			return Util.group(chunks, bitwidthPerChunk);
+		}
 		return Util.combine(valueAssignment, e.getArray(), bitwidthPerChunk);
 	}
 
@@ -78,7 +430,12 @@ public class CircuitEvaluator {
 		if(v < 0){
 			throw new IllegalArgumentException("Only positive values that are less than the modulus are allowed for this method.");
 		}
-		setWireValue(wire, BigInteger.valueOf(v));
+		if (hasSmallValue != null) {
+			valueAssignment[wire.getWireId()] = null;
+			setSmallValue(wire.getWireId(), v);
+		} else {
+			setWireValue(wire, BigInteger.valueOf(v));
+		}
 	}
 
 	public void setWireValue(Wire[] wires, BigInteger[] v) {
@@ -94,16 +451,39 @@ public class CircuitEvaluator {
 
 		System.out.println("Running Circuit Evaluator for < "
 				+ circuitGenerator.getName() + " >");
-		LinkedHashMap<Instruction, Instruction> evalSequence = circuitGenerator
-				.getEvaluationQueue();
+		// only the sequential and the compiled evaluation free values
+		boolean freeing = freeStart != null;
+		boolean mapped = mappedAssignment != null;
+		WitnessKernel kernel = null;
+		if (Config.witnessKernelEvaluation && Config.numOfWitnessThreads <= 1 && !freeing && !mapped) {
+			kernel = circuitGenerator.getWitnessKernel();
+		}
+		if (Config.numOfWitnessThreads > 1 && !freeing && !mapped) {
+			new WitnessScheduler(this, Config.numOfWitnessThreads).run(circuitGenerator.getEvaluationQueue().keySet());
+		} else if (kernel != null) {
+			kernel.run(this);
+		} else if (mapped) {
+			runMapped(circuitGenerator.getCircuitProgram());
+		} else if (Config.compiledEvaluation) {
+			run(circuitGenerator.getCircuitProgram());
+		} else {
+			LinkedHashMap<Instruction, Instruction> evalSequence = circuitGenerator
+					.getEvaluationQueue();
 
-		for (Instruction e : evalSequence.keySet()) {
-			e.evaluate(this);
-			e.emit(this);
+			int idx = 0;
+			for (Instruction e : evalSequence.keySet()) {
+				e.evaluate(this);
+				e.emit(this);
+				if (freeing) {
+					freeDeadValues(idx);
+				}
+				idx++;
+			}
 		}
+		resolveInversions();
 		// check that each wire has been assigned a value
-		for (int i = 0; i < valueAssignment.length; i++) {
-			if (valueAssignment[i] == null) {
+		for (int i = 0; i < circuitGenerator.getNumWires(); i++) {
+			if (!isAssigned(i) && !isFreed(i)) {
 				throw new RuntimeException("Wire#" + i + "is without value");
 			}
 		}
@@ -112,26 +492,509 @@ public class CircuitEvaluator {
 
 	}
 
+	/**
+	 * Runs a compiled program of the circuit. This has the same effect as
+	 * evaluating the instructions of the queue one by one. When
+	 * Config.evaluationChecks is disabled, the checks for unassigned inputs and
+	 * reassigned outputs are skipped.
+	 */
+	public void run(CircuitProgram program) {
+		final int[] code = program.code;
+		final Instruction[] instructions = program.instructions;
+		final BigInteger prime = Config.FIELD_PRIME;
+		final boolean checks = Config.evaluationChecks;
+		final boolean small = hasSmallValue != null;
+		final boolean lazy = Config.lazyReduction;
+
+		int pc = 0;
+		while (pc < code.length) {
+			int opcode = code[pc];
+			if (opcode == CircuitProgram.EXTERNAL) {
+				Instruction e = instructions[code[pc + 1]];
+				e.evaluate(this);
+				e.emit(this);
+				if (freeStart != null) {
+					freeDeadValues(code[pc + 1]);
+				}
+				pc += 2;
+				continue;
+			}
+			int numOfInputs = code[pc + 2];
+			int in = pc + 3;
+			int numOfOutputs = code[in + numOfInputs];
+			int out = in + numOfInputs + 1;
+			int next = out + numOfOutputs;
+			if (opcode == CircuitProgram.CONST_MUL) {
+				next++;
+			}
+			if (checks && !passesChecks(code, in, numOfInputs, out, numOfOutputs, opcode)) {
+				// evaluating the instruction itself reports the error
+				instructions[code[pc + 1]].evaluate(this);
+			}
+			boolean allSmall = small && allSmall(code, in, numOfInputs);
+
+			switch (opcode) {
+			case CircuitProgram.ADD: {
+				if (allSmall) {
+					long sum = 0;
+					for (int i = 0; i < numOfInputs && sum >= 0; i++) {
+						sum += smallValues[code[in + i]];
+					}
+					if (sum >= 0) {
+						setSmallValue(code[out], sum);
+						break;
+					}
+				}
+				BigInteger sum = BigInteger.ZERO;
+				for (int i = 0; i < numOfInputs; i++) {
+					sum = sum.add(value(code[in + i]));
+				}
+				storeValue(code[out], lazy ? LazyReduction.reduceIfLarge(sum) : LazyReduction.mod(sum));
+				break;
+			}
+			case CircuitProgram.MUL: {
+				if (allSmall) {
+					long a = smallValues[code[in]];
+					long b = smallValues[code[in + 1]];
+					if (a == 0 || Long.numberOfLeadingZeros(a) + Long.numberOfLeadingZeros(b) >= 65) {
+						setSmallValue(code[out], a * b);
+						break;
+					}
+				}
+				BigInteger result = value(code[in]).multiply(value(code[in + 1]));
+				if (result.compareTo(prime) > 0) {
+					result = LazyReduction.mod(result);
+				}
+				storeValue(code[out], result);
+				break;
+			}
+			case CircuitProgram.CONST_MUL: {
+				int constIndex = code[next - 1];
+				long c = program.smallConstants[constIndex];
+				if (allSmall && c >= 0) {
+					long a = smallValues[code[in]];
+					if (a == 0 || Long.numberOfLeadingZeros(a) + Long.numberOfLeadingZeros(c) >= 65) {
+						setSmallValue(code[out], a * c);
+						break;
+					}
+				}
+				BigInteger result = value(code[in]).multiply(program.constants[constIndex]);
+				if (lazy) {
+					result = LazyReduction.reduceIfLarge(result);
+				} else if (result.bitLength() >= Config.LOG2_FIELD_PRIME) {
+					result = LazyReduction.mod(result);
+				}
+				storeValue(code[out], result);
+				break;
+			}
+			case CircuitProgram.XOR:
+				if (allSmall) {
+					setSmallValue(code[out], smallValues[code[in]] ^ smallValues[code[in + 1]]);
+				} else {
+					storeValue(code[out], LazyReduction.reduce(value(code[in])).xor(
+							LazyReduction.reduce(value(code[in + 1]))));
+				}
+				break;
+			case CircuitProgram.OR:
+				if (allSmall) {
+					setSmallValue(code[out], smallValues[code[in]] | smallValues[code[in + 1]]);
+				} else {
+					storeValue(code[out], LazyReduction.reduce(value(code[in])).or(
+							LazyReduction.reduce(value(code[in + 1]))));
+				}
+				break;
+			case CircuitProgram.SPLIT:
+				if (allSmall) {
+					long inVal = smallValues[code[in]];
+					for (int i = 0; i < numOfOutputs; i++) {
+						setSmallValue(code[out + i], i < 64 ? (inVal >>> i) & 1 : 0);
+					}
+				} else {
+					BigInteger inVal = LazyReduction.reduce(value(code[in]));
+					for (int i = 0; i < numOfOutputs; i++) {
+						storeValue(code[out + i], inVal.testBit(i) ? BigInteger.ONE : BigInteger.ZERO);
+					}
+				}
+				break;
+			case CircuitProgram.PACK: {
+				if (allSmall && numOfInputs < 64) {
+					long sum = 0;
+					int i = 0;
+					for (; i < numOfInputs; i++) {
+						long v = smallValues[code[in + i]];
+						if (v != 0) {
+							if (i >= 63 || Long.numberOfLeadingZeros(v) <= i) {
+								break;
+							}
+							sum += v << i;
+							if (sum < 0) {
+								break;
+							}
+						}
+					}
+					if (i == numOfInputs) {
+						setSmallValue(code[out], sum);
+						break;
+					}
+				}
+				BigInteger sum = BigInteger.ZERO;
+				for (int i = 0; i < numOfInputs; i++) {
+					sum = sum.add(value(code[in + i]).shiftLeft(i));
+				}
+				storeValue(code[out], LazyReduction.mod(sum));
+				break;
+			}
+			case CircuitProgram.ZEROP:
+				if (allSmall) {
+					setSmallValue(code[out + 1], smallValues[code[in]] == 0 ? 0 : 1);
+					setSmallValue(code[out], 0);
+				} else {
+					storeValue(code[out + 1], LazyReduction.reduce(value(code[in])).signum() == 0 ? BigInteger.ZERO
+							: BigInteger.ONE);
+					storeValue(code[out], BigInteger.ZERO);
+				}
+				break;
+			case CircuitProgram.ASSERT: {
+				int outId = code[out];
+				if (!pendingResults.isEmpty()
+						&& deferIfPending(instructions[code[pc + 1]], code[in], code[in + 1], outId)) {
+					break;
+				}
+				if (allSmall && hasSmallValue[outId]) {
+					long a = smallValues[code[in]];
+					long b = smallValues[code[in + 1]];
+					if ((a == 0 || Long.numberOfLeadingZeros(a) + Long.numberOfLeadingZeros(b) >= 65)
+							&& a * b == smallValues[outId]) {
+						break;
+					}
+				}
+				BigInteger leftSide = LazyReduction.mod(value(code[in]).multiply(value(code[in + 1])));
+				if (!leftSide.equals(LazyReduction.reduce(value(outId)))) {
+					// reports the failed assertion
+					instructions[code[pc + 1]].evaluate(this);
+				}
+				break;
+			}
+			default:
+				throw new RuntimeException("Unknown opcode in the compiled program: " + opcode);
+			}
+			if (freeStart != null) {
+				freeDeadValues(code[pc + 1]);
+			}
+			pc = next;
+		}
+		resolveInversions();
+	}
+
+	/**
+	 * Frees the value of every wire after the last instruction that reads it,
+	 * so that evaluate() only keeps the values that can still be used. This is
+	 * for circuits whose values do not all fit in memory.
+	 * 
+	 * The wires read and written by an instruction are known for the basic
+	 * operations, the wire labels and the WitnessComputation instances. The
+	 * values of the labeled wires (inputs, prover witnesses and outputs), of
+	 * the given wires, and of the wires assigned by other instructions (e.g.
+	 * anonymous prover witness computations) are kept. Since those other
+	 * instructions may read any wire, a value assigned before the last of them
+	 * is not freed until it has run.
+	 * 
+	 * Freed wires are unassigned after the evaluation, so the evaluator does
+	 * not hold the full witness (see StreamingCircuitEvaluator for writing it
+	 * to a file), and cannot be used by IncrementalEvaluator. Values are only
+	 * freed by the sequential and the compiled evaluation: the witness kernel
+	 * and the witness threads are not used, and the divisions are not
+	 * batched. The BigInteger[] array itself still has one entry per wire.
+	 * 
+	 * Must be called after the circuit is generated and before evaluate().
+	 */
+	public void freeValuesAfterLastUse(Wire... keptWires) {
+		checkNotMapped();
+		Instruction[] instructions = circuitGenerator.getEvaluationQueue().keySet().toArray(new Instruction[0]);
+		int numOfWires = valueAssignment.length;
+		// the declared writer and the last declared reader of every wire
+		int[] writer = new int[numOfWires];
+		int[] lastReader = new int[numOfWires];
+		Arrays.fill(writer, -1);
+		Arrays.fill(lastReader, -1);
+		BitSet kept = new BitSet(numOfWires);
+		for (Wire w : keptWires) {
+			kept.set(w.getWireId());
+		}
+		int lastUndeclared = -1;
+		for (int i = 0; i < instructions.length; i++) {
+			Instruction e = instructions[i];
+			Wire[] reads;
+			Wire[] writes;
+			if (e instanceof AssertBasicOp) {
+				// the output of an assertion is one of the checked values
+				reads = Util.concat(((BasicOp) e).getInputs(), ((BasicOp) e).getOutputs());
+				writes = new Wire[0];
+			} else if (e instanceof BasicOp) {
+				reads = ((BasicOp) e).getInputs();
+				writes = ((BasicOp) e).getOutputs();
+			} else if (e instanceof WitnessComputation) {
+				reads = ((WitnessComputation) e).getInputs();
+				writes = ((WitnessComputation) e).getOutputs();
+			} else if (e instanceof WireLabelInstruction) {
+				kept.set(((WireLabelInstruction) e).getWire().getWireId());
+				continue;
+			} else {
+				lastUndeclared = i;
+				continue;
+			}
+			for (Wire w : reads) {
+				lastReader[w.getWireId()] = i;
+			}
+			for (Wire w : writes) {
+				writer[w.getWireId()] = i;
+			}
+		}
+
+		// lastReader[w] becomes the instruction after which w is freed, or -1
+		// if w is kept
+		int[] numOfFreed = new int[instructions.length + 1];
+		for (int w = 0; w < numOfWires; w++) {
+			if (writer[w] < 0 || kept.get(w)) {
+				lastReader[w] = -1;
+				continue;
+			}
+			int last = Math.max(writer[w], lastReader[w]);
+			if (lastUndeclared > writer[w]) {
+				last = Math.max(last, lastUndeclared);
+			}
+			lastReader[w] = last;
+			numOfFreed[last + 1]++;
+		}
+		for (int i = 0; i < instructions.length; i++) {
+			numOfFreed[i + 1] += numOfFreed[i];
+		}
+		freeList = new int[numOfFreed[instructions.length]];
+		int[] next = Arrays.copyOf(numOfFreed, instructions.length);
+		for (int w = 0; w < numOfWires; w++) {
+			if (lastReader[w] >= 0) {
+				freeList[next[lastReader[w]]++] = w;
+			}
+		}
+		freeStart = numOfFreed;
+		freed = new BitSet(numOfWires);
+	}
+
+	/**
+	 * Runs a compiled program on the mapped assignment. The basic operations
+	 * are computed on FieldLimbs, and the other instructions use
+	 * getWireValue() and setWireValue() as usual.
+	 */
+	private void runMapped(CircuitProgram program) {
+		final int[] code = program.code;
+		final Instruction[] instructions = program.instructions;
+		final MappedAssignment values = mappedAssignment;
+		// the Montgomery forms of the constants, computed when first used
+		final long[][] constants = new long[program.constants.length][];
+		final long[] a = new long[FieldLimbs.NUM_OF_LIMBS];
+		final long[] b = new long[FieldLimbs.NUM_OF_LIMBS];
+		final long[] r = new long[FieldLimbs.NUM_OF_LIMBS];
+
+		int pc = 0;
+		while (pc < code.length) {
+			int opcode = code[pc];
+			if (opcode == CircuitProgram.EXTERNAL) {
+				Instruction e = instructions[code[pc + 1]];
+				e.evaluate(this);
+				e.emit(this);
+				pc += 2;
+				continue;
+			}
+			int numOfInputs = code[pc + 2];
+			int in = pc + 3;
+			int numOfOutputs = code[in + numOfInputs];
+			int out = in + numOfInputs + 1;
+			int next = out + numOfOutputs;
+			if (opcode == CircuitProgram.CONST_MUL) {
+				next++;
+			}
+			values.getLimbs(code[in], a);
+
+			switch (opcode) {
+			case CircuitProgram.ADD:
+				for (int i = 1; i < numOfInputs; i++) {
+					values.getLimbs(code[in + i], b);
+					FieldLimbs.add(a, b, a);
+				}
+				values.setLimbs(code[out], a);
+				break;
+			case CircuitProgram.MUL:
+				values.getLimbs(code[in + 1], b);
+				FieldLimbs.mul(a, b, r);
+				values.setLimbs(code[out], r);
+				break;
+			case CircuitProgram.CONST_MUL: {
+				int constIndex = code[next - 1];
+				if (constants[constIndex] == null) {
+					constants[constIndex] = FieldLimbs.toMontgomery(program.constants[constIndex]
+							.mod(Config.FIELD_PRIME));
+				}
+				FieldLimbs.montgomeryMul(a, constants[constIndex], r);
+				values.setLimbs(code[out], r);
+				break;
+			}
+			case CircuitProgram.XOR:
+			case CircuitProgram.OR:
+				values.getLimbs(code[in + 1], b);
+				for (int i = 0; i < FieldLimbs.NUM_OF_LIMBS; i++) {
+					r[i] = opcode == CircuitProgram.XOR ? a[i] ^ b[i] : a[i] | b[i];
+				}
+				values.setLimbs(code[out], r);
+				break;
+			case CircuitProgram.SPLIT:
+				if (FieldLimbs.bitLength(a) > numOfOutputs) {
+					System.err.println("Error in Split --- The number of bits does not fit -- Input: "
+							+ FieldLimbs.toBigInteger(a).toString(16) + "\n\t" + instructions[code[pc + 1]]);
+					throw new RuntimeException("Error During Evaluation -- " + instructions[code[pc + 1]]);
+				}
+				Arrays.fill(r, 0);
+				for (int i = 0; i < numOfOutputs; i++) {
+					r[0] = FieldLimbs.testBit(a, i) ? 1 : 0;
+					values.setLimbs(code[out + i], r);
+				}
+				break;
+			case CircuitProgram.PACK:
+				Arrays.fill(r, 0);
+				for (int i = numOfInputs - 1; i >= 0; i--) {
+					values.getLimbs(code[in + i], b);
+					FieldLimbs.add(r, r, r);
+					FieldLimbs.add(r, b, r);
+				}
+				values.setLimbs(code[out], r);
+				break;
+			case CircuitProgram.ZEROP: {
+				boolean isZero = FieldLimbs.isZero(a);
+				Arrays.fill(r, 0);
+				values.setLimbs(code[out], r);
+				r[0] = isZero ? 0 : 1;
+				values.setLimbs(code[out + 1], r);
+				break;
+			}
+			case CircuitProgram.ASSERT:
+				values.getLimbs(code[in + 1], b);
+				FieldLimbs.mul(a, b, r);
+				values.getLimbs(code[out], b);
+				if (!Arrays.equals(r, b)) {
+					System.err.println("Error - Assertion Failed " + instructions[code[pc + 1]]);
+					throw new RuntimeException("Error During Evaluation");
+				}
+				break;
+			default:
+				throw new RuntimeException("Unknown opcode in the compiled program: " + opcode);
+			}
+			pc = next;
+		}
+	}
+
+	private void checkNotMapped() {
+		if (mappedAssignment != null) {
+			throw new IllegalStateException("The values are stored in a mapped assignment");
+		}
+	}
+
+	private void freeDeadValues(int instructionIndex) {
+		for (int k = freeStart[instructionIndex]; k < freeStart[instructionIndex + 1]; k++) {
+			clearValue(freeList[k]);
+			freed.set(freeList[k]);
+		}
+	}
+
+	boolean freesValues() {
+		return freeStart != null;
+	}
+
+	/**
+	 * Returns true if the value of the wire was freed after its last use (see
+	 * freeValuesAfterLastUse()).
+	 */
+	public boolean isFreed(int wireId) {
+		return freed != null && freed.get(wireId);
+	}
+
+	private boolean allSmall(int[] code, int from, int n) {
+		for (int i = from; i < from + n; i++) {
+			if (!hasSmallValue[code[i]]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean passesChecks(int[] code, int in, int numOfInputs, int out, int numOfOutputs, int opcode) {
+		for (int i = in; i < in + numOfInputs; i++) {
+			if (!isAssigned(code[i])) {
+				return false;
+			}
+		}
+		if (opcode == CircuitProgram.ASSERT) {
+			return isAssigned(code[out]);
+		}
+		for (int i = out; i < out + numOfOutputs; i++) {
+			if (isAssigned(code[i])) {
+				return false;
+			}
+		}
+		if (opcode == CircuitProgram.XOR || opcode == CircuitProgram.OR || opcode == CircuitProgram.PACK) {
+			for (int i = in; i < in + numOfInputs; i++) {
+				if (!isBinary(code[i])) {
+					return false;
+				}
+			}
+		} else if (opcode == CircuitProgram.SPLIT) {
+			return fitsInBits(code[in], numOfOutputs);
+		}
+		return true;
+	}
+
+	// the input conditions of xor, or, pack and split
+	boolean isBinary(int id) {
+		if (hasSmallValue(id)) {
+			return smallValues[id] <= 1;
+		}
+		return Util.isBinary(LazyReduction.reduce(value(id)));
+	}
+
+	boolean fitsInBits(int id, int numOfBits) {
+		if (hasSmallValue(id)) {
+			return numOfBits >= 64 || (smallValues[id] >>> numOfBits) == 0;
+		}
+		return LazyReduction.reduce(value(id)).bitLength() <= numOfBits;
+	}
+
 	public void writeInputFile() {
+		writeInputFile(CompressedStreams.outputFileName(circuitGenerator.getName() + ".in"));
+	}
+
+	public void writeInputFile(String fileName) {
+		PrintWriter printWriter = null;
 		try {
 			LinkedHashMap<Instruction, Instruction> evalSequence = circuitGenerator
 					.getEvaluationQueue();
 
-			PrintWriter printWriter = new PrintWriter(
-					circuitGenerator.getName() + ".in");
+			printWriter = new PrintWriter(new OutputStreamWriter(
+					CompressedStreams.openOutput(fileName)));
 			for (Instruction e : evalSequence.keySet()) {
 				if (e instanceof WireLabelInstruction
 						&& (((WireLabelInstruction) e).getType() == LabelType.input || ((WireLabelInstruction) e)
 								.getType() == LabelType.nizkinput)) {
 					int id = ((WireLabelInstruction) e).getWire().getWireId();
 					printWriter.println(id + " "
-							+ valueAssignment[id].toString(16));
+							+ reducedValue(id).toString(16));
 				}
 			}
-			printWriter.close();
 
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			// also stops the compression threads of a .gz file
+			if (printWriter != null) {
+				printWriter.close();
+			}
 		}
 	}
 
@@ -146,9 +1009,10 @@ public class CircuitEvaluator {
 	public static void eval(String circuitFilePath, String inFilePath)
 			throws Exception {
 
-		Scanner circuitScanner = new Scanner(new BufferedInputStream(
-				new FileInputStream(circuitFilePath)));
-		Scanner inFileScanner = new Scanner(new File(inFilePath));
+		Scanner circuitScanner = new Scanner(
+				CompressedStreams.openInput(circuitFilePath));
+		Scanner inFileScanner = new Scanner(
+				CompressedStreams.openInput(inFilePath));
 
 		int totalWires = Integer.parseInt(circuitScanner.nextLine().replace(
 				"total ", ""));
@@ -318,6 +1182,19 @@ public class CircuitEvaluator {
 	}
 
 	public BigInteger[] getAssignment() {
+		checkNotMapped();
+		resolveInversions();
+		if (hasSmallValue != null) {
+			for (int i = 0; i < valueAssignment.length; i++) {
+				value(i);
+			}
+		}
+		for (int i = 0; i < valueAssignment.length; i++) {
+			BigInteger v = valueAssignment[i];
+			if (v != null && v.bitLength() >= Config.LOG2_FIELD_PRIME) {
+				valueAssignment[i] = LazyReduction.reduce(v);
+			}
+		}
 		return valueAssignment;
 	}
 
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.eval;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import circuit.operations.primitive.AddBasicOp;
+import circuit.operations.primitive.AssertBasicOp;
+import circuit.operations.primitive.BasicOp;
+import circuit.operations.primitive.ConstMulBasicOp;
+import circuit.operations.primitive.MulBasicOp;
+import circuit.operations.primitive.NonZeroCheckBasicOp;
+import circuit.operations.primitive.ORBasicOp;
+import circuit.operations.primitive.PackBasicOp;
+import circuit.operations.primitive.SplitBasicOp;
+import circuit.operations.primitive.XorBasicOp;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.Wire;
+
+/**
+ * The evaluation queue of a circuit compiled into a flat int[] program, which
+ * is run by CircuitEvaluator.run(CircuitProgram) using a single switch
+ * loop instead of calling every instruction.
+ *
+ * Each basic operation is encoded as:
+ *
+ * [opcode] [instruction index] [n] [n input ids] [m] [m output ids]
+ *
+ * followed, for const-mul only, by the index of the constant. Any other
+ * instruction (prover witness computations, wire labels, or unknown basic
+ * operations) is encoded as [EXTERNAL] [instruction index], and is called at
+ * the same position as in the evaluation queue.
+ */
+public class CircuitProgram {
+
+	static final int ADD = 0;
+	static final int MUL = 1;
+	static final int CONST_MUL = 2;
+	static final int XOR = 3;
+	static final int OR = 4;
+	static final int SPLIT = 5;
+	static final int PACK = 6;
+	static final int ZEROP = 7;
+	static final int ASSERT = 8;
+	static final int EXTERNAL = 9;
+
+	final int[] code;
+	final Instruction[] instructions;
+	final BigInteger[] constants;
+	// the constants as longs, or -1 when they do not fit
+	final long[] smallConstants;
+
+	private CircuitProgram(int[] code, Instruction[] instructions, BigInteger[] constants) {
+		this.code = code;
+		this.instructions = instructions;
+		this.constants = constants;
+		smallConstants = new long[constants.length];
+		for (int i = 0; i < constants.length; i++) {
+			smallConstants[i] = constants[i].bitLength() < 64 ? constants[i].longValue() : -1;
+		}
+	}
+
+	public static CircuitProgram compile(CircuitGenerator generator) {
+		LinkedHashMap<Instruction, Instruction> evaluationQueue = generator.getEvaluationQueue();
+		Instruction[] instructions = evaluationQueue.keySet().toArray(new Instruction[evaluationQueue.size()]);
+		ArrayList<BigInteger> constants = new ArrayList<BigInteger>();
+		int[] code = new int[instructions.length * 8];
+		int size = 0;
+
+		for (int i = 0; i < instructions.length; i++) {
+			Instruction e = instructions[i];
+			int opcode = getOpcode(e);
+			if (opcode == EXTERNAL) {
+				code = ensureCapacity(code, size + 2);
+				code[size++] = EXTERNAL;
+				code[size++] = i;
+				continue;
+			}
+			BasicOp op = (BasicOp) e;
+			Wire[] inputs = op.getInputs();
+			Wire[] outputs = op.getOutputs();
+			code = ensureCapacity(code, size + 5 + inputs.length + outputs.length);
+			code[size++] = opcode;
+			code[size++] = i;
+			code[size++] = inputs.length;
+			for (Wire w : inputs) {
+				code[size++] = w.getWireId();
+			}
+			code[size++] = outputs.length;
+			for (Wire w : outputs) {
+				code[size++] = w.getWireId();
+			}
+			if (opcode == CONST_MUL) {
+				code[size++] = constants.size();
+				constants.add(((ConstMulBasicOp) op).getConstInteger());
+			}
+		}
+		return new CircuitProgram(Arrays.copyOf(code, size), instructions,
+				constants.toArray(new BigInteger[constants.size()]));
+	}
+
+	private static int getOpcode(Instruction e) {
+		// only the known classes are compiled; subclasses may change the
+		// semantics, so they are called as external instructions
+		Class<?> c = e.getClass();
+		if (c == AddBasicOp.class) {
+			return ADD;
+		} else if (c == MulBasicOp.class) {
+			return MUL;
+		} else if (c == ConstMulBasicOp.class) {
+			return CONST_MUL;
+		} else if (c == XorBasicOp.class) {
+			return XOR;
+		} else if (c == ORBasicOp.class) {
+			return OR;
+		} else if (c == SplitBasicOp.class) {
+			return SPLIT;
+		} else if (c == PackBasicOp.class) {
+			return PACK;
+		} else if (c == NonZeroCheckBasicOp.class) {
+			return ZEROP;
+		} else if (c == AssertBasicOp.class) {
+			return ASSERT;
+		} else {
+			return EXTERNAL;
+		}
+	}
+
+	private static int[] ensureCapacity(int[] code, int size) {
+		if (size > code.length) {
+			return Arrays.copyOf(code, Math.max(size, code.length * 2));
+		}
+		return code;
+	}
+
+	/**
+	 * The number of instructions in the evaluation queue when the program was
+	 * compiled.
+	 */
+	public int getNumOfInstructions() {
+		return instructions.length;
+	}
+
+	public int getCodeSize() {
+		return code.length;
+	}
+}
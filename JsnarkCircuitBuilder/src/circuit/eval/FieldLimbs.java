@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.eval;
+
+import java.math.BigInteger;
+
+import circuit.config.Config;
+
+/**
+ * Arithmetic modulo Config.FIELD_PRIME on field elements represented as four
+ * 64-bit limbs (least significant first), used to evaluate circuits without
+ * creating BigInteger objects. The inputs of all the operations must be
+ * reduced, and so are their results. The result array may be one of the
+ * inputs.
+ *
+ * Multiplications use Montgomery's method: mul() computes a*b*R^-1 and then
+ * multiplies by R^2 (R = 2^256), so that the values stay in their canonical
+ * form. Constants can be converted to the Montgomery form once (see
+ * toMontgomery()) and multiplied with a single Montgomery multiplication.
+ */
+public class FieldLimbs {
+
+	public static final int NUM_OF_LIMBS = 4;
+
+	private static final long MASK32 = 0xffffffffL;
+
+	// initialized on first use, so that isSupported() can be called for any
+	// field prime
+	private static class Modulus {
+
+		static final long[] P;
+		static final long[] R2; // 2^512 mod p
+		static final long N0; // -p^-1 mod 2^64
+
+		static {
+			BigInteger p = Config.FIELD_PRIME;
+			if (!isSupported()) {
+				throw new IllegalArgumentException("The field prime must be an odd number of at most 256 bits");
+			}
+			P = fromBigInteger(p);
+			R2 = fromBigInteger(BigInteger.ONE.shiftLeft(2 * 64 * NUM_OF_LIMBS).mod(p));
+			N0 = BigInteger.ONE.shiftLeft(64).subtract(p.modInverse(BigInteger.ONE.shiftLeft(64))).longValue();
+		}
+	}
+
+	/**
+	 * Returns true if the field prime can be used with FieldLimbs (an odd
+	 * number of at most 256 bits). Otherwise, the arithmetic operations fail.
+	 */
+	public static boolean isSupported() {
+		BigInteger p = Config.FIELD_PRIME;
+		return p.bitLength() <= 64 * NUM_OF_LIMBS && p.testBit(0);
+	}
+
+	public static long[] fromBigInteger(BigInteger v) {
+		long[] limbs = new long[NUM_OF_LIMBS];
+		for (int i = 0; i < NUM_OF_LIMBS; i++) {
+			limbs[i] = v.shiftRight(64 * i).longValue();
+		}
+		return limbs;
+	}
+
+	public static BigInteger toBigInteger(long[] limbs) {
+		byte[] bytes = new byte[8 * NUM_OF_LIMBS + 1];
+		for (int i = 0; i < NUM_OF_LIMBS; i++) {
+			long limb = limbs[NUM_OF_LIMBS - 1 - i];
+			for (int j = 0; j < 8; j++) {
+				bytes[1 + 8 * i + j] = (byte) (limb >>> (56 - 8 * j));
+			}
+		}
+		return new BigInteger(bytes);
+	}
+
+	public static boolean isZero(long[] a) {
+		return (a[0] | a[1] | a[2] | a[3]) == 0;
+	}
+
+	public static int bitLength(long[] a) {
+		for (int i = NUM_OF_LIMBS - 1; i >= 0; i--) {
+			if (a[i] != 0) {
+				return 64 * i + 64 - Long.numberOfLeadingZeros(a[i]);
+			}
+		}
+		return 0;
+	}
+
+	public static boolean testBit(long[] a, int i) {
+		return ((a[i >>> 6] >>> (i & 63)) & 1) != 0;
+	}
+
+	public static void add(long[] a, long[] b, long[] result) {
+		long carry = 0;
+		for (int i = 0; i < NUM_OF_LIMBS; i++) {
+			long s = a[i] + b[i];
+			long c = Long.compareUnsigned(s, a[i]) < 0 ? 1 : 0;
+			long t = s + carry;
+			c += Long.compareUnsigned(t, s) < 0 ? 1 : 0;
+			result[i] = t;
+			carry = c;
+		}
+		if (carry != 0 || !lessThanP(result)) {
+			subtractP(result);
+		}
+	}
+
+	public static void sub(long[] a, long[] b, long[] result) {
+		long borrow = 0;
+		for (int i = 0; i < NUM_OF_LIMBS; i++) {
+			long d = a[i] - b[i];
+			long c = Long.compareUnsigned(a[i], b[i]) < 0 ? 1 : 0;
+			long t = d - borrow;
+			c += Long.compareUnsigned(d, borrow) < 0 ? 1 : 0;
+			result[i] = t;
+			borrow = c;
+		}
+		if (borrow != 0) {
+			// add p back, ignoring the carry out of the top limb
+			long carry = 0;
+			for (int i = 0; i < NUM_OF_LIMBS; i++) {
+				long s = result[i] + Modulus.P[i];
+				long c = Long.compareUnsigned(s, Modulus.P[i]) < 0 ? 1 : 0;
+				long t = s + carry;
+				c += Long.compareUnsigned(t, s) < 0 ? 1 : 0;
+				result[i] = t;
+				carry = c;
+			}
+		}
+	}
+
+	public static void mul(long[] a, long[] b, long[] result) {
+		montgomeryMul(a, b, result);
+		montgomeryMul(result, Modulus.R2, result);
+	}
+
+	/**
+	 * Returns c*R mod p, so that montgomeryMul(a, toMontgomery(c)) = a*c.
+	 */
+	public static long[] toMontgomery(BigInteger c) {
+		long[] limbs = fromBigInteger(c.mod(Config.FIELD_PRIME));
+		montgomeryMul(limbs, Modulus.R2, limbs);
+		return limbs;
+	}
+
+	/**
+	 * Returns the canonical value of an element in the Montgomery form.
+	 */
+	public static BigInteger fromMontgomery(long[] a) {
+		long[] limbs = new long[NUM_OF_LIMBS];
+		limbs[0] = 1;
+		montgomeryMul(a, limbs, limbs);
+		return toBigInteger(limbs);
+	}
+
+	/**
+	 * Computes a*b*R^-1 mod p (CIOS method).
+	 */
+	public static void montgomeryMul(long[] a, long[] b, long[] result) {
+		long t0 = 0, t1 = 0, t2 = 0, t3 = 0, t4 = 0;
+		for (int i = 0; i < NUM_OF_LIMBS; i++) {
+			long bi = b[i];
+			// t += a * b[i]
+			long lo, hi, s, c;
+			lo = a[0] * bi;
+			hi = mulHigh(a[0], bi);
+			s = t0 + lo;
+			c = hi + (Long.compareUnsigned(s, lo) < 0 ? 1 : 0);
+			t0 = s;
+
+			lo = a[1] * bi;
+			hi = mulHigh(a[1], bi);
+			s = t1 + lo;
+			hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+			t1 = s + c;
+			c = hi + (Long.compareUnsigned(t1, s) < 0 ? 1 : 0);
+
+			lo = a[2] * bi;
+			hi = mulHigh(a[2], bi);
+			s = t2 + lo;
+			hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+			t2 = s + c;
+			c = hi + (Long.compareUnsigned(t2, s) < 0 ? 1 : 0);
+
+			lo = a[3] * bi;
+			hi = mulHigh(a[3], bi);
+			s = t3 + lo;
+			hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+			t3 = s + c;
+			c = hi + (Long.compareUnsigned(t3, s) < 0 ? 1 : 0);
+
+			s = t4 + c;
+			long t5 = Long.compareUnsigned(s, c) < 0 ? 1 : 0;
+			t4 = s;
+
+			// t = (t + m * p) / 2^64
+			long m = t0 * Modulus.N0;
+			lo = m * Modulus.P[0];
+			hi = mulHigh(m, Modulus.P[0]);
+			s = t0 + lo;
+			c = hi + (Long.compareUnsigned(s, lo) < 0 ? 1 : 0);
+
+			lo = m * Modulus.P[1];
+			hi = mulHigh(m, Modulus.P[1]);
+			s = t1 + lo;
+			hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+			t0 = s + c;
+			c = hi + (Long.compareUnsigned(t0, s) < 0 ? 1 : 0);
+
+			lo = m * Modulus.P[2];
+			hi = mulHigh(m, Modulus.P[2]);
+			s = t2 + lo;
+			hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+			t1 = s + c;
+			c = hi + (Long.compareUnsigned(t1, s) < 0 ? 1 : 0);
+
+			lo = m * Modulus.P[3];
+			hi = mulHigh(m, Modulus.P[3]);
+			s = t3 + lo;
+			hi += Long.compareUnsigned(s, lo) < 0 ? 1 : 0;
+			t2 = s + c;
+			c = hi + (Long.compareUnsigned(t2, s) < 0 ? 1 : 0);
+
+			t3 = t4 + c;
+			t4 = t5 + (Long.compareUnsigned(t3, c) < 0 ? 1 : 0);
+		}
+		result[0] = t0;
+		result[1] = t1;
+		result[2] = t2;
+		result[3] = t3;
+		if (t4 != 0 || !lessThanP(result)) {
+			subtractP(result);
+		}
+	}
+
+	private static boolean lessThanP(long[] a) {
+		for (int i = NUM_OF_LIMBS - 1; i >= 0; i--) {
+			if (a[i] != Modulus.P[i]) {
+				return Long.compareUnsigned(a[i], Modulus.P[i]) < 0;
+			}
+		}
+		return false;
+	}
+
+	// subtracts p, ignoring the borrow out of the top limb
+	private static void subtractP(long[] a) {
+		long borrow = 0;
+		for (int i = 0; i < NUM_OF_LIMBS; i++) {
+			long d = a[i] - Modulus.P[i];
+			long b = Long.compareUnsigned(a[i], Modulus.P[i]) < 0 ? 1 : 0;
+			long t = d - borrow;
+			b += Long.compareUnsigned(d, borrow) < 0 ? 1 : 0;
+			a[i] = t;
+			borrow = b;
+		}
+	}
+
+	// the high 64 bits of the unsigned product
+	private static long mulHigh(long x, long y) {
+		long x0 = x & MASK32, x1 = x >>> 32;
+		long y0 = y & MASK32, y1 = y >>> 32;
+		long p00 = x0 * y0, p01 = x0 * y1, p10 = x1 * y0, p11 = x1 * y1;
+		long middle = (p00 >>> 32) + (p01 & MASK32) + (p10 & MASK32);
+		return p11 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+	}
+}
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.eval;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import circuit.operations.WireLabelInstruction;
+import circuit.operations.primitive.AssertBasicOp;
+import circuit.operations.primitive.BasicOp;
+import circuit.structure.Wire;
+
+/**
+ * Updates the assignment of an evaluated circuit when some of its input (or
+ * prover witness) values change, by evaluating again only the instructions
+ * that depend on them.
+ *
+ * The dependencies are the inputs and outputs of the basic operations and of
+ * the witness computations that declare their wires (see WitnessComputation).
+ * An instruction is evaluated again if one of the wires it reads has a new
+ * value, and its outputs whose values change are propagated further. The
+ * instructions that do not declare their wires (e.g. the anonymous witness
+ * computations of older gadgets) may read any wire, so they are all evaluated
+ * again on every update, and the wires they assign are tracked to continue the
+ * propagation.
+ *
+ * Usage:
+ *
+ * <pre>
+ * CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+ * ... set the inputs
+ * evaluator.evaluate();
+ * IncrementalEvaluator incrementalEvaluator = new IncrementalEvaluator(evaluator);
+ * incrementalEvaluator.setWireValue(bid, newBid);
+ * incrementalEvaluator.evaluate(); // evaluator now has the updated values
+ * </pre>
+ */
+public class IncrementalEvaluator {
+
+	private final CircuitEvaluator evaluator;
+	private final Instruction[] instructions;
+	// the declared wires of every instruction (null for the undeclared ones)
+	private final int[][] reads;
+	private final int[][] writes;
+	private final int[] undeclared;
+	// readers[readerStart[w] .. readerStart[w+1]) are the instructions that
+	// read wire w
+	private final int[] readerStart;
+	private final int[] readers;
+
+	private final PriorityQueue<Integer> queue = new PriorityQueue<Integer>();
+	private final boolean[] queued;
+	private boolean inputsChanged;
+	private int numOfEvaluatedInstructions;
+
+	public IncrementalEvaluator(CircuitEvaluator evaluator) {
+		if (evaluator.freesValues() || evaluator.getMappedAssignment() != null) {
+			throw new IllegalArgumentException("The evaluator does not keep all the wire values");
+		}
+		this.evaluator = evaluator;
+		int numOfWires = evaluator.getCircuitGenerator().getNumWires();
+		instructions = evaluator.getCircuitGenerator().getEvaluationQueue().keySet().toArray(new Instruction[0]);
+		reads = new int[instructions.length][];
+		writes = new int[instructions.length][];
+		queued = new boolean[instructions.length];
+
+		ArrayList<Integer> undeclaredList = new ArrayList<Integer>();
+		int[] numOfReaders = new int[numOfWires + 1];
+		for (int i = 0; i < instructions.length; i++) {
+			Instruction e = instructions[i];
+			if (e instanceof BasicOp) {
+				BasicOp op = (BasicOp) e;
+				if (op instanceof AssertBasicOp) {
+					// the output of an assertion is one of the checked values
+					reads[i] = ids(op.getInputs(), op.getOutputs());
+					writes[i] = new int[0];
+				} else {
+					reads[i] = ids(op.getInputs());
+					writes[i] = ids(op.getOutputs());
+				}
+			} else if (e instanceof WitnessComputation) {
+				reads[i] = ids(((WitnessComputation) e).getInputs());
+				writes[i] = ids(((WitnessComputation) e).getOutputs());
+			} else if (e instanceof WireLabelInstruction) {
+				reads[i] = new int[] { ((WireLabelInstruction) e).getWire().getWireId() };
+				writes[i] = new int[0];
+			} else {
+				undeclaredList.add(i);
+				continue;
+			}
+			for (int id : reads[i]) {
+				numOfReaders[id + 1]++;
+			}
+		}
+		undeclared = new int[undeclaredList.size()];
+		for (int i = 0; i < undeclared.length; i++) {
+			undeclared[i] = undeclaredList.get(i);
+		}
+
+		readerStart = numOfReaders;
+		for (int i = 0; i < numOfWires; i++) {
+			readerStart[i + 1] += readerStart[i];
+		}
+		readers = new int[readerStart[numOfWires]];
+		int[] next = Arrays.copyOf(readerStart, numOfWires);
+		for (int i = 0; i < instructions.length; i++) {
+			if (reads[i] != null) {
+				for (int id : reads[i]) {
+					readers[next[id]++] = i;
+				}
+			}
+		}
+	}
+
+	private static int[] ids(Wire[]... arrays) {
+		int n = 0;
+		for (Wire[] array : arrays) {
+			n += array.length;
+		}
+		int[] ids = new int[n];
+		int idx = 0;
+		for (Wire[] array : arrays) {
+			for (Wire w : array) {
+				ids[idx++] = w.getWireId();
+			}
+		}
+		return ids;
+	}
+
+	public CircuitEvaluator getEvaluator() {
+		return evaluator;
+	}
+
+	/**
+	 * Changes the value of an input or prover witness wire. The change is
+	 * propagated by evaluate().
+	 */
+	public void setWireValue(Wire w, BigInteger v) {
+		BigInteger previous = evaluator.currentValue(w.getWireId());
+		evaluator.setWireValue(w, v);
+		inputsChanged = true;
+		if (previous == null || !LazyReduction.reduce(previous).equals(v)) {
+			enqueueReaders(w.getWireId());
+		}
+	}
+
+	public void setWireValue(Wire[] wires, BigInteger[] v) {
+		for (int i = 0; i < v.length; i++) {
+			setWireValue(wires[i], v[i]);
+		}
+	}
+
+	/**
+	 * Evaluates again the instructions affected by the changes since the last
+	 * call. Returns the number of instructions that were evaluated.
+	 */
+	public int evaluate() {
+		numOfEvaluatedInstructions = 0;
+		if (!inputsChanged) {
+			return 0;
+		}
+		for (int i : undeclared) {
+			enqueue(i);
+		}
+		final ArrayList<Integer> written = new ArrayList<Integer>();
+		final ArrayList<BigInteger> previousValues = new ArrayList<BigInteger>();
+		CircuitEvaluator.WriteListener listener = new CircuitEvaluator.WriteListener() {
+			@Override
+			public void beforeWrite(int wireId) {
+				written.add(wireId);
+				previousValues.add(evaluator.currentValue(wireId));
+			}
+		};
+
+		try {
+			while (!queue.isEmpty()) {
+				int i = queue.poll();
+				queued[i] = false;
+				Instruction e = instructions[i];
+				numOfEvaluatedInstructions++;
+				if (reads[i] == null) {
+					// the wires it assigns are only known by watching the writes
+					written.clear();
+					previousValues.clear();
+					evaluator.setWriteListener(listener);
+					try {
+						e.evaluate(evaluator);
+						evaluator.resolveInversions();
+					} finally {
+						evaluator.setWriteListener(null);
+					}
+					for (int j = 0; j < written.size(); j++) {
+						propagateIfChanged(written.get(j), previousValues.get(j));
+					}
+				} else {
+					int[] outputs = writes[i];
+					BigInteger[] previous = new BigInteger[outputs.length];
+					for (int j = 0; j < outputs.length; j++) {
+						previous[j] = evaluator.currentValue(outputs[j]);
+						evaluator.clearValue(outputs[j]);
+					}
+					e.evaluate(evaluator);
+					evaluator.resolveInversions();
+					for (int j = 0; j < outputs.length; j++) {
+						propagateIfChanged(outputs[j], previous[j]);
+					}
+				}
+				e.emit(evaluator);
+			}
+		} finally {
+			queue.clear();
+			Arrays.fill(queued, false);
+			inputsChanged = false;
+		}
+		return numOfEvaluatedInstructions;
+	}
+
+	private void propagateIfChanged(int wireId, BigInteger previous) {
+		BigInteger v = evaluator.currentValue(wireId);
+		if (previous == null || v == null || !LazyReduction.reduce(previous).equals(LazyReduction.reduce(v))) {
+			enqueueReaders(wireId);
+		}
+	}
+
+	private void enqueueReaders(int wireId) {
+		for (int k = readerStart[wireId]; k < readerStart[wireId + 1]; k++) {
+			enqueue(readers[k]);
+		}
+	}
+
+	private void enqueue(int i) {
+		if (!queued[i]) {
+			queued[i] = true;
+			queue.add(i);
+		}
+	}
+}
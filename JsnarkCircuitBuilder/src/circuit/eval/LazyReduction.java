@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.eval;
+
+import java.math.BigInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import circuit.config.Config;
+
+/**
+ * Modular reduction of wire values during evaluation.
+ *
+ * When Config.lazyReduction is enabled, the results of additions and
+ * multiplications by constants are kept unreduced, and are only reduced when
+ * they grow beyond MAX_UNREDUCED_BITLENGTH bits. The consumers that need the
+ * canonical value of a wire (bitwise operations, splits, zero checks,
+ * assertions, and the getters of CircuitEvaluator used by the outputs and the
+ * prover witness computations) call reduce() on their inputs. Multiplications
+ * reduce their results anyway.
+ */
+public class LazyReduction {
+
+	public static final int MAX_UNREDUCED_BITLENGTH = Config.LOG2_FIELD_PRIME + 64;
+
+	private static final LongAdder numOfReductions = new LongAdder();
+
+	/**
+	 * Returns the canonical representative of v, in [0, FIELD_PRIME).
+	 */
+	public static BigInteger reduce(BigInteger v) {
+		if (v.signum() >= 0 && (v.bitLength() < Config.LOG2_FIELD_PRIME || v.compareTo(Config.FIELD_PRIME) < 0)) {
+			return v;
+		}
+		return mod(v);
+	}
+
+	/**
+	 * Reduces an unreduced value that exceeds the bound.
+	 */
+	public static BigInteger reduceIfLarge(BigInteger v) {
+		return v.bitLength() > MAX_UNREDUCED_BITLENGTH ? mod(v) : v;
+	}
+
+	public static BigInteger mod(BigInteger v) {
+		numOfReductions.increment();
+		return v.mod(Config.FIELD_PRIME);
+	}
+
+	/**
+	 * The number of reductions done by the evaluators since the last reset.
+	 */
+	public static long getNumOfReductions() {
+		return numOfReductions.sum();
+	}
+
+	public static void resetNumOfReductions() {
+		numOfReductions.reset();
+	}
+}
@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.eval;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A wire assignment stored in a memory-mapped file instead of the heap. The
+ * value of wire i is stored as a 32-byte big-endian unsigned integer at offset
+ * 32*i, so the file is the binary form of the full witness: it can be handed
+ * to other tools as is, or opened again with MappedAssignment.open(). Wires
+ * that were never assigned read as zero.
+ *
+ * The values can be read and written either as BigIntegers or as the limbs
+ * used by FieldLimbs, which does not create any objects.
+ */
+public class MappedAssignment {
+
+	public static final int ELEMENT_SIZE = 8 * FieldLimbs.NUM_OF_LIMBS;
+
+	// each mapped region holds 2^REGION_BITS elements (1 GB)
+	private static final int REGION_BITS = 25;
+	private static final int REGION_MASK = (1 << REGION_BITS) - 1;
+
+	private final RandomAccessFile file;
+	private final MappedByteBuffer[] regions;
+	private final int numOfWires;
+
+	private MappedAssignment(RandomAccessFile file, int numOfWires, FileChannel.MapMode mode) throws IOException {
+		this.file = file;
+		this.numOfWires = numOfWires;
+		FileChannel channel = file.getChannel();
+		int numOfRegions = (int) (((long) numOfWires + REGION_MASK) >>> REGION_BITS);
+		regions = new MappedByteBuffer[numOfRegions];
+		for (int i = 0; i < numOfRegions; i++) {
+			long start = (long) i << REGION_BITS;
+			long count = Math.min(1L << REGION_BITS, numOfWires - start);
+			regions[i] = channel.map(mode, start * ELEMENT_SIZE, count * ELEMENT_SIZE);
+			regions[i].order(ByteOrder.BIG_ENDIAN);
+		}
+	}
+
+	/**
+	 * Creates (or truncates) the file, with all the values set to zero.
+	 */
+	public static MappedAssignment create(String fileName, int numOfWires) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		file.setLength(0);
+		file.setLength((long) numOfWires * ELEMENT_SIZE);
+		return new MappedAssignment(file, numOfWires, FileChannel.MapMode.READ_WRITE);
+	}
+
+	/**
+	 * Opens the file of an existing assignment for reading.
+	 */
+	public static MappedAssignment open(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		long length = file.length();
+		if (length % ELEMENT_SIZE != 0 || length / ELEMENT_SIZE > Integer.MAX_VALUE) {
+			file.close();
+			throw new IOException("Not an assignment file: " + fileName);
+		}
+		return new MappedAssignment(file, (int) (length / ELEMENT_SIZE), FileChannel.MapMode.READ_ONLY);
+	}
+
+	public int getNumOfWires() {
+		return numOfWires;
+	}
+
+	public void getLimbs(int wireId, long[] limbs) {
+		MappedByteBuffer region = regions[wireId >>> REGION_BITS];
+		int offset = (wireId & REGION_MASK) * ELEMENT_SIZE;
+		for (int i = 0; i < FieldLimbs.NUM_OF_LIMBS; i++) {
+			limbs[FieldLimbs.NUM_OF_LIMBS - 1 - i] = region.getLong(offset + 8 * i);
+		}
+	}
+
+	public void setLimbs(int wireId, long[] limbs) {
+		MappedByteBuffer region = regions[wireId >>> REGION_BITS];
+		int offset = (wireId & REGION_MASK) * ELEMENT_SIZE;
+		for (int i = 0; i < FieldLimbs.NUM_OF_LIMBS; i++) {
+			region.putLong(offset + 8 * i, limbs[FieldLimbs.NUM_OF_LIMBS - 1 - i]);
+		}
+	}
+
+	public BigInteger get(int wireId) {
+		long[] limbs = new long[FieldLimbs.NUM_OF_LIMBS];
+		getLimbs(wireId, limbs);
+		return FieldLimbs.toBigInteger(limbs);
+	}
+
+	public void set(int wireId, BigInteger v) {
+		if (v.signum() < 0 || v.bitLength() > 8 * ELEMENT_SIZE) {
+			throw new IllegalArgumentException("Value out of range for wire " + wireId);
+		}
+		setLimbs(wireId, FieldLimbs.fromBigInteger(v));
+	}
+
+	/**
+	 * Writes the changes to the file and releases it.
+	 */
+	public void close() throws IOException {
+		for (MappedByteBuffer region : regions) {
+			if (!region.isReadOnly()) {
+				region.force();
+			}
+		}
+		file.close();
+	}
+}
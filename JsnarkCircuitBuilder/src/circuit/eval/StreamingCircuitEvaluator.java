@@ -0,0 +1,631 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.eval;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import util.CompressedStreams;
+import circuit.config.Config;
+
+/**
+ * Evaluates a circuit from its .arith file and its .in file (as written by
+ * CircuitGenerator and CircuitEvaluator.writeInputFile()) without keeping the
+ * values of all the wires in memory.
+ *
+ * A first pass over the circuit file computes the last instruction that reads
+ * every wire. During evaluation, the value of a wire is dropped after its last
+ * reader, so the memory used for values is proportional to the number of live
+ * wires at any point rather than to the total number of wires. The values of
+ * the input, nizkinput and output wires, and of the wires requested through
+ * keepWire(), are kept until the end. The full witness can be streamed to a
+ * file as it is computed (see setWitnessOutput()), in the format of the .in
+ * file.
+ *
+ * The first pass needs one int per wire, instead of a BigInteger per wire.
+ *
+ * Alternatively, when an assignment file is set (see setAssignmentFile()),
+ * the values of all the wires are stored in a memory-mapped MappedAssignment
+ * and computed with FieldLimbs, so that neither the first pass nor any
+ * per-wire object is needed, and the heap usage does not depend on the size of
+ * the circuit. The file is then the binary full witness.
+ *
+ * The .in file must contain the values of all the input and nizkinput wires.
+ * The prover witness computations of the generator are Java code that is not
+ * part of the circuit file, so they cannot run here. The memory savings
+ * therefore only apply when every input is supplied, e.g. by an external
+ * process, or for circuits without prover witnesses. An .in file written by
+ * CircuitEvaluator.writeInputFile() already required a full evaluation in
+ * memory. To compute the witness from the generator instead, with the values
+ * also freed after their last use, see
+ * CircuitEvaluator.freeValuesAfterLastUse().
+ */
+public class StreamingCircuitEvaluator {
+
+	private static final int KEPT = Integer.MAX_VALUE;
+	private static final int MAX_NUM_OF_CACHED_CONSTANTS = 1 << 12;
+
+	private final String circuitFilePath;
+	private final String inFilePath;
+	private final ArrayList<Integer> requestedWires = new ArrayList<Integer>();
+	private final ArrayList<Integer> outputWires = new ArrayList<Integer>();
+	private String witnessFilePath;
+	private String assignmentFilePath;
+
+	private int numOfWires;
+	private int[] lastUse;
+	private WireValueTable values;
+	private MappedAssignment mappedValues;
+	private int maxNumOfLiveWires;
+
+	// parsing state of the current line
+	private int[] ins = new int[16];
+	private int[] outs = new int[16];
+	private int numOfIns;
+	private int numOfOuts;
+
+	public StreamingCircuitEvaluator(String circuitFilePath, String inFilePath) {
+		this.circuitFilePath = circuitFilePath;
+		this.inFilePath = inFilePath;
+	}
+
+	/**
+	 * Keeps the value of a wire available through getWireValue() after the
+	 * evaluation.
+	 */
+	public void keepWire(int wireId) {
+		requestedWires.add(wireId);
+	}
+
+	/**
+	 * Writes the value of every wire to the given file (compressed if the name
+	 * ends with ".gz") during the evaluation.
+	 */
+	public void setWitnessOutput(String fileName) {
+		witnessFilePath = fileName;
+	}
+
+	/**
+	 * Stores the values of all the wires in the given file (see
+	 * MappedAssignment) instead of keeping the live ones on the heap.
+	 */
+	public void setAssignmentFile(String fileName) {
+		assignmentFilePath = fileName;
+	}
+
+	public void evaluate() throws IOException {
+		values = null;
+		mappedValues = null;
+		if (assignmentFilePath != null) {
+			evaluateMapped();
+			return;
+		}
+		computeLastUses();
+		values = new WireValueTable();
+		maxNumOfLiveWires = 0;
+
+		PrintWriter witnessWriter = null;
+		if (witnessFilePath != null) {
+			witnessWriter = new PrintWriter(new OutputStreamWriter(CompressedStreams.openOutput(witnessFilePath)));
+		}
+		try {
+			readInputs(witnessWriter);
+			BufferedReader reader = openReader(circuitFilePath);
+			try {
+				reader.readLine(); // total
+				String line;
+				int lineIdx = 0;
+				while ((line = reader.readLine()) != null) {
+					lineIdx++;
+					evaluateLine(line, lineIdx, witnessWriter);
+					maxNumOfLiveWires = Math.max(maxNumOfLiveWires, values.size());
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			if (witnessWriter != null) {
+				witnessWriter.close();
+			}
+		}
+		lastUse = null;
+	}
+
+	/**
+	 * Returns the value of an input, output or requested wire.
+	 */
+	public BigInteger getWireValue(int wireId) {
+		if (mappedValues != null) {
+			return mappedValues.get(wireId);
+		}
+		BigInteger v = values == null ? null : values.get(wireId);
+		if (v == null) {
+			throw new IllegalArgumentException("The value of wire " + wireId + " was not kept");
+		}
+		return v;
+	}
+
+	public ArrayList<Integer> getOutputWireIds() {
+		return outputWires;
+	}
+
+	public int getNumOfWires() {
+		return numOfWires;
+	}
+
+	/**
+	 * The maximum number of wire values held on the heap during the
+	 * evaluation (zero when an assignment file is used).
+	 */
+	public int getMaxNumOfLiveWires() {
+		return maxNumOfLiveWires;
+	}
+
+	private void computeLastUses() throws IOException {
+		BufferedReader reader = openReader(circuitFilePath);
+		outputWires.clear();
+		try {
+			numOfWires = Integer.parseInt(reader.readLine().replace("total ", "").trim());
+			lastUse = new int[numOfWires];
+			String line;
+			int lineIdx = 0;
+			while ((line = reader.readLine()) != null) {
+				lineIdx++;
+				String opcode = opcode(line);
+				if (opcode.equals("input") || opcode.equals("nizkinput")) {
+					lastUse[labelWire(line)] = KEPT;
+				} else if (opcode.equals("output")) {
+					int id = labelWire(line);
+					lastUse[id] = KEPT;
+					outputWires.add(id);
+				} else if (!opcode.isEmpty()) {
+					parseWires(line);
+					markUses(ins, numOfIns, lineIdx);
+					if (opcode.equals("assert")) {
+						// the output of an assertion is one of the checked values
+						markUses(outs, numOfOuts, lineIdx);
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		for (int id : requestedWires) {
+			lastUse[id] = KEPT;
+		}
+	}
+
+	private void markUses(int[] wires, int n, int lineIdx) {
+		for (int i = 0; i < n; i++) {
+			if (lastUse[wires[i]] != KEPT) {
+				lastUse[wires[i]] = lineIdx;
+			}
+		}
+	}
+
+	private void readInputs(PrintWriter witnessWriter) throws IOException {
+		BufferedReader reader = openReader(inFilePath);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) {
+					continue;
+				}
+				int idx = line.indexOf(' ');
+				int id = Integer.parseInt(line.substring(0, idx));
+				BigInteger v = new BigInteger(line.substring(idx + 1).trim(), 16);
+				if (mappedValues != null) {
+					mappedValues.set(id, v);
+					if (witnessWriter != null) {
+						witnessWriter.println(id + " " + v.toString(16));
+					}
+				} else {
+					assign(id, v, witnessWriter);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void evaluateLine(String line, int lineIdx, PrintWriter witnessWriter) {
+		String opcode = opcode(line);
+		if (opcode.isEmpty()) {
+			return;
+		} else if (opcode.equals("input") || opcode.equals("nizkinput")) {
+			int id = labelWire(line);
+			if (values.get(id) == null) {
+				throw new RuntimeException("The input file has no value for the " + opcode + " wire " + id
+						+ " (all the inputs and prover witnesses must be supplied)");
+			}
+			return;
+		} else if (opcode.equals("output")) {
+			int id = labelWire(line);
+			if (Config.outputVerbose) {
+				System.out.println("Value of Wire # " + id + " :: "
+						+ getWireValue(id).toString(Config.hexOutputEnabled ? 16 : 10));
+			}
+			return;
+		}
+
+		parseWires(line);
+		BigInteger p = Config.FIELD_PRIME;
+		BigInteger[] inValues = new BigInteger[numOfIns];
+		for (int i = 0; i < numOfIns; i++) {
+			inValues[i] = values.get(ins[i]);
+			if (inValues[i] == null) {
+				throw new RuntimeException("Undefined value for a used wire, at line " + line);
+			}
+		}
+
+		if (opcode.equals("add")) {
+			BigInteger sum = BigInteger.ZERO;
+			for (BigInteger v : inValues) {
+				sum = sum.add(v);
+			}
+			assign(outs[0], sum.mod(p), witnessWriter);
+		} else if (opcode.equals("mul")) {
+			assign(outs[0], inValues[0].multiply(inValues[1]).mod(p), witnessWriter);
+		} else if (opcode.startsWith("const-mul-neg-")) {
+			BigInteger constant = p.subtract(new BigInteger(opcode.substring("const-mul-neg-".length()), 16));
+			assign(outs[0], inValues[0].multiply(constant).mod(p), witnessWriter);
+		} else if (opcode.startsWith("const-mul-")) {
+			BigInteger constant = new BigInteger(opcode.substring("const-mul-".length()), 16);
+			assign(outs[0], inValues[0].multiply(constant).mod(p), witnessWriter);
+		} else if (opcode.equals("xor")) {
+			assign(outs[0], inValues[0].xor(inValues[1]), witnessWriter);
+		} else if (opcode.equals("or")) {
+			assign(outs[0], inValues[0].or(inValues[1]), witnessWriter);
+		} else if (opcode.equals("zerop")) {
+			assign(outs[0], BigInteger.ZERO, witnessWriter); // a dummy value
+			assign(outs[1], inValues[0].signum() == 0 ? BigInteger.ZERO : BigInteger.ONE, witnessWriter);
+		} else if (opcode.equals("split")) {
+			if (inValues[0].bitLength() > numOfOuts) {
+				System.err.println("Error in Split: " + line);
+				throw new RuntimeException("Error During Evaluation");
+			}
+			for (int i = 0; i < numOfOuts; i++) {
+				assign(outs[i], inValues[0].testBit(i) ? BigInteger.ONE : BigInteger.ZERO, witnessWriter);
+			}
+		} else if (opcode.equals("pack")) {
+			BigInteger sum = BigInteger.ZERO;
+			for (int i = numOfIns - 1; i >= 0; i--) {
+				sum = sum.shiftLeft(1).add(inValues[i]);
+			}
+			assign(outs[0], sum.mod(p), witnessWriter);
+		} else if (opcode.equals("assert")) {
+			BigInteger out = values.get(outs[0]);
+			if (out == null || !inValues[0].multiply(inValues[1]).mod(p).equals(out)) {
+				System.err.println("Error - Assertion Failed " + line);
+				throw new RuntimeException("Error During Evaluation");
+			}
+			release(outs, numOfOuts, lineIdx);
+		} else {
+			throw new RuntimeException("Unknown Circuit Statement: " + line);
+		}
+		release(ins, numOfIns, lineIdx);
+	}
+
+	private void evaluateMapped() throws IOException {
+		BufferedReader reader = openReader(circuitFilePath);
+		PrintWriter witnessWriter = null;
+		outputWires.clear();
+		maxNumOfLiveWires = 0;
+		try {
+			numOfWires = Integer.parseInt(reader.readLine().replace("total ", "").trim());
+			mappedValues = MappedAssignment.create(assignmentFilePath, numOfWires);
+			if (witnessFilePath != null) {
+				witnessWriter = new PrintWriter(new OutputStreamWriter(CompressedStreams.openOutput(witnessFilePath)));
+			}
+			readInputs(witnessWriter);
+			HashMap<String, long[]> constants = new HashMap<String, long[]>();
+			long[][] limbs = new long[3][FieldLimbs.NUM_OF_LIMBS];
+			String line;
+			while ((line = reader.readLine()) != null) {
+				evaluateLineMapped(line, constants, limbs, witnessWriter);
+			}
+		} finally {
+			reader.close();
+			if (witnessWriter != null) {
+				witnessWriter.close();
+			}
+			if (mappedValues != null) {
+				// the mapping stays readable after the file is closed
+				mappedValues.close();
+			}
+		}
+	}
+
+	private void evaluateLineMapped(String line, HashMap<String, long[]> constants, long[][] limbs,
+			PrintWriter witnessWriter) {
+		String opcode = opcode(line);
+		if (opcode.isEmpty() || opcode.equals("input") || opcode.equals("nizkinput")) {
+			return;
+		} else if (opcode.equals("output")) {
+			int id = labelWire(line);
+			outputWires.add(id);
+			if (Config.outputVerbose) {
+				System.out.println("Value of Wire # " + id + " :: "
+						+ getWireValue(id).toString(Config.hexOutputEnabled ? 16 : 10));
+			}
+			return;
+		}
+
+		parseWires(line);
+		long[] a = limbs[0];
+		long[] b = limbs[1];
+		long[] r = limbs[2];
+		mappedValues.getLimbs(ins[0], a);
+
+		if (opcode.equals("add")) {
+			for (int i = 1; i < numOfIns; i++) {
+				mappedValues.getLimbs(ins[i], b);
+				FieldLimbs.add(a, b, a);
+			}
+			store(outs[0], a, witnessWriter);
+		} else if (opcode.equals("mul")) {
+			mappedValues.getLimbs(ins[1], b);
+			FieldLimbs.mul(a, b, r);
+			store(outs[0], r, witnessWriter);
+		} else if (opcode.startsWith("const-mul-")) {
+			long[] constant = constants.get(opcode);
+			if (constant == null) {
+				BigInteger c;
+				if (opcode.startsWith("const-mul-neg-")) {
+					c = Config.FIELD_PRIME.subtract(new BigInteger(opcode.substring("const-mul-neg-".length()), 16));
+				} else {
+					c = new BigInteger(opcode.substring("const-mul-".length()), 16);
+				}
+				constant = FieldLimbs.toMontgomery(c);
+				if (constants.size() > MAX_NUM_OF_CACHED_CONSTANTS) {
+					constants.clear();
+				}
+				constants.put(opcode, constant);
+			}
+			FieldLimbs.montgomeryMul(a, constant, r);
+			store(outs[0], r, witnessWriter);
+		} else if (opcode.equals("xor") || opcode.equals("or")) {
+			mappedValues.getLimbs(ins[1], b);
+			boolean xor = opcode.equals("xor");
+			for (int i = 0; i < FieldLimbs.NUM_OF_LIMBS; i++) {
+				r[i] = xor ? a[i] ^ b[i] : a[i] | b[i];
+			}
+			store(outs[0], r, witnessWriter);
+		} else if (opcode.equals("zerop")) {
+			boolean isZero = FieldLimbs.isZero(a);
+			Arrays.fill(r, 0);
+			store(outs[0], r, witnessWriter); // a dummy value
+			r[0] = isZero ? 0 : 1;
+			store(outs[1], r, witnessWriter);
+		} else if (opcode.equals("split")) {
+			if (FieldLimbs.bitLength(a) > numOfOuts) {
+				System.err.println("Error in Split: " + line);
+				throw new RuntimeException("Error During Evaluation");
+			}
+			Arrays.fill(r, 0);
+			for (int i = 0; i < numOfOuts; i++) {
+				r[0] = FieldLimbs.testBit(a, i) ? 1 : 0;
+				store(outs[i], r, witnessWriter);
+			}
+		} else if (opcode.equals("pack")) {
+			Arrays.fill(r, 0);
+			for (int i = numOfIns - 1; i >= 0; i--) {
+				mappedValues.getLimbs(ins[i], b);
+				FieldLimbs.add(r, r, r);
+				FieldLimbs.add(r, b, r);
+			}
+			store(outs[0], r, witnessWriter);
+		} else if (opcode.equals("assert")) {
+			mappedValues.getLimbs(ins[1], b);
+			FieldLimbs.mul(a, b, r);
+			mappedValues.getLimbs(outs[0], b);
+			if (!Arrays.equals(r, b)) {
+				System.err.println("Error - Assertion Failed " + line);
+				throw new RuntimeException("Error During Evaluation");
+			}
+		} else {
+			throw new RuntimeException("Unknown Circuit Statement: " + line);
+		}
+	}
+
+	private void store(int id, long[] v, PrintWriter witnessWriter) {
+		mappedValues.setLimbs(id, v);
+		if (witnessWriter != null) {
+			witnessWriter.println(id + " " + FieldLimbs.toBigInteger(v).toString(16));
+		}
+	}
+
+	private void assign(int id, BigInteger v, PrintWriter witnessWriter) {
+		if (witnessWriter != null) {
+			witnessWriter.println(id + " " + v.toString(16));
+		}
+		// a wire that is never read is not stored
+		if (lastUse[id] != 0) {
+			values.put(id, v);
+		}
+	}
+
+	private void release(int[] wires, int n, int lineIdx) {
+		for (int i = 0; i < n; i++) {
+			if (lastUse[wires[i]] == lineIdx) {
+				values.remove(wires[i]);
+			}
+		}
+	}
+
+	private static BufferedReader openReader(String fileName) throws IOException {
+		return new BufferedReader(new InputStreamReader(CompressedStreams.openInput(fileName)), 1 << 16);
+	}
+
+	private static String opcode(String line) {
+		int end = line.indexOf(' ');
+		return (end < 0 ? line : line.substring(0, end)).trim();
+	}
+
+	private static int labelWire(String line) {
+		int start = line.indexOf(' ') + 1;
+		int end = start;
+		while (end < line.length() && Character.isDigit(line.charAt(end))) {
+			end++;
+		}
+		return Integer.parseInt(line.substring(start, end));
+	}
+
+	// parses "<opcode> in n <...> out m <...>" into ins and outs
+	private void parseWires(String line) {
+		int inStart = line.indexOf('<');
+		int inEnd = line.indexOf('>', inStart);
+		int outStart = line.indexOf('<', inEnd);
+		int outEnd = line.indexOf('>', outStart);
+		numOfIns = 0;
+		numOfOuts = 0;
+		ins = parseIds(line, inStart + 1, inEnd, ins, true);
+		outs = parseIds(line, outStart + 1, outEnd, outs, false);
+	}
+
+	private int[] parseIds(String line, int from, int to, int[] ids, boolean isInput) {
+		int n = 0;
+		int i = from;
+		while (i < to) {
+			char c = line.charAt(i);
+			if (c < '0' || c > '9') {
+				i++;
+				continue;
+			}
+			int v = 0;
+			while (i < to && (c = line.charAt(i)) >= '0' && c <= '9') {
+				v = v * 10 + (c - '0');
+				i++;
+			}
+			if (n == ids.length) {
+				int[] tmp = new int[n * 2];
+				System.arraycopy(ids, 0, tmp, 0, n);
+				ids = tmp;
+			}
+			ids[n++] = v;
+		}
+		if (isInput) {
+			numOfIns = n;
+		} else {
+			numOfOuts = n;
+		}
+		return ids;
+	}
+
+	/**
+	 * An open addressing hash table from wire ids to values, whose slots are
+	 * reused as wires die.
+	 */
+	private static class WireValueTable {
+
+		private int[] keys = new int[1 << 10];
+		private BigInteger[] entries = new BigInteger[1 << 10];
+		private int size;
+
+		int size() {
+			return size;
+		}
+
+		BigInteger get(int key) {
+			int mask = keys.length - 1;
+			for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+				if (entries[i] == null) {
+					return null;
+				} else if (keys[i] == key) {
+					return entries[i];
+				}
+			}
+		}
+
+		void put(int key, BigInteger v) {
+			if (2 * (size + 1) > keys.length) {
+				resize(keys.length * 2);
+			}
+			int mask = keys.length - 1;
+			int i = hash(key) & mask;
+			while (entries[i] != null && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (entries[i] == null) {
+				size++;
+			}
+			keys[i] = key;
+			entries[i] = v;
+		}
+
+		void remove(int key) {
+			int mask = keys.length - 1;
+			int i = hash(key) & mask;
+			while (entries[i] != null && keys[i] != key) {
+				i = (i + 1) & mask;
+			}
+			if (entries[i] == null) {
+				return;
+			}
+			entries[i] = null;
+			size--;
+			// shift back the following entries of the cluster
+			for (int j = (i + 1) & mask; entries[j] != null; j = (j + 1) & mask) {
+				int home = hash(keys[j]) & mask;
+				if ((j > i && (home <= i || home > j)) || (j < i && (home <= i && home > j))) {
+					keys[i] = keys[j];
+					entries[i] = entries[j];
+					entries[j] = null;
+					i = j;
+				}
+			}
+		}
+
+		private void resize(int capacity) {
+			int[] oldKeys = keys;
+			BigInteger[] oldEntries = entries;
+			keys = new int[capacity];
+			entries = new BigInteger[capacity];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++) {
+				if (oldEntries[i] != null) {
+					put(oldKeys[i], oldEntries[i]);
+				}
+			}
+		}
+
+		private static int hash(int key) {
+			return key * 0x9E3779B9;
+		}
+	}
+
+	/**
+	 * Usage: StreamingCircuitEvaluator circuitFile inputFile [witnessFile]
+	 * [-assignment=assignmentFile]
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: StreamingCircuitEvaluator <circuit file> <input file> [witness file]"
+					+ " [-assignment=<assignment file>]");
+			return;
+		}
+		StreamingCircuitEvaluator evaluator = new StreamingCircuitEvaluator(args[0], args[1]);
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].startsWith("-assignment=")) {
+				evaluator.setAssignmentFile(args[i].substring("-assignment=".length()));
+			} else {
+				evaluator.setWitnessOutput(args[i]);
+			}
+		}
+		evaluator.evaluate();
+		for (int id : evaluator.getOutputWireIds()) {
+			System.out.println(id + "::" + evaluator.getWireValue(id).toString(16));
+		}
+		System.out.println("Wires: " + evaluator.getNumOfWires() + ", maximum live wires: "
+				+ evaluator.getMaxNumOfLiveWires());
+	}
+}
@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.eval;
+
+import circuit.structure.Wire;
+
+/**
+ * A prover witness computation that declares the wires it reads and the wires
+ * it assigns. When Config.numOfWitnessThreads is more than one, the evaluator
+ * runs such computations on a worker pool as soon as their inputs are ready,
+ * and keeps evaluating the instructions that do not depend on their outputs
+ * (see WitnessScheduler).
+ * 
+ * The computation must only read its input wires and only assign its output
+ * wires, through the getters and setters of the evaluator.
+ */
+public abstract class WitnessComputation implements Instruction {
+
+	private final Wire[] inputs;
+	private final Wire[] outputs;
+
+	public WitnessComputation(Wire[] inputs, Wire[] outputs) {
+		this.inputs = inputs;
+		this.outputs = outputs;
+	}
+
+	public Wire[] getInputs() {
+		return inputs;
+	}
+
+	public Wire[] getOutputs() {
+		return outputs;
+	}
+}
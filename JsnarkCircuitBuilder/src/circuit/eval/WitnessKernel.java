@@ -0,0 +1,662 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.eval;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Constructor;
+import java.math.BigInteger;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import circuit.config.Config;
+
+/**
+ * A circuit program translated into generated Java code, and compiled in
+ * process using javax.tools. Each instruction becomes a call with its wire
+ * ids as literals, so there is no decoding or dispatch at runtime, and the
+ * const-mul constants become static fields of the generated classes.
+ *
+ * The code is split into methods of METHOD_SIZE instructions, which stay
+ * below the size limits of the JIT compiler, and into classes of CLASS_SIZE
+ * instructions, which stay below the limits of the class file format.
+ * Compiling a kernel is expensive, so it is only worth it for circuits that
+ * are evaluated many times (see CircuitGenerator.getWitnessKernel()).
+ */
+public class WitnessKernel {
+
+	private static final int METHOD_SIZE = 256;
+	private static final int CLASS_SIZE = 16 * METHOD_SIZE;
+	private static final String PACKAGE = "circuit.eval.kernels";
+
+	private static final AtomicInteger kernelCounter = new AtomicInteger();
+
+	private final Constructor<?>[] segments;
+	private final CircuitProgram program;
+
+	private WitnessKernel(Constructor<?>[] segments, CircuitProgram program) {
+		this.segments = segments;
+		this.program = program;
+	}
+
+	/**
+	 * The number of instructions in the evaluation queue when the kernel was
+	 * generated.
+	 */
+	public int getNumOfInstructions() {
+		return program.getNumOfInstructions();
+	}
+
+	/**
+	 * Returns true if a Java compiler is available in this runtime (i.e. the
+	 * program runs on a JDK, and not on a JRE).
+	 */
+	public static boolean isSupported() {
+		return ToolProvider.getSystemJavaCompiler() != null;
+	}
+
+	/**
+	 * Generates and compiles a kernel for the program. Returns null if there is
+	 * no Java compiler available or the compilation fails, in which case the
+	 * program can still be run by CircuitEvaluator.run(CircuitProgram).
+	 */
+	public static WitnessKernel compile(CircuitProgram program) {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			System.err.println("[Witness Kernel] No Java compiler is available, falling back to the program interpreter.");
+			return null;
+		}
+
+		String prefix = "Kernel" + kernelCounter.incrementAndGet() + "_";
+		ArrayList<JavaFileObject> sources = new ArrayList<JavaFileObject>();
+		int[] code = program.code;
+		int pc = 0;
+		int numOfClasses = 0;
+		while (pc < code.length) {
+			String className = prefix + numOfClasses++;
+			SourceWriter writer = new SourceWriter(program, className);
+			int end = pc;
+			for (int i = 0; i < CLASS_SIZE && end < code.length; i++) {
+				end = nextInstruction(code, end);
+			}
+			writer.writeClass(pc, end);
+			sources.add(new SourceFile(PACKAGE + "." + className, writer.toString()));
+			pc = end;
+		}
+
+		MemoryFileManager fileManager = new MemoryFileManager(compiler.getStandardFileManager(null, null, null));
+		StringWriter compilerOutput = new StringWriter();
+		ArrayList<String> options = new ArrayList<String>(Arrays.asList("-classpath", getClassPath(), "-nowarn",
+				"-g:none"));
+		boolean success;
+		try {
+			success = compiler.getTask(compilerOutput, fileManager, null, options, null, sources).call();
+		} catch (RuntimeException e) {
+			success = false;
+			compilerOutput.write(e.toString());
+		}
+		if (!success) {
+			System.err.println("[Witness Kernel] Compilation failed, falling back to the program interpreter.");
+			if (Config.debugVerbose) {
+				System.err.println(compilerOutput);
+			}
+			return null;
+		}
+
+		KernelClassLoader loader = new KernelClassLoader(fileManager.classes);
+		Constructor<?>[] segments = new Constructor<?>[numOfClasses];
+		try {
+			for (int i = 0; i < numOfClasses; i++) {
+				segments[i] = loader.loadClass(PACKAGE + "." + prefix + i).getDeclaredConstructor();
+			}
+		} catch (Exception e) {
+			throw new RuntimeException("Could not load the generated witness kernel", e);
+		}
+		return new WitnessKernel(segments, program);
+	}
+
+	/**
+	 * Runs the kernel. This has the same effect as
+	 * CircuitEvaluator.run(CircuitProgram) on the program the kernel was
+	 * compiled from. A kernel can be run by several threads at the same time,
+	 * on different evaluators.
+	 */
+	public void run(CircuitEvaluator evaluator) {
+		for (Constructor<?> constructor : segments) {
+			Segment segment;
+			try {
+				segment = (Segment) constructor.newInstance();
+			} catch (Exception e) {
+				throw new RuntimeException("Could not instantiate the generated witness kernel", e);
+			}
+			segment.bind(program, evaluator);
+			segment.evaluate();
+		}
+		evaluator.resolveInversions();
+	}
+
+	private static int nextInstruction(int[] code, int pc) {
+		if (code[pc] == CircuitProgram.EXTERNAL) {
+			return pc + 2;
+		}
+		int numOfInputs = code[pc + 2];
+		int numOfOutputs = code[pc + 3 + numOfInputs];
+		int next = pc + 4 + numOfInputs + numOfOutputs;
+		return code[pc] == CircuitProgram.CONST_MUL ? next + 1 : next;
+	}
+
+	private static String getClassPath() {
+		String classPath = System.getProperty("java.class.path");
+		try {
+			// the location this class was loaded from, in case it is not on
+			// the class path (e.g. when run from a container)
+			String location = new File(WitnessKernel.class.getProtectionDomain().getCodeSource().getLocation()
+					.toURI()).getPath();
+			classPath = location + File.pathSeparator + classPath;
+		} catch (Exception e) {
+			// the class path alone is used
+		}
+		return classPath;
+	}
+
+	private static class SourceWriter {
+
+		private final CircuitProgram program;
+		private final String className;
+		private final StringBuilder body = new StringBuilder();
+		private final StringBuilder fields = new StringBuilder();
+		private final HashMap<Integer, String> constantFields = new HashMap<Integer, String>();
+		private final HashMap<BigInteger, String> fieldsByValue = new HashMap<BigInteger, String>();
+
+		SourceWriter(CircuitProgram program, String className) {
+			this.program = program;
+			this.className = className;
+		}
+
+		void writeClass(int from, int to) {
+			int[] code = program.code;
+			int numOfMethods = 0;
+			int pc = from;
+			while (pc < to) {
+				body.append("\tprivate void m" + numOfMethods++ + "() {\n");
+				for (int i = 0; i < METHOD_SIZE && pc < to; i++) {
+					body.append("\t\t");
+					writeInstruction(code, pc);
+					body.append(";\n");
+					pc = nextInstruction(code, pc);
+				}
+				body.append("\t}\n\n");
+			}
+
+			StringBuilder evaluate = new StringBuilder("\tprotected void evaluate() {\n");
+			for (int i = 0; i < numOfMethods; i++) {
+				evaluate.append("\t\tm" + i + "();\n");
+			}
+			evaluate.append("\t}\n\n");
+			body.insert(0, evaluate);
+		}
+
+		private void writeInstruction(int[] code, int pc) {
+			int opcode = code[pc];
+			int index = code[pc + 1];
+			if (opcode == CircuitProgram.EXTERNAL) {
+				body.append("external(" + index + ")");
+				return;
+			}
+			int numOfInputs = code[pc + 2];
+			int in = pc + 3;
+			int numOfOutputs = code[in + numOfInputs];
+			int out = in + numOfInputs + 1;
+			switch (opcode) {
+			case CircuitProgram.ADD:
+				if (numOfInputs == 2) {
+					call("add", index, code[in], code[in + 1], code[out]);
+				} else {
+					call("add", index, pc);
+				}
+				break;
+			case CircuitProgram.MUL:
+				call("mul", index, code[in], code[in + 1], code[out]);
+				break;
+			case CircuitProgram.CONST_MUL:
+				String field = getConstantField(code[out + numOfOutputs]);
+				body.append("constMul(" + index + ", " + code[in] + ", " + code[out] + ", " + field + ", " + field
+						+ "_SMALL)");
+				break;
+			case CircuitProgram.XOR:
+				call("xor", index, code[in], code[in + 1], code[out]);
+				break;
+			case CircuitProgram.OR:
+				call("or", index, code[in], code[in + 1], code[out]);
+				break;
+			case CircuitProgram.SPLIT:
+				call("split", index, pc);
+				break;
+			case CircuitProgram.PACK:
+				call("pack", index, pc);
+				break;
+			case CircuitProgram.ZEROP:
+				call("zerop", index, code[in], code[out], code[out + 1]);
+				break;
+			case CircuitProgram.ASSERT:
+				call("assertion", index, code[in], code[in + 1], code[out]);
+				break;
+			default:
+				throw new RuntimeException("Unknown opcode in the compiled program: " + opcode);
+			}
+		}
+
+		private void call(String method, int... args) {
+			body.append(method).append('(');
+			for (int i = 0; i < args.length; i++) {
+				if (i > 0) {
+					body.append(", ");
+				}
+				body.append(args[i]);
+			}
+			body.append(')');
+		}
+
+		private String getConstantField(int constIndex) {
+			String field = constantFields.get(constIndex);
+			if (field == null) {
+				BigInteger constant = program.constants[constIndex];
+				field = fieldsByValue.get(constant);
+				if (field == null) {
+					field = "C" + fieldsByValue.size();
+					fieldsByValue.put(constant, field);
+					fields.append("\tprivate static final BigInteger " + field + " = new BigInteger(\""
+							+ constant.toString(16) + "\", 16);\n");
+					fields.append("\tprivate static final long " + field + "_SMALL = "
+							+ program.smallConstants[constIndex] + "L;\n");
+				}
+				constantFields.put(constIndex, field);
+			}
+			return field;
+		}
+
+		@Override
+		public String toString() {
+			return "package " + PACKAGE + ";\n\n" + "import java.math.BigInteger;\n\n" + "public final class "
+					+ className + " extends " + Segment.class.getCanonicalName() + " {\n\n" + fields + "\n" + body
+					+ "}\n";
+		}
+	}
+
+	private static class SourceFile extends SimpleJavaFileObject {
+
+		private final String source;
+
+		SourceFile(String className, String source) {
+			super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+			this.source = source;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return source;
+		}
+	}
+
+	private static class ClassFile extends SimpleJavaFileObject {
+
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		ClassFile(String className) {
+			super(URI.create("bytes:///" + className.replace('.', '/') + Kind.CLASS.extension), Kind.CLASS);
+		}
+
+		@Override
+		public OutputStream openOutputStream() {
+			return bytes;
+		}
+	}
+
+	private static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+		private final HashMap<String, ClassFile> classes = new HashMap<String, ClassFile>();
+
+		MemoryFileManager(StandardJavaFileManager fileManager) {
+			super(fileManager);
+		}
+
+		@Override
+		public JavaFileObject getJavaFileForOutput(Location location, String className, Kind kind, FileObject sibling)
+				throws IOException {
+			ClassFile file = new ClassFile(className);
+			classes.put(className, file);
+			return file;
+		}
+	}
+
+	private static class KernelClassLoader extends ClassLoader {
+
+		private final HashMap<String, ClassFile> classes;
+
+		KernelClassLoader(HashMap<String, ClassFile> classes) {
+			super(WitnessKernel.class.getClassLoader());
+			this.classes = classes;
+		}
+
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			ClassFile file = classes.get(name);
+			if (file == null) {
+				throw new ClassNotFoundException(name);
+			}
+			byte[] bytes = file.bytes.toByteArray();
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+
+	/**
+	 * The base class of the generated code. The operations mirror the cases
+	 * of CircuitEvaluator.run(CircuitProgram), with the wire ids given
+	 * directly as arguments. Operations with a variable number of wires (wide
+	 * additions, split and pack) read them from the program at the given
+	 * position.
+	 */
+	public static abstract class Segment {
+
+		private Instruction[] instructions;
+		private int[] code;
+
+		private CircuitEvaluator evaluator;
+		private BigInteger[] values;
+		private long[] smallValues;
+		private boolean[] hasSmallValue;
+		private boolean checks;
+		private boolean lazy;
+
+		protected abstract void evaluate();
+
+		private void bind(CircuitProgram program, CircuitEvaluator evaluator) {
+			instructions = program.instructions;
+			code = program.code;
+			this.evaluator = evaluator;
+			values = evaluator.getValueArray();
+			smallValues = evaluator.getSmallValueArray();
+			hasSmallValue = evaluator.getHasSmallValueArray();
+			checks = Config.evaluationChecks;
+			lazy = Config.lazyReduction;
+		}
+
+		private BigInteger value(int id) {
+			BigInteger v = values[id];
+			// small values and pending inversions are handled by the evaluator
+			return v != null ? v : evaluator.value(id);
+		}
+
+		private void store(int id, BigInteger v) {
+			values[id] = v;
+			if (hasSmallValue != null) {
+				hasSmallValue[id] = v.signum() >= 0 && v.bitLength() < 64;
+				if (hasSmallValue[id]) {
+					smallValues[id] = v.longValue();
+				}
+			}
+		}
+
+		private void storeSmall(int id, long v) {
+			smallValues[id] = v;
+			hasSmallValue[id] = true;
+		}
+
+		private boolean small(int id) {
+			return hasSmallValue != null && hasSmallValue[id];
+		}
+
+		private boolean isAssigned(int id) {
+			return values[id] != null || evaluator.isAssigned(id);
+		}
+
+		private void check(int index, int a, int b, int out) {
+			if (!isAssigned(a) || (b >= 0 && !isAssigned(b)) || isAssigned(out)) {
+				// evaluating the instruction itself reports the error
+				instructions[index].evaluate(evaluator);
+			}
+		}
+
+		private void check(int index, int pc) {
+			int numOfInputs = code[pc + 2];
+			int in = pc + 3;
+			int numOfOutputs = code[in + numOfInputs];
+			int out = in + numOfInputs + 1;
+			for (int i = 0; i < numOfInputs; i++) {
+				if (!isAssigned(code[in + i])) {
+					instructions[index].evaluate(evaluator);
+				}
+			}
+			for (int i = 0; i < numOfOutputs; i++) {
+				if (isAssigned(code[out + i])) {
+					instructions[index].evaluate(evaluator);
+				}
+			}
+			if (code[pc] == CircuitProgram.PACK) {
+				for (int i = 0; i < numOfInputs; i++) {
+					if (!evaluator.isBinary(code[in + i])) {
+						instructions[index].evaluate(evaluator);
+					}
+				}
+			} else if (code[pc] == CircuitProgram.SPLIT && !evaluator.fitsInBits(code[in], numOfOutputs)) {
+				instructions[index].evaluate(evaluator);
+			}
+		}
+
+		private void checkBinary(int index, int a, int b, int out) {
+			check(index, a, b, out);
+			if (!evaluator.isBinary(a) || !evaluator.isBinary(b)) {
+				instructions[index].evaluate(evaluator);
+			}
+		}
+
+		private BigInteger reduceSum(BigInteger sum) {
+			return lazy ? LazyReduction.reduceIfLarge(sum) : LazyReduction.mod(sum);
+		}
+
+		private static boolean fits(long a, long b) {
+			return a == 0 || Long.numberOfLeadingZeros(a) + Long.numberOfLeadingZeros(b) >= 65;
+		}
+
+		protected final void external(int index) {
+			Instruction e = instructions[index];
+			e.evaluate(evaluator);
+			e.emit(evaluator);
+		}
+
+		protected final void add(int index, int a, int b, int out) {
+			if (checks) {
+				check(index, a, b, out);
+			}
+			if (small(a) && small(b)) {
+				long sum = smallValues[a] + smallValues[b];
+				if (sum >= 0) {
+					storeSmall(out, sum);
+					return;
+				}
+			}
+			store(out, reduceSum(value(a).add(value(b))));
+		}
+
+		protected final void add(int index, int pc) {
+			if (checks) {
+				check(index, pc);
+			}
+			int numOfInputs = code[pc + 2];
+			int in = pc + 3;
+			int out = code[in + numOfInputs + 1];
+			if (hasSmallValue != null) {
+				long sum = 0;
+				int i = 0;
+				for (; i < numOfInputs && sum >= 0 && hasSmallValue[code[in + i]]; i++) {
+					sum += smallValues[code[in + i]];
+				}
+				if (i == numOfInputs && sum >= 0) {
+					storeSmall(out, sum);
+					return;
+				}
+			}
+			BigInteger sum = BigInteger.ZERO;
+			for (int i = 0; i < numOfInputs; i++) {
+				sum = sum.add(value(code[in + i]));
+			}
+			store(out, reduceSum(sum));
+		}
+
+		protected final void mul(int index, int a, int b, int out) {
+			if (checks) {
+				check(index, a, b, out);
+			}
+			if (small(a) && small(b) && fits(smallValues[a], smallValues[b])) {
+				storeSmall(out, smallValues[a] * smallValues[b]);
+				return;
+			}
+			BigInteger result = value(a).multiply(value(b));
+			if (result.compareTo(Config.FIELD_PRIME) > 0) {
+				result = LazyReduction.mod(result);
+			}
+			store(out, result);
+		}
+
+		protected final void constMul(int index, int a, int out, BigInteger constant, long smallConstant) {
+			if (checks) {
+				check(index, a, -1, out);
+			}
+			if (smallConstant >= 0 && small(a) && fits(smallValues[a], smallConstant)) {
+				storeSmall(out, smallValues[a] * smallConstant);
+				return;
+			}
+			BigInteger result = value(a).multiply(constant);
+			if (lazy) {
+				result = LazyReduction.reduceIfLarge(result);
+			} else if (result.bitLength() >= Config.LOG2_FIELD_PRIME) {
+				result = LazyReduction.mod(result);
+			}
+			store(out, result);
+		}
+
+		protected final void xor(int index, int a, int b, int out) {
+			if (checks) {
+				checkBinary(index, a, b, out);
+			}
+			if (small(a) && small(b)) {
+				storeSmall(out, smallValues[a] ^ smallValues[b]);
+			} else {
+				store(out, LazyReduction.reduce(value(a)).xor(LazyReduction.reduce(value(b))));
+			}
+		}
+
+		protected final void or(int index, int a, int b, int out) {
+			if (checks) {
+				checkBinary(index, a, b, out);
+			}
+			if (small(a) && small(b)) {
+				storeSmall(out, smallValues[a] | smallValues[b]);
+			} else {
+				store(out, LazyReduction.reduce(value(a)).or(LazyReduction.reduce(value(b))));
+			}
+		}
+
+		protected final void split(int index, int pc) {
+			if (checks) {
+				check(index, pc);
+			}
+			int a = code[pc + 3];
+			int numOfOutputs = code[pc + 4];
+			int out = pc + 5;
+			if (small(a)) {
+				long inVal = smallValues[a];
+				for (int i = 0; i < numOfOutputs; i++) {
+					storeSmall(code[out + i], i < 64 ? (inVal >>> i) & 1 : 0);
+				}
+			} else {
+				BigInteger inVal = LazyReduction.reduce(value(a));
+				for (int i = 0; i < numOfOutputs; i++) {
+					store(code[out + i], inVal.testBit(i) ? BigInteger.ONE : BigInteger.ZERO);
+				}
+			}
+		}
+
+		protected final void pack(int index, int pc) {
+			if (checks) {
+				check(index, pc);
+			}
+			int numOfInputs = code[pc + 2];
+			int in = pc + 3;
+			int out = code[in + numOfInputs + 1];
+			if (hasSmallValue != null && numOfInputs < 64) {
+				long sum = 0;
+				int i = 0;
+				for (; i < numOfInputs && hasSmallValue[code[in + i]]; i++) {
+					long v = smallValues[code[in + i]];
+					if (v != 0) {
+						if (i >= 63 || Long.numberOfLeadingZeros(v) <= i) {
+							break;
+						}
+						sum += v << i;
+						if (sum < 0) {
+							break;
+						}
+					}
+				}
+				if (i == numOfInputs) {
+					storeSmall(out, sum);
+					return;
+				}
+			}
+			BigInteger sum = BigInteger.ZERO;
+			for (int i = 0; i < numOfInputs; i++) {
+				sum = sum.add(value(code[in + i]).shiftLeft(i));
+			}
+			store(out, LazyReduction.mod(sum));
+		}
+
+		protected final void zerop(int index, int a, int out0, int out1) {
+			if (checks) {
+				check(index, a, -1, out0);
+				check(index, a, -1, out1);
+			}
+			if (small(a)) {
+				storeSmall(out1, smallValues[a] == 0 ? 0 : 1);
+				storeSmall(out0, 0);
+			} else {
+				store(out1, LazyReduction.reduce(value(a)).signum() == 0 ? BigInteger.ZERO : BigInteger.ONE);
+				store(out0, BigInteger.ZERO);
+			}
+		}
+
+		protected final void assertion(int index, int a, int b, int c) {
+			if (evaluator.hasPendingInversions() && evaluator.deferIfPending(instructions[index], a, b, c)) {
+				return;
+			}
+			if (checks && (!isAssigned(a) || !isAssigned(b) || !isAssigned(c))) {
+				instructions[index].evaluate(evaluator);
+			}
+			if (small(a) && small(b) && small(c) && fits(smallValues[a], smallValues[b])
+					&& smallValues[a] * smallValues[b] == smallValues[c]) {
+				return;
+			}
+			BigInteger leftSide = LazyReduction.mod(value(a).multiply(value(b)));
+			if (!leftSide.equals(LazyReduction.reduce(value(c)))) {
+				// reports the failed assertion
+				instructions[index].evaluate(evaluator);
+			}
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.eval;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import circuit.operations.WireLabelInstruction;
+import circuit.operations.primitive.AssertBasicOp;
+import circuit.operations.primitive.BasicOp;
+import circuit.structure.Wire;
+
+/**
+ * Evaluates the instructions of a circuit while running the witness
+ * computations that declare their inputs and outputs (see WitnessComputation)
+ * on a pool of worker threads.
+ *
+ * The outputs of a running computation are blocked. An instruction that reads
+ * a blocked wire is postponed (and its outputs are blocked too), while the
+ * following independent instructions keep being evaluated. The postponed
+ * instructions are evaluated in their original order once their inputs are
+ * available. Instructions that do not declare their inputs (e.g. the
+ * anonymous witness computations of older gadgets) act as barriers: all the
+ * running computations and postponed instructions are completed before they
+ * are evaluated.
+ */
+class WitnessScheduler {
+
+	// idle workers exit after this time, so that a replaced pool releases its
+	// threads once its remaining computations are done
+	private static final long KEEP_ALIVE_SECONDS = 30;
+
+	private static ThreadPoolExecutor executor;
+
+	private final CircuitEvaluator evaluator;
+	private final ExecutorService workers;
+	private final boolean[] blocked;
+	private final ArrayDeque<RunningComputation> running = new ArrayDeque<RunningComputation>();
+	private final ArrayList<Instruction> postponed = new ArrayList<Instruction>();
+
+	private static class RunningComputation {
+		final WitnessComputation computation;
+		final Future<?> future;
+
+		RunningComputation(WitnessComputation computation, Future<?> future) {
+			this.computation = computation;
+			this.future = future;
+		}
+	}
+
+	private static class WorkerThread extends Thread {
+		WorkerThread(Runnable r) {
+			super(r, "witness-worker");
+			setDaemon(true);
+		}
+	}
+
+	WitnessScheduler(CircuitEvaluator evaluator, int numOfThreads) {
+		this.evaluator = evaluator;
+		this.workers = getExecutor(numOfThreads);
+		this.blocked = new boolean[evaluator.getValueArray().length];
+	}
+
+	/**
+	 * Returns the shared pool with the given number of threads. When the number
+	 * changes, a new pool replaces the previous one, which is not shut down, as
+	 * other evaluators may still be submitting to it.
+	 */
+	private static synchronized ExecutorService getExecutor(int numOfThreads) {
+		if (executor == null || executor.getMaximumPoolSize() != numOfThreads) {
+			executor = new ThreadPoolExecutor(numOfThreads, numOfThreads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							return new WorkerThread(r);
+						}
+					});
+			executor.allowCoreThreadTimeOut(true);
+		}
+		return executor;
+	}
+
+	/**
+	 * Returns true when called from a witness computation running on a worker.
+	 */
+	static boolean isWorkerThread() {
+		return Thread.currentThread() instanceof WorkerThread;
+	}
+
+	void run(Iterable<Instruction> instructions) {
+		for (Instruction e : instructions) {
+			if (!running.isEmpty()) {
+				collectCompleted(false);
+			}
+			if (!declaresWires(e)) {
+				completeAll();
+				evaluate(e);
+			} else if ((!running.isEmpty() || !postponed.isEmpty()) && readsBlockedWire(e)) {
+				postpone(e);
+			} else {
+				evaluate(e);
+			}
+		}
+		completeAll();
+	}
+
+	private static boolean declaresWires(Instruction e) {
+		return e instanceof BasicOp || e instanceof WitnessComputation || e instanceof WireLabelInstruction;
+	}
+
+	private boolean readsBlockedWire(Instruction e) {
+		if (e instanceof WitnessComputation) {
+			return isBlocked(((WitnessComputation) e).getInputs());
+		} else if (e instanceof WireLabelInstruction) {
+			return blocked[((WireLabelInstruction) e).getWire().getWireId()];
+		}
+		BasicOp op = (BasicOp) e;
+		// the output of an assertion is one of the values it checks
+		return isBlocked(op.getInputs()) || (op instanceof AssertBasicOp && isBlocked(op.getOutputs()));
+	}
+
+	private boolean isBlocked(Wire[] wires) {
+		for (Wire w : wires) {
+			if (blocked[w.getWireId()]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void setBlocked(Wire[] wires, boolean value) {
+		for (Wire w : wires) {
+			blocked[w.getWireId()] = value;
+		}
+	}
+
+	private static Wire[] getOutputs(Instruction e) {
+		if (e instanceof WitnessComputation) {
+			return ((WitnessComputation) e).getOutputs();
+		} else if (e instanceof BasicOp && !(e instanceof AssertBasicOp)) {
+			return ((BasicOp) e).getOutputs();
+		}
+		return new Wire[0];
+	}
+
+	private void postpone(Instruction e) {
+		postponed.add(e);
+		setBlocked(getOutputs(e), true);
+	}
+
+	private void evaluate(Instruction e) {
+		if (e instanceof WitnessComputation) {
+			final WitnessComputation computation = (WitnessComputation) e;
+			// the inputs are read (and reduced) before the computation starts,
+			// so that the worker does not modify the evaluator's state
+			evaluator.getWiresValues(computation.getInputs());
+			setBlocked(computation.getOutputs(), true);
+			Future<?> future = workers.submit(new Runnable() {
+				@Override
+				public void run() {
+					computation.evaluate(evaluator);
+				}
+			});
+			running.add(new RunningComputation(computation, future));
+		} else {
+			e.evaluate(evaluator);
+			e.emit(evaluator);
+		}
+	}
+
+	/**
+	 * Unblocks the outputs of the computations that are done (waiting for the
+	 * oldest one if wait is true), and evaluates the postponed instructions
+	 * that can be evaluated then.
+	 */
+	private void collectCompleted(boolean wait) {
+		boolean completed = false;
+		Iterator<RunningComputation> it = running.iterator();
+		while (it.hasNext()) {
+			RunningComputation c = it.next();
+			if (c.future.isDone() || (wait && !completed)) {
+				try {
+					c.future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while waiting for a witness computation", e);
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					throw new RuntimeException(cause);
+				}
+				it.remove();
+				setBlocked(c.computation.getOutputs(), false);
+				completed = true;
+			}
+		}
+		if (completed && !postponed.isEmpty()) {
+			evaluatePostponed();
+		}
+	}
+
+	private void evaluatePostponed() {
+		ArrayList<Instruction> instructions = new ArrayList<Instruction>(postponed);
+		postponed.clear();
+		for (Instruction e : instructions) {
+			// the outputs of the instruction are blocked because it was
+			// postponed, and are unblocked if it can be evaluated now
+			Wire[] outputs = getOutputs(e);
+			setBlocked(outputs, false);
+			if (readsBlockedWire(e)) {
+				postpone(e);
+			} else {
+				evaluate(e);
+			}
+		}
+	}
+
+	private void completeAll() {
+		while (!running.isEmpty()) {
+			collectCompleted(true);
+		}
+		if (!postponed.isEmpty()) {
+			// only possible if the postponed instructions depend on each other
+			// in a different order than the evaluation queue
+			throw new RuntimeException("Postponed instructions could not be evaluated");
+		}
+	}
+}
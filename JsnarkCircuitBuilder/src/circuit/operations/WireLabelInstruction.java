@@ -52,6 +52,10 @@ public class WireLabelInstruction implements Instruction {
 		return type;
 	}
 
+	public String getDesc() {
+		return desc;
+	}
+
 	public boolean doneWithinCircuit() {
 		return type != LabelType.debug;
 	}
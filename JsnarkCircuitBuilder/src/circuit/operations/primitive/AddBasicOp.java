@@ -6,6 +6,8 @@ package circuit.operations.primitive;
 import java.math.BigInteger;
 
 import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.LazyReduction;
 import circuit.structure.Wire;
 
 public class AddBasicOp extends BasicOp {
@@ -18,13 +20,32 @@ public class AddBasicOp extends BasicOp {
 		return "add";
 	}
 	
+	@Override
+	protected boolean computeSmall(CircuitEvaluator evaluator) {
+		if (!hasSmallInputs(evaluator)) {
+			return false;
+		}
+		long s = 0;
+		for (Wire w : inputs) {
+			s += evaluator.getSmallValue(w.getWireId());
+			if (s < 0) {
+				// overflow (all the values are below 2^63)
+				return false;
+			}
+		}
+		evaluator.setSmallValue(outputs[0].getWireId(), s);
+		return true;
+	}
+
 	@Override
 	public void compute(BigInteger[] assignment) {
 		BigInteger s = BigInteger.ZERO;
 		for (Wire w : inputs) {
 			s = s.add(assignment[w.getWireId()]);
 		}
-		assignment[outputs[0].getWireId()] = s.mod(Config.FIELD_PRIME);
+		// with lazy reduction, the sum is only reduced when it gets too large
+		assignment[outputs[0].getWireId()] = Config.lazyReduction ? LazyReduction.reduceIfLarge(s)
+				: LazyReduction.mod(s);
 	}
 	
 	@Override
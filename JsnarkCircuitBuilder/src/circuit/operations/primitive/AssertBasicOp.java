@@ -5,7 +5,8 @@ package circuit.operations.primitive;
 
 import java.math.BigInteger;
 
-import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.LazyReduction;
 import circuit.structure.Wire;
 
 public class AssertBasicOp extends BasicOp {
@@ -14,12 +15,36 @@ public class AssertBasicOp extends BasicOp {
 		super(new Wire[] { w1, w2 }, new Wire[] { output }, desc);
 	}
 	
+	@Override
+	public void evaluate(CircuitEvaluator evaluator) {
+		// an assertion on the result of a pending division is checked once
+		// the inversions are resolved
+		if (!evaluator.deferIfPending(this, inputs, outputs)) {
+			super.evaluate(evaluator);
+		}
+	}
+
+	@Override
+	protected boolean computeSmall(CircuitEvaluator evaluator) {
+		int outId = outputs[0].getWireId();
+		if (!evaluator.hasSmallValue(inputs[0].getWireId()) || !evaluator.hasSmallValue(inputs[1].getWireId())
+				|| !evaluator.hasSmallValue(outId)) {
+			return false;
+		}
+		long a = evaluator.getSmallValue(inputs[0].getWireId());
+		long b = evaluator.getSmallValue(inputs[1].getWireId());
+		if (a != 0 && Long.numberOfLeadingZeros(a) + Long.numberOfLeadingZeros(b) < 65) {
+			return false;
+		}
+		// a failed check is reported by compute()
+		return a * b == evaluator.getSmallValue(outId);
+	}
+
 	@Override
 	protected void compute(BigInteger[] assignment) {
-		BigInteger leftSide = assignment[inputs[0].getWireId()].multiply(
-				assignment[inputs[1].getWireId()]).mod(
-						Config.FIELD_PRIME);
-		BigInteger rightSide = assignment[outputs[0].getWireId()];
+		BigInteger leftSide = LazyReduction.mod(assignment[inputs[0].getWireId()].multiply(
+				assignment[inputs[1].getWireId()]));
+		BigInteger rightSide = LazyReduction.reduce(assignment[outputs[0].getWireId()]);
 		boolean check = leftSide.equals(rightSide);
 		if (!check) {
 			System.err.println("Error - Assertion Failed " + this);
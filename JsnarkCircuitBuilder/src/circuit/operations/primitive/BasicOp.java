@@ -49,10 +49,39 @@ public abstract class BasicOp implements Instruction {
 	}
 
 	public void evaluate(CircuitEvaluator evaluator) {
-		BigInteger[] assignment = evaluator.getAssignment();
+		if (evaluator.isSmallValueEvaluationEnabled() && computeSmall(evaluator)) {
+			return;
+		}
+		BigInteger[] assignment = evaluator.getAssignment(inputs, outputs);
 		checkInputs(assignment);
 		checkOutputs(assignment);
 		compute(assignment);
+		evaluator.updateSmallValues(outputs);
+	}
+
+	/**
+	 * Computes the outputs using primitive long arithmetic, when all the
+	 * inputs have small values. Returns false if this is not possible (e.g.
+	 * an input is a full field element, or the result overflows), in which
+	 * case compute() is used instead. Error cases are also left to compute(),
+	 * so that they are reported in the same way.
+	 */
+	protected boolean computeSmall(CircuitEvaluator evaluator) {
+		return false;
+	}
+
+	protected boolean hasSmallInputs(CircuitEvaluator evaluator) {
+		for (Wire w : inputs) {
+			if (!evaluator.hasSmallValue(w.getWireId())) {
+				return false;
+			}
+		}
+		for (Wire w : outputs) {
+			if (evaluator.isAssigned(w.getWireId())) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	protected void checkInputs(BigInteger[] assignment) {
@@ -91,6 +120,10 @@ public abstract class BasicOp implements Instruction {
 		return outputs;
 	}
 
+	public String getDesc() {
+		return desc;
+	}
+
 	public boolean doneWithinCircuit() {
 		return true;
 	}
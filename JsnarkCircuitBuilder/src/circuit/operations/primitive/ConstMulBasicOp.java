@@ -6,12 +6,17 @@ package circuit.operations.primitive;
 import java.math.BigInteger;
 
 import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.LazyReduction;
 import circuit.structure.Wire;
 
 public class ConstMulBasicOp extends BasicOp {
 
 	private BigInteger constInteger;
 	private boolean inSign;
+	private String opcode;
+	// the constant as a long, or -1 if it does not fit
+	private long smallConst;
 	
 	public ConstMulBasicOp(Wire w, Wire out, BigInteger constInteger,
 			String...desc) {
@@ -25,25 +30,49 @@ public class ConstMulBasicOp extends BasicOp {
 			constInteger = constInteger.mod(Config.FIELD_PRIME);
 			this.constInteger = Config.FIELD_PRIME.subtract(constInteger);
 		}
+		smallConst = this.constInteger.bitLength() < 64 ? this.constInteger.longValue() : -1;
 	}
 
 	public String getOpcode(){
-		if (!inSign) {
-			return "const-mul-" + constInteger.toString(16);
-		} else{
-			return "const-mul-neg-" + Config.FIELD_PRIME.subtract(constInteger).toString(16);
+		// cached, as the hex conversion is expensive when writing large circuits
+		if (opcode == null) {
+			if (!inSign) {
+				opcode = "const-mul-" + constInteger.toString(16);
+			} else{
+				opcode = "const-mul-neg-" + Config.FIELD_PRIME.subtract(constInteger).toString(16);
+			}
 		}
+		return opcode;
 	}
 	
+	@Override
+	protected boolean computeSmall(CircuitEvaluator evaluator) {
+		if (smallConst < 0 || !hasSmallInputs(evaluator)) {
+			return false;
+		}
+		long a = evaluator.getSmallValue(inputs[0].getWireId());
+		if (a != 0 && Long.numberOfLeadingZeros(a) + Long.numberOfLeadingZeros(smallConst) < 65) {
+			return false;
+		}
+		evaluator.setSmallValue(outputs[0].getWireId(), a * smallConst);
+		return true;
+	}
+
 	@Override
 	public void compute(BigInteger[] assignment) {
 		BigInteger result = assignment[inputs[0].getWireId()].multiply(constInteger);
-		if (result.bitLength() >= Config.LOG2_FIELD_PRIME) {
-			result = result.mod(Config.FIELD_PRIME);
+		if (Config.lazyReduction) {
+			result = LazyReduction.reduceIfLarge(result);
+		} else if (result.bitLength() >= Config.LOG2_FIELD_PRIME) {
+			result = LazyReduction.mod(result);
 		}
 		assignment[outputs[0].getWireId()] = result;
 	}
 	
+	public BigInteger getConstInteger() {
+		return constInteger;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (this == obj)
@@ -6,6 +6,8 @@ package circuit.operations.primitive;
 import java.math.BigInteger;
 
 import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.LazyReduction;
 import circuit.structure.Wire;
 
 public class MulBasicOp extends BasicOp {
@@ -18,12 +20,27 @@ public class MulBasicOp extends BasicOp {
 		return "mul";
 	}
 	
+	@Override
+	protected boolean computeSmall(CircuitEvaluator evaluator) {
+		if (!hasSmallInputs(evaluator)) {
+			return false;
+		}
+		long a = evaluator.getSmallValue(inputs[0].getWireId());
+		long b = evaluator.getSmallValue(inputs[1].getWireId());
+		if (a != 0 && Long.numberOfLeadingZeros(a) + Long.numberOfLeadingZeros(b) < 65) {
+			// the product may need 64 bits or more
+			return false;
+		}
+		evaluator.setSmallValue(outputs[0].getWireId(), a * b);
+		return true;
+	}
+
 	@Override
 	public void compute(BigInteger[] assignment) {
 		BigInteger result = assignment[inputs[0].getWireId()]
 				.multiply(assignment[inputs[1].getWireId()]);
 		if (result.compareTo(Config.FIELD_PRIME) > 0) {
-			result = result.mod(Config.FIELD_PRIME);
+			result = LazyReduction.mod(result);
 		}
 		assignment[outputs[0].getWireId()] = result;
 	}
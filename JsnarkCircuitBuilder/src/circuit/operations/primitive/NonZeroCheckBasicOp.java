@@ -5,6 +5,8 @@ package circuit.operations.primitive;
 
 import java.math.BigInteger;
 
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.LazyReduction;
 import circuit.structure.Wire;
 
 public class NonZeroCheckBasicOp extends BasicOp {
@@ -16,10 +18,20 @@ public class NonZeroCheckBasicOp extends BasicOp {
 	public String getOpcode(){
 		return "zerop";
 	}
+	@Override
+	protected boolean computeSmall(CircuitEvaluator evaluator) {
+		if (!hasSmallInputs(evaluator)) {
+			return false;
+		}
+		evaluator.setSmallValue(outputs[1].getWireId(), evaluator.getSmallValue(inputs[0].getWireId()) == 0 ? 0 : 1);
+		evaluator.setSmallValue(outputs[0].getWireId(), 0); // a dummy value
+		return true;
+	}
+
 	@Override
 	public void compute(BigInteger[] assignment) {
 
-		if (assignment[inputs[0].getWireId()].signum() == 0) {
+		if (LazyReduction.reduce(assignment[inputs[0].getWireId()]).signum() == 0) {
 			assignment[outputs[1].getWireId()] = BigInteger.ZERO;
 		} else {
 			assignment[outputs[1].getWireId()] = BigInteger.ONE;
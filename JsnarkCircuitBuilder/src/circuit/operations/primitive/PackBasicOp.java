@@ -6,7 +6,8 @@ package circuit.operations.primitive;
 import java.math.BigInteger;
 
 import util.Util;
-import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.LazyReduction;
 import circuit.structure.Wire;
 
 public class PackBasicOp extends BasicOp {
@@ -24,7 +25,7 @@ public class PackBasicOp extends BasicOp {
 		super.checkInputs(assignment);
 		boolean check = true;
 		for (int i = 0; i < inputs.length; i++) {
-			check &= Util.isBinary(assignment[inputs[i].getWireId()]);
+			check &= Util.isBinary(LazyReduction.reduce(assignment[inputs[i].getWireId()]));
 		}
 		if (!check) {
 			System.err.println("Error - Input(s) to Pack are not binary. "
@@ -34,6 +35,30 @@ public class PackBasicOp extends BasicOp {
 		}
 	}
 
+	@Override
+	protected boolean computeSmall(CircuitEvaluator evaluator) {
+		if (!hasSmallInputs(evaluator)) {
+			return false;
+		}
+		long sum = 0;
+		for (int i = 0; i < inputs.length; i++) {
+			long v = evaluator.getSmallValue(inputs[i].getWireId());
+			if (v == 0) {
+				continue;
+			}
+			// non-binary inputs are reported by checkInputs()
+			if (v > 1 || i >= 63) {
+				return false;
+			}
+			sum += v << i;
+			if (sum < 0) {
+				return false;
+			}
+		}
+		evaluator.setSmallValue(outputs[0].getWireId(), sum);
+		return true;
+	}
+
 	@Override
 	public void compute(BigInteger[] assignment) {
 		BigInteger sum = BigInteger.ZERO;
@@ -41,7 +66,7 @@ public class PackBasicOp extends BasicOp {
 			sum = sum.add(assignment[inputs[i].getWireId()]
 					.multiply(new BigInteger("2").pow(i)));
 		}
-		assignment[outputs[0].getWireId()] = sum.mod(Config.FIELD_PRIME);
+		assignment[outputs[0].getWireId()] = LazyReduction.mod(sum);
 	}
 
 	@Override
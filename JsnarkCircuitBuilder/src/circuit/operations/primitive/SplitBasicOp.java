@@ -5,7 +5,8 @@ package circuit.operations.primitive;
 
 import java.math.BigInteger;
 
-import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.LazyReduction;
 import circuit.structure.Wire;
 
 public class SplitBasicOp extends BasicOp {
@@ -20,22 +21,36 @@ public class SplitBasicOp extends BasicOp {
 	
 	protected void checkInputs(BigInteger[] assignment) {
 		super.checkInputs(assignment);
-		if (outputs.length < assignment[inputs[0].getWireId()].bitLength()) {
+		BigInteger inVal = LazyReduction.reduce(assignment[inputs[0].getWireId()]);
+		if (outputs.length < inVal.bitLength()) {
 			System.err
 					.println("Error in Split --- The number of bits does not fit -- Input: "
-							+ assignment[inputs[0].getWireId()].toString(16) + "\n\t" + this);
+							+ inVal.toString(16) + "\n\t" + this);
 
 			throw new RuntimeException("Error During Evaluation -- " + this);
 		}
 	}
 
+	@Override
+	protected boolean computeSmall(CircuitEvaluator evaluator) {
+		if (!hasSmallInputs(evaluator)) {
+			return false;
+		}
+		long inVal = evaluator.getSmallValue(inputs[0].getWireId());
+		if (outputs.length < 64 && (inVal >>> outputs.length) != 0) {
+			// reported by checkInputs()
+			return false;
+		}
+		for (int i = 0; i < outputs.length; i++) {
+			evaluator.setSmallValue(outputs[i].getWireId(), i < 64 ? (inVal >>> i) & 1 : 0);
+		}
+		return true;
+	}
+
 	@Override
 	protected void compute(BigInteger[] assignment) {
 
-		BigInteger inVal = assignment[inputs[0].getWireId()];
-		if (inVal.compareTo(Config.FIELD_PRIME) > 0) {
-			inVal = inVal.mod(Config.FIELD_PRIME);
-		}
+		BigInteger inVal = LazyReduction.reduce(assignment[inputs[0].getWireId()]);
 		for (int i = 0; i < outputs.length; i++) {
 			assignment[outputs[i].getWireId()] = inVal.testBit(i) ? BigInteger.ONE
 					: BigInteger.ZERO;
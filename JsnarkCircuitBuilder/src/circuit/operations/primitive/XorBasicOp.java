@@ -6,6 +6,8 @@ package circuit.operations.primitive;
 import java.math.BigInteger;
 
 import util.Util;
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.LazyReduction;
 import circuit.structure.Wire;
 
 public class XorBasicOp extends BasicOp {
@@ -20,8 +22,8 @@ public class XorBasicOp extends BasicOp {
 
 	public void checkInputs(BigInteger[] assignment) {
 		super.checkInputs(assignment);
-		boolean check = Util.isBinary(assignment[inputs[0].getWireId()])
-				&& Util.isBinary(assignment[inputs[1].getWireId()]);
+		boolean check = Util.isBinary(LazyReduction.reduce(assignment[inputs[0].getWireId()]))
+				&& Util.isBinary(LazyReduction.reduce(assignment[inputs[1].getWireId()]));
 		if (!check){
 			System.err.println("Error - Input(s) to XOR are not binary. "
 					+ this);
@@ -30,10 +32,22 @@ public class XorBasicOp extends BasicOp {
 		}
 	}
 
+	@Override
+	protected boolean computeSmall(CircuitEvaluator evaluator) {
+		if (!hasSmallInputs(evaluator) || evaluator.getSmallValue(inputs[0].getWireId()) > 1
+				|| evaluator.getSmallValue(inputs[1].getWireId()) > 1) {
+			// non-binary inputs are reported by checkInputs()
+			return false;
+		}
+		evaluator.setSmallValue(outputs[0].getWireId(), evaluator.getSmallValue(inputs[0].getWireId())
+				^ evaluator.getSmallValue(inputs[1].getWireId()));
+		return true;
+	}
+
 	@Override
 	public void compute(BigInteger[] assignment) {
-		assignment[outputs[0].getWireId()] = assignment[inputs[0].getWireId()].xor(
-				assignment[inputs[1].getWireId()]);
+		assignment[outputs[0].getWireId()] = LazyReduction.reduce(assignment[inputs[0].getWireId()]).xor(
+				LazyReduction.reduce(assignment[inputs[1].getWireId()]));
 	}
 
 	@Override
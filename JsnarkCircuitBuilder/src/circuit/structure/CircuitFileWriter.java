@@ -0,0 +1,265 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.structure;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import util.CompressedStreams;
+import circuit.config.Config;
+import circuit.eval.Instruction;
+import circuit.operations.WireLabelInstruction;
+import circuit.operations.primitive.BasicOp;
+
+/**
+ * Writes the .arith file of a circuit. The instructions are split into
+ * chunks, which are formatted in parallel into reusable byte buffers, and then
+ * written in order at their positions in the file. The output is identical to
+ * printing toString() of every instruction followed by a new line, as the
+ * previous PrintWriter-based implementation did. If the file name ends with
+ * ".gz", the chunks are compressed as they are written.
+ */
+public class CircuitFileWriter {
+
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final Charset charset = Charset.defaultCharset();
+	private final int numOfThreads;
+
+	public CircuitFileWriter() {
+		this(Config.numOfSerializationThreads > 0 ? Config.numOfSerializationThreads : Runtime.getRuntime()
+				.availableProcessors());
+	}
+
+	public CircuitFileWriter(int numOfThreads) {
+		this.numOfThreads = Math.max(1, numOfThreads);
+	}
+
+	public void write(String fileName, int numOfWires, Collection<Instruction> evaluationQueue) throws IOException {
+
+		final ArrayList<Instruction> instructions = new ArrayList<Instruction>();
+		for (Instruction e : evaluationQueue) {
+			if (e.doneWithinCircuit()) {
+				instructions.add(e);
+			}
+		}
+
+		// compressed output can only be written sequentially
+		OutputStream compressedOut = null;
+		FileChannel channel = null;
+		if (CompressedStreams.isCompressed(fileName)) {
+			compressedOut = CompressedStreams.openOutput(fileName);
+		} else {
+			channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(numOfThreads);
+		try {
+			ByteArrayBuilder header = new ByteArrayBuilder(64);
+			header.append("total ").append(numOfWires).append(System.lineSeparator());
+			long position = 0;
+			if (compressedOut != null) {
+				compressedOut.write(header.array(), 0, header.size());
+			} else {
+				position = writeFully(channel, header, position);
+			}
+
+			// at most 2 * numOfThreads chunks are in flight, and their buffers
+			// are reused for later chunks
+			int numOfBuffers = 2 * numOfThreads;
+			final ArrayBlockingQueue<ByteArrayBuilder> freeBuffers = new ArrayBlockingQueue<ByteArrayBuilder>(
+					numOfBuffers);
+			for (int i = 0; i < numOfBuffers; i++) {
+				freeBuffers.add(new ByteArrayBuilder(CHUNK_SIZE * 32));
+			}
+
+			ArrayList<Future<ByteArrayBuilder>> pending = new ArrayList<Future<ByteArrayBuilder>>();
+			int nextChunk = 0;
+			int numOfChunks = (instructions.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			for (int i = 0; i < numOfChunks; i++) {
+				while (nextChunk < numOfChunks && pending.size() - i < numOfBuffers) {
+					final int from = nextChunk * CHUNK_SIZE;
+					final int to = Math.min(from + CHUNK_SIZE, instructions.size());
+					final ByteArrayBuilder buffer = freeBuffers.take();
+					pending.add(executor.submit(new Callable<ByteArrayBuilder>() {
+						@Override
+						public ByteArrayBuilder call() {
+							buffer.reset();
+							for (int j = from; j < to; j++) {
+								format(instructions.get(j), buffer);
+							}
+							return buffer;
+						}
+					}));
+					nextChunk++;
+				}
+				ByteArrayBuilder chunk = pending.get(i).get();
+				pending.set(i, null);
+				if (compressedOut != null) {
+					compressedOut.write(chunk.array(), 0, chunk.size());
+				} else {
+					position = writeFully(channel, chunk, position);
+				}
+				freeBuffers.add(chunk);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing the circuit file", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not format the circuit file", e.getCause());
+		} finally {
+			executor.shutdownNow();
+			if (compressedOut != null) {
+				compressedOut.close();
+			} else {
+				channel.close();
+			}
+		}
+	}
+
+	private static long writeFully(FileChannel channel, ByteArrayBuilder buffer, long position) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(buffer.array(), 0, buffer.size());
+		while (bb.hasRemaining()) {
+			position += channel.write(bb, position);
+		}
+		return position;
+	}
+
+	/**
+	 * Appends the same line as toString() + "\n" without creating intermediate
+	 * strings for the wire ids.
+	 */
+	private void format(Instruction e, ByteArrayBuilder out) {
+		if (e instanceof BasicOp) {
+			BasicOp op = (BasicOp) e;
+			out.append(op.getOpcode(), charset);
+			appendWires(out.append(" in "), op.getInputs());
+			appendWires(out.append("> out "), op.getOutputs());
+			out.append('>');
+			if (op.getDesc().length() > 0) {
+				out.append(" \t\t# ").append(op.getDesc(), charset);
+			}
+		} else if (e instanceof WireLabelInstruction) {
+			WireLabelInstruction label = (WireLabelInstruction) e;
+			out.append(label.getType().name()).append(' ').append(label.getWire().getWireId());
+			if (label.getDesc().length() > 0) {
+				out.append("\t\t\t # ").append(label.getDesc(), charset);
+			}
+		} else {
+			out.append(e.toString(), charset);
+		}
+		out.append('\n');
+	}
+
+	private static void appendWires(ByteArrayBuilder out, Wire[] wires) {
+		out.append(wires.length).append(" <");
+		for (int i = 0; i < wires.length; i++) {
+			if (i > 0) {
+				out.append(' ');
+			}
+			out.append(wires[i].getWireId());
+		}
+	}
+
+	/**
+	 * A growable byte array with allocation-free formatting of integers and
+	 * ASCII strings.
+	 */
+	static class ByteArrayBuilder {
+
+		private byte[] bytes;
+		private int size;
+
+		ByteArrayBuilder(int capacity) {
+			bytes = new byte[capacity];
+		}
+
+		void reset() {
+			size = 0;
+		}
+
+		byte[] array() {
+			return bytes;
+		}
+
+		int size() {
+			return size;
+		}
+
+		private void ensureCapacity(int extra) {
+			if (size + extra > bytes.length) {
+				byte[] newBytes = new byte[Math.max(bytes.length * 2, size + extra)];
+				System.arraycopy(bytes, 0, newBytes, 0, size);
+				bytes = newBytes;
+			}
+		}
+
+		ByteArrayBuilder append(char c) {
+			ensureCapacity(1);
+			bytes[size++] = (byte) c;
+			return this;
+		}
+
+		/**
+		 * For strings that are known to be ASCII.
+		 */
+		ByteArrayBuilder append(String s) {
+			int n = s.length();
+			ensureCapacity(n);
+			for (int i = 0; i < n; i++) {
+				bytes[size++] = (byte) s.charAt(i);
+			}
+			return this;
+		}
+
+		ByteArrayBuilder append(String s, Charset charset) {
+			int n = s.length();
+			for (int i = 0; i < n; i++) {
+				if (s.charAt(i) >= 0x80) {
+					byte[] encoded = s.getBytes(charset);
+					ensureCapacity(encoded.length);
+					System.arraycopy(encoded, 0, bytes, size, encoded.length);
+					size += encoded.length;
+					return this;
+				}
+			}
+			return append(s);
+		}
+
+		ByteArrayBuilder append(int v) {
+			ensureCapacity(11);
+			if (v < 0) {
+				if (v == Integer.MIN_VALUE) {
+					return append(Integer.toString(v));
+				}
+				bytes[size++] = '-';
+				v = -v;
+			}
+			int numOfDigits = 1;
+			for (int t = v; t >= 10; t /= 10) {
+				numOfDigits++;
+			}
+			int idx = size + numOfDigits;
+			size = idx;
+			do {
+				bytes[--idx] = (byte) ('0' + v % 10);
+				v /= 10;
+			} while (v != 0);
+			return this;
+		}
+	}
+}
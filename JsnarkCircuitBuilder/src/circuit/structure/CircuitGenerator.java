@@ -4,21 +4,29 @@
 package circuit.structure;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.lang.ProcessBuilder.Redirect;
 import java.math.BigInteger;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
 
+import util.CompressedStreams;
 import circuit.auxiliary.LongElement;
+import circuit.backend.KeyStore;
+import circuit.backend.ProverPool;
+import circuit.backend.ProverProtocol;
+import circuit.backend.ProverResult;
 import circuit.config.Config;
 import circuit.eval.CircuitEvaluator;
+import circuit.eval.CircuitProgram;
 import circuit.eval.Instruction;
+import circuit.eval.WitnessKernel;
 import circuit.operations.WireLabelInstruction;
 import circuit.operations.WireLabelInstruction.LabelType;
 import circuit.operations.primitive.AssertBasicOp;
@@ -46,6 +54,9 @@ public abstract class CircuitGenerator {
 
 	private int numOfConstraints;
 	private CircuitEvaluator circuitEvaluator;
+	private CircuitProgram circuitProgram;
+	private WitnessKernel witnessKernel;
+	private int failedKernelSize = -1;
 
 	public CircuitGenerator(String circuitName) {
 
@@ -80,6 +91,19 @@ public abstract class CircuitGenerator {
 		}
 	}
 
+	/**
+	 * Makes this generator the active one for the calling thread when running
+	 * multiple generators (RUNNING_GENERATORS_IN_PARALLEL). This is needed when
+	 * the circuit is built or evaluated on a different thread from the one
+	 * that created the generator, e.g. by an executor. Otherwise, the active
+	 * generator is the last one created, and this call has no effect.
+	 */
+	public void setAsActiveGenerator() {
+		if (Config.runningMultiGenerators) {
+			activeCircuitGenerators.put(Thread.currentThread().getId(), this);
+		}
+	}
+
 	protected abstract void buildCircuit();
 
 	public final void generateCircuit() {
@@ -242,15 +266,7 @@ public abstract class CircuitGenerator {
 
 	public void writeCircuitFile() {
 		try {
-			PrintWriter printWriter = new PrintWriter(new BufferedWriter(new FileWriter(getName() + ".arith")));
-
-			printWriter.println("total " + currentWireId);
-			for (Instruction e : evaluationQueue.keySet()) {
-				if (e.doneWithinCircuit()) {
-					printWriter.print(e + "\n");
-				}
-			}
-			printWriter.close();
+			new CircuitFileWriter().write(CompressedStreams.outputFileName(getName() + ".arith"), currentWireId, evaluationQueue.keySet());
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -424,25 +440,100 @@ public abstract class CircuitGenerator {
 	}
 
 	public void runLibsnark() {
+		runLibsnark(Config.LIBSNARK_EXEC, CompressedStreams.outputFileName(circuitName + ".arith"),
+				CompressedStreams.outputFileName(circuitName + ".in"));
+	}
 
+	/**
+	 * Same as runLibsnark(), but the keys are taken from the key store. The
+	 * setup is only run when the store has no keys for the current .arith file.
+	 *
+	 * Experimental: splitExecutable has to be a libsnark build with separate
+	 * setup and prove modes (see KeyStore.SETUP_MODE_ARG). The default
+	 * Config.LIBSNARK_EXEC does not have them.
+	 */
+	public void runLibsnark(KeyStore keyStore, String splitExecutable) {
 		try {
-			Process p;
-			p = Runtime.getRuntime()
-					.exec(new String[] { Config.LIBSNARK_EXEC, circuitName + ".arith", circuitName + ".in" });
-			p.waitFor();
+			String arithFile = CompressedStreams.outputFileName(circuitName + ".arith");
+			KeyStore.Entry keys = keyStore.getOrCreate(Paths.get(arithFile), KeyStore.libsnarkSetup(splitExecutable));
+			try {
+				runLibsnark(splitExecutable, KeyStore.PROVE_MODE_ARG, arithFile,
+						CompressedStreams.outputFileName(circuitName + ".in"), keys.getProvingKey().toString(),
+						keys.getVerificationKey().toString());
+			} finally {
+				keys.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void runLibsnark(String... command) {
+
+		String[] args = command;
+		try {
+			// compressed files are passed to libsnark as plain copies
+			args = CompressedStreams.plainCopies(command);
+			// the output has to be consumed before waiting for the process,
+			// otherwise the process blocks once the pipe buffer is full.
+			Process p = new ProcessBuilder(args).redirectError(Redirect.INHERIT).start();
 			System.out.println(
 					"\n-----------------------------------RUNNING LIBSNARK -----------------------------------------");
 			String line;
 			BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream()));
-			StringBuffer buf = new StringBuffer();
+			StringBuilder buf = new StringBuilder();
 			while ((line = input.readLine()) != null) {
 				buf.append(line + "\n");
 			}
 			input.close();
+			p.waitFor();
 			System.out.println(buf.toString());
 		} catch (Exception e) {
 			e.printStackTrace();
+		} finally {
+			CompressedStreams.deletePlainCopies(command, args);
+		}
+	}
+
+	/**
+	 * Proves the evaluated circuit using an already running prover pool,
+	 * instead of starting a new libsnark process. The pool must have been
+	 * created for the circuit file written by this generator.
+	 */
+	public ProverResult prove(ProverPool pool) throws IOException, TimeoutException {
+		if (circuitEvaluator == null) {
+			throw new NullPointerException("evalCircuit() must be called before prove()");
+		}
+		return pool.prove(ProverProtocol.encodeWitness(this, circuitEvaluator));
+	}
+
+	/**
+	 * Returns the evaluation queue compiled into a program. The program is
+	 * compiled once, and again only if instructions were added since then.
+	 */
+	public CircuitProgram getCircuitProgram() {
+		if (circuitProgram == null || circuitProgram.getNumOfInstructions() != evaluationQueue.size()) {
+			circuitProgram = CircuitProgram.compile(this);
+		}
+		return circuitProgram;
+	}
+
+	/**
+	 * Returns the generated witness kernel of the circuit, compiling it on the
+	 * first call. Returns null if it cannot be compiled in this runtime.
+	 */
+	public synchronized WitnessKernel getWitnessKernel() {
+		int size = evaluationQueue.size();
+		if (witnessKernel == null || witnessKernel.getNumOfInstructions() != size) {
+			if (failedKernelSize == size) {
+				return null;
+			}
+			witnessKernel = WitnessKernel.compile(getCircuitProgram());
+			if (witnessKernel == null) {
+				failedKernelSize = size;
+			}
 		}
+		return witnessKernel;
 	}
 
 	public CircuitEvaluator getCircuitEvaluator() {
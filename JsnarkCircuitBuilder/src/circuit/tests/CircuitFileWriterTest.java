@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.tests;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import util.CompressedStreams;
+import circuit.backend.KeyStore;
+import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.Instruction;
+import circuit.structure.CircuitFileWriter;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.Wire;
+import circuit.structure.WireArray;
+
+public class CircuitFileWriterTest extends TestCase {
+
+	private static CircuitGenerator createGenerator(String name) {
+
+		// large enough to be split into several chunks
+		final int numIns = 40000;
+		CircuitGenerator generator = new CircuitGenerator(name) {
+			@Override
+			protected void buildCircuit() {
+				Wire[] in = createInputWireArray(numIns, "input");
+				Wire[] witness = createProverWitnessWireArray(numIns);
+				Wire acc = in[0];
+				for (int i = 1; i < numIns; i++) {
+					Wire w = in[i].mul(witness[i], "mul " + i).add(acc);
+					acc = w.mul(new BigInteger("-" + i)).add(w.mul(i));
+					if (i % 1000 == 0) {
+						WireArray bits = acc.getBitWires(254);
+						acc = bits.packAsBits(32).xorBitwise(in[i - 1], 32);
+						addZeroAssertion(acc.isEqualTo(in[i]), "\u00e9t\u00e9 " + i);
+					}
+				}
+				makeOutput(acc);
+				addDebugInstruction(acc, "debug only");
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+			}
+		};
+		generator.generateCircuit();
+		return generator;
+	}
+
+	private static byte[] toStringOutput(CircuitGenerator generator) {
+		// the previous implementation
+		StringWriter expected = new StringWriter();
+		PrintWriter printWriter = new PrintWriter(expected);
+		printWriter.println("total " + generator.getNumWires());
+		for (Instruction e : generator.getEvaluationQueue().keySet()) {
+			if (e.doneWithinCircuit()) {
+				printWriter.print(e + "\n");
+			}
+		}
+		printWriter.close();
+		return expected.toString().getBytes();
+	}
+
+	@Test
+	public void testSameOutputAsToString() throws Exception {
+
+		CircuitGenerator generator = createGenerator("Circuit_File_Writer_Test");
+		byte[] expectedBytes = toStringOutput(generator);
+
+		for (int numOfThreads : new int[] { 1, 3 }) {
+			String fileName = generator.getName() + "_" + numOfThreads + ".arith";
+			new CircuitFileWriter(numOfThreads).write(fileName, generator.getNumWires(), generator
+					.getEvaluationQueue().keySet());
+			byte[] actualBytes = Files.readAllBytes(Paths.get(fileName));
+			new File(fileName).delete();
+			assertTrue(Arrays.equals(expectedBytes, actualBytes));
+		}
+	}
+
+	@Test
+	public void testCompressedOutput() throws Exception {
+
+		CircuitGenerator generator = createGenerator("Circuit_File_Writer_Test");
+		byte[] expectedBytes = toStringOutput(generator);
+
+		for (int numOfThreads : new int[] { 1, 3 }) {
+			String fileName = generator.getName() + "_" + numOfThreads + ".arith.gz";
+			new CircuitFileWriter(numOfThreads).write(fileName, generator.getNumWires(), generator
+					.getEvaluationQueue().keySet());
+			assertTrue(new File(fileName).length() < expectedBytes.length / 4);
+
+			// the compressed file is read back transparently
+			ByteArrayOutputStream actual = new ByteArrayOutputStream();
+			InputStream in = CompressedStreams.openInput(fileName);
+			byte[] buffer = new byte[4096];
+			int n;
+			while ((n = in.read(buffer)) > 0) {
+				actual.write(buffer, 0, n);
+			}
+			in.close();
+			new File(fileName).delete();
+			assertTrue(Arrays.equals(expectedBytes, actual.toByteArray()));
+		}
+
+		// block-parallel compression of an empty stream is still a valid file
+		String fileName = generator.getName() + "_empty.gz";
+		CompressedStreams.openOutput(fileName, 9, 4).close();
+		InputStream in = CompressedStreams.openInput(fileName);
+		assertEquals(-1, in.read());
+		in.close();
+
+		// the compression threads do not keep the JVM alive if a stream is
+		// left open
+		OutputStream out = CompressedStreams.openOutput(fileName, 9, 4);
+		out.write(new byte[2 << 20]);
+		int numOfCompressors = 0;
+		for (Thread t : Thread.getAllStackTraces().keySet()) {
+			if (t.getName().equals("gzip-compressor")) {
+				assertTrue(t.isDaemon());
+				numOfCompressors++;
+			}
+		}
+		assertTrue(numOfCompressors > 0);
+		out.close();
+		new File(fileName).delete();
+	}
+
+	@Test
+	public void testCompressedProverFiles() throws Exception {
+
+		CircuitGenerator generator = createGenerator("Compressed_Prover_Files_Test");
+		byte[] expectedBytes = toStringOutput(generator);
+
+		boolean previous = Config.compressOutputFiles;
+		Config.compressOutputFiles = true;
+		String arithFile = CompressedStreams.outputFileName(generator.getName() + ".arith");
+		try {
+			generator.writeCircuitFile();
+			assertTrue(CompressedStreams.isCompressed(arithFile));
+
+			// the prover receives a plain copy of the compressed file
+			String[] command = { "prover", arithFile, "proving.key" };
+			String[] args = CompressedStreams.plainCopies(command);
+			assertEquals(command[0], args[0]);
+			assertEquals(command[2], args[2]);
+			assertFalse(CompressedStreams.isCompressed(args[1]));
+			assertTrue(Arrays.equals(expectedBytes, Files.readAllBytes(Paths.get(args[1]))));
+
+			// the stored keys do not depend on the compression
+			assertEquals(KeyStore.fingerprint(Paths.get(args[1])), KeyStore.fingerprint(Paths.get(arithFile)));
+
+			CompressedStreams.deletePlainCopies(command, args);
+			assertFalse(new File(args[1]).exists());
+		} finally {
+			Config.compressOutputFiles = previous;
+			new File(arithFile).delete();
+		}
+	}
+}
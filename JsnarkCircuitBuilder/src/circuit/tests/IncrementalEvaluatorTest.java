@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.tests;
+
+import java.math.BigInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import util.Util;
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.IncrementalEvaluator;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.Wire;
+import examples.gadgets.hash.SHA256Gadget;
+import examples.gadgets.math.FieldDivisionGadget;
+import examples.gadgets.math.ModGadget;
+
+public class IncrementalEvaluatorTest extends TestCase {
+
+	@Test
+	public void testSameAssignmentAsFullEvaluation() {
+
+		final int numIns = 32;
+		final BigInteger[] aVals = Util.randomBigIntegerArray(numIns, 32);
+		final BigInteger[] bVals = Util.randomBigIntegerArray(numIns, 16);
+		for (int i = 0; i < numIns; i++) {
+			bVals[i] = bVals[i].add(BigInteger.ONE);
+		}
+
+		CircuitGenerator generator = new CircuitGenerator("Incremental_Evaluator_Test") {
+
+			Wire[] a;
+			Wire[] b;
+
+			@Override
+			protected void buildCircuit() {
+				a = createInputWireArray(numIns);
+				b = createProverWitnessWireArray(numIns);
+				Wire sum = getZeroWire();
+				for (int i = 0; i < numIns; i++) {
+					b[i].restrictBitLength(17);
+					// a witness computation that declares its wires
+					Wire r = new ModGadget(a[i], b[i], 32).getOutputWires()[0];
+					// one that does not
+					Wire q = new FieldDivisionGadget(a[i], b[i]).getOutputWires()[0];
+					Wire bits = r.getBitWires(32).packAsBits(16).xorBitwise(b[i], 17);
+					makeOutput(bits.mul(q));
+					makeOutput(r.isEqualTo(0));
+					sum = sum.add(r);
+				}
+				// an expensive part that only depends on the first input
+				Wire[] digest = new SHA256Gadget(a[0].getBitWires(32).asArray(), 1, 4, false, true)
+						.getOutputWires();
+				makeOutputArray(digest);
+				makeOutput(sum);
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				for (int i = 0; i < numIns; i++) {
+					evaluator.setWireValue(getInWires().get(i + 1), aVals[i]);
+					evaluator.setWireValue(getProverWitnessWires().get(i), bVals[i]);
+				}
+			}
+		};
+		generator.generateCircuit();
+		CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+		generator.generateSampleInput(evaluator);
+		evaluator.evaluate();
+
+		IncrementalEvaluator incrementalEvaluator = new IncrementalEvaluator(evaluator);
+		int queueSize = generator.getEvaluationQueue().size();
+		for (int round = 0; round < 3; round++) {
+			int idx = 1 + round * 7;
+			aVals[idx] = Util.nextRandomBigInteger(32);
+			bVals[idx + 1] = Util.nextRandomBigInteger(16).add(BigInteger.ONE);
+			incrementalEvaluator.setWireValue(generator.getInWires().get(idx + 1), aVals[idx]);
+			incrementalEvaluator.setWireValue(generator.getProverWitnessWires().get(idx + 1), bVals[idx + 1]);
+			int numOfEvaluated = incrementalEvaluator.evaluate();
+			// the SHA-256 computation and the other inputs' operations are
+			// not evaluated again
+			assertTrue(numOfEvaluated < queueSize / 4);
+
+			CircuitEvaluator expectedEvaluator = new CircuitEvaluator(generator);
+			generator.generateSampleInput(expectedEvaluator);
+			expectedEvaluator.evaluate();
+			BigInteger[] expected = expectedEvaluator.getAssignment();
+			BigInteger[] actual = evaluator.getAssignment();
+			for (int i = 0; i < expected.length; i++) {
+				assertEquals(expected[i], actual[i]);
+			}
+		}
+		// nothing changed
+		assertEquals(0, incrementalEvaluator.evaluate());
+	}
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.tests;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import circuit.backend.KeyStore;
+
+public class KeyStoreTest extends TestCase {
+
+	// a key generator that writes keys of a fixed size, and counts the calls
+	private static class FakeKeyGenerator implements KeyStore.KeyGenerator {
+
+		private final int keySize;
+		private final AtomicInteger numOfCalls = new AtomicInteger();
+
+		FakeKeyGenerator(int keySize) {
+			this.keySize = keySize;
+		}
+
+		@Override
+		public void generate(Path arithFile, Path provingKey, Path verificationKey) throws IOException {
+			numOfCalls.incrementAndGet();
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			Files.write(provingKey, new byte[keySize]);
+			Files.write(verificationKey, Files.readAllBytes(arithFile));
+		}
+	}
+
+	@Test
+	public void testReuseAndEviction() throws Exception {
+
+		Path dir = Files.createTempDirectory("keystore_test");
+		Path arith1 = dir.resolve("c1.arith");
+		Path arith2 = dir.resolve("c2.arith");
+		Path arith3 = dir.resolve("c3.arith");
+		Files.write(arith1, "total 2\n".getBytes());
+		Files.write(arith2, "total 3\n".getBytes());
+		Files.write(arith3, "total 4\n".getBytes());
+
+		FakeKeyGenerator generator = new FakeKeyGenerator(1000);
+		KeyStore store = new KeyStore(dir.resolve("keys"), 1500);
+
+		KeyStore.Entry e1 = store.getOrCreate(arith1, generator);
+		assertEquals(1, generator.numOfCalls.get());
+		assertTrue(Files.exists(e1.getProvingKey()));
+		assertEquals(KeyStore.fingerprint(arith1), e1.getFingerprint());
+
+		// an identical circuit file reuses the keys
+		store.getOrCreate(arith1, generator).close();
+		assertEquals(1, generator.numOfCalls.get());
+		e1.close();
+
+		// the second circuit does not fit together with the first one
+		KeyStore.Entry e2 = store.getOrCreate(arith2, generator);
+		assertEquals(2, generator.numOfCalls.get());
+		assertTrue(Files.exists(e2.getProvingKey()));
+		assertNull(store.get(e1.getFingerprint()));
+		assertTrue(store.getTotalSize() <= 1500);
+
+		// entries in use are not evicted, even if they exceed the limit
+		KeyStore.Entry e3 = store.getOrCreate(arith3, generator);
+		assertTrue(Files.exists(e2.getProvingKey()));
+		assertTrue(Files.exists(e3.getProvingKey()));
+		e2.close();
+		e3.close();
+		store.getOrCreate(arith1, generator).close();
+		assertFalse(Files.exists(e2.getProvingKey()));
+		assertFalse(Files.exists(e3.getProvingKey()));
+		assertTrue(store.getTotalSize() <= 1500);
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+
+		Path dir = Files.createTempDirectory("keystore_test");
+		final Path arith = dir.resolve("c.arith");
+		Files.write(arith, "total 5\n".getBytes());
+
+		final FakeKeyGenerator generator = new FakeKeyGenerator(100);
+		final KeyStore store = new KeyStore(dir.resolve("keys"), 0);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		ArrayList<Future<KeyStore.Entry>> results = new ArrayList<Future<KeyStore.Entry>>();
+		for (int i = 0; i < 8; i++) {
+			results.add(executor.submit(new Callable<KeyStore.Entry>() {
+				@Override
+				public KeyStore.Entry call() throws Exception {
+					return store.getOrCreate(arith, generator);
+				}
+			}));
+		}
+		for (Future<KeyStore.Entry> f : results) {
+			KeyStore.Entry entry = f.get();
+			assertTrue(Files.exists(entry.getVerificationKey()));
+			entry.close();
+		}
+		executor.shutdown();
+		assertEquals(1, generator.numOfCalls.get());
+	}
+}
@@ -0,0 +1,89 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.tests;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import circuit.auxiliary.PackedWord;
+import circuit.eval.CircuitEvaluator;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.Wire;
+
+public class PackedWordTest extends TestCase {
+
+	@Test
+	public void testDeferredNormalization() {
+		final int numOfWords = 8;
+		final long[] values = new long[numOfWords];
+		Random rand = new Random(3);
+		for (int i = 0; i < numOfWords; i++) {
+			values[i] = rand.nextLong() & 0xffffffffL;
+		}
+		final long constant = 0x428a2f98L;
+
+		CircuitGenerator generator = new CircuitGenerator("PackedWord_Test") {
+
+			Wire[] inputs;
+
+			@Override
+			protected void buildCircuit() {
+				inputs = createInputWireArray(numOfWords);
+				PackedWord[] words = PackedWord.uint32(inputs);
+				// the inputs are split once to check their range
+				for (PackedWord w : words) {
+					w.getBits();
+				}
+				int numOfConstraints = getNumOfConstraints();
+
+				// a sum of all the words and a constant needs one split of
+				// 36 bits
+				PackedWord sum = words[0];
+				for (int i = 1; i < numOfWords; i++) {
+					sum = sum.add(words[i]);
+				}
+				sum = sum.add(constant);
+				Wire sumWire = sum.getWire();
+				assertEquals(numOfConstraints + 36 + 1, getNumOfConstraints());
+
+				// the bits of the sum are reused by the rotation, and an xor
+				// costs one constraint per bit
+				numOfConstraints = getNumOfConstraints();
+				Wire mixed = sum.rotateRight(7).xor(words[0]).not().getWire();
+				assertEquals(numOfConstraints + 32, getNumOfConstraints());
+
+				Wire masked = sum.and(words[1]).or(words[2].shiftLeft(3)).getWire();
+				makeOutput(sumWire);
+				makeOutput(mixed);
+				makeOutput(masked);
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				for (int i = 0; i < numOfWords; i++) {
+					evaluator.setWireValue(inputs[i], values[i]);
+				}
+			}
+		};
+		generator.generateCircuit();
+		generator.evalCircuit();
+		CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+
+		long sum = constant;
+		for (long v : values) {
+			sum += v;
+		}
+		sum &= 0xffffffffL;
+		long rotated = ((sum >>> 7) | (sum << 25)) & 0xffffffffL;
+		long mixed = ~(rotated ^ values[0]) & 0xffffffffL;
+		long masked = ((sum & values[1]) | (values[2] << 3)) & 0xffffffffL;
+		assertEquals(BigInteger.valueOf(sum), evaluator.getWireValue(generator.getOutWires().get(0)));
+		assertEquals(BigInteger.valueOf(mixed), evaluator.getWireValue(generator.getOutWires().get(1)));
+		assertEquals(BigInteger.valueOf(masked), evaluator.getWireValue(generator.getOutWires().get(2)));
+	}
+}
@@ -0,0 +1,61 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.tests;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import util.Util;
+import circuit.auxiliary.PolynomialMultiplication;
+import circuit.config.Config;
+
+public class PolynomialMultiplicationTest extends TestCase {
+
+	@Test
+	public void testAgainstSchoolbook() {
+		int[][] lengths = { { 1, 1 }, { 1, 40 }, { 15, 17 }, { 16, 16 }, { 33, 64 }, { 64, 64 }, { 64, 200 },
+				{ 129, 128 }, { 256, 256 } };
+		// small chunks as in LongElement, and arbitrary field elements
+		int[] bitwidths = { 32, 40, Config.LOG2_FIELD_PRIME };
+		for (int[] length : lengths) {
+			for (int bitwidth : bitwidths) {
+				BigInteger[] a = randomValues(length[0], bitwidth);
+				BigInteger[] b = randomValues(length[1], bitwidth);
+				BigInteger[] expected = PolynomialMultiplication.schoolbook(a, b);
+				assertTrue(Arrays.equals(expected, PolynomialMultiplication.karatsuba(a, b)));
+				assertTrue(Arrays.equals(expected, PolynomialMultiplication.ntt(a, b)));
+				assertTrue(Arrays.equals(expected, PolynomialMultiplication.multiply(a, b)));
+			}
+		}
+	}
+
+	@Test
+	public void testExtremeValues() {
+		BigInteger max = Config.FIELD_PRIME.subtract(BigInteger.ONE);
+		BigInteger[] a = new BigInteger[100];
+		BigInteger[] b = new BigInteger[70];
+		Arrays.fill(a, max);
+		Arrays.fill(b, max);
+		b[3] = BigInteger.ZERO;
+		BigInteger[] expected = PolynomialMultiplication.schoolbook(a, b);
+		assertTrue(Arrays.equals(expected, PolynomialMultiplication.karatsuba(a, b)));
+		assertTrue(Arrays.equals(expected, PolynomialMultiplication.ntt(a, b)));
+
+		Arrays.fill(a, BigInteger.ZERO);
+		expected = PolynomialMultiplication.schoolbook(a, b);
+		assertTrue(Arrays.equals(expected, PolynomialMultiplication.ntt(a, b)));
+	}
+
+	private static BigInteger[] randomValues(int n, int bitwidth) {
+		BigInteger[] values = Util.randomBigIntegerArray(n, bitwidth);
+		for (int i = 0; i < n; i++) {
+			values[i] = values[i].mod(Config.FIELD_PRIME);
+		}
+		return values;
+	}
+}
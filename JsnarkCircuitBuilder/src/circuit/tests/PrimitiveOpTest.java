@@ -14,9 +14,12 @@ import util.Util;
 import circuit.config.Config;
 import circuit.eval.CircuitEvaluator;
 import circuit.eval.Instruction;
+import circuit.eval.LazyReduction;
 import circuit.structure.CircuitGenerator;
 import circuit.structure.Wire;
 import circuit.structure.WireArray;
+import examples.gadgets.hash.SubsetSumHashGadget;
+import examples.gadgets.math.DotProductGadget;
 
 public class PrimitiveOpTest extends TestCase {
 
@@ -391,4 +394,225 @@ public class PrimitiveOpTest extends TestCase {
 		evaluator.evaluate(); // no exception will be thrown
 		assertEquals(generator.getNumOfConstraints(), numIns + 2);
 	}
+
+	@Test
+	public void testSmallValueEvaluation() {
+
+		// values around the 2^63 boundary of the small value path, and field
+		// elements that always use BigIntegers
+		final BigInteger[] inVals = new BigInteger[] { BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(3),
+				BigInteger.ONE.shiftLeft(62), BigInteger.ONE.shiftLeft(62).add(BigInteger.ONE),
+				BigInteger.valueOf(Long.MAX_VALUE), BigInteger.ONE.shiftLeft(63), BigInteger.ONE.shiftLeft(31),
+				Config.FIELD_PRIME.subtract(BigInteger.ONE), new BigInteger("123456789123456789123456789") };
+		final int numIns = inVals.length;
+
+		CircuitGenerator generator = new CircuitGenerator("small_values") {
+
+			Wire[] inputs;
+
+			@Override
+			protected void buildCircuit() {
+				inputs = createInputWireArray(numIns);
+				for (int i = 0; i < numIns; i++) {
+					for (int j = i; j < numIns; j++) {
+						makeOutput(inputs[i].add(inputs[j]));
+						makeOutput(inputs[i].mul(inputs[j]));
+						makeOutput(inputs[i].checkNonZero());
+					}
+					makeOutput(inputs[i].mul(-5));
+					makeOutput(inputs[i].mul(new BigInteger("1000000007")));
+					makeOutput(inputs[i].isEqualTo(inputs[(i + 1) % numIns]));
+					WireArray bits = inputs[i].getBitWires(Config.LOG2_FIELD_PRIME);
+					makeOutput(bits.packAsBits(64));
+					makeOutput(bits.packAsBits(Config.LOG2_FIELD_PRIME));
+					makeOutput(inputs[i].xorBitwise(inputs[(i + 3) % numIns], Config.LOG2_FIELD_PRIME));
+					makeOutput(inputs[i].orBitwise(inputs[(i + 5) % numIns], Config.LOG2_FIELD_PRIME));
+				}
+				addAssertion(inputs[3], inputs[2], inputs[3].mul(3));
+				addAssertion(inputs[6], inputs[5], inputs[6].mul(inputs[5]));
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(inputs, inVals);
+			}
+		};
+		generator.generateCircuit();
+
+		boolean previousSmall = Config.smallValueEvaluation;
+		boolean previousCompiled = Config.compiledEvaluation;
+		boolean previousKernel = Config.witnessKernelEvaluation;
+		boolean previousLazy = Config.lazyReduction;
+		try {
+			Config.smallValueEvaluation = false;
+			Config.compiledEvaluation = false;
+			Config.witnessKernelEvaluation = false;
+			Config.lazyReduction = false;
+			CircuitEvaluator reference = new CircuitEvaluator(generator);
+			generator.generateSampleInput(reference);
+			reference.evaluate();
+			BigInteger[] expected = reference.getAssignment();
+
+			// all combinations of the small value path, the compiled program
+			// and the generated kernel
+			for (int mode = 1; mode < 8; mode++) {
+				Config.smallValueEvaluation = (mode & 1) != 0;
+				Config.compiledEvaluation = (mode & 2) != 0;
+				Config.witnessKernelEvaluation = (mode & 4) != 0;
+				Config.lazyReduction = true;
+				CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+				assertEquals(Config.smallValueEvaluation, evaluator.isSmallValueEvaluationEnabled());
+				generator.generateSampleInput(evaluator);
+				evaluator.evaluate();
+
+				for (Wire w : generator.getOutWires()) {
+					assertEquals(reference.getWireValue(w), evaluator.getWireValue(w));
+				}
+				BigInteger[] actual = evaluator.getAssignment();
+				for (int i = 0; i < expected.length; i++) {
+					assertEquals(expected[i], actual[i]);
+				}
+			}
+		} finally {
+			Config.smallValueEvaluation = previousSmall;
+			Config.compiledEvaluation = previousCompiled;
+			Config.witnessKernelEvaluation = previousKernel;
+			Config.lazyReduction = previousLazy;
+		}
+	}
+
+	@Test
+	public void testInvalidInputs() {
+
+		// the input of a split must fit in its bits, and the inputs of xor, or
+		// and pack must be binary. Invalid values must be reported in the same
+		// way by all the evaluation paths.
+		final int[][] inVals = new int[][] { { 300, 0 }, { 2, 1 }, { 1, 3 }, { 1, 2 } };
+		for (int k = 0; k < inVals.length; k++) {
+			final int op = k;
+			CircuitGenerator generator = new CircuitGenerator("invalid_inputs_" + op) {
+
+				Wire[] inputs;
+
+				@Override
+				protected void buildCircuit() {
+					inputs = createInputWireArray(2);
+					if (op == 0) {
+						makeOutputArray(inputs[0].getBitWires(8).asArray());
+					} else if (op == 1) {
+						makeOutput(inputs[0].xor(inputs[1]));
+					} else if (op == 2) {
+						makeOutput(inputs[0].or(inputs[1]));
+					} else {
+						makeOutput(new WireArray(inputs).packAsBits(2));
+					}
+				}
+
+				@Override
+				public void generateSampleInput(CircuitEvaluator evaluator) {
+					evaluator.setWireValue(inputs[0], inVals[op][0]);
+					evaluator.setWireValue(inputs[1], inVals[op][1]);
+				}
+			};
+			generator.generateCircuit();
+
+			boolean previousSmall = Config.smallValueEvaluation;
+			boolean previousCompiled = Config.compiledEvaluation;
+			boolean previousKernel = Config.witnessKernelEvaluation;
+			try {
+				Config.smallValueEvaluation = false;
+				Config.compiledEvaluation = false;
+				Config.witnessKernelEvaluation = false;
+				String expected = getEvaluationError(generator);
+				assertNotNull(expected);
+				for (int mode = 1; mode < 8; mode++) {
+					Config.smallValueEvaluation = (mode & 1) != 0;
+					Config.compiledEvaluation = (mode & 2) != 0;
+					Config.witnessKernelEvaluation = (mode & 4) != 0;
+					assertEquals(expected, getEvaluationError(generator));
+				}
+			} finally {
+				Config.smallValueEvaluation = previousSmall;
+				Config.compiledEvaluation = previousCompiled;
+				Config.witnessKernelEvaluation = previousKernel;
+			}
+		}
+	}
+
+	// evaluates the circuit, and returns the evaluation error (or null if the
+	// evaluation succeeds)
+	private String getEvaluationError(CircuitGenerator generator) {
+		CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+		generator.generateSampleInput(evaluator);
+		try {
+			evaluator.evaluate();
+		} catch (RuntimeException e) {
+			return e.toString();
+		}
+		return null;
+	}
+
+	@Test
+	public void testLazyReduction() {
+
+		final BigInteger[] bitVals = Util.randomBigIntegerArray(SubsetSumHashGadget.INPUT_LENGTH, 1);
+		final BigInteger[] aVals = Util.randomBigIntegerArray(1000, Config.FIELD_PRIME);
+		final BigInteger[] bVals = Util.randomBigIntegerArray(1000, Config.FIELD_PRIME);
+
+		CircuitGenerator generator = new CircuitGenerator("lazy_reduction") {
+
+			Wire[] bits;
+			Wire[] a;
+			Wire[] b;
+
+			@Override
+			protected void buildCircuit() {
+				bits = createInputWireArray(bitVals.length);
+				a = createInputWireArray(aVals.length);
+				b = createInputWireArray(bVals.length);
+				// the digest bits also check the values that reach a split
+				makeOutputArray(new SubsetSumHashGadget(bits, true).getOutputWires());
+				Wire dotProduct = new DotProductGadget(a, b).getOutputWires()[0];
+				makeOutput(dotProduct);
+				// sums that are multiples of the prime must still be zero
+				makeOutput(a[0].add(a[0].mul(-1)).checkNonZero());
+				makeOutput(dotProduct.sub(dotProduct).add(a[1]).xorBitwise(a[1], Config.LOG2_FIELD_PRIME));
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(bits, bitVals);
+				evaluator.setWireValue(a, aVals);
+				evaluator.setWireValue(b, bVals);
+			}
+		};
+		generator.generateCircuit();
+
+		boolean previousCompiled = Config.compiledEvaluation;
+		boolean previousLazy = Config.lazyReduction;
+		try {
+			for (int compiled = 0; compiled < 2; compiled++) {
+				Config.compiledEvaluation = compiled == 1;
+				long[] numOfReductions = new long[2];
+				BigInteger[][] assignments = new BigInteger[2][];
+				for (int lazy = 0; lazy < 2; lazy++) {
+					Config.lazyReduction = lazy == 1;
+					CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+					generator.generateSampleInput(evaluator);
+					LazyReduction.resetNumOfReductions();
+					evaluator.evaluate();
+					numOfReductions[lazy] = LazyReduction.getNumOfReductions();
+					// reduces all the values
+					assignments[lazy] = evaluator.getAssignment();
+				}
+				for (int i = 0; i < assignments[0].length; i++) {
+					assertEquals(assignments[0][i], assignments[1][i]);
+				}
+				assertTrue(numOfReductions[1] * 2 < numOfReductions[0]);
+			}
+		} finally {
+			Config.compiledEvaluation = previousCompiled;
+			Config.lazyReduction = previousLazy;
+		}
+	}
 }
@@ -0,0 +1,275 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import circuit.backend.AsyncProver;
+import circuit.backend.LibsnarkOutputParser;
+import circuit.backend.ProverBackend;
+import circuit.backend.ProverPool;
+import circuit.backend.ProverProtocol;
+import circuit.backend.ProverResult;
+import circuit.backend.StubProverBackend;
+import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.Wire;
+
+public class ProverPoolTest extends TestCase {
+
+	@Test
+	public void testProtocolRoundTrip() throws Exception {
+
+		LinkedHashMap<Integer, BigInteger> values = new LinkedHashMap<Integer, BigInteger>();
+		values.put(0, BigInteger.ONE);
+		values.put(1, BigInteger.ZERO);
+		values.put(7, Config.FIELD_PRIME.subtract(BigInteger.ONE));
+		values.put(12, BigInteger.valueOf(255));
+		byte[] witness = ProverProtocol.encodeWitness(values);
+		assertEquals(values, ProverProtocol.decodeWitness(witness));
+
+		ProverResult result = new ProverResult(true, new byte[] { 1, 2, 3 }, "log\n");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		ProverProtocol.writeFrame(out, witness);
+		ProverProtocol.writeFrame(out, ProverProtocol.encodeResponse(result));
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		assertTrue(Arrays.equals(witness, ProverProtocol.readFrame(in)));
+		ProverResult decoded = ProverProtocol.decodeResponse(ProverProtocol.readFrame(in));
+		assertTrue(decoded.isSuccessful());
+		assertTrue(Arrays.equals(result.getProof(), decoded.getProof()));
+		assertEquals(result.getOutput(), decoded.getOutput());
+		assertNull(ProverProtocol.readFrame(in));
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+
+		final BigInteger[] inVals = { BigInteger.valueOf(5), BigInteger.valueOf(11) };
+		CircuitGenerator generator = new CircuitGenerator("Prover_Pool_Test") {
+			Wire[] inputs;
+			Wire witness;
+
+			@Override
+			protected void buildCircuit() {
+				inputs = createInputWireArray(2);
+				witness = createProverWitnessWire();
+				makeOutput(inputs[0].mul(inputs[1]).add(witness));
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(inputs, inVals);
+				evaluator.setWireValue(witness, BigInteger.ONE);
+			}
+		};
+		generator.generateCircuit();
+		generator.evalCircuit();
+
+		ProverPool pool = new ProverPool(StubProverBackend.factory(20), 3, 0);
+		try {
+			int before = StubProverBackend.getNumOfInstances();
+			ProverResult expected = generator.prove(pool);
+			assertTrue(expected.isSuccessful());
+			assertTrue(expected.getOutput().contains("4 witness values"));
+
+			byte[] witness = ProverProtocol.encodeWitness(generator, generator.getCircuitEvaluator());
+			ArrayList<Future<ProverResult>> futures = new ArrayList<Future<ProverResult>>();
+			for (int i = 0; i < 12; i++) {
+				futures.add(pool.submit(witness));
+			}
+			for (Future<ProverResult> f : futures) {
+				assertTrue(Arrays.equals(expected.getProof(), f.get().getProof()));
+			}
+			// the backends are reused across requests
+			assertEquals(before, StubProverBackend.getNumOfInstances());
+			assertEquals(3, pool.getNumOfIdleBackends());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testTimeoutReplacesBackend() throws Exception {
+
+		LinkedHashMap<Integer, BigInteger> values = new LinkedHashMap<Integer, BigInteger>();
+		values.put(0, BigInteger.ONE);
+		byte[] witness = ProverProtocol.encodeWitness(values);
+
+		ProverPool pool = new ProverPool(StubProverBackend.factory(2000), 1, 100);
+		try {
+			int before = StubProverBackend.getNumOfInstances();
+			try {
+				pool.prove(witness);
+				fail("Expected a timeout");
+			} catch (TimeoutException e) {
+			}
+			assertEquals(before + 1, StubProverBackend.getNumOfInstances());
+			assertEquals(1, pool.getNumOfIdleBackends());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testCloseFailsQueuedRequests() throws Exception {
+
+		LinkedHashMap<Integer, BigInteger> values = new LinkedHashMap<Integer, BigInteger>();
+		values.put(0, BigInteger.ONE);
+		byte[] witness = ProverProtocol.encodeWitness(values);
+
+		ProverPool pool = new ProverPool(StubProverBackend.factory(1000), 1, 0);
+		ArrayList<Future<ProverResult>> futures = new ArrayList<Future<ProverResult>>();
+		for (int i = 0; i < 3; i++) {
+			futures.add(pool.submit(witness));
+		}
+		pool.close();
+		for (Future<ProverResult> f : futures) {
+			try {
+				f.get(5, TimeUnit.SECONDS);
+				fail("Expected the request to fail");
+			} catch (ExecutionException e) {
+			}
+		}
+	}
+
+	@Test
+	public void testFailedReplacementDoesNotBlock() throws Exception {
+
+		LinkedHashMap<Integer, BigInteger> values = new LinkedHashMap<Integer, BigInteger>();
+		values.put(0, BigInteger.ONE);
+		byte[] witness = ProverProtocol.encodeWitness(values);
+
+		// the first backend always fails, and no replacement can be created
+		final AtomicInteger numOfCreations = new AtomicInteger();
+		ProverPool.BackendFactory factory = new ProverPool.BackendFactory() {
+			@Override
+			public ProverBackend create() throws IOException {
+				if (numOfCreations.getAndIncrement() > 0) {
+					throw new IOException("Cannot start the prover");
+				}
+				return new ProverBackend() {
+					@Override
+					public ProverResult prove(byte[] witness) throws IOException {
+						throw new IOException("The prover crashed");
+					}
+
+					@Override
+					public boolean isAlive() {
+						return false;
+					}
+
+					@Override
+					public void close() {
+					}
+				};
+			}
+		};
+
+		ProverPool pool = new ProverPool(factory, 1, 0);
+		try {
+			Future<ProverResult> first = pool.submit(witness);
+			Future<ProverResult> second = pool.submit(witness);
+			for (Future<ProverResult> f : Arrays.asList(first, second)) {
+				try {
+					f.get(5, TimeUnit.SECONDS);
+					fail("Expected the request to fail");
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof IOException);
+				}
+			}
+			assertEquals(0, pool.getNumOfBackends());
+			try {
+				pool.prove(witness);
+				fail("Expected the request to fail");
+			} catch (IOException e) {
+				assertEquals("Cannot start the prover", e.getCause().getMessage());
+			}
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testOutputParser() {
+
+		LibsnarkOutputParser parser = new LibsnarkOutputParser();
+		parser.parseLine("  (enter) Call to r1cs_ppzksnark_prover\t[             ]\t(0.0105s x0.99 from start)");
+		parser.parseLine("  (leave) Call to r1cs_ppzksnark_prover\t[0.2500s x1.00]\t(0.2605s x1.00 from start)");
+		parser.parseLine("  (leave) Call to r1cs_ppzksnark_verifier_strong_IC\t[0.0100s x0.98]\t(0.2705s x1.00 from start)");
+		parser.parseLine("  (leave) Call to r1cs_ppzksnark_prover\t[0.5000s x1.00]\t(0.7705s x1.00 from start)");
+		parser.parseLine("* The verification result is: PASS");
+
+		ProverResult result = parser.createResult(true, null);
+		assertTrue(result.isSuccessful());
+		assertEquals(Boolean.TRUE, result.getVerificationResult());
+		assertEquals(2, result.getTimings().size());
+		assertEquals(0.75, result.getTimings().get("r1cs_ppzksnark_prover"), 1e-9);
+		assertTrue(result.getOutput().contains("verification result"));
+
+		parser.parseLine("* The verification result is: FAIL");
+		assertFalse(parser.createResult(true, null).isSuccessful());
+	}
+
+	@Test
+	public void testAsyncPipeline() throws Exception {
+
+		final BigInteger[] inVals = { BigInteger.valueOf(3), BigInteger.valueOf(4) };
+		CircuitGenerator generator = new CircuitGenerator("Async_Prover_Test") {
+			Wire[] inputs;
+
+			@Override
+			protected void buildCircuit() {
+				inputs = createInputWireArray(2);
+				makeOutput(inputs[0].mul(inputs[1]));
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(inputs, inVals);
+			}
+		};
+
+		AsyncProver prover = new AsyncProver(2, 2, 16);
+		ProverPool pool = new ProverPool(StubProverBackend.factory(50), 2, 0);
+		try {
+			prover.generateCircuit(generator).get();
+			CircuitEvaluator evaluator1 = prover.evalCircuit(generator).get();
+			CompletableFuture<ProverResult> proof1 = prover.prove(generator, evaluator1, pool);
+			// the next witness is computed while the first proof is running
+			inVals[1] = BigInteger.valueOf(5);
+			CircuitEvaluator evaluator2 = prover.evalCircuit(generator).get();
+			CompletableFuture<ProverResult> proof2 = prover.prove(generator, evaluator2, pool);
+
+			assertEquals(BigInteger.valueOf(12), evaluator1.getWireValue(generator.getOutWires().get(0)));
+			assertEquals(BigInteger.valueOf(15), evaluator2.getWireValue(generator.getOutWires().get(0)));
+			assertTrue(proof1.get().isSuccessful());
+			assertTrue(proof2.get().isSuccessful());
+			assertFalse(Arrays.equals(proof1.get().getProof(), proof2.get().getProof()));
+		} finally {
+			prover.close();
+			pool.close();
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.tests;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import util.CompressedStreams;
+import util.Util;
+import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.FieldLimbs;
+import circuit.eval.IncrementalEvaluator;
+import circuit.eval.MappedAssignment;
+import circuit.eval.StreamingCircuitEvaluator;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.Wire;
+import examples.gadgets.hash.SHA256Gadget;
+import examples.gadgets.math.FieldDivisionGadget;
+import examples.gadgets.math.ModGadget;
+
+public class StreamingCircuitEvaluatorTest extends TestCase {
+
+	@Test
+	public void testSameWitnessAsCircuitEvaluator() throws Exception {
+
+		final int numIns = 64;
+		final BigInteger[] inVals = Util.randomBigIntegerArray(numIns, 8);
+		final BigInteger[] witnessVals = Util.randomBigIntegerArray(numIns, 32);
+
+		CircuitGenerator generator = new CircuitGenerator("Streaming_Evaluator_Test") {
+
+			Wire[] in;
+			Wire[] witness;
+
+			@Override
+			protected void buildCircuit() {
+				in = createInputWireArray(numIns);
+				witness = createProverWitnessWireArray(numIns);
+				Wire[] digest = new SHA256Gadget(in, 8, numIns, false, true).getOutputWires();
+				makeOutputArray(digest);
+				Wire acc = getOneWire();
+				for (int i = 0; i < numIns; i++) {
+					Wire t = acc.mul(witness[i]).add(acc.mul(-i));
+					acc = t.getBitWires(Config.LOG2_FIELD_PRIME).packAsBits(32).orBitwise(digest[i % 8], 32);
+					makeOutput(acc.isEqualTo(witness[i]).or(in[i].checkNonZero()));
+					addAssertion(acc, witness[i], acc.mul(witness[i]));
+				}
+				makeOutput(acc);
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(in, inVals);
+				evaluator.setWireValue(witness, witnessVals);
+			}
+		};
+		generator.generateCircuit();
+		CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+		generator.generateSampleInput(evaluator);
+		evaluator.evaluate();
+		BigInteger[] assignment = evaluator.getAssignment();
+
+		String circuitFile = CompressedStreams.outputFileName(generator.getName() + ".arith");
+		String inFile = generator.getName() + ".in";
+		String witnessFile = generator.getName() + ".full";
+		String assignmentFile = generator.getName() + ".assignment";
+		generator.writeCircuitFile();
+		evaluator.writeInputFile(inFile);
+		try {
+			StreamingCircuitEvaluator streamingEvaluator = new StreamingCircuitEvaluator(circuitFile, inFile);
+			int requested = generator.getNumWires() / 2;
+			streamingEvaluator.keepWire(requested);
+			streamingEvaluator.setWitnessOutput(witnessFile);
+			streamingEvaluator.evaluate();
+
+			assertEquals(generator.getOutWires().size(), streamingEvaluator.getOutputWireIds().size());
+			for (Wire w : generator.getOutWires()) {
+				assertEquals(assignment[w.getWireId()], streamingEvaluator.getWireValue(w.getWireId()));
+			}
+			assertEquals(assignment[requested], streamingEvaluator.getWireValue(requested));
+			// only a fraction of the values is in memory at any time
+			assertTrue(streamingEvaluator.getMaxNumOfLiveWires() < generator.getNumWires() / 4);
+
+			int numOfLines = 0;
+			BufferedReader reader = new BufferedReader(new FileReader(witnessFile));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split(" ");
+				assertEquals(assignment[Integer.parseInt(parts[0])], new BigInteger(parts[1], 16));
+				numOfLines++;
+			}
+			reader.close();
+			assertEquals(generator.getNumWires(), numOfLines);
+
+			// the values of all the wires in a memory-mapped file
+			streamingEvaluator = new StreamingCircuitEvaluator(circuitFile, inFile);
+			streamingEvaluator.setAssignmentFile(assignmentFile);
+			streamingEvaluator.evaluate();
+			assertEquals(0, streamingEvaluator.getMaxNumOfLiveWires());
+			for (Wire w : generator.getOutWires()) {
+				assertEquals(assignment[w.getWireId()], streamingEvaluator.getWireValue(w.getWireId()));
+			}
+			MappedAssignment mappedAssignment = MappedAssignment.open(assignmentFile);
+			assertEquals(generator.getNumWires(), mappedAssignment.getNumOfWires());
+			assertEquals(generator.getNumWires() * 32L, new File(assignmentFile).length());
+			for (int i = 0; i < assignment.length; i++) {
+				assertEquals(assignment[i], mappedAssignment.get(i));
+			}
+			mappedAssignment.close();
+
+			// the prover witnesses are not computed from the circuit file, and
+			// must be in the input file
+			List<String> lines = Files.readAllLines(Paths.get(inFile));
+			Files.write(Paths.get(inFile), lines.subList(0, lines.size() - 1));
+			try {
+				new StreamingCircuitEvaluator(circuitFile, inFile).evaluate();
+				fail("Expected the missing prover witness to be reported");
+			} catch (RuntimeException e) {
+				assertTrue(e.getMessage().contains("nizkinput"));
+			}
+		} finally {
+			new File(circuitFile).delete();
+			new File(inFile).delete();
+			new File(witnessFile).delete();
+			new File(assignmentFile).delete();
+		}
+	}
+
+	@Test
+	public void testFreeValuesAfterLastUse() {
+
+		final int numOfSteps = 300;
+		CircuitGenerator generator = new CircuitGenerator("Free_Values_Test") {
+
+			Wire[] in;
+
+			@Override
+			protected void buildCircuit() {
+				in = createInputWireArray(2);
+				// an anonymous computation, which may read any earlier wire
+				Wire acc = new FieldDivisionGadget(in[0], in[1]).getOutputWires()[0];
+				acc = acc.getBitWires(Config.LOG2_FIELD_PRIME).packAsBits(16);
+				Wire modulus = createConstantWire(1000003);
+				for (int i = 0; i < numOfSteps; i++) {
+					Wire t = acc.mul(in[1]).add(i);
+					acc = new ModGadget(t, modulus, 40).getOutputWires()[0];
+				}
+				makeOutput(acc);
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(in[0], BigInteger.valueOf(12345));
+				evaluator.setWireValue(in[1], BigInteger.valueOf(54321));
+			}
+		};
+		generator.generateCircuit();
+		CircuitEvaluator reference = new CircuitEvaluator(generator);
+		generator.generateSampleInput(reference);
+		reference.evaluate();
+		BigInteger[] expected = reference.getAssignment();
+		Wire output = generator.getOutWires().get(0);
+		int requested = generator.getNumWires() / 2;
+
+		boolean previous = Config.compiledEvaluation;
+		try {
+			for (boolean compiled : new boolean[] { false, true }) {
+				Config.compiledEvaluation = compiled;
+				CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+				evaluator.freeValuesAfterLastUse(new Wire(requested));
+				generator.generateSampleInput(evaluator);
+				evaluator.evaluate();
+
+				assertEquals(expected[output.getWireId()], evaluator.getWireValue(output));
+				assertEquals(expected[requested], evaluator.getWireValue(new Wire(requested)));
+				int numOfKept = 0;
+				for (int i = 0; i < generator.getNumWires(); i++) {
+					if (evaluator.isAssigned(i)) {
+						numOfKept++;
+					} else {
+						assertTrue(evaluator.isFreed(i));
+					}
+				}
+				assertTrue(numOfKept < generator.getNumWires() / 4);
+				try {
+					new IncrementalEvaluator(evaluator);
+					fail("Expected the evaluator to be rejected");
+				} catch (IllegalArgumentException e) {
+				}
+			}
+		} finally {
+			Config.compiledEvaluation = previous;
+		}
+	}
+
+	@Test
+	public void testMappedCircuitEvaluator() throws Exception {
+
+		final int numIns = 16;
+		final BigInteger[] inVals = Util.randomBigIntegerArray(numIns, 31);
+		final BigInteger[] witnessVals = Util.randomBigIntegerArray(numIns, Config.FIELD_PRIME);
+
+		CircuitGenerator generator = new CircuitGenerator("Mapped_Evaluator_Test") {
+
+			Wire[] in;
+			Wire[] witness;
+
+			@Override
+			protected void buildCircuit() {
+				in = createInputWireArray(numIns);
+				witness = createProverWitnessWireArray(numIns);
+				Wire acc = getOneWire();
+				for (int i = 0; i < numIns; i++) {
+					Wire t = acc.mul(witness[i]).add(in[i].mul(-i - 1));
+					Wire q = new FieldDivisionGadget(t, in[i].add(1)).getOutputWires()[0];
+					Wire r = new ModGadget(in[i], in[(i + 1) % numIns].add(1), 32).getOutputWires()[0];
+					Wire bits = q.getBitWires(Config.LOG2_FIELD_PRIME).packAsBits(32).xorBitwise(in[i], 32);
+					acc = bits.orBitwise(r, 32).add(q);
+					makeOutput(acc.isEqualTo(witness[i]).or(t.checkNonZero()));
+					addAssertion(acc, witness[i], acc.mul(witness[i]));
+				}
+				makeOutput(acc);
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(in, inVals);
+				evaluator.setWireValue(witness, witnessVals);
+			}
+		};
+		generator.generateCircuit();
+		CircuitEvaluator reference = new CircuitEvaluator(generator);
+		generator.generateSampleInput(reference);
+		reference.evaluate();
+		BigInteger[] expected = reference.getAssignment();
+
+		String assignmentFile = generator.getName() + ".assignment";
+		MappedAssignment assignment = MappedAssignment.create(assignmentFile, generator.getNumWires());
+		try {
+			CircuitEvaluator evaluator = new CircuitEvaluator(generator, assignment);
+			generator.generateSampleInput(evaluator);
+			evaluator.evaluate();
+			for (Wire w : generator.getOutWires()) {
+				assertEquals(expected[w.getWireId()], evaluator.getWireValue(w));
+			}
+			for (int i = 0; i < expected.length; i++) {
+				assertEquals(expected[i], assignment.get(i));
+			}
+			try {
+				evaluator.getAssignment();
+				fail("Expected the assignment array to be unavailable");
+			} catch (IllegalStateException e) {
+			}
+		} finally {
+			assignment.close();
+			new File(assignmentFile).delete();
+		}
+	}
+
+	@Test
+	public void testFieldLimbs() {
+		BigInteger p = Config.FIELD_PRIME;
+		BigInteger[] values = Util.randomBigIntegerArray(200, p);
+		values[0] = BigInteger.ZERO;
+		values[1] = BigInteger.ONE;
+		values[2] = p.subtract(BigInteger.ONE);
+		values[3] = p.subtract(BigInteger.valueOf(2));
+		long[] r = new long[FieldLimbs.NUM_OF_LIMBS];
+		for (int i = 0; i < values.length; i++) {
+			BigInteger a = values[i];
+			BigInteger b = values[(i * 7 + 3) % values.length];
+			long[] aLimbs = FieldLimbs.fromBigInteger(a);
+			long[] bLimbs = FieldLimbs.fromBigInteger(b);
+			assertEquals(a, FieldLimbs.toBigInteger(aLimbs));
+			FieldLimbs.add(aLimbs, bLimbs, r);
+			assertEquals(a.add(b).mod(p), FieldLimbs.toBigInteger(r));
+			FieldLimbs.sub(aLimbs, bLimbs, r);
+			assertEquals(a.subtract(b).mod(p), FieldLimbs.toBigInteger(r));
+			FieldLimbs.mul(aLimbs, bLimbs, r);
+			assertEquals(a.multiply(b).mod(p), FieldLimbs.toBigInteger(r));
+			FieldLimbs.montgomeryMul(aLimbs, FieldLimbs.toMontgomery(b), r);
+			assertEquals(a.multiply(b).mod(p), FieldLimbs.toBigInteger(r));
+			assertEquals(a, FieldLimbs.fromMontgomery(FieldLimbs.toMontgomery(a)));
+			assertEquals(a.bitLength(), FieldLimbs.bitLength(aLimbs));
+		}
+	}
+}
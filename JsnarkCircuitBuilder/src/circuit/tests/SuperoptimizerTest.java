@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package circuit.tests;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import circuit.auxiliary.Superoptimizer;
+import circuit.eval.CircuitEvaluator;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.Wire;
+
+public class SuperoptimizerTest extends TestCase {
+
+	private static int[] ch = new int[8];
+	private static int[] maj = new int[8];
+	private static int[] xor3 = new int[8];
+	private static int[] and = new int[8];
+
+	static {
+		for (int x = 0; x < 8; x++) {
+			int a = x & 1, b = (x >> 1) & 1, c = (x >> 2) & 1;
+			ch[x] = a == 1 ? b : c;
+			maj[x] = a + b + c >= 2 ? 1 : 0;
+			xor3[x] = a ^ b ^ c;
+			and[x] = a * b;
+		}
+	}
+
+	@Test
+	public void testMinimumMultiplications() {
+		Superoptimizer optimizer = new Superoptimizer(3);
+		assertEquals(1, optimizer.search(ch, 3).getNumOfMultiplications());
+		assertEquals(2, optimizer.search(maj, 3).getNumOfMultiplications());
+		assertEquals(2, optimizer.search(xor3, 3).getNumOfMultiplications());
+		// a linear function needs no products
+		assertEquals(0, optimizer.search(new int[] { 0, 1, 1, 2, 1, 2, 2, 3 }, 3).getNumOfMultiplications());
+		assertNull(optimizer.search(maj, 1));
+
+		// the product a*b of the previous round of SHA-256 is reused
+		optimizer.addAvailableSignal(and);
+		Superoptimizer.Encoding encoding = optimizer.search(maj, 3);
+		assertEquals(1, encoding.getNumOfMultiplications());
+		assertTrue(encoding.verify());
+	}
+
+	@Test
+	public void testInCircuit() {
+		final Superoptimizer.Encoding chEncoding = new Superoptimizer(3).search(ch, 3);
+		Superoptimizer optimizer = new Superoptimizer(3);
+		optimizer.addAvailableSignal(and);
+		final Superoptimizer.Encoding majEncoding = optimizer.search(maj, 3);
+
+		final int numOfWords = 4;
+		final long[][] words = new long[numOfWords][3];
+		Random rand = new Random(7);
+		for (int i = 0; i < numOfWords; i++) {
+			for (int j = 0; j < 3; j++) {
+				words[i][j] = rand.nextLong() & 0xffffffffL;
+			}
+		}
+
+		CircuitGenerator generator = new CircuitGenerator("Superoptimizer_Test") {
+
+			Wire[][] inputs;
+			Wire[] chOutputs;
+			Wire[] majOutputs;
+
+			@Override
+			protected void buildCircuit() {
+				inputs = new Wire[numOfWords][];
+				chOutputs = new Wire[numOfWords];
+				majOutputs = new Wire[numOfWords * 32];
+				for (int i = 0; i < numOfWords; i++) {
+					inputs[i] = createInputWireArray(3);
+					chOutputs[i] = chEncoding.applyToWords(inputs[i], 32);
+					Wire[][] bits = new Wire[3][];
+					for (int j = 0; j < 3; j++) {
+						bits[j] = inputs[i][j].getBitWires(32).asArray();
+					}
+					for (int b = 0; b < 32; b++) {
+						Wire[] in = { bits[0][b], bits[1][b], bits[2][b] };
+						majOutputs[i * 32 + b] = majEncoding.apply(in, bits[0][b].mul(bits[1][b]))[0];
+					}
+				}
+				makeOutputArray(chOutputs);
+				makeOutputArray(majOutputs);
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				for (int i = 0; i < numOfWords; i++) {
+					for (int j = 0; j < 3; j++) {
+						evaluator.setWireValue(inputs[i][j], words[i][j]);
+					}
+				}
+			}
+		};
+		generator.generateCircuit();
+		generator.evalCircuit();
+		CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+		Wire[] outputs = generator.getOutWires().toArray(new Wire[0]);
+		for (int i = 0; i < numOfWords; i++) {
+			long a = words[i][0], b = words[i][1], c = words[i][2];
+			long expectedCh = (a & b) ^ (~a & 0xffffffffL & c);
+			assertEquals(BigInteger.valueOf(expectedCh), evaluator.getWireValue(outputs[i]));
+			long expectedMaj = (a & b) ^ (a & c) ^ (b & c);
+			for (int bit = 0; bit < 32; bit++) {
+				assertEquals(BigInteger.valueOf((expectedMaj >>> bit) & 1),
+						evaluator.getWireValue(outputs[numOfWords + i * 32 + bit]));
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package examples.benchmarks;
+
+import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.structure.CircuitGenerator;
+import examples.generators.blockciphers.AES128CipherCircuitGenerator;
+import examples.generators.hash.SHA2CircuitGenerator;
+import examples.generators.rsa.RSAEncryptionCircuitGenerator;
+
+/**
+ * Compares the evaluation time of the instruction-by-instruction evaluator
+ * with the compiled program and the generated kernel, with and without the
+ * small value path and the checks, on the SHA-256, AES-128 and RSA-2048
+ * example circuits. The compilation time of the kernel is reported separately.
+ *
+ * Usage: EvaluatorBenchmark [number of measured runs per mode]
+ */
+public class EvaluatorBenchmark {
+
+	private static final String[] MODES = { "queue (BigInteger only)", "queue + small values",
+			"compiled + small values", "compiled + small values, no checks", "generated kernel + small values" };
+
+	public static void main(String[] args) {
+		int numOfRuns = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+		Config.outputVerbose = false;
+		Config.debugVerbose = false;
+		// the generators are created before any of them is built
+		Config.runningMultiGenerators = true;
+
+		CircuitGenerator[] generators = { new SHA2CircuitGenerator("sha_256"),
+				new AES128CipherCircuitGenerator("AES_Circuit"),
+				new RSAEncryptionCircuitGenerator("rsa2048_encryption", 2048, 3) };
+
+		StringBuilder report = new StringBuilder();
+		for (CircuitGenerator generator : generators) {
+			generator.setAsActiveGenerator();
+			generator.generateCircuit();
+			report.append(generator.getName() + " (" + generator.getEvaluationQueue().size() + " instructions)\n");
+			for (int mode = 0; mode < MODES.length; mode++) {
+				setMode(mode);
+				if (Config.witnessKernelEvaluation) {
+					long start = System.nanoTime();
+					generator.getWitnessKernel();
+					report.append(String.format("\t%-40s %10.3f ms\n", "kernel compilation",
+							(System.nanoTime() - start) / 1e6));
+				}
+				// warm-up runs
+				for (int i = 0; i < Math.max(3, numOfRuns / 2); i++) {
+					evaluate(generator);
+				}
+				long start = System.nanoTime();
+				for (int i = 0; i < numOfRuns; i++) {
+					evaluate(generator);
+				}
+				double ms = (System.nanoTime() - start) / 1e6 / numOfRuns;
+				report.append(String.format("\t%-40s %10.3f ms/evaluation\n", MODES[mode], ms));
+			}
+		}
+		System.out.println("\n" + report);
+	}
+
+	private static void setMode(int mode) {
+		Config.compiledEvaluation = mode >= 2;
+		Config.smallValueEvaluation = mode >= 1;
+		Config.evaluationChecks = mode != 3;
+		Config.witnessKernelEvaluation = mode == 4;
+	}
+
+	private static void evaluate(CircuitGenerator generator) {
+		CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+		generator.generateSampleInput(evaluator);
+		evaluator.evaluate();
+	}
+}
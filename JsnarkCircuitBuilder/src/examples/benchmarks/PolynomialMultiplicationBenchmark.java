@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package examples.benchmarks;
+
+import java.math.BigInteger;
+
+import util.Util;
+import circuit.auxiliary.LongElement;
+import circuit.auxiliary.PolynomialMultiplication;
+
+/**
+ * Compares the methods of PolynomialMultiplication on the chunk arrays that
+ * LongElement.mul() multiplies for 2048-, 4096- and 8192-bit operands.
+ *
+ * Usage: PolynomialMultiplicationBenchmark [number of measured runs per method]
+ */
+public class PolynomialMultiplicationBenchmark {
+
+	private static final String[] METHODS = { "schoolbook", "karatsuba", "ntt", "multiply" };
+
+	public static void main(String[] args) {
+		int numOfRuns = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int[] bitwidths = { 2048, 4096, 8192 };
+
+		StringBuilder report = new StringBuilder();
+		for (int bitwidth : bitwidths) {
+			int length = (bitwidth + LongElement.CHUNK_BITWIDTH - 1) / LongElement.CHUNK_BITWIDTH;
+			BigInteger[] a = Util.randomBigIntegerArray(length, LongElement.CHUNK_BITWIDTH);
+			BigInteger[] b = Util.randomBigIntegerArray(length, LongElement.CHUNK_BITWIDTH);
+			report.append(bitwidth + "-bit operands (" + length + " chunks)\n");
+			for (int method = 0; method < METHODS.length; method++) {
+				// warm-up runs
+				for (int i = 0; i < numOfRuns; i++) {
+					run(method, a, b);
+				}
+				long start = System.nanoTime();
+				for (int i = 0; i < numOfRuns; i++) {
+					run(method, a, b);
+				}
+				double us = (System.nanoTime() - start) / 1e3 / numOfRuns;
+				report.append(String.format("\t%-12s %12.1f us/multiplication\n", METHODS[method], us));
+			}
+		}
+		System.out.println(report);
+	}
+
+	private static BigInteger[] run(int method, BigInteger[] a, BigInteger[] b) {
+		switch (method) {
+		case 0:
+			return PolynomialMultiplication.schoolbook(a, b);
+		case 1:
+			return PolynomialMultiplication.karatsuba(a, b);
+		case 2:
+			return PolynomialMultiplication.ntt(a, b);
+		default:
+			return PolynomialMultiplication.multiply(a, b);
+		}
+	}
+}
@@ -3,12 +3,12 @@
  *******************************************************************************/
 package examples.gadgets.augmenter;
 
-import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Scanner;
 
+import util.CompressedStreams;
 import circuit.operations.Gadget;
 import circuit.structure.Wire;
 
@@ -28,13 +28,13 @@ public class PinocchioGadget extends Gadget {
 		}
 	}
 
-	private void buildCircuit(String path) throws FileNotFoundException {
+	private void buildCircuit(String path) throws IOException {
 
 		ArrayList<Wire> proverWitnessWires = new ArrayList<Wire>();
 		ArrayList<Wire> outputWires = new ArrayList<Wire>();
 
 		Wire[] wireMapping;
-		Scanner scanner = new Scanner(new File(path));
+		Scanner scanner = new Scanner(CompressedStreams.openInput(path));
 
 		if (!scanner.next().equals("total")) {
 			scanner.close();
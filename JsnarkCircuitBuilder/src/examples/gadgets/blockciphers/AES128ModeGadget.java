@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+
+package examples.gadgets.blockciphers;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import circuit.operations.Gadget;
+import circuit.structure.ConstantWire;
+import circuit.structure.Wire;
+import circuit.structure.WireArray;
+
+/**
+ * Encrypts a message of several blocks with AES-128 in the CTR or CBC mode.
+ * The key is expanded once for all the blocks (or can be passed already
+ * expanded, to share it with other gadgets).
+ *
+ * In the CTR mode, block i is encrypted by xoring it with the encryption of
+ * the counter block iv + i (mod 2^128, big-endian, as in NIST SP 800-38A), so
+ * the blocks do not depend on each other, and the message does not need to be
+ * a multiple of the block size (the last keystream block is truncated). When
+ * the iv is public (constant wires), the counter blocks are constants, and so
+ * is the input of the first round key addition. Otherwise, each counter block
+ * costs one split of 129 bits.
+ *
+ * In the CBC mode, each block is xored with the previous ciphertext block (or
+ * the iv) before encryption, which makes the blocks a serial chain. The
+ * message is padded with zero bytes to a multiple of the block size, as in
+ * SymmetricEncryptionCBCGadget (any other padding scheme should be applied by
+ * the caller).
+ *
+ * All the inputs and outputs are arrays of bytes (one wire per byte).
+ */
+public class AES128ModeGadget extends Gadget {
+
+	public enum Mode {
+		CTR, CBC
+	}
+
+	private static final int BLOCK_SIZE = 16;
+	private static final int EXPANDED_KEY_SIZE = 176;
+
+	private Wire[] plaintext;
+	private Wire[] expandedKey;
+	private Wire[] iv;
+	private Mode mode;
+	private Wire[] ciphertext;
+
+	/**
+	 * @param plaintext
+	 *            : the message bytes
+	 * @param key
+	 *            : 16 key bytes, or the 176 bytes of an expanded key (see
+	 *            AES128CipherGadget.expandKey())
+	 * @param iv
+	 *            : 16 bytes, the initial counter block in the CTR mode
+	 */
+	public AES128ModeGadget(Wire[] plaintext, Wire[] key, Wire[] iv, Mode mode, String... desc) {
+		super(desc);
+		if (iv.length != BLOCK_SIZE || (key.length != BLOCK_SIZE && key.length != EXPANDED_KEY_SIZE)) {
+			throw new IllegalArgumentException("Invalid Input");
+		}
+		this.plaintext = plaintext;
+		this.expandedKey = key.length == EXPANDED_KEY_SIZE ? key : AES128CipherGadget.expandKey(key);
+		this.iv = iv;
+		this.mode = mode;
+		buildCircuit();
+	}
+
+	protected void buildCircuit() {
+		if (mode == Mode.CTR) {
+			buildCTR();
+		} else {
+			buildCBC();
+		}
+	}
+
+	private void buildCTR() {
+		int numBlocks = (plaintext.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		ciphertext = new Wire[plaintext.length];
+
+		BigInteger constantIv = getConstantValue(iv);
+		Wire packedIv = null;
+		if (constantIv == null && numBlocks > 1) {
+			for (Wire w : iv) {
+				w.restrictBitLength(8);
+			}
+			packedIv = generator.getZeroWire();
+			for (int i = 0; i < BLOCK_SIZE; i++) {
+				packedIv = packedIv.add(iv[i].mul(BigInteger.ONE.shiftLeft(8 * (BLOCK_SIZE - 1 - i))));
+			}
+		}
+
+		for (int b = 0; b < numBlocks; b++) {
+			Wire[] counterBlock;
+			if (b == 0) {
+				counterBlock = iv;
+			} else if (constantIv != null) {
+				BigInteger counter = constantIv.add(BigInteger.valueOf(b)).mod(BigInteger.ONE.shiftLeft(128));
+				counterBlock = new Wire[BLOCK_SIZE];
+				for (int i = 0; i < BLOCK_SIZE; i++) {
+					counterBlock[i] = generator.createConstantWire(counter.shiftRight(8 * (BLOCK_SIZE - 1 - i))
+							.and(BigInteger.valueOf(0xff)));
+				}
+			} else {
+				Wire[] bits = packedIv.add(b).getBitWires(129).asArray();
+				counterBlock = new Wire[BLOCK_SIZE];
+				for (int i = 0; i < BLOCK_SIZE; i++) {
+					int from = 8 * (BLOCK_SIZE - 1 - i);
+					counterBlock[i] = new WireArray(Arrays.copyOfRange(bits, from, from + 8)).packAsBits(8);
+				}
+			}
+			Wire[] keystream = new AES128CipherGadget(counterBlock, expandedKey).getOutputWires();
+			for (int i = 0; i < BLOCK_SIZE && b * BLOCK_SIZE + i < plaintext.length; i++) {
+				int idx = b * BLOCK_SIZE + i;
+				ciphertext[idx] = plaintext[idx].xorBitwise(keystream[i], 8);
+			}
+		}
+	}
+
+	private void buildCBC() {
+		int numBlocks = (plaintext.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		ciphertext = new Wire[numBlocks * BLOCK_SIZE];
+		Wire[] prevCipher = iv;
+		for (int b = 0; b < numBlocks; b++) {
+			Wire[] xored = new Wire[BLOCK_SIZE];
+			for (int i = 0; i < BLOCK_SIZE; i++) {
+				int idx = b * BLOCK_SIZE + i;
+				Wire m = idx < plaintext.length ? plaintext[idx] : generator.getZeroWire();
+				xored[i] = m.xorBitwise(prevCipher[i], 8);
+			}
+			prevCipher = new AES128CipherGadget(xored, expandedKey).getOutputWires();
+			System.arraycopy(prevCipher, 0, ciphertext, b * BLOCK_SIZE, BLOCK_SIZE);
+		}
+	}
+
+	// returns the big-endian value of the bytes if they are all constants
+	private static BigInteger getConstantValue(Wire[] bytes) {
+		BigInteger v = BigInteger.ZERO;
+		for (Wire w : bytes) {
+			if (!(w instanceof ConstantWire)) {
+				return null;
+			}
+			v = v.shiftLeft(8).add(((ConstantWire) w).getConstant());
+		}
+		return v;
+	}
+
+	@Override
+	public Wire[] getOutputWires() {
+		return ciphertext;
+	}
+}
@@ -4,6 +4,7 @@
 
 package examples.gadgets.blockciphers;
 
+import circuit.auxiliary.PackedWord;
 import circuit.operations.Gadget;
 import circuit.structure.Wire;
 
@@ -35,35 +36,34 @@ public class ChaskeyLTS128CipherGadget extends Gadget {
 
 	protected void buildCircuit() {
 
-		Wire[] v = new Wire[4];
+		PackedWord[] k = PackedWord.uint32(key);
+		PackedWord[] v = new PackedWord[4];
 		for (int i = 0; i < 4; i++) {
-			v[i] = (plaintext[i].xorBitwise(key[i], 32));
+			v[i] = PackedWord.uint32(plaintext[i]).xor(k[i]);
 		}
 
 		for (int i = 0; i < 16; i++) {
 
 			v[0] = v[0].add(v[1]);
-			v[0] = v[0].trimBits(33, 32);
-			v[1] = v[1].rotateLeft(32, 5).xorBitwise(v[0], 32);
-			v[0] = v[0].rotateLeft(32, 16);
+			v[1] = v[1].rotateLeft(5).xor(v[0]);
+			v[0] = v[0].rotateLeft(16);
 
-			v[2] = v[2].add(v[3]).trimBits(33, 32);
-			v[3] = v[3].rotateLeft(32, 8).xorBitwise(v[2], 32);
+			v[2] = v[2].add(v[3]);
+			v[3] = v[3].rotateLeft(8).xor(v[2]);
 
-			v[0] = v[0].add(v[3]).trimBits(33, 32);
-			v[3] = v[3].rotateLeft(32, 13).xorBitwise(v[0], 32);
+			v[0] = v[0].add(v[3]);
+			v[3] = v[3].rotateLeft(13).xor(v[0]);
 
-			v[2] = v[2].add(v[1]).trimBits(33, 32);
-			;
-			v[1] = v[1].rotateLeft(32, 7).xorBitwise(v[2], 32);
-			v[2] = v[2].rotateLeft(32, 16);
+			v[2] = v[2].add(v[1]);
+			v[1] = v[1].rotateLeft(7).xor(v[2]);
+			v[2] = v[2].rotateLeft(16);
 
 		}
 
+		ciphertext = new Wire[4];
 		for (int i = 0; i < 4; i++) {
-			v[i] = v[i].xorBitwise(key[i], 32);
+			ciphertext[i] = v[i].xor(k[i]).getWire();
 		}
-		ciphertext = v;
 	}
 
 	@Override
@@ -4,6 +4,7 @@
 
 package examples.gadgets.blockciphers;
 
+import circuit.auxiliary.PackedWord;
 import circuit.operations.Gadget;
 import circuit.structure.CircuitGenerator;
 import circuit.structure.Wire;
@@ -42,18 +43,17 @@ public class Speck128CipherGadget extends Gadget {
 
 	protected void buildCircuit() {
 
-		Wire x, y;
-		x = plaintext[1];
-		y = plaintext[0];
+		PackedWord x, y;
+		x = PackedWord.uint64(plaintext[1]);
+		y = PackedWord.uint64(plaintext[0]);
 		ciphertext = new Wire[2];
 		for (int i = 0; i <= 31; i++) {
-			x = x.rotateRight(64, 8).add(y);
-			x = x.trimBits(65, 64);
-			x = x.xorBitwise(expandedKey[i], 64);
-			y = y.rotateLeft(64, 3).xorBitwise(x, 64);
+			x = x.rotateRight(8).add(y);
+			x = x.xor(PackedWord.uint64(expandedKey[i]));
+			y = y.rotateLeft(3).xor(x);
 		}
-		ciphertext[1] = x;
-		ciphertext[0] = y;
+		ciphertext[1] = x.getWire();
+		ciphertext[0] = y.getWire();
 	}
 
 	/**
@@ -65,17 +65,20 @@ public class Speck128CipherGadget extends Gadget {
 	public static Wire[] expandKey(Wire[] key) {
 		CircuitGenerator generator = CircuitGenerator
 				.getActiveCircuitGenerator();
-		Wire[] k = new Wire[32];
-		Wire[] l = new Wire[32];
-		k[0] = key[0];
-		l[0] = key[1];
+		PackedWord[] k = new PackedWord[32];
+		PackedWord[] l = new PackedWord[32];
+		k[0] = PackedWord.uint64(key[0]);
+		l[0] = PackedWord.uint64(key[1]);
 		for (int i = 0; i <= 32 - 2; i++) {
-			l[i + 1] = k[i].add(l[i].rotateLeft(64, 56));
-			l[i + 1] = l[i + 1].trimBits(65, 64);
-			l[i + 1] = l[i + 1].xorBitwise(generator.createConstantWire(i), 64);
-			k[i + 1] = k[i].rotateLeft(64, 3).xorBitwise(l[i + 1], 64);
+			l[i + 1] = k[i].add(l[i].rotateLeft(56));
+			l[i + 1] = l[i + 1].xor(PackedWord.uint64(generator.createConstantWire(i)));
+			k[i + 1] = k[i].rotateLeft(3).xor(l[i + 1]);
 		}
-		return k;
+		Wire[] expandedKey = new Wire[32];
+		for (int i = 0; i < 32; i++) {
+			expandedKey[i] = k[i].getWire();
+		}
+		return expandedKey;
 	}
 
 	@Override
@@ -8,13 +8,17 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
 
 import circuit.config.Config;
 import circuit.eval.CircuitEvaluator;
+import circuit.eval.FieldLimbs;
 import circuit.eval.Instruction;
 import circuit.operations.Gadget;
 import circuit.structure.Wire;
 import examples.gadgets.blockciphers.AES128CipherGadget;
+import examples.gadgets.blockciphers.sbox.util.CoefficientCache;
+import examples.gadgets.blockciphers.sbox.util.ForwardDifferences;
 import examples.gadgets.blockciphers.sbox.util.LinearSystemSolver;
 
 /**
@@ -50,19 +54,53 @@ public class AESSBoxGadgetOptimized1 extends Gadget {
 	}
 
 	public static void solveLinearSystems() {
-		allCoeffSet = new ArrayList<BigInteger[]>();
-		ArrayList<Integer> list = new ArrayList<Integer>();
+		final ArrayList<Integer> list = new ArrayList<Integer>();
 		for (int i = 0; i <= 255; i++) {
 			list.add(256 * i + SBox[i]);
 		}
 
+		// the coefficients computed in a previous run are checked against
+		// the polynomials that have the member values as roots (see the note
+		// above)
+		String key = "AESSBoxGadgetOptimized1";
+		CoefficientCache.Entry entry = CoefficientCache.load(key);
+		if (entry != null && entry.coeffSets.size() == 16) {
+			boolean valid = true;
+			for (int i = 0; i <= 15 && valid; i++) {
+				valid = Arrays.equals(entry.coeffSets.get(i), Preprocessing.computePolyCoeffs(list, i));
+			}
+			if (valid) {
+				allCoeffSet = entry.coeffSets;
+				return;
+			}
+		}
+
+		// the systems are independent, so they are solved in parallel
+		ArrayList<Callable<BigInteger[]>> tasks = new ArrayList<Callable<BigInteger[]>>();
 		for (int i = 0; i <= 15; i++) {
+			final int idx = i;
+			tasks.add(new Callable<BigInteger[]>() {
+				@Override
+				public BigInteger[] call() {
+					return Preprocessing.solveLinearSystem(list, idx);
+				}
+			});
+		}
+		allCoeffSet = LinearSystemSolver.runInParallel(tasks);
+		CoefficientCache.store(key, 0, allCoeffSet);
+	}
+
+	/*
+	 * The preprocessing steps that run in the worker threads. They are kept
+	 * out of the gadget class, as it is still being initialized while they
+	 * run.
+	 */
+	private static class Preprocessing {
+
+		static BigInteger[] solveLinearSystem(ArrayList<Integer> list, int i) {
 			HashSet<Integer> memberValueSet = new HashSet<>();
 			BigInteger[][] mat = new BigInteger[16][17];
 
-			// used for sanity checks
-			BigInteger[] polyCoeffs = new BigInteger[] { BigInteger.ONE };
-
 			for (int k = 0; k < mat.length; k++) {
 				int value = list.get(k + i * 16);
 				memberValueSet.add(value);
@@ -75,13 +113,6 @@ public class AESSBoxGadgetOptimized1 extends Gadget {
 				// negate the last element, just to make things consistent with
 				// the paper notations
 				mat[k][16] = Config.FIELD_PRIME.subtract(mat[k][16]);
-				
-
-				// used for a sanity check (verifying that the output solution
-				// is equivalent to coefficients of polynomial that has roots at
-				// memberValueSet. see note above)
-				polyCoeffs = polyMul(polyCoeffs, new BigInteger[] {
-						Config.FIELD_PRIME.subtract(p), BigInteger.ONE });
 			}
 
 			new LinearSystemSolver(mat).solveInPlace();
@@ -97,6 +128,10 @@ public class AESSBoxGadgetOptimized1 extends Gadget {
 				throw new RuntimeException("The prover can cheat.");
 			}
 
+			// used for a sanity check (verifying that the output solution
+			// is equivalent to coefficients of polynomial that has roots at
+			// memberValueSet. see note above)
+			BigInteger[] polyCoeffs = computePolyCoeffs(list, i);
 			BigInteger[] coeffs = new BigInteger[16];
 			for (int ii = 0; ii < 16; ii++) {
 				coeffs[ii] = mat[ii][16];
@@ -104,64 +139,103 @@ public class AESSBoxGadgetOptimized1 extends Gadget {
 					throw new RuntimeException("Inconsistency found.");
 				}
 			}
-			allCoeffSet.add(coeffs);
+			return coeffs;
 		}
 
-	}
-
-	// method for sanity checks during preprocessing
-	private static BigInteger[] polyMul(BigInteger[] a1, BigInteger[] a2) {
-		BigInteger[] out = new BigInteger[a1.length + a2.length - 1];
-		Arrays.fill(out, BigInteger.ZERO);
-		for (int i = 0; i < a1.length; i++) {
-			for (int j = 0; j < a2.length; j++) {
-				out[i + j] = out[i + j].add(a1[i].multiply(a2[j])).mod(
-						Config.FIELD_PRIME);
+		// the coefficients of the monic polynomial whose roots are the member
+		// values of system i (without the leading one)
+		static BigInteger[] computePolyCoeffs(ArrayList<Integer> list, int i) {
+			BigInteger[] polyCoeffs = new BigInteger[] { BigInteger.ONE };
+			for (int k = 0; k < 16; k++) {
+				BigInteger p = BigInteger.valueOf(list.get(k + i * 16));
+				polyCoeffs = polyMul(polyCoeffs, new BigInteger[] {
+						Config.FIELD_PRIME.subtract(p), BigInteger.ONE });
 			}
+			return Arrays.copyOf(polyCoeffs, 16);
 		}
-		return out;
-	}
 
-	private static boolean checkIfProverCanCheat(BigInteger[][] mat,
-			HashSet<Integer> valueSet) {
-
-		BigInteger[] coeffs = new BigInteger[16];
-		for (int i = 0; i < 16; i++) {
-			coeffs[i] = mat[i][16];
+		// method for sanity checks during preprocessing
+		private static BigInteger[] polyMul(BigInteger[] a1, BigInteger[] a2) {
+			BigInteger[] out = new BigInteger[a1.length + a2.length - 1];
+			Arrays.fill(out, BigInteger.ZERO);
+			for (int i = 0; i < a1.length; i++) {
+				for (int j = 0; j < a2.length; j++) {
+					out[i + j] = out[i + j].add(a1[i].multiply(a2[j])).mod(
+							Config.FIELD_PRIME);
+				}
+			}
+			return out;
 		}
 
-		int validResults = 0;
-		int outsidePermissibleSet = 0;
+		private static boolean checkIfProverCanCheat(BigInteger[][] mat,
+				HashSet<Integer> valueSet) {
 
-		// loop over the whole permissible domain (recall that input & output
-		// are bounded)
-		for (int k = 0; k < 256 * 256; k++) {
-
-			BigInteger result = coeffs[0];
-			BigInteger p = BigInteger.valueOf(k);
-			for (int i = 1; i < 16; i++) {
-				result = result.add(p.multiply(coeffs[i]));
-				p = p.multiply(BigInteger.valueOf(k)).mod(Config.FIELD_PRIME);
+			BigInteger[] coeffs = new BigInteger[16];
+			for (int i = 0; i < 16; i++) {
+				coeffs[i] = mat[i][16];
 			}
-			result = result.mod(Config.FIELD_PRIME);
 
-			if (result.equals(Config.FIELD_PRIME.subtract(p))) {
-				validResults++;
-				if (!valueSet.contains(k)) {
-					outsidePermissibleSet++;
+			int validResults = 0;
+			int outsidePermissibleSet = 0;
+
+			// loop over the whole permissible domain (recall that input & output
+			// are bounded)
+			boolean[] roots = FieldLimbs.isSupported() ? findRootsWithLimbs(coeffs) : findRoots(coeffs);
+			for (int k = 0; k < 256 * 256; k++) {
+				if (roots[k]) {
+					validResults++;
+					if (!valueSet.contains(k)) {
+						outsidePermissibleSet++;
+					}
 				}
 			}
+			if (validResults != 16 || outsidePermissibleSet != 0) {
+				System.out.println("Prover can cheat with linear system solution");
+				System.out.println("Num of valid values that the prover can use = "
+						+ validResults);
+				System.out.println("Num of valid values outside permissible set = "
+						+ validResults);
+				return true;
+			} else {
+				return false;
+			}
+		}
 
+		// the roots of the polynomial k^16 + sum_i coeffs[i] * k^i
+		private static boolean[] findRoots(BigInteger[] coeffs) {
+			boolean[] roots = new boolean[256 * 256];
+			for (int k = 0; k < 256 * 256; k++) {
+				BigInteger result = coeffs[0];
+				BigInteger p = BigInteger.valueOf(k);
+				for (int i = 1; i < 16; i++) {
+					result = result.add(p.multiply(coeffs[i]));
+					p = p.multiply(BigInteger.valueOf(k)).mod(Config.FIELD_PRIME);
+				}
+				result = result.mod(Config.FIELD_PRIME);
+				roots[k] = result.equals(Config.FIELD_PRIME.subtract(p));
+			}
+			return roots;
 		}
-		if (validResults != 16 || outsidePermissibleSet != 0) {
-			System.out.println("Prover can cheat with linear system solution");
-			System.out.println("Num of valid values that the prover can use = "
-					+ validResults);
-			System.out.println("Num of valid values outside permissible set = "
-					+ validResults);
-			return true;
-		} else {
-			return false;
+
+		// the same as findRoots(), with the polynomial evaluated using forward
+		// differences
+		private static boolean[] findRootsWithLimbs(BigInteger[] coeffs) {
+			boolean[] roots = new boolean[256 * 256];
+			BigInteger[] initialValues = new BigInteger[17];
+			for (int k = 0; k <= 16; k++) {
+				BigInteger x = BigInteger.valueOf(k);
+				BigInteger result = x.pow(16);
+				for (int i = 0; i < 16; i++) {
+					result = result.add(coeffs[i].multiply(x.pow(i)));
+				}
+				initialValues[k] = result;
+			}
+			ForwardDifferences polynomial = new ForwardDifferences(initialValues);
+			for (int k = 0; k < 256 * 256; k++) {
+				roots[k] = FieldLimbs.isZero(polynomial.getValue());
+				polynomial.step();
+			}
+			return roots;
 		}
 	}
 
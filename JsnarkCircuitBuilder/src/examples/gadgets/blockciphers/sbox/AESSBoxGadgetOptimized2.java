@@ -6,16 +6,21 @@ package examples.gadgets.blockciphers.sbox;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Random;
+import java.util.concurrent.Callable;
 
 import circuit.config.Config;
 import circuit.eval.CircuitEvaluator;
+import circuit.eval.FieldLimbs;
 import circuit.eval.Instruction;
 import circuit.operations.Gadget;
 import circuit.structure.Wire;
 import examples.gadgets.blockciphers.AES128CipherGadget;
+import examples.gadgets.blockciphers.sbox.util.CoefficientCache;
+import examples.gadgets.blockciphers.sbox.util.ForwardDifferences;
 import examples.gadgets.blockciphers.sbox.util.LinearSystemSolver;
 
 /**
@@ -75,14 +80,32 @@ public class AESSBoxGadgetOptimized2 extends Gadget {
 	public static void solveLinearSystems() {
 
 		long seed = 1;
-		ArrayList<BigInteger[]> allCoeffSet = new ArrayList<BigInteger[]>();
 		ArrayList<Integer> list = new ArrayList<Integer>();
 		for (int i = 0; i <= 255; i++) {
 			list.add(256 * i + SBox[i]);
 		}
+
+		// the solution of a previous run is used if it accepts the values of
+		// its shuffle, and passes the same checks as a new solution.
+		// Otherwise, it is computed again.
+		String key = "AESSBoxGadgetOptimized2 bitCount=" + bitCount;
+		CoefficientCache.Entry entry = CoefficientCache.load(key);
+		if (entry != null && entry.coeffSets.size() == 16 && entry.seed > seed && entry.seed < seed + 100) {
+			ArrayList<Integer> shuffledList = new ArrayList<Integer>(list);
+			for (long s = seed + 1; s <= entry.seed; s++) {
+				Collections.shuffle(shuffledList, new Random(s));
+			}
+			if (acceptsMembers(entry.coeffSets, shuffledList)
+					&& Preprocessing.proverCannotCheat(entry.coeffSets, shuffledList, bitCount)) {
+				AESSBoxGadgetOptimized2.allCoeffSet = entry.coeffSets;
+				return;
+			}
+			System.out.println("Ignoring the cached S-box coefficients, as they did not pass the checks");
+		}
+
 		boolean done = false;
 		int trialCounter = 0;
-		loop1: while (!done) {
+		while (!done) {
 			trialCounter++;
 			if (trialCounter == 100) {
 				throw new RuntimeException(
@@ -93,52 +116,50 @@ public class AESSBoxGadgetOptimized2 extends Gadget {
 							+ trialCounter);
 			seed++;
 			Collections.shuffle(list, new Random(seed));
-			allCoeffSet.clear();
 
+			// the 16 systems of an attempt are solved and checked in
+			// parallel. A null result means that the prover can cheat.
+			final ArrayList<Integer> members = new ArrayList<Integer>(list);
+			final int systemBitCount = bitCount;
+			ArrayList<Callable<BigInteger[]>> tasks = new ArrayList<Callable<BigInteger[]>>();
 			for (int i = 0; i <= 15; i++) {
-				BigInteger[][] mat = new BigInteger[16][17];
-				HashSet<Integer> memberValueSet = new HashSet<>();
-
-				for (int k = 0; k < mat.length; k++) {
-					int memberValue = list.get(k + i * 16);
-					memberValueSet.add(memberValue);
-					mat[k][16] = BigInteger.ONE;
-
-					// now extract the values that correspond to memberValue
-					// the method getVariableValues takes the bitCount settings
-					// into account
-					BigInteger[] variableValues = getVariableValues(memberValue);
-					for (int j = 0; j <= 15; j++) {
-						mat[k][j] = variableValues[j];
-					}
-				}
-
-				new LinearSystemSolver(mat).solveInPlace();
-
-				if (checkIfProverCanCheat(mat, memberValueSet)) {
-					System.out.println("Invalid solution");
-					for (int ii = 0; ii < 16; ii++) {
-						if (mat[ii][16].equals(BigInteger.ZERO)) {
-							System.out
-									.println("Possibly invalid due to having zero coefficient(s)");
-							break;
-						}
+				final int idx = i;
+				tasks.add(new Callable<BigInteger[]>() {
+					@Override
+					public BigInteger[] call() {
+						return Preprocessing.solveLinearSystem(members, idx, systemBitCount);
 					}
+				});
+			}
+			ArrayList<BigInteger[]> allCoeffSet = LinearSystemSolver.runInParallel(tasks);
+			if (!allCoeffSet.contains(null)) {
+				done = true;
+				AESSBoxGadgetOptimized2.allCoeffSet = allCoeffSet;
+				CoefficientCache.store(key, seed, allCoeffSet);
+				System.out.println("Solution found!");
+			}
+		}
+	}
 
-					continue loop1;
+	// checks that each set of coefficients evaluates to one at its members
+	private static boolean acceptsMembers(ArrayList<BigInteger[]> allCoeffSet, ArrayList<Integer> list) {
+		for (int i = 0; i <= 15; i++) {
+			BigInteger[] coeffs = allCoeffSet.get(i);
+			if (coeffs.length != 16) {
+				return false;
+			}
+			for (int k = 0; k < 16; k++) {
+				BigInteger[] variableValues = Preprocessing.getVariableValues(list.get(k + i * 16), bitCount);
+				BigInteger result = BigInteger.ZERO;
+				for (int j = 0; j < 16; j++) {
+					result = result.add(variableValues[j].multiply(coeffs[j]));
 				}
-
-				BigInteger[] coeffs = new BigInteger[16];
-				for (int ii = 0; ii < 16; ii++) {
-					coeffs[ii] = mat[ii][16];
+				if (!result.mod(Config.FIELD_PRIME).equals(BigInteger.ONE)) {
+					return false;
 				}
-				allCoeffSet.add(coeffs);
-
 			}
-			done = true;
-			AESSBoxGadgetOptimized2.allCoeffSet = allCoeffSet;
-			System.out.println("Solution found!");
 		}
+		return true;
 	}
 
 	protected void buildCircuit() {
@@ -204,64 +225,174 @@ public class AESSBoxGadgetOptimized2 extends Gadget {
 		return new Wire[] { output };
 	}
 
-	private static BigInteger[] getVariableValues(int k) {
+	/*
+	 * The preprocessing steps that run in the worker threads. They are kept
+	 * out of the gadget class, as it is still being initialized while they
+	 * run, so the bitCount is passed explicitly.
+	 */
+	private static class Preprocessing {
+
+		static BigInteger[] solveLinearSystem(ArrayList<Integer> list, int i, int bitCount) {
+			BigInteger[][] mat = new BigInteger[16][17];
+			HashSet<Integer> memberValueSet = new HashSet<>();
+
+			for (int k = 0; k < mat.length; k++) {
+				int memberValue = list.get(k + i * 16);
+				memberValueSet.add(memberValue);
+				mat[k][16] = BigInteger.ONE;
+
+				// now extract the values that correspond to memberValue
+				// the method getVariableValues takes the bitCount settings
+				// into account
+				BigInteger[] variableValues = getVariableValues(memberValue, bitCount);
+				for (int j = 0; j <= 15; j++) {
+					mat[k][j] = variableValues[j];
+				}
+			}
+
+			new LinearSystemSolver(mat).solveInPlace();
+
+			BigInteger[] coeffs = new BigInteger[16];
+			for (int ii = 0; ii < 16; ii++) {
+				coeffs[ii] = mat[ii][16];
+			}
 
-		BigInteger[] vars = new BigInteger[16];
-		BigInteger v = BigInteger.valueOf(k).add(BigInteger.ONE);
-		BigInteger product = v;
-		if (bitCount != 0) {
-			product = product.multiply(v).mod(Config.FIELD_PRIME);
+			if (checkIfProverCanCheat(coeffs, memberValueSet, bitCount)) {
+				System.out.println("Invalid solution");
+				for (int ii = 0; ii < 16; ii++) {
+					if (coeffs[ii].equals(BigInteger.ZERO)) {
+						System.out
+								.println("Possibly invalid due to having zero coefficient(s)");
+						break;
+					}
+				}
+				return null;
+			}
+			return coeffs;
 		}
-		for (int j = 0; j < 16; j++) {
-			if (j < bitCount) {
-				vars[j] = ((k >> j) & 0x01) == 1 ? BigInteger.ONE
-						: BigInteger.ZERO;
-			} else {
-				vars[j] = product;
-				product = product.multiply(v).mod(Config.FIELD_PRIME);
+
+		// runs the cheating check of each system in parallel
+		static boolean proverCannotCheat(ArrayList<BigInteger[]> allCoeffSet, ArrayList<Integer> list,
+				final int bitCount) {
+			ArrayList<Callable<BigInteger[]>> tasks = new ArrayList<Callable<BigInteger[]>>();
+			for (int i = 0; i <= 15; i++) {
+				final BigInteger[] coeffs = allCoeffSet.get(i);
+				final HashSet<Integer> memberValueSet = new HashSet<Integer>(list.subList(i * 16, i * 16 + 16));
+				tasks.add(new Callable<BigInteger[]>() {
+					@Override
+					public BigInteger[] call() {
+						return checkIfProverCanCheat(coeffs, memberValueSet, bitCount) ? null : coeffs;
+					}
+				});
 			}
+			return !LinearSystemSolver.runInParallel(tasks).contains(null);
 		}
-		return vars;
-	}
 
-	private static boolean checkIfProverCanCheat(BigInteger[][] mat,
-			HashSet<Integer> valueSet) {
+		static BigInteger[] getVariableValues(int k, int bitCount) {
 
-		BigInteger[] coeffs = new BigInteger[16];
-		for (int i = 0; i < 16; i++) {
-			coeffs[i] = mat[i][16];
+			BigInteger[] vars = new BigInteger[16];
+			BigInteger v = BigInteger.valueOf(k).add(BigInteger.ONE);
+			BigInteger product = v;
+			if (bitCount != 0) {
+				product = product.multiply(v).mod(Config.FIELD_PRIME);
+			}
+			for (int j = 0; j < 16; j++) {
+				if (j < bitCount) {
+					vars[j] = ((k >> j) & 0x01) == 1 ? BigInteger.ONE
+							: BigInteger.ZERO;
+				} else {
+					vars[j] = product;
+					product = product.multiply(v).mod(Config.FIELD_PRIME);
+				}
+			}
+			return vars;
 		}
 
-		int validResults = 0;
-		int outsidePermissibleSet = 0;
-
-		// loop over the whole permissible domain (recall that input & output
-		// are bounded)
+		private static boolean checkIfProverCanCheat(BigInteger[] coeffs,
+				HashSet<Integer> valueSet, int bitCount) {
+
+			int validResults = 0;
+			int outsidePermissibleSet = 0;
+
+			// loop over the whole permissible domain (recall that input & output
+			// are bounded)
+			boolean[] valid = FieldLimbs.isSupported() ? findValidValuesWithLimbs(coeffs, bitCount)
+					: findValidValues(coeffs, bitCount);
+			for (int k = 0; k < 256 * 256; k++) {
+				if (valid[k]) {
+					validResults++;
+					if (!valueSet.contains(k)) {
+						outsidePermissibleSet++;
+					}
+				}
+			}
+			if (validResults != 16 || outsidePermissibleSet != 0) {
+				System.out.println("Prover can cheat with linear system solution");
+				System.out.println("Num of valid values that the prover can use = "
+						+ validResults);
+				System.out.println("Num of valid values outside permissible set = "
+						+ validResults);
+				return true;
+			} else {
+				return false;
+			}
+		}
 
-		for (int k = 0; k < 256 * 256; k++) {
+		private static boolean[] findValidValues(BigInteger[] coeffs, int bitCount) {
+			boolean[] valid = new boolean[256 * 256];
+			for (int k = 0; k < 256 * 256; k++) {
+				BigInteger[] variableValues = getVariableValues(k, bitCount);
+				BigInteger result = BigInteger.ZERO;
+				for (int i = 0; i < 16; i++) {
+					result = result.add(variableValues[i].multiply(coeffs[i]));
+				}
+				valid[k] = result.mod(Config.FIELD_PRIME).equals(BigInteger.ONE);
+			}
+			return valid;
+		}
 
-			BigInteger[] variableValues = getVariableValues(k);
-			BigInteger result = BigInteger.ZERO;
-			for (int i = 0; i < 16; i++) {
-				result = result.add(variableValues[i].multiply(coeffs[i]));
+		// the same as findValidValues(). The terms of the bits are looked up
+		// in tables of the output and input bytes, and the terms of the powers
+		// of k+1 form a polynomial in k, evaluated using forward differences.
+		private static boolean[] findValidValuesWithLimbs(BigInteger[] coeffs, int bitCount) {
+			boolean[] valid = new boolean[256 * 256];
+			long[][] outputTerms = new long[256][];
+			long[][] inputTerms = new long[256][];
+			for (int b = 0; b < 256; b++) {
+				BigInteger outputSum = BigInteger.ZERO;
+				BigInteger inputSum = BigInteger.ZERO;
+				for (int j = 0; j < 8; j++) {
+					if (((b >> j) & 0x01) == 1) {
+						if (j < bitCount) {
+							outputSum = outputSum.add(coeffs[j]);
+						}
+						if (j + 8 < bitCount) {
+							inputSum = inputSum.add(coeffs[j + 8]);
+						}
+					}
+				}
+				outputTerms[b] = FieldLimbs.fromBigInteger(outputSum.mod(Config.FIELD_PRIME));
+				inputTerms[b] = FieldLimbs.fromBigInteger(inputSum.mod(Config.FIELD_PRIME));
 			}
-			result = result.mod(Config.FIELD_PRIME);
-			if (result.equals(BigInteger.ONE)) {
-				validResults++;
-				if (!valueSet.contains(k)) {
-					outsidePermissibleSet++;
+			BigInteger[] initialValues = new BigInteger[18];
+			for (int k = 0; k < initialValues.length; k++) {
+				BigInteger[] variableValues = getVariableValues(k, bitCount);
+				initialValues[k] = BigInteger.ZERO;
+				for (int j = bitCount; j < 16; j++) {
+					initialValues[k] = initialValues[k].add(variableValues[j].multiply(coeffs[j]));
 				}
 			}
-		}
-		if (validResults != 16 || outsidePermissibleSet != 0) {
-			System.out.println("Prover can cheat with linear system solution");
-			System.out.println("Num of valid values that the prover can use = "
-					+ validResults);
-			System.out.println("Num of valid values outside permissible set = "
-					+ validResults);
-			return true;
-		} else {
-			return false;
+			ForwardDifferences powerTerms = new ForwardDifferences(initialValues);
+
+			long[] one = FieldLimbs.fromBigInteger(BigInteger.ONE);
+			long[] result = new long[FieldLimbs.NUM_OF_LIMBS];
+			for (int k = 0; k < 256 * 256; k++) {
+				FieldLimbs.add(outputTerms[k & 0xff], inputTerms[k >>> 8], result);
+				FieldLimbs.add(result, powerTerms.getValue(), result);
+				valid[k] = Arrays.equals(result, one);
+				powerTerms.step();
+			}
+			return valid;
 		}
 	}
 }
@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package examples.gadgets.blockciphers.sbox.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+import circuit.config.Config;
+
+/**
+ * Stores the coefficient sets computed by the preprocessing of the S-box
+ * gadgets, so that they are computed once instead of on every run. The files
+ * are kept in the directory given by SBOX_CACHE_DIR in config.properties
+ * (jsnark_sbox_cache under the temporary directory by default), and an empty
+ * value disables the cache.
+ *
+ * A file is only used if its format version, field prime and key (the gadget
+ * and its parameters) match. The gadgets check the loaded coefficients in the
+ * same way as computed ones (that the prover cannot cheat with them), and
+ * compute them again if the check fails, so a modified file cannot weaken the
+ * circuit.
+ */
+public class CoefficientCache {
+
+	public static final int FORMAT_VERSION = 1;
+
+	private static final String HEADER = "# jsnark S-box coefficients, format ";
+
+	public static class Entry {
+		public final long seed;
+		public final ArrayList<BigInteger[]> coeffSets;
+
+		public Entry(long seed, ArrayList<BigInteger[]> coeffSets) {
+			this.seed = seed;
+			this.coeffSets = coeffSets;
+		}
+	}
+
+	/**
+	 * Returns the cached entry for the key, or null.
+	 */
+	public static Entry load(String key) {
+		File file = getFile(key);
+		if (file == null || !file.exists()) {
+			return null;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new FileReader(file));
+			if (!(HEADER + FORMAT_VERSION).equals(reader.readLine())
+					|| !Config.FIELD_PRIME.toString().equals(reader.readLine()) || !key.equals(reader.readLine())) {
+				return null;
+			}
+			long seed = Long.parseLong(reader.readLine().trim());
+			ArrayList<BigInteger[]> coeffSets = new ArrayList<BigInteger[]>();
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				String[] entries = line.split(",");
+				BigInteger[] coeffs = new BigInteger[entries.length];
+				for (int i = 0; i < entries.length; i++) {
+					coeffs[i] = new BigInteger(entries[i].trim(), 16);
+				}
+				coeffSets.add(coeffs);
+			}
+			return new Entry(seed, coeffSets);
+		} catch (Exception e) {
+			System.err.println("Ignoring the invalid S-box coefficients file " + file + ": " + e);
+			return null;
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	public static void store(String key, long seed, ArrayList<BigInteger[]> coeffSets) {
+		File file = getFile(key);
+		if (file == null) {
+			return;
+		}
+		file.getParentFile().mkdirs();
+		// written to a temporary file first, so that concurrent runs never
+		// read a partial file
+		File tmp = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+		try {
+			PrintWriter writer = new PrintWriter(tmp);
+			writer.println(HEADER + FORMAT_VERSION);
+			writer.println(Config.FIELD_PRIME);
+			writer.println(key);
+			writer.println(seed);
+			for (BigInteger[] coeffs : coeffSets) {
+				StringBuilder sb = new StringBuilder();
+				for (int i = 0; i < coeffs.length; i++) {
+					sb.append(i == 0 ? "" : ",").append(coeffs[i].toString(16));
+				}
+				writer.println(sb);
+			}
+			writer.close();
+		} catch (IOException e) {
+			System.err.println("Could not write the S-box coefficients file " + file + ": " + e);
+			return;
+		}
+		if (!tmp.renameTo(file)) {
+			tmp.delete();
+		}
+	}
+
+	private static File getFile(String key) {
+		if (Config.sBoxCacheDirectory.isEmpty()) {
+			return null;
+		}
+		String name = key.replaceAll("[^A-Za-z0-9_]", "_") + "_" + Integer.toHexString(Config.FIELD_PRIME.hashCode())
+				+ ".txt";
+		return new File(Config.sBoxCacheDirectory, name);
+	}
+}
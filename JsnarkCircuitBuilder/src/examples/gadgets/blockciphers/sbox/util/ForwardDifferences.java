@@ -0,0 +1,55 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package examples.gadgets.blockciphers.sbox.util;
+
+import java.math.BigInteger;
+
+import circuit.config.Config;
+import circuit.eval.FieldLimbs;
+
+/**
+ * Evaluates a polynomial of degree n (modulo the field prime) at 0, 1, 2, ...
+ * using its table of forward differences, so that each step costs n additions
+ * on limbs (see FieldLimbs) instead of n multiplications. This is used by the
+ * preprocessing of the S-box gadgets, which evaluates its polynomials at all
+ * the 2^16 points to check that the prover cannot cheat. It can only be used
+ * when FieldLimbs.isSupported().
+ */
+public class ForwardDifferences {
+
+	private long[][] diffs;
+
+	/**
+	 * @param values
+	 *            : the values of the polynomial at 0, 1, ..., n, where n is
+	 *            (at least) its degree
+	 */
+	public ForwardDifferences(BigInteger[] values) {
+		int n = values.length;
+		BigInteger[] row = values.clone();
+		diffs = new long[n][];
+		for (int i = 0; i < n; i++) {
+			diffs[i] = FieldLimbs.fromBigInteger(row[0].mod(Config.FIELD_PRIME));
+			for (int j = 0; j < n - 1 - i; j++) {
+				row[j] = row[j + 1].subtract(row[j]);
+			}
+		}
+	}
+
+	/**
+	 * The value at the current point.
+	 */
+	public long[] getValue() {
+		return diffs[0];
+	}
+
+	/**
+	 * Moves to the next point.
+	 */
+	public void step() {
+		for (int i = 0; i < diffs.length - 1; i++) {
+			FieldLimbs.add(diffs[i], diffs[i + 1], diffs[i]);
+		}
+	}
+}
@@ -1,13 +1,24 @@
 package examples.gadgets.blockciphers.sbox.util;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import circuit.config.Config;
+import circuit.eval.FieldLimbs;
 
 /**
  * Solves a linear system of equations over a finite field.
  * 
  * Used for efficient representation of AES S-box gadget
+ * 
+ * When the prime is the field prime and FieldLimbs supports it, the
+ * elimination runs on 64-bit limbs in the Montgomery form instead of
+ * BigIntegers.
  */
 
 public class LinearSystemSolver {
@@ -27,8 +38,100 @@ public class LinearSystemSolver {
 
 		// https://www.csun.edu/~panferov/math262/262_rref.pdf
 		// https://www.math.purdue.edu/~shao92/documents/Algorithm%20REF.pdf
-		guassJordan();
-		rref();
+		if (prime.equals(Config.FIELD_PRIME) && FieldLimbs.isSupported()) {
+			solveWithLimbs();
+		} else {
+			guassJordan();
+			rref();
+		}
+	}
+
+	/**
+	 * Runs independent tasks (e.g. solving and checking the systems of an
+	 * S-box gadget) on all the available cores, and returns their results in
+	 * order. Note that the tasks must not use the class being initialized when
+	 * this is called from a static initializer, as the worker threads would
+	 * wait for its initialization.
+	 */
+	public static ArrayList<BigInteger[]> runInParallel(ArrayList<Callable<BigInteger[]>> tasks) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(tasks.size(), Runtime
+				.getRuntime().availableProcessors())));
+		try {
+			ArrayList<BigInteger[]> results = new ArrayList<BigInteger[]>();
+			for (Future<BigInteger[]> f : executor.invokeAll(tasks)) {
+				results.add(f.get());
+			}
+			return results;
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	// the same steps as guassJordan() and rref(), on limbs
+	private void solveWithLimbs() {
+		long[][][] m = new long[numRows][numCols][];
+		for (int i = 0; i < numRows; i++) {
+			for (int j = 0; j < numCols; j++) {
+				m[i][j] = FieldLimbs.toMontgomery(mat[i][j]);
+			}
+		}
+		long[] t = new long[FieldLimbs.NUM_OF_LIMBS];
+
+		for (int colIdx = 0, rowIdx = 0; colIdx < numCols && rowIdx < numRows; colIdx++, rowIdx++) {
+			int pivotRowIdx = rowIdx;
+			while (pivotRowIdx < numRows && FieldLimbs.isZero(m[pivotRowIdx][colIdx])) {
+				pivotRowIdx++;
+			}
+			if (pivotRowIdx == numRows)
+				continue;
+
+			long[][] tmp = m[pivotRowIdx];
+			m[pivotRowIdx] = m[rowIdx];
+			m[rowIdx] = tmp;
+			pivotRowIdx = rowIdx;
+
+			long[] invF = FieldLimbs.toMontgomery(inverse(FieldLimbs.fromMontgomery(m[pivotRowIdx][colIdx])));
+			for (int j = 0; j < numCols; j++) {
+				FieldLimbs.montgomeryMul(m[pivotRowIdx][j], invF, m[pivotRowIdx][j]);
+			}
+			for (int k = pivotRowIdx + 1; k < numRows; k++) {
+				long[] f = m[k][colIdx].clone();
+				for (int j = 0; j < numCols; j++) {
+					FieldLimbs.montgomeryMul(m[pivotRowIdx][j], f, t);
+					FieldLimbs.sub(m[k][j], t, m[k][j]);
+				}
+			}
+		}
+
+		for (int rowIdx = numRows - 1; rowIdx >= 0; rowIdx--) {
+			int pivotColIdx = 0;
+			while (pivotColIdx < numCols && FieldLimbs.isZero(m[rowIdx][pivotColIdx])) {
+				pivotColIdx++;
+			}
+			if (pivotColIdx == numCols)
+				continue;
+
+			for (int k = rowIdx - 1; k >= 0; k--) {
+				long[] f = m[k][pivotColIdx].clone();
+				for (int j = 0; j < numCols; j++) {
+					FieldLimbs.montgomeryMul(m[rowIdx][j], f, t);
+					FieldLimbs.sub(m[k][j], t, m[k][j]);
+				}
+			}
+		}
+
+		for (int i = 0; i < numRows; i++) {
+			for (int j = 0; j < numCols; j++) {
+				mat[i][j] = FieldLimbs.fromMontgomery(m[i][j]);
+			}
+		}
 	}
 
 	private void guassJordan() {
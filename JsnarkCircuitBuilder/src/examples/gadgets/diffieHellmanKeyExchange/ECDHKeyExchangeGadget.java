@@ -5,16 +5,20 @@
 package examples.gadgets.diffieHellmanKeyExchange;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 
 import org.bouncycastle.pqc.math.linearalgebra.IntegerFunctions;
 
 import circuit.config.Config;
 import circuit.eval.CircuitEvaluator;
 import circuit.eval.Instruction;
+import circuit.eval.WitnessComputation;
 import circuit.operations.Gadget;
 import circuit.structure.ConstantWire;
 import circuit.structure.Wire;
+import circuit.structure.WireArray;
 import examples.gadgets.math.FieldDivisionGadget;
+import examples.gadgets.memory.ReadOnlyMemoryGadget;
 
 /**
  * This gadget implements cryptographic key exchange using a customized elliptic
@@ -36,6 +40,24 @@ import examples.gadgets.math.FieldDivisionGadget;
  * desired, there is a separate method called validateInputs() that do
  * validation, but is not called by default.
  * 
+ * When the base point is a constant (e.g. when computing this party's public
+ * value from a fixed generator), its multiples are precomputed outside the
+ * circuit, and secret*Base is computed with a fixed-base windowed method: the
+ * secret is split into windows of FIXED_BASE_WINDOW bits, the multiple for
+ * every window is selected from a constant table (see ReadOnlyMemoryGadget),
+ * and the selected points are added, without any doubling. This costs 7
+ * constraints per window of 3 bits, instead of 6 per bit. Only the
+ * multiplication by the variable point H uses the double-and-add method.
+ * 
+ * The gadget can also derive shared secrets with several parties from the
+ * same secret (see the constructors that receive arrays of points). The
+ * secret bits are validated once, and the public value is computed once. The
+ * multiplications by the points H_1, ..., H_N share the bit wires and are
+ * computed side by side. Every added party costs 4 constraints per bit for
+ * doubling its point (none if it is a constant) and 6 per bit for adding and
+ * selecting, in addition to checking its point if its y-coordinate is
+ * computed by the prover (3 constraints).
+ * 
  * 
  * 
  */
@@ -67,11 +89,17 @@ public class ECDHKeyExchangeGadget extends Gadget {
 	public final static BigInteger SUBGROUP_ORDER = new BigInteger(
 			"2736030358979909402780800718157159386074658810754251464600343418943805806723");
 
+	// the number of secret bits per window in the fixed-base mode. Windows of
+	// 3 bits minimize the cost per bit (a lookup in a table of 8 points costs 4
+	// constraints for both coordinates, and an addition costs 3)
+	private final static int FIXED_BASE_WINDOW = 3;
+
 	// The Affine point representation is used as it saves one gate per bit
 	private AffinePoint basePoint; // The Base point both parties agree to
-	private AffinePoint hPoint; // H is the other party's public value
-								// H = (other party's secret)* Base <- scalar EC
-								// multiplication
+	private AffinePoint[] hPoints; // H is the other party's public value
+									// H = (other party's secret)* Base <-
+									// scalar EC multiplication (one point per
+									// party)
 
 	private Wire[] secretBits; // the bits of the secret generated by this party
 								// (follows little-endian order)
@@ -82,11 +110,11 @@ public class ECDHKeyExchangeGadget extends Gadget {
 									// outputPublicValue = ((this party's
 									// secret)*Base).x
 
-	private Wire sharedSecret; // the x-coordinate of the derived key ((this
-								// party's secret)*H).x
+	private Wire[] sharedSecrets; // the x-coordinates of the derived keys
+									// ((this party's secret)*H).x
 
 	private AffinePoint[] baseTable;
-	private AffinePoint[] hTable;
+	private AffinePoint[][] hTables;
 
 	private class AffinePoint {
 		private Wire x;
@@ -118,31 +146,58 @@ public class ECDHKeyExchangeGadget extends Gadget {
 	 * 
 	 * This gadget can work with both static and dynamic inputs If public keys
 	 * are static, the wires of base and h should be made ConstantWires when
-	 * creating them (before calling this gadget).
+	 * creating them (before calling this gadget). A constant base point in the
+	 * subgroup of order SUBGROUP_ORDER (or in the whole group) enables the
+	 * fixed-base mode described above.
 	 * 
 	 * 
 	 */
 
 	public ECDHKeyExchangeGadget(Wire baseX, Wire hX, Wire[] secretBits,
 			String... desc) {
+		this(baseX, new Wire[] { hX }, secretBits, desc);
+	}
+
+	// same constructor as before, but accepts also baseY, and hY as inputs
+	public ECDHKeyExchangeGadget(Wire baseX, Wire baseY, Wire hX, Wire hY,
+			Wire[] secretBits, String... desc) {
+		this(baseX, baseY, new Wire[] { hX }, new Wire[] { hY }, secretBits,
+				desc);
+	}
+
+	/**
+	 * Derives shared secrets with several parties from the same secret: the
+	 * outputs are secret*Base, and secret*H for every H = (hXs[i]).
+	 */
+	public ECDHKeyExchangeGadget(Wire baseX, Wire[] hXs, Wire[] secretBits,
+			String... desc) {
 		super(desc);
 		this.secretBits = secretBits;
 		this.basePoint = new AffinePoint(baseX);
-		this.hPoint = new AffinePoint(hX);
+		this.hPoints = new AffinePoint[hXs.length];
+		for (int i = 0; i < hXs.length; i++) {
+			hPoints[i] = new AffinePoint(hXs[i]);
+		}
 		checkSecretBits();
 		computeYCoordinates(); // For efficiency reasons, we rely on affine
 								// coordinates
 		buildCircuit();
 	}
 
-	// same constructor as before, but accepts also baseY, and hY as inputs
-	public ECDHKeyExchangeGadget(Wire baseX, Wire baseY, Wire hX, Wire hY,
-			Wire[] secretBits, String... desc) {
+	// same constructor as before, but accepts also baseY, and hYs as inputs
+	public ECDHKeyExchangeGadget(Wire baseX, Wire baseY, Wire[] hXs,
+			Wire[] hYs, Wire[] secretBits, String... desc) {
 		super(desc);
-
+		if (hXs.length != hYs.length) {
+			throw new IllegalArgumentException(
+					"hXs and hYs must have the same length");
+		}
 		this.secretBits = secretBits;
 		this.basePoint = new AffinePoint(baseX, baseY);
-		this.hPoint = new AffinePoint(hX, hY);
+		this.hPoints = new AffinePoint[hXs.length];
+		for (int i = 0; i < hXs.length; i++) {
+			hPoints[i] = new AffinePoint(hXs[i], hYs[i]);
+		}
 		checkSecretBits();
 		buildCircuit();
 	}
@@ -158,10 +213,115 @@ public class ECDHKeyExchangeGadget extends Gadget {
 		 * counted)
 		 */
 
-		baseTable = preprocess(basePoint);
-		hTable = preprocess(hPoint);
-		outputPublicValue = mul(basePoint, secretBits, baseTable).x;
-		sharedSecret = mul(hPoint, secretBits, hTable).x;
+		int n = hPoints.length;
+		sharedSecrets = new Wire[n];
+		BigInteger[] fixedBase = getFixedBase();
+		if (fixedBase != null) {
+			outputPublicValue = mulFixedBase(fixedBase).x;
+			hTables = preprocess(hPoints);
+			AffinePoint[] results = mul(secretBits, hTables);
+			for (int i = 0; i < n; i++) {
+				sharedSecrets[i] = results[i].x;
+			}
+			return;
+		}
+
+		// All the tables and the scalar multiplications are computed side by
+		// side, so that the divisions of every step are independent, and
+		// their inversions can be batched during evaluation (see
+		// CircuitEvaluator.scheduleDivision())
+		AffinePoint[] points = new AffinePoint[n + 1];
+		points[0] = basePoint;
+		System.arraycopy(hPoints, 0, points, 1, n);
+		AffinePoint[][] tables = preprocess(points);
+		baseTable = tables[0];
+		hTables = Arrays.copyOfRange(tables, 1, n + 1);
+		AffinePoint[] results = mul(secretBits, tables);
+		outputPublicValue = results[0].x;
+		for (int i = 0; i < n; i++) {
+			sharedSecrets[i] = results[i + 1].x;
+		}
+	}
+
+	/*
+	 * Returns the coordinates of 8*Base, if the base point is a constant whose
+	 * multiple 8*Base has the order SUBGROUP_ORDER, or null otherwise (the
+	 * fixed-base mode relies on this order to avoid the exceptional cases of
+	 * the additions).
+	 */
+	private BigInteger[] getFixedBase() {
+		if (!(basePoint.x instanceof ConstantWire) || !(basePoint.y instanceof ConstantWire)) {
+			return null;
+		}
+		BigInteger[] base = mulConstantPoint(BigInteger.valueOf(8), new BigInteger[] {
+				((ConstantWire) basePoint.x).getConstant(), ((ConstantWire) basePoint.y).getConstant() });
+		if (base == null || mulConstantPoint(SUBGROUP_ORDER, base) != null) {
+			return null;
+		}
+		return base;
+	}
+
+	/**
+	 * Computes secret*Base for a constant base (given as 8*Base, as the three
+	 * least significant bits of the secret are zero). The remaining bits are
+	 * split into windows d_0, d_1, ... of FIXED_BASE_WINDOW bits, and the table
+	 * of the window i contains (d + 2) * 8^i * 8*Base for all the values d. The
+	 * offsets 2 * 8^i are subtracted in the table of the last window. The
+	 * offsets guarantee that, before the last window, the sum of the previous
+	 * windows is (a * 8*Base) and the entry is (t * 8*Base), where 0 < a < t
+	 * and a + t < SUBGROUP_ORDER. So, the two points are never equal or
+	 * opposite, and the incomplete addition formula is sound. Only the last
+	 * addition needs to check that the x-coordinates are different (this check
+	 * fails only for a negligible fraction of secrets).
+	 */
+	private AffinePoint mulFixedBase(BigInteger[] fixedBase) {
+		BigInteger[][][] tables = computeFixedBaseTables(fixedBase);
+		WireArray bits = new WireArray(secretBits);
+		AffinePoint result = null;
+		for (int i = 0; i < tables.length; i++) {
+			int from = 3 + i * FIXED_BASE_WINDOW;
+			int to = Math.min(from + FIXED_BASE_WINDOW, SECRET_BITWIDTH);
+			Wire index = bits.packAsBits(from, to);
+			AffinePoint entry = new AffinePoint(new ReadOnlyMemoryGadget(tables[i][0], index).getOutputWires()[0],
+					new ReadOnlyMemoryGadget(tables[i][1], index).getOutputWires()[0]);
+			if (result == null) {
+				result = entry;
+			} else {
+				result = addDistinctAffinePoints(result, entry, i == tables.length - 1);
+			}
+		}
+		return result;
+	}
+
+	// tables[i][0] and tables[i][1] are the x and y coordinates of the entries
+	// of the window i (see mulFixedBase())
+	private static BigInteger[][][] computeFixedBaseTables(BigInteger[] fixedBase) {
+		int numOfWindows = (SECRET_BITWIDTH - 3 + FIXED_BASE_WINDOW - 1) / FIXED_BASE_WINDOW;
+		BigInteger[][][] tables = new BigInteger[numOfWindows][][];
+		BigInteger offset = BigInteger.ZERO;
+		BigInteger[] current = fixedBase; // 8^i * 8*Base
+		for (int i = 0; i < numOfWindows; i++) {
+			int windowBitwidth = Math.min(FIXED_BASE_WINDOW, SECRET_BITWIDTH - 3 - i * FIXED_BASE_WINDOW);
+			int numOfEntries = 1 << windowBitwidth;
+			tables[i] = new BigInteger[2][numOfEntries];
+			BigInteger[] entry;
+			if (i < numOfWindows - 1) {
+				entry = mulConstantPoint(BigInteger.valueOf(2), current);
+				offset = offset.add(BigInteger.valueOf(2).shiftLeft(i * FIXED_BASE_WINDOW));
+			} else {
+				BigInteger[] offsetPoint = mulConstantPoint(offset, fixedBase);
+				entry = new BigInteger[] { offsetPoint[0], offsetPoint[1].negate().mod(Config.FIELD_PRIME) };
+			}
+			for (int d = 0; d < numOfEntries; d++) {
+				tables[i][0][d] = entry[0];
+				tables[i][1][d] = entry[1];
+				entry = addConstantPoints(entry, current);
+			}
+			for (int j = 0; j < FIXED_BASE_WINDOW; j++) {
+				current = addConstantPoints(current, current);
+			}
+		}
+		return tables;
 	}
 
 	private void checkSecretBits() {
@@ -195,33 +355,26 @@ public class ECDHKeyExchangeGadget extends Gadget {
 		// Easy to handle if baseX is constant, otherwise, let the prover input
 		// a witness and verify some properties
 
-		if (basePoint.x instanceof ConstantWire) {
-
-			BigInteger x = ((ConstantWire) basePoint.x).getConstant();
-			basePoint.y = generator.createConstantWire(computeYCoordinate(x));
-		} else {
-			basePoint.y = generator.createProverWitnessWire();
-			generator.specifyProverWitnessComputation(new Instruction() {
-				public void evaluate(CircuitEvaluator evaluator) {
-					BigInteger x = evaluator.getWireValue(basePoint.x);
-					evaluator.setWireValue(basePoint.y, computeYCoordinate(x));
-				}
-			});
-			assertValidPointOnEC(basePoint.x, basePoint.y);
+		computeYCoordinate(basePoint);
+		for (AffinePoint hPoint : hPoints) {
+			computeYCoordinate(hPoint);
 		}
+	}
 
-		if (hPoint.x instanceof ConstantWire) {
-			BigInteger x = ((ConstantWire) hPoint.x).getConstant();
-			hPoint.y = generator.createConstantWire(computeYCoordinate(x));
+	private void computeYCoordinate(final AffinePoint p) {
+		if (p.x instanceof ConstantWire) {
+			BigInteger x = ((ConstantWire) p.x).getConstant();
+			p.y = generator.createConstantWire(computeYCoordinate(x));
 		} else {
-			hPoint.y = generator.createProverWitnessWire();
-			generator.specifyProverWitnessComputation(new Instruction() {
+			p.y = generator.createProverWitnessWire();
+			generator.specifyProverWitnessComputation(new WitnessComputation(new Wire[] { p.x },
+					new Wire[] { p.y }) {
 				public void evaluate(CircuitEvaluator evaluator) {
-					BigInteger x = evaluator.getWireValue(hPoint.x);
-					evaluator.setWireValue(hPoint.y, computeYCoordinate(x));
+					BigInteger x = evaluator.getWireValue(p.x);
+					evaluator.setWireValue(p.y, computeYCoordinate(x));
 				}
 			});
-			assertValidPointOnEC(hPoint.x, hPoint.y);
+			assertValidPointOnEC(p.x, p.y);
 		}
 	}
 
@@ -235,58 +388,149 @@ public class ECDHKeyExchangeGadget extends Gadget {
 				.add(x));
 	}
 
-	private AffinePoint[] preprocess(AffinePoint p) {
-		AffinePoint[] precomputedTable = new AffinePoint[secretBits.length];
-		precomputedTable[0] = p;
+	private AffinePoint[][] preprocess(AffinePoint... points) {
+		AffinePoint[][] precomputedTables = new AffinePoint[points.length][secretBits.length];
+		for (int i = 0; i < points.length; i++) {
+			precomputedTables[i][0] = points[i];
+		}
+		AffinePoint[] current = points;
 		for (int j = 1; j < secretBits.length; j += 1) {
-			precomputedTable[j] = doubleAffinePoint(precomputedTable[j - 1]);
+			current = doubleAffinePoints(current);
+			for (int i = 0; i < points.length; i++) {
+				precomputedTables[i][j] = current[i];
+			}
 		}
-		return precomputedTable;
+		return precomputedTables;
 	}
 
 	/**
-	 * Performs scalar multiplication (secretBits must comply with the
-	 * conditions above)
+	 * Performs scalar multiplications of the same secret with the points of
+	 * the given tables (secretBits must comply with the conditions above)
 	 */
-	private AffinePoint mul(AffinePoint p, Wire[] secretBits,
-			AffinePoint[] precomputedTable) {
+	private AffinePoint[] mul(Wire[] secretBits, AffinePoint[]... precomputedTables) {
 
-		AffinePoint result = new AffinePoint(
-				precomputedTable[secretBits.length - 1]);
+		int n = precomputedTables.length;
+		AffinePoint[] result = new AffinePoint[n];
+		AffinePoint[] tableEntries = new AffinePoint[n];
+		for (int i = 0; i < n; i++) {
+			result[i] = new AffinePoint(precomputedTables[i][secretBits.length - 1]);
+		}
 		for (int j = secretBits.length - 2; j >= 0; j--) {
-			AffinePoint tmp = addAffinePoints(result, precomputedTable[j]);
+			for (int i = 0; i < n; i++) {
+				tableEntries[i] = precomputedTables[i][j];
+			}
+			AffinePoint[] tmp = addAffinePoints(result, tableEntries);
 			Wire isOne = secretBits[j];
-			result.x = result.x.add(isOne.mul(tmp.x.sub(result.x)));
-			result.y = result.y.add(isOne.mul(tmp.y.sub(result.y)));
+			for (int i = 0; i < n; i++) {
+				result[i].x = result[i].x.add(isOne.mul(tmp[i].x.sub(result[i].x)));
+				result[i].y = result[i].y.add(isOne.mul(tmp[i].y.sub(result[i].y)));
+			}
 		}
 		return result;
 	}
 
-	private AffinePoint doubleAffinePoint(AffinePoint p) {
-		Wire x_2 = p.x.mul(p.x);
-		Wire l1 = new FieldDivisionGadget(x_2.mul(3)
-				.add(p.x.mul(COEFF_A).mul(2)).add(1), p.y.mul(2))
-				.getOutputWires()[0];
-		Wire l2 = l1.mul(l1);
-		Wire newX = l2.sub(COEFF_A).sub(p.x).sub(p.x);
-		Wire newY = p.x.mul(3).add(COEFF_A).sub(l2).mul(l1).sub(p.y);
-		return new AffinePoint(newX, newY);
+	// the divisions of all the points are created before they are used
+	private AffinePoint[] doubleAffinePoints(AffinePoint[] points) {
+		Wire[] slopes = new Wire[points.length];
+		for (int i = 0; i < points.length; i++) {
+			AffinePoint p = points[i];
+			Wire x_2 = p.x.mul(p.x);
+			slopes[i] = new FieldDivisionGadget(x_2.mul(3)
+					.add(p.x.mul(COEFF_A).mul(2)).add(1), p.y.mul(2))
+					.getOutputWires()[0];
+		}
+		AffinePoint[] results = new AffinePoint[points.length];
+		for (int i = 0; i < points.length; i++) {
+			AffinePoint p = points[i];
+			Wire l1 = slopes[i];
+			Wire l2 = l1.mul(l1);
+			Wire newX = l2.sub(COEFF_A).sub(p.x).sub(p.x);
+			Wire newY = p.x.mul(3).add(COEFF_A).sub(l2).mul(l1).sub(p.y);
+			results[i] = new AffinePoint(newX, newY);
+		}
+		return results;
 	}
 
-	private AffinePoint addAffinePoints(AffinePoint p1, AffinePoint p2) {
-		Wire diffY = p1.y.sub(p2.y);
-		Wire diffX = p1.x.sub(p2.x);
-		Wire q = new FieldDivisionGadget(diffY, diffX).getOutputWires()[0];
-		Wire q2 = q.mul(q);
-		Wire q3 = q2.mul(q);
-		Wire newX = q2.sub(COEFF_A).sub(p1.x).sub(p2.x);
-		Wire newY = p1.x.mul(2).add(p2.x).add(COEFF_A).mul(q).sub(q3).sub(p1.y);
+	// adds p1[i] and p2[i] for every i, creating the divisions first
+	private AffinePoint[] addAffinePoints(AffinePoint[] p1, AffinePoint[] p2) {
+		Wire[] slopes = new Wire[p1.length];
+		for (int i = 0; i < p1.length; i++) {
+			Wire diffY = p1[i].y.sub(p2[i].y);
+			Wire diffX = p1[i].x.sub(p2[i].x);
+			slopes[i] = new FieldDivisionGadget(diffY, diffX).getOutputWires()[0];
+		}
+		AffinePoint[] results = new AffinePoint[p1.length];
+		for (int i = 0; i < p1.length; i++) {
+			Wire q = slopes[i];
+			Wire q2 = q.mul(q);
+			Wire q3 = q2.mul(q);
+			Wire newX = q2.sub(COEFF_A).sub(p1[i].x).sub(p2[i].x);
+			Wire newY = p1[i].x.mul(2).add(p2[i].x).add(COEFF_A).mul(q).sub(q3).sub(p1[i].y);
+			results[i] = new AffinePoint(newX, newY);
+		}
+		return results;
+	}
+
+	// adds two points that are known to be different and not opposite, unless
+	// checkDistinct is set, in which case this is asserted
+	private AffinePoint addDistinctAffinePoints(AffinePoint p1, AffinePoint p2, boolean checkDistinct) {
+		Wire diffX = p2.x.sub(p1.x);
+		if (checkDistinct) {
+			generator.addOneAssertion(diffX.checkNonZero(), "Asserting distinct points");
+		}
+		Wire q = new FieldDivisionGadget(p2.y.sub(p1.y), diffX).getOutputWires()[0];
+		Wire newX = q.mul(q).sub(COEFF_A).sub(p1.x).sub(p2.x);
+		Wire newY = p1.x.sub(newX).mul(q).sub(p1.y);
 		return new AffinePoint(newX, newY);
 	}
 
+	/*
+	 * The group operations on constant points (used for the precomputation
+	 * outside the circuit). A point is represented by its two coordinates, and
+	 * null represents the point at infinity.
+	 */
+	private static BigInteger[] addConstantPoints(BigInteger[] p1, BigInteger[] p2) {
+		if (p1 == null) {
+			return p2;
+		}
+		if (p2 == null) {
+			return p1;
+		}
+		BigInteger prime = Config.FIELD_PRIME;
+		BigInteger slope;
+		if (p1[0].equals(p2[0])) {
+			if (!p1[1].equals(p2[1]) || p1[1].signum() == 0) {
+				return null;
+			}
+			BigInteger x = p1[0];
+			slope = x.multiply(x).multiply(BigInteger.valueOf(3)).add(COEFF_A.multiply(x).shiftLeft(1))
+					.add(BigInteger.ONE).multiply(p1[1].shiftLeft(1).modInverse(prime)).mod(prime);
+		} else {
+			slope = p2[1].subtract(p1[1]).multiply(p2[0].subtract(p1[0]).mod(prime).modInverse(prime))
+					.mod(prime);
+		}
+		BigInteger x = slope.multiply(slope).subtract(COEFF_A).subtract(p1[0]).subtract(p2[0]).mod(prime);
+		BigInteger y = slope.multiply(p1[0].subtract(x)).subtract(p1[1]).mod(prime);
+		return new BigInteger[] { x, y };
+	}
+
+	private static BigInteger[] mulConstantPoint(BigInteger k, BigInteger[] p) {
+		BigInteger[] result = null;
+		for (int i = k.bitLength() - 1; i >= 0; i--) {
+			result = addConstantPoints(result, result);
+			if (k.testBit(i)) {
+				result = addConstantPoints(result, p);
+			}
+		}
+		return result;
+	}
+
 	@Override
 	public Wire[] getOutputWires() {
-		return new Wire[] { outputPublicValue, sharedSecret };
+		Wire[] outputs = new Wire[sharedSecrets.length + 1];
+		outputs[0] = outputPublicValue;
+		System.arraycopy(sharedSecrets, 0, outputs, 1, sharedSecrets.length);
+		return outputs;
 	}
 
 	public static BigInteger computeYCoordinate(BigInteger x) {
@@ -299,13 +543,19 @@ public class ECDHKeyExchangeGadget extends Gadget {
 	}
 
 	public void validateInputs() {
+		if (baseTable == null) {
+			// in the fixed-base mode, the doubling table of the constant base
+			// was not needed, and costs no constraints
+			baseTable = preprocess(basePoint)[0];
+		}
 		generator.addOneAssertion(basePoint.x.checkNonZero());
 		assertValidPointOnEC(basePoint.x, basePoint.y);
 		assertPointOrder(basePoint, baseTable);
-		generator.addOneAssertion(hPoint.x.checkNonZero());
-		assertValidPointOnEC(hPoint.x, hPoint.y);
-		assertPointOrder(basePoint, baseTable);
-		assertPointOrder(hPoint, hTable);
+		for (int i = 0; i < hPoints.length; i++) {
+			generator.addOneAssertion(hPoints[i].x.checkNonZero());
+			assertValidPointOnEC(hPoints[i].x, hPoints[i].y);
+			assertPointOrder(hPoints[i], hTables[i]);
+		}
 	}
 
 	private void assertPointOrder(AffinePoint p, AffinePoint[] table) {
@@ -315,7 +565,8 @@ public class ECDHKeyExchangeGadget extends Gadget {
 
 		AffinePoint result = new AffinePoint(table[bits.length - 1]);
 		for (int j = bits.length - 2; j >= 1; j--) {
-			AffinePoint tmp = addAffinePoints(result, table[j]);
+			AffinePoint tmp = addAffinePoints(new AffinePoint[] { result },
+					new AffinePoint[] { table[j] })[0];
 			Wire isOne = bits[j];
 			result.x = result.x.add(isOne.mul(tmp.x.sub(result.x)));
 			result.y = result.y.add(isOne.mul(tmp.y.sub(result.y)));
@@ -340,6 +591,14 @@ public class ECDHKeyExchangeGadget extends Gadget {
 	}
 
 	public Wire getSharedSecret() {
-		return sharedSecret;
+		return sharedSecrets[0];
+	}
+
+	/**
+	 * Returns the shared secrets with all the parties, in the order of their
+	 * points.
+	 */
+	public Wire[] getSharedSecrets() {
+		return sharedSecrets;
 	}
 }
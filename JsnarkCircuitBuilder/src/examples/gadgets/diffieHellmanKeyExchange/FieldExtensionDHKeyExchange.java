@@ -22,13 +22,19 @@ import circuit.structure.Wire;
  * be found in the Junit tests. A sample usage is in:
  * examples/generators/EncryptionCircuitGenerator.java
  * 
+ * To derive keys with several parties from the same secret, the gadget can
+ * receive an array of inputs h_1, ..., h_N. The secret bits are checked once,
+ * and g^s is computed once. Every added party costs about mu*(mu+1)/2
+ * constraints per bit for squaring h_i, and mu^2 + mu for multiplying and
+ * selecting (30 per bit when mu = 4).
+ * 
  * 
  */
 public class FieldExtensionDHKeyExchange extends Gadget {
 
 	private Wire[] g; // base
-	private Wire[] h; // other party's public input (supposedly, h = g^(the
-						// other party's secret))
+	private Wire[][] h; // other parties' public inputs (supposedly, h[i] =
+						// g^(the secret of the party i))
 
 	private Wire[] secretExponentBits; // the bits of the secret exponent of the
 										// party
@@ -38,9 +44,9 @@ public class FieldExtensionDHKeyExchange extends Gadget {
 
 	// gadget outputs
 	private Wire[] outputPublicValue; // g^s (to be sent to the other party)
-	private Wire[] sharedSecret; // the derived secret key h^s
+	private Wire[][] sharedSecret; // the derived secret keys h[i]^s
 	private Wire[][] gPowersTable;
-	private Wire[][] hPowersTable;
+	private Wire[][][] hPowersTable;
 
 	/**
 	 * Note: In the default mode, the gadget only validates the secret input
@@ -55,15 +61,26 @@ public class FieldExtensionDHKeyExchange extends Gadget {
 	 */
 	public FieldExtensionDHKeyExchange(Wire[] g, Wire[] h,
 			Wire[] secretExponentBits, long omega, String desc) {
+		this(g, new Wire[][] { h }, secretExponentBits, omega, desc);
+	}
+
+	/**
+	 * Derives keys with several parties from the same secret exponent: the
+	 * outputs are g^s, and h[i]^s for every i.
+	 */
+	public FieldExtensionDHKeyExchange(Wire[] g, Wire[][] h,
+			Wire[] secretExponentBits, long omega, String desc) {
 		super(desc);
 		this.g = g;
 		this.h = h;
 		this.secretExponentBits = secretExponentBits;
 		this.omega = omega;
 		mu = g.length;
-		if (h.length != g.length) {
-			throw new IllegalArgumentException(
-					"g and h must have the same dimension");
+		for (Wire[] hi : h) {
+			if (hi.length != g.length) {
+				throw new IllegalArgumentException(
+						"g and h must have the same dimension");
+			}
 		}
 
 		// since this is typically a private input by the prover,
@@ -78,9 +95,13 @@ public class FieldExtensionDHKeyExchange extends Gadget {
 
 	protected void buildCircuit() {
 		gPowersTable = preparePowersTable(g);
-		hPowersTable = preparePowersTable(h);
 		outputPublicValue = exp(g, secretExponentBits, gPowersTable);
-		sharedSecret = exp(h, secretExponentBits, hPowersTable);
+		hPowersTable = new Wire[h.length][][];
+		sharedSecret = new Wire[h.length][];
+		for (int i = 0; i < h.length; i++) {
+			hPowersTable[i] = preparePowersTable(h[i]);
+			sharedSecret[i] = exp(h[i], secretExponentBits, hPowersTable[i]);
+		}
 	}
 
 	private Wire[] mul(Wire[] a, Wire[] b) {
@@ -132,25 +153,6 @@ public class FieldExtensionDHKeyExchange extends Gadget {
 
 		// g and h are not zero and not one
 
-		// checking the first chunk
-		Wire zeroOrOne1 = g[0].mul(g[0].sub(1));
-		Wire zeroOrOne2 = h[0].mul(h[0].sub(1));
-
-		// checking the rest
-		Wire allZero1 = generator.getOneWire();
-		Wire allZero2 = generator.getOneWire();
-
-		for (int i = 1; i < mu; i++) {
-			allZero1 = allZero1.mul(g[i].checkNonZero().invAsBit());
-			allZero2 = allZero2.mul(h[i].checkNonZero().invAsBit());
-		}
-
-		// assertion
-		generator.addZeroAssertion(zeroOrOne1.mul(allZero1));
-		generator.addZeroAssertion(zeroOrOne2.mul(allZero2));
-
-		// verify order of points
-
 		int bitLength = subGroupOrder.bitLength();
 		Wire[] bits = new Wire[bitLength];
 		for (int i = 0; i < bitLength; i++) {
@@ -160,22 +162,41 @@ public class FieldExtensionDHKeyExchange extends Gadget {
 				bits[i] = generator.getZeroWire();
 		}
 
-		Wire[] result1 = exp(g, bits, gPowersTable);
-		Wire[] result2 = exp(h, bits, hPowersTable);
+		validateElement(g, bits, gPowersTable);
+		for (int i = 0; i < h.length; i++) {
+			validateElement(h[i], bits, hPowersTable[i]);
+		}
+	}
+
+	private void validateElement(Wire[] e, Wire[] orderBits, Wire[][] powersTable) {
+
+		// checking the first chunk
+		Wire zeroOrOne = e[0].mul(e[0].sub(1));
+
+		// checking the rest
+		Wire allZero = generator.getOneWire();
+		for (int i = 1; i < mu; i++) {
+			allZero = allZero.mul(e[i].checkNonZero().invAsBit());
+		}
 
-		// both should be one
+		// assertion
+		generator.addZeroAssertion(zeroOrOne.mul(allZero));
 
-		generator.addOneAssertion(result1[0]);
-		generator.addOneAssertion(result2[0]);
+		// verify order of the element: the result should be one
+		Wire[] result = exp(e, orderBits, powersTable);
+		generator.addOneAssertion(result[0]);
 		for (int i = 1; i < mu; i++) {
-			generator.addZeroAssertion(result1[i]);
-			generator.addZeroAssertion(result1[i]);
+			generator.addZeroAssertion(result[i]);
 		}
 	}
 
 	@Override
 	public Wire[] getOutputWires() {
-		return Util.concat(outputPublicValue, sharedSecret);
+		Wire[] outputs = outputPublicValue;
+		for (Wire[] s : sharedSecret) {
+			outputs = Util.concat(outputs, s);
+		}
+		return outputs;
 	}
 
 	public Wire[] getOutputPublicValue() {
@@ -183,6 +204,14 @@ public class FieldExtensionDHKeyExchange extends Gadget {
 	}
 
 	public Wire[] getSharedSecret() {
+		return sharedSecret[0];
+	}
+
+	/**
+	 * Returns the keys derived with all the parties, in the order of their
+	 * inputs.
+	 */
+	public Wire[][] getSharedSecrets() {
 		return sharedSecret;
 	}
 
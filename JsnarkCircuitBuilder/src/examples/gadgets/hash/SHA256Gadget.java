@@ -26,6 +26,8 @@ public class SHA256Gadget extends Gadget {
 			0xbef9a3f7L, 0xc67178f2L };
 
 	private Wire[] unpaddedInputs;
+	private Wire[] initialState;
+	private int prefixLengthInBytes;
 
 	private int bitwidthPerInputElement;
 	private int totalLengthInBytes;
@@ -39,8 +41,28 @@ public class SHA256Gadget extends Gadget {
 
 	public SHA256Gadget(Wire[] ins, int bitWidthPerInputElement, int totalLengthInBytes, boolean binaryOutput,
 			boolean paddingRequired, String... desc) {
+		this(null, 0, ins, bitWidthPerInputElement, totalLengthInBytes, binaryOutput, paddingRequired, desc);
+	}
+
+	/**
+	 * Continues a hash computation from a chaining state, i.e. hashes a
+	 * message whose first prefixLengthInBytes bytes (a multiple of 64) were
+	 * already compressed into initialState, and whose remaining bytes are the
+	 * inputs. The state can be constant (e.g. for a fixed prefix, see
+	 * computeMidstate()), public input wires, or the output words of another
+	 * SHA256Gadget instance that did not pad its input. The prefix length is
+	 * only used for the length field of the padding.
+	 */
+	public SHA256Gadget(Wire[] initialState, int prefixLengthInBytes, Wire[] ins, int bitWidthPerInputElement,
+			int totalLengthInBytes, boolean binaryOutput, boolean paddingRequired, String... desc) {
 
 		super(desc);
+		if (initialState != null && initialState.length != H.length) {
+			throw new IllegalArgumentException("The chaining state must consist of 8 words");
+		}
+		if (prefixLengthInBytes < 0 || prefixLengthInBytes % 64 != 0) {
+			throw new IllegalArgumentException("The prefix length must be a multiple of 64 bytes");
+		}
 		if (totalLengthInBytes * 8 > ins.length * bitWidthPerInputElement
 				|| totalLengthInBytes * 8 < (ins.length - 1) * bitWidthPerInputElement) {
 			throw new IllegalArgumentException("Inconsistent Length Information");
@@ -52,6 +74,8 @@ public class SHA256Gadget extends Gadget {
 		}
 
 		this.unpaddedInputs = ins;
+		this.initialState = initialState;
+		this.prefixLengthInBytes = prefixLengthInBytes;
 		this.bitwidthPerInputElement = bitWidthPerInputElement;
 		this.totalLengthInBytes = totalLengthInBytes;
 		this.binaryOutput = binaryOutput;
@@ -69,100 +93,18 @@ public class SHA256Gadget extends Gadget {
 		Wire[] outDigest = new Wire[8];
 		Wire[] hWires = new Wire[H.length];
 		for (int i = 0; i < H.length; i++) {
-			hWires[i] = generator.createConstantWire(H[i]);
+			if (initialState == null) {
+				hWires[i] = generator.createConstantWire(H[i]);
+			} else {
+				hWires[i] = initialState[i];
+				// free for constants, and for the words that are split in the
+				// first round anyway
+				hWires[i].restrictBitLength(32);
+			}
 		}
 
 		for (int blockNum = 0; blockNum < numBlocks; blockNum++) {
-
-			Wire[][] wsSplitted = new Wire[64][];
-			Wire[] w = new Wire[64];
-
-			for (int i = 0; i < 64; i++) {
-				if (i < 16) {
-					wsSplitted[i] = Util.reverseBytes(Arrays.copyOfRange(preparedInputBits, blockNum * 512 + i * 32,
-							blockNum * 512 + (i + 1) * 32));
-
-					w[i] = new WireArray(wsSplitted[i]).packAsBits(32);
-				} else {
-					Wire t1 = w[i - 15].rotateRight(32, 7);
-					Wire t2 = w[i - 15].rotateRight(32, 18);
-					Wire t3 = w[i - 15].shiftRight(32, 3);
-					Wire s0 = t1.xorBitwise(t2, 32);
-					s0 = s0.xorBitwise(t3, 32);
-
-					Wire t4 = w[i - 2].rotateRight(32, 17);
-					Wire t5 = w[i - 2].rotateRight(32, 19);
-					Wire t6 = w[i - 2].shiftRight(32, 10);
-					Wire s1 = t4.xorBitwise(t5, 32);
-					s1 = s1.xorBitwise(t6, 32);
-
-					w[i] = w[i - 16].add(w[i - 7]);
-					w[i] = w[i].add(s0).add(s1);
-					w[i] = w[i].trimBits(34, 32);
-				}
-			}
-
-			Wire a = hWires[0];
-			Wire b = hWires[1];
-			Wire c = hWires[2];
-			Wire d = hWires[3];
-			Wire e = hWires[4];
-			Wire f = hWires[5];
-			Wire g = hWires[6];
-			Wire h = hWires[7];
-
-			for (int i = 0; i < 64; i++) {
-
-				Wire t1 = e.rotateRight(32, 6);
-				Wire t2 = e.rotateRight(32, 11);
-				Wire t3 = e.rotateRight(32, 25);
-				Wire s1 = t1.xorBitwise(t2, 32);
-				s1 = s1.xorBitwise(t3, 32);
-
-				Wire ch = computeCh(e, f, g, 32);
-
-				Wire t4 = a.rotateRight(32, 2);
-				Wire t5 = a.rotateRight(32, 13);
-				Wire t6 = a.rotateRight(32, 22);
-				Wire s0 = t4.xorBitwise(t5, 32);
-				s0 = s0.xorBitwise(t6, 32);
-
-				Wire maj;
-				// since after each iteration, SHA256 does c = b; and b = a;, we can make use of that to save multiplications in maj computation.
-				// To do this, we make use of the caching feature, by just changing the order of wires sent to maj(). Caching will take care of the rest.
-				if(i % 2 == 1){
-					maj = computeMaj(c, b, a, 32);
-				}
-				else{
-					maj = computeMaj(a, b, c, 32);
-				}
-				
-				Wire temp1 = w[i].add(K[i]).add(s1).add(h).add(ch);
-
-				Wire temp2 = maj.add(s0);
-
-				h = g;
-				g = f;
-				f = e;
-				e = temp1.add(d);
-				e = e.trimBits(35, 32);
-
-				d = c;
-				c = b;
-				b = a;
-				a = temp2.add(temp1);
-				a = a.trimBits(35, 32);
-
-			}
-
-			hWires[0] = hWires[0].add(a).trimBits(33, 32);
-			hWires[1] = hWires[1].add(b).trimBits(33, 32);
-			hWires[2] = hWires[2].add(c).trimBits(33, 32);
-			hWires[3] = hWires[3].add(d).trimBits(33, 32);
-			hWires[4] = hWires[4].add(e).trimBits(33, 32);
-			hWires[5] = hWires[5].add(f).trimBits(33, 32);
-			hWires[6] = hWires[6].add(g).trimBits(33, 32);
-			hWires[7] = hWires[7].add(h).trimBits(33, 32);
+			hWires = compress(hWires, Arrays.copyOfRange(preparedInputBits, blockNum * 512, (blockNum + 1) * 512));
 		}
 
 		outDigest[0] = hWires[0];
@@ -187,7 +129,105 @@ public class SHA256Gadget extends Gadget {
 		}
 	}
 
-	private Wire computeMaj(Wire a, Wire b, Wire c, int numBits) {
+	/**
+	 * Applies the compression function to a block of 512 bits (the bits of
+	 * the 64 bytes in order, each byte from its least significant bit), and
+	 * returns the next chaining state.
+	 */
+	static Wire[] compress(Wire[] hWires, Wire[] blockBits) {
+		Wire[] state = Arrays.copyOf(hWires, hWires.length);
+		Wire[][] wsSplitted = new Wire[64][];
+		Wire[] w = new Wire[64];
+
+		for (int i = 0; i < 64; i++) {
+			if (i < 16) {
+				wsSplitted[i] = Util.reverseBytes(Arrays.copyOfRange(blockBits, i * 32, (i + 1) * 32));
+
+				w[i] = new WireArray(wsSplitted[i]).packAsBits(32);
+			} else {
+				Wire t1 = w[i - 15].rotateRight(32, 7);
+				Wire t2 = w[i - 15].rotateRight(32, 18);
+				Wire t3 = w[i - 15].shiftRight(32, 3);
+				Wire s0 = t1.xorBitwise(t2, 32);
+				s0 = s0.xorBitwise(t3, 32);
+
+				Wire t4 = w[i - 2].rotateRight(32, 17);
+				Wire t5 = w[i - 2].rotateRight(32, 19);
+				Wire t6 = w[i - 2].shiftRight(32, 10);
+				Wire s1 = t4.xorBitwise(t5, 32);
+				s1 = s1.xorBitwise(t6, 32);
+
+				w[i] = w[i - 16].add(w[i - 7]);
+				w[i] = w[i].add(s0).add(s1);
+				w[i] = w[i].trimBits(34, 32);
+			}
+		}
+
+		Wire a = state[0];
+		Wire b = state[1];
+		Wire c = state[2];
+		Wire d = state[3];
+		Wire e = state[4];
+		Wire f = state[5];
+		Wire g = state[6];
+		Wire h = state[7];
+
+		for (int i = 0; i < 64; i++) {
+
+			Wire t1 = e.rotateRight(32, 6);
+			Wire t2 = e.rotateRight(32, 11);
+			Wire t3 = e.rotateRight(32, 25);
+			Wire s1 = t1.xorBitwise(t2, 32);
+			s1 = s1.xorBitwise(t3, 32);
+
+			Wire ch = computeCh(e, f, g, 32);
+
+			Wire t4 = a.rotateRight(32, 2);
+			Wire t5 = a.rotateRight(32, 13);
+			Wire t6 = a.rotateRight(32, 22);
+			Wire s0 = t4.xorBitwise(t5, 32);
+			s0 = s0.xorBitwise(t6, 32);
+
+			Wire maj;
+			// since after each iteration, SHA256 does c = b; and b = a;, we can make use of that to save multiplications in maj computation.
+			// To do this, we make use of the caching feature, by just changing the order of wires sent to maj(). Caching will take care of the rest.
+			if(i % 2 == 1){
+				maj = computeMaj(c, b, a, 32);
+			}
+			else{
+				maj = computeMaj(a, b, c, 32);
+			}
+			
+			Wire temp1 = w[i].add(K[i]).add(s1).add(h).add(ch);
+
+			Wire temp2 = maj.add(s0);
+
+			h = g;
+			g = f;
+			f = e;
+			e = temp1.add(d);
+			e = e.trimBits(35, 32);
+
+			d = c;
+			c = b;
+			b = a;
+			a = temp2.add(temp1);
+			a = a.trimBits(35, 32);
+
+		}
+
+		state[0] = state[0].add(a).trimBits(33, 32);
+		state[1] = state[1].add(b).trimBits(33, 32);
+		state[2] = state[2].add(c).trimBits(33, 32);
+		state[3] = state[3].add(d).trimBits(33, 32);
+		state[4] = state[4].add(e).trimBits(33, 32);
+		state[5] = state[5].add(f).trimBits(33, 32);
+		state[6] = state[6].add(g).trimBits(33, 32);
+		state[7] = state[7].add(h).trimBits(33, 32);
+		return state;
+	}
+
+	private static Wire computeMaj(Wire a, Wire b, Wire c, int numBits) {
 
 		Wire[] result = new Wire[numBits];
 		Wire[] aBits = a.getBitWires(numBits).asArray();
@@ -202,7 +242,7 @@ public class SHA256Gadget extends Gadget {
 		return new WireArray(result).packAsBits();
 	}
 
-	private Wire computeCh(Wire a, Wire b, Wire c, int numBits) {
+	private static Wire computeCh(Wire a, Wire b, Wire c, int numBits) {
 		Wire[] result = new Wire[numBits];
 
 		Wire[] aBits = a.getBitWires(numBits).asArray();
@@ -234,7 +274,7 @@ public class SHA256Gadget extends Gadget {
 			for (int i = 1; i < pad.length - 8; i++) {
 				pad[i] = generator.getZeroWire();
 			}
-			long lengthInBits = totalLengthInBytes * 8;
+			long lengthInBits = (prefixLengthInBytes + (long) totalLengthInBytes) * 8;
 			Wire[] lengthBits = new Wire[64];
 			for (int i = 0; i < 8; i++) {
 				pad[pad.length - 1 - i] = generator.createConstantWire((lengthInBits >>> (8 * i)) & 0xFFL);
@@ -252,6 +292,62 @@ public class SHA256Gadget extends Gadget {
 		}
 	}
 
+	/**
+	 * Computes the chaining state of SHA-256 after compressing the given
+	 * prefix (whose length must be a multiple of 64 bytes) outside the
+	 * circuit, to be passed as the initial state of the gadget.
+	 */
+	public static long[] computeMidstate(byte[] prefix) {
+		if (prefix.length % 64 != 0) {
+			throw new IllegalArgumentException("The prefix length must be a multiple of 64 bytes");
+		}
+		long[] state = Arrays.copyOf(H, H.length);
+		long[] w = new long[64];
+		for (int block = 0; block < prefix.length / 64; block++) {
+			for (int i = 0; i < 16; i++) {
+				int idx = block * 64 + i * 4;
+				w[i] = ((prefix[idx] & 0xffL) << 24) | ((prefix[idx + 1] & 0xffL) << 16)
+						| ((prefix[idx + 2] & 0xffL) << 8) | (prefix[idx + 3] & 0xffL);
+			}
+			for (int i = 16; i < 64; i++) {
+				long s0 = rotr(w[i - 15], 7) ^ rotr(w[i - 15], 18) ^ (w[i - 15] >>> 3);
+				long s1 = rotr(w[i - 2], 17) ^ rotr(w[i - 2], 19) ^ (w[i - 2] >>> 10);
+				w[i] = (w[i - 16] + s0 + w[i - 7] + s1) & 0xffffffffL;
+			}
+			long a = state[0], b = state[1], c = state[2], d = state[3];
+			long e = state[4], f = state[5], g = state[6], h = state[7];
+			for (int i = 0; i < 64; i++) {
+				long s1 = rotr(e, 6) ^ rotr(e, 11) ^ rotr(e, 25);
+				long ch = (e & f) ^ (~e & 0xffffffffL & g);
+				long temp1 = (h + s1 + ch + K[i] + w[i]) & 0xffffffffL;
+				long s0 = rotr(a, 2) ^ rotr(a, 13) ^ rotr(a, 22);
+				long maj = (a & b) ^ (a & c) ^ (b & c);
+				long temp2 = (s0 + maj) & 0xffffffffL;
+				h = g;
+				g = f;
+				f = e;
+				e = (d + temp1) & 0xffffffffL;
+				d = c;
+				c = b;
+				b = a;
+				a = (temp1 + temp2) & 0xffffffffL;
+			}
+			state[0] = (state[0] + a) & 0xffffffffL;
+			state[1] = (state[1] + b) & 0xffffffffL;
+			state[2] = (state[2] + c) & 0xffffffffL;
+			state[3] = (state[3] + d) & 0xffffffffL;
+			state[4] = (state[4] + e) & 0xffffffffL;
+			state[5] = (state[5] + f) & 0xffffffffL;
+			state[6] = (state[6] + g) & 0xffffffffL;
+			state[7] = (state[7] + h) & 0xffffffffL;
+		}
+		return state;
+	}
+
+	private static long rotr(long x, int n) {
+		return ((x >>> n) | (x << (32 - n))) & 0xffffffffL;
+	}
+
 	/**
 	 * outputs digest as 32-bit words
 	 */
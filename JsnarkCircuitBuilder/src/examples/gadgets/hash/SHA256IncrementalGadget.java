@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package examples.gadgets.hash;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import circuit.operations.Gadget;
+import circuit.structure.Wire;
+import circuit.structure.WireArray;
+
+/**
+ * Computes SHA-256 over a message that is provided in parts, possibly with a
+ * length that is only known to the prover.
+ *
+ * The bytes passed to update() are always part of the message, and each
+ * block is compressed as soon as it is complete. The digest is then
+ * finalized either with digest(), which pads the message statically, or
+ * with digest(tail, tailLength), which appends the first tailLength bytes of
+ * tail to the message, where tailLength is a wire between 0 and tail.length.
+ * In the latter case, the padding (the 0x80 marker, the zeros and the length
+ * field) is selected in the circuit according to the length, all the blocks
+ * that the longest message needs are compressed, and the digest is the
+ * chaining state after the block that the actual length ends at. The same
+ * circuit therefore serves all the lengths up to the maximum, at the cost of
+ * the maximum length.
+ *
+ * Usage:
+ *
+ * <pre>
+ * SHA256IncrementalGadget sha = new SHA256IncrementalGadget();
+ * sha.update(headerBytes);
+ * Wire[] digest = sha.digest(payloadBytes, payloadLength);
+ * </pre>
+ *
+ * All the message bytes are 8-bit wires, and the digest consists of 8 32-bit
+ * words, as the output of SHA256Gadget.
+ */
+public class SHA256IncrementalGadget extends Gadget {
+
+	private Wire[] state;
+	private long compressedLengthInBytes;
+	private ArrayList<Wire> buffer;
+	private Wire[] output;
+
+	public SHA256IncrementalGadget(String... desc) {
+		this(null, 0, desc);
+	}
+
+	/**
+	 * Continues a hash computation from a chaining state, as in the
+	 * corresponding constructor of SHA256Gadget.
+	 */
+	public SHA256IncrementalGadget(Wire[] initialState, int prefixLengthInBytes, String... desc) {
+		super(desc);
+		if (initialState != null && initialState.length != 8) {
+			throw new IllegalArgumentException("The chaining state must consist of 8 words");
+		}
+		if (prefixLengthInBytes < 0 || prefixLengthInBytes % 64 != 0) {
+			throw new IllegalArgumentException("The prefix length must be a multiple of 64 bytes");
+		}
+		state = new Wire[8];
+		long[] h = SHA256Gadget.computeMidstate(new byte[0]);
+		for (int i = 0; i < 8; i++) {
+			if (initialState == null) {
+				state[i] = generator.createConstantWire(h[i]);
+			} else {
+				state[i] = initialState[i];
+				state[i].restrictBitLength(32);
+			}
+		}
+		compressedLengthInBytes = prefixLengthInBytes;
+		buffer = new ArrayList<Wire>();
+	}
+
+	/**
+	 * Appends bytes to the message.
+	 */
+	public void update(Wire[] bytes) {
+		if (output != null) {
+			throw new IllegalStateException("The digest was already computed");
+		}
+		for (Wire b : bytes) {
+			buffer.add(b);
+			if (buffer.size() == 64) {
+				state = SHA256Gadget.compress(state, toBits(buffer.toArray(new Wire[64])));
+				compressedLengthInBytes += 64;
+				buffer.clear();
+			}
+		}
+	}
+
+	/**
+	 * Pads the message and returns its digest.
+	 */
+	public Wire[] digest() {
+		if (output != null) {
+			throw new IllegalStateException("The digest was already computed");
+		}
+		int n = buffer.size();
+		int numBlocks = n + 9 <= 64 ? 1 : 2;
+		Wire[] bytes = new Wire[64 * numBlocks];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = i < n ? buffer.get(i) : generator.getZeroWire();
+		}
+		bytes[n] = generator.createConstantWire(0x80);
+		long lengthInBits = (compressedLengthInBytes + n) * 8;
+		for (int i = 0; i < 8; i++) {
+			bytes[bytes.length - 1 - i] = generator.createConstantWire((lengthInBits >>> (8 * i)) & 0xFFL);
+		}
+		Wire[] bits = toBits(bytes);
+		for (int k = 0; k < numBlocks; k++) {
+			state = SHA256Gadget.compress(state, Arrays.copyOfRange(bits, k * 512, (k + 1) * 512));
+		}
+		output = state;
+		return output;
+	}
+
+	/**
+	 * Appends the first tailLength bytes of tail to the message, pads it, and
+	 * returns its digest. The circuit asserts that 0 <= tailLength <=
+	 * tail.length.
+	 */
+	public Wire[] digest(Wire[] tail, Wire tailLength) {
+		if (output != null) {
+			throw new IllegalStateException("The digest was already computed");
+		}
+		int n = buffer.size();
+		int maxLength = tail.length;
+		int numBlocks = (n + maxLength + 9 + 63) / 64;
+
+		// isLength[t] = (tailLength == t), and exactly one of them is set
+		Wire[] isLength = new Wire[maxLength + 1];
+		Wire sum = generator.getZeroWire();
+		for (int t = 0; t <= maxLength; t++) {
+			isLength[t] = tailLength.isEqualTo(t);
+			sum = sum.add(isLength[t]);
+		}
+		generator.addOneAssertion(sum, debugStr("tail length out of range"));
+
+		// isLastBlock[k] = 1 iff the padded message ends with block k, i.e.
+		// iff n + tailLength + 8 is in [64k, 64k + 63]
+		Wire[] isLastBlock = new Wire[numBlocks];
+		for (int k = 0; k < numBlocks; k++) {
+			isLastBlock[k] = generator.getZeroWire();
+		}
+		for (int t = 0; t <= maxLength; t++) {
+			int k = (n + t + 8) / 64;
+			isLastBlock[k] = isLastBlock[k].add(isLength[t]);
+		}
+
+		// the length field in bits, as 8 bytes (most significant first)
+		Wire lengthInBits = tailLength.mul(8).add((compressedLengthInBytes + n) * 8);
+		Wire[] lengthBits = lengthInBits.getBitWires(64).asArray();
+		Wire[] lengthBytes = new Wire[8];
+		for (int i = 0; i < 8; i++) {
+			lengthBytes[7 - i] = new WireArray(Arrays.copyOfRange(lengthBits, 8 * i, 8 * i + 8)).packAsBits(8);
+		}
+
+		Wire[] bytes = new Wire[64 * numBlocks];
+		// isInMessage = (t < tailLength)
+		Wire isInMessage = generator.getOneWire();
+		for (int p = 0; p < bytes.length; p++) {
+			if (p < n) {
+				bytes[p] = buffer.get(p);
+				continue;
+			}
+			int t = p - n;
+			Wire b = generator.getZeroWire();
+			if (t <= maxLength) {
+				isInMessage = isInMessage.sub(isLength[t]);
+				if (t < maxLength) {
+					b = tail[t].mul(isInMessage);
+				}
+				b = b.add(isLength[t].mul(0x80));
+			}
+			int offset = p % 64;
+			if (offset >= 56) {
+				b = b.add(lengthBytes[offset - 56].mul(isLastBlock[p / 64]));
+			}
+			bytes[p] = b;
+		}
+
+		Wire[] bits = toBits(bytes);
+		output = new Wire[8];
+		for (int i = 0; i < 8; i++) {
+			output[i] = generator.getZeroWire();
+		}
+		for (int k = 0; k < numBlocks; k++) {
+			state = SHA256Gadget.compress(state, Arrays.copyOfRange(bits, k * 512, (k + 1) * 512));
+			if (k >= (n + 8) / 64) {
+				for (int i = 0; i < 8; i++) {
+					output[i] = output[i].add(state[i].mul(isLastBlock[k]));
+				}
+			}
+		}
+		return output;
+	}
+
+	private static Wire[] toBits(Wire[] bytes) {
+		return new WireArray(bytes).getBits(8).asArray();
+	}
+
+	/**
+	 * outputs digest as 32-bit words (null before the digest is computed)
+	 */
+	@Override
+	public Wire[] getOutputWires() {
+		return output;
+	}
+}
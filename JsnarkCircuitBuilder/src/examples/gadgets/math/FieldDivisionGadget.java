@@ -46,12 +46,9 @@ public class FieldDivisionGadget extends Gadget {
 		generator.specifyProverWitnessComputation(new Instruction() {
 			@Override
 			public void evaluate(CircuitEvaluator evaluator) {
-				BigInteger aValue = evaluator.getWireValue(a);
-				BigInteger bValue = evaluator.getWireValue(b);
-				BigInteger cValue = aValue.multiply(
-						bValue.modInverse(Config.FIELD_PRIME)).mod(
-						Config.FIELD_PRIME);
-				evaluator.setWireValue(c, cValue);
+				// the inversion is batched with the other independent
+				// divisions of the circuit
+				evaluator.scheduleDivision(a, b, c);
 			}
 
 		});
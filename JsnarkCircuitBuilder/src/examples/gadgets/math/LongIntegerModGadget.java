@@ -10,6 +10,7 @@ import util.Util;
 import circuit.auxiliary.LongElement;
 import circuit.eval.CircuitEvaluator;
 import circuit.eval.Instruction;
+import circuit.eval.WitnessComputation;
 import circuit.operations.Gadget;
 import circuit.structure.Wire;
 
@@ -119,7 +120,8 @@ public class LongIntegerModGadget extends Gadget {
 		q = new LongElement(qWires, qChunkBitwidths);
 
 
-		generator.specifyProverWitnessComputation(new Instruction() {
+		generator.specifyProverWitnessComputation(new WitnessComputation(Util.concat(a.getArray(), b.getArray()),
+				Util.concat(rWires, qWires)) {
 			@Override
 			public void evaluate(CircuitEvaluator evaluator) {
 				BigInteger aValue = evaluator.getWireValue(a, LongElement.CHUNK_BITWIDTH);
@@ -7,6 +7,7 @@ import java.math.BigInteger;
 
 import circuit.eval.CircuitEvaluator;
 import circuit.eval.Instruction;
+import circuit.eval.WitnessComputation;
 import circuit.operations.Gadget;
 import circuit.structure.Wire;
 
@@ -43,7 +44,7 @@ public class ModGadget extends Gadget {
 
 		
 		// notes about how to use this code block can be found in FieldDivisionGadget
-		generator.specifyProverWitnessComputation(new Instruction() {
+		generator.specifyProverWitnessComputation(new WitnessComputation(new Wire[] { a, b }, new Wire[] { r, q }) {
 			@Override
 			public void evaluate(CircuitEvaluator evaluator) {
 				BigInteger aValue = evaluator.getWireValue(a);
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package examples.gadgets.memory;
+
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.Instruction;
+import circuit.operations.Gadget;
+import circuit.structure.Wire;
+
+/**
+ * Permutes n elements (each consisting of one or more wires) using an
+ * arbitrary-size Waksman network (AS-Waksman, as in Beauquier and Darrot, and
+ * libsnark), which has about n*log2(n) - n switches. The switches are prover
+ * witnesses, and each one costs one constraint for its binary check and one
+ * multiplication per wire of an element.
+ *
+ * The permutation is chosen by the prover. By default, the elements are
+ * sorted by the value of their first wire, which is what the memory checking
+ * of RandomAccessMemoryGadget needs. Other permutations can be used by
+ * overriding computeDestinations(). Note that the network only guarantees that
+ * the outputs are a permutation of the inputs, so any property of the order
+ * (e.g. being sorted) must be checked by the caller.
+ */
+public class PermutationNetworkGadget extends Gadget {
+
+	private Wire[][] inputs;
+	private Wire[][] outputs;
+	private ArrayList<Wire> switches;
+
+	/**
+	 * @param inputs
+	 *            : inputs[i] are the wires of the element i, which are moved
+	 *            together
+	 */
+	public PermutationNetworkGadget(Wire[][] inputs, String... desc) {
+		super(desc);
+		this.inputs = inputs;
+		buildCircuit();
+	}
+
+	protected void buildCircuit() {
+		switches = new ArrayList<Wire>();
+		// the routing is computed once the inputs are known, before the
+		// switches are used
+		generator.specifyProverWitnessComputation(new Instruction() {
+
+			@Override
+			public void evaluate(CircuitEvaluator evaluator) {
+				ArrayList<Boolean> settings = new ArrayList<Boolean>();
+				route(computeDestinations(evaluator), settings);
+				for (int i = 0; i < settings.size(); i++) {
+					evaluator.setWireValue(switches.get(i), settings.get(i) ? BigInteger.ONE : BigInteger.ZERO);
+				}
+			}
+		});
+		outputs = permute(inputs);
+	}
+
+	/**
+	 * Returns the output position of every input. This is called by the
+	 * prover, and sorts the elements by their first wire by default (ties keep
+	 * their order).
+	 */
+	protected int[] computeDestinations(CircuitEvaluator evaluator) {
+		int n = inputs.length;
+		final BigInteger[] keys = new BigInteger[n];
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) {
+			keys[i] = evaluator.getWireValue(inputs[i][0]);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+
+			@Override
+			public int compare(Integer i, Integer j) {
+				return keys[i].compareTo(keys[j]);
+			}
+		});
+		int[] destinations = new int[n];
+		for (int k = 0; k < n; k++) {
+			destinations[order[k]] = k;
+		}
+		return destinations;
+	}
+
+	/*
+	 * The network for n elements: the inputs 2i and 2i+1 go through an input
+	 * switch to the i-th input of the top and bottom subnetworks (of n/2 and
+	 * n - n/2 elements), and the outputs 2i and 2i+1 come from an output
+	 * switch in the same way. When n is odd, the last input and output are
+	 * connected directly to the bottom subnetwork. When n is even, the last
+	 * output switch is not needed, as the top and bottom subnetworks can be
+	 * routed such that output n-2 comes from the top.
+	 */
+	private Wire[][] permute(Wire[][] in) {
+		int n = in.length;
+		if (n <= 1) {
+			return in;
+		}
+		int h = n / 2;
+		Wire[][] top = new Wire[h][];
+		Wire[][] bottom = new Wire[n - h][];
+		for (int i = 0; i < h; i++) {
+			Wire[][] pair = addSwitch(in[2 * i], in[2 * i + 1]);
+			top[i] = pair[0];
+			bottom[i] = pair[1];
+		}
+		if (n % 2 == 1) {
+			bottom[h] = in[n - 1];
+		}
+		Wire[][] topOut = permute(top);
+		Wire[][] bottomOut = permute(bottom);
+
+		Wire[][] out = new Wire[n][];
+		int numOfOutputSwitches = n % 2 == 0 ? h - 1 : h;
+		for (int i = 0; i < numOfOutputSwitches; i++) {
+			Wire[][] pair = addSwitch(topOut[i], bottomOut[i]);
+			out[2 * i] = pair[0];
+			out[2 * i + 1] = pair[1];
+		}
+		if (n % 2 == 0) {
+			out[n - 2] = topOut[h - 1];
+			out[n - 1] = bottomOut[h - 1];
+		} else {
+			out[n - 1] = bottomOut[h];
+		}
+		return out;
+	}
+
+	// swaps a and b if the switch is set
+	private Wire[][] addSwitch(Wire[] a, Wire[] b) {
+		Wire s = generator.createProverWitnessWire(debugStr("switch"));
+		generator.addBinaryAssertion(s);
+		switches.add(s);
+		Wire[] outA = new Wire[a.length];
+		Wire[] outB = new Wire[a.length];
+		for (int i = 0; i < a.length; i++) {
+			Wire d = s.mul(b[i].sub(a[i]));
+			outA[i] = a[i].add(d);
+			outB[i] = b[i].sub(d);
+		}
+		return new Wire[][] { outA, outB };
+	}
+
+	/*
+	 * Computes the switch settings (true for crossed) in the order in which
+	 * permute() creates the switches. Every input is assigned to the top or
+	 * bottom subnetwork, such that the two inputs of an input switch, and the
+	 * two sources of the outputs of an output switch, are in different
+	 * subnetworks. These constraints form paths and even cycles, so they are
+	 * satisfied by assigning the subnetworks alternately along them.
+	 */
+	private static void route(int[] destinations, ArrayList<Boolean> settings) {
+		int n = destinations.length;
+		if (n <= 1) {
+			return;
+		}
+		int h = n / 2;
+		int[] sources = new int[n];
+		for (int j = 0; j < n; j++) {
+			sources[destinations[j]] = j;
+		}
+
+		// 0 for the top subnetwork, 1 for the bottom, -1 if not assigned. The
+		// last output comes from the bottom subnetwork, and so does the last
+		// input when n is odd.
+		int[] subnetworks = new int[n];
+		Arrays.fill(subnetworks, -1);
+		assign(sources[n - 1], 1, destinations, sources, subnetworks);
+		if (n % 2 == 1) {
+			assign(n - 1, 1, destinations, sources, subnetworks);
+		}
+		for (int j = 0; j < n; j++) {
+			if (subnetworks[j] == -1) {
+				assign(j, 0, destinations, sources, subnetworks);
+			}
+		}
+
+		int[] topDestinations = new int[h];
+		int[] bottomDestinations = new int[n - h];
+		for (int i = 0; i < h; i++) {
+			boolean crossed = subnetworks[2 * i] == 1;
+			settings.add(crossed);
+			int topInput = crossed ? 2 * i + 1 : 2 * i;
+			int bottomInput = crossed ? 2 * i : 2 * i + 1;
+			topDestinations[i] = destinations[topInput] / 2;
+			bottomDestinations[i] = destinations[bottomInput] / 2;
+		}
+		if (n % 2 == 1) {
+			bottomDestinations[h] = destinations[n - 1] / 2;
+		}
+		route(topDestinations, settings);
+		route(bottomDestinations, settings);
+
+		int numOfOutputSwitches = n % 2 == 0 ? h - 1 : h;
+		for (int i = 0; i < numOfOutputSwitches; i++) {
+			settings.add(subnetworks[sources[2 * i]] == 1);
+		}
+	}
+
+	// assigns the input j to a subnetwork, and propagates the constraints
+	private static void assign(int j, int subnetwork, int[] destinations, int[] sources, int[] subnetworks) {
+		int n = destinations.length;
+		int h = n / 2;
+		ArrayDeque<int[]> pending = new ArrayDeque<int[]>();
+		pending.push(new int[] { j, subnetwork });
+		while (!pending.isEmpty()) {
+			int[] next = pending.pop();
+			int k = next[0];
+			if (subnetworks[k] != -1) {
+				if (subnetworks[k] != next[1]) {
+					throw new RuntimeException("Inconsistent routing");
+				}
+				continue;
+			}
+			subnetworks[k] = next[1];
+			// the other input of the input switch
+			if (k < 2 * h) {
+				pending.push(new int[] { k ^ 1, 1 - next[1] });
+			}
+			// the source of the other output of the output switch
+			int o = destinations[k];
+			if (o < 2 * h) {
+				pending.push(new int[] { sources[o ^ 1], 1 - next[1] });
+			}
+		}
+	}
+
+	@Override
+	public Wire[] getOutputWires() {
+		Wire[] out = new Wire[outputs.length * (outputs.length == 0 ? 0 : outputs[0].length)];
+		for (int i = 0; i < outputs.length; i++) {
+			System.arraycopy(outputs[i], 0, out, i * outputs[i].length, outputs[i].length);
+		}
+		return out;
+	}
+
+	/**
+	 * Returns the permuted elements.
+	 */
+	public Wire[][] getOutputElements() {
+		return outputs;
+	}
+}
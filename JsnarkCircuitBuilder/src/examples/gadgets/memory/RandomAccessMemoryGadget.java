@@ -0,0 +1,247 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package examples.gadgets.memory;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.eval.Instruction;
+import circuit.operations.Gadget;
+import circuit.structure.Wire;
+import circuit.structure.WireArray;
+
+/**
+ * A read/write memory whose addresses are wires, for circuits that would
+ * otherwise need a multiplexer over the whole memory for every access.
+ *
+ * The values read are prover witnesses, computed by simulating the memory, and
+ * every access is recorded in a trace of (address, time, operation, value)
+ * entries. When all the accesses are done, finalizeAccesses() checks the
+ * trace: the entries are sorted by (address, time) using a permutation
+ * network routed by the prover (see PermutationNetworkGadget), and each entry
+ * is checked against the previous one in the sorted order. Their addresses
+ * and times must be increasing, a read of the same address must return the
+ * previous value, and the first access to an address must be a write or
+ * read zero. The initial contents, if any, are written at the beginning of
+ * the trace. For T accesses (including the initial writes), this costs
+ * O(T log T) constraints: about 3*log2(T) per access for the network, and
+ * about 2*(addressBitwidth + log2(T)) per access for the checks.
+ *
+ * Usage:
+ *
+ * <pre>
+ * RandomAccessMemoryGadget memory = new RandomAccessMemoryGadget(registers);
+ * Wire v = memory.read(address);
+ * memory.write(otherAddress, v.add(1));
+ * ...
+ * memory.finalizeAccesses();
+ * </pre>
+ *
+ * The addresses are restricted to addressBitwidth bits, and the addresses that
+ * are not initialized (e.g. beyond the initial contents) contain zero. Note
+ * that the circuit is not sound until finalizeAccesses() is called.
+ */
+public class RandomAccessMemoryGadget extends Gadget {
+
+	private int addressBitwidth;
+	private Wire[] initialContents;
+
+	private ArrayList<Wire> addresses;
+	private ArrayList<Wire> values;
+	private ArrayList<Boolean> writeFlags;
+	private ArrayList<Wire> readValues;
+	private boolean finalized;
+
+	// the memory contents simulated by the prover, for every evaluation
+	private WeakHashMap<CircuitEvaluator, HashMap<BigInteger, BigInteger>> simulations;
+
+	/**
+	 * Creates a memory whose contents are zero initially.
+	 */
+	public RandomAccessMemoryGadget(int addressBitwidth, String... desc) {
+		this(addressBitwidth, null, desc);
+	}
+
+	/**
+	 * Creates a memory that initially holds the given contents (at the
+	 * addresses 0 to initialContents.length - 1).
+	 */
+	public RandomAccessMemoryGadget(Wire[] initialContents, String... desc) {
+		this(Math.max(1, BigInteger.valueOf(initialContents.length - 1).bitLength()), initialContents, desc);
+	}
+
+	/**
+	 * Creates a memory of addressBitwidth bits that initially holds the given
+	 * contents (or zeros if initialContents is null).
+	 */
+	public RandomAccessMemoryGadget(int addressBitwidth, Wire[] initialContents, String... desc) {
+		super(desc);
+		if (addressBitwidth <= 0 || addressBitwidth > 64) {
+			throw new IllegalArgumentException("The address bitwidth must be between 1 and 64");
+		}
+		if (initialContents != null && BigInteger.valueOf(initialContents.length - 1).bitLength() > addressBitwidth) {
+			throw new IllegalArgumentException("The initial contents do not fit in the address bitwidth");
+		}
+		this.addressBitwidth = addressBitwidth;
+		this.initialContents = initialContents;
+		buildCircuit();
+	}
+
+	protected void buildCircuit() {
+		addresses = new ArrayList<Wire>();
+		values = new ArrayList<Wire>();
+		writeFlags = new ArrayList<Boolean>();
+		readValues = new ArrayList<Wire>();
+		simulations = new WeakHashMap<CircuitEvaluator, HashMap<BigInteger, BigInteger>>();
+
+		// resets the simulated memory at the beginning of every evaluation
+		generator.specifyProverWitnessComputation(new Instruction() {
+
+			@Override
+			public void evaluate(CircuitEvaluator evaluator) {
+				HashMap<BigInteger, BigInteger> memory = new HashMap<BigInteger, BigInteger>();
+				if (initialContents != null) {
+					for (int i = 0; i < initialContents.length; i++) {
+						memory.put(BigInteger.valueOf(i), evaluator.getWireValue(initialContents[i]));
+					}
+				}
+				synchronized (simulations) {
+					simulations.put(evaluator, memory);
+				}
+			}
+		});
+		if (initialContents != null) {
+			for (int i = 0; i < initialContents.length; i++) {
+				record(generator.createConstantWire(i), initialContents[i], true);
+			}
+		}
+	}
+
+	/**
+	 * Returns the value at the address.
+	 */
+	public Wire read(final Wire address) {
+		checkNotFinalized();
+		address.restrictBitLength(addressBitwidth);
+		final Wire value = generator.createProverWitnessWire(debugStr("read value"));
+		generator.specifyProverWitnessComputation(new Instruction() {
+
+			@Override
+			public void evaluate(CircuitEvaluator evaluator) {
+				BigInteger v = getSimulation(evaluator).get(evaluator.getWireValue(address));
+				evaluator.setWireValue(value, v == null ? BigInteger.ZERO : v);
+			}
+		});
+		record(address, value, false);
+		readValues.add(value);
+		return value;
+	}
+
+	/**
+	 * Writes the value at the address.
+	 */
+	public void write(final Wire address, final Wire value) {
+		checkNotFinalized();
+		address.restrictBitLength(addressBitwidth);
+		generator.specifyProverWitnessComputation(new Instruction() {
+
+			@Override
+			public void evaluate(CircuitEvaluator evaluator) {
+				getSimulation(evaluator).put(evaluator.getWireValue(address), evaluator.getWireValue(value));
+			}
+		});
+		record(address, value, true);
+	}
+
+	/**
+	 * Adds the constraints that check the consistency of all the accesses.
+	 * The memory cannot be accessed afterwards.
+	 */
+	public void finalizeAccesses() {
+		checkNotFinalized();
+		finalized = true;
+		int numOfEntries = addresses.size();
+		if (numOfEntries == 0) {
+			return;
+		}
+		int timeBitwidth = Math.max(1, BigInteger.valueOf(numOfEntries - 1).bitLength());
+		int keyBitwidth = addressBitwidth + timeBitwidth + 1;
+		if (keyBitwidth >= Config.LOG2_FIELD_PRIME - 1) {
+			throw new IllegalArgumentException("Too many accesses for the address bitwidth");
+		}
+
+		// the key of an entry is (address, time, isWrite), packed such that
+		// the keys are sorted by address, then by time
+		Wire[][] entries = new Wire[numOfEntries][];
+		for (int t = 0; t < numOfEntries; t++) {
+			Wire key = addresses.get(t).mul(BigInteger.ONE.shiftLeft(timeBitwidth + 1)).add(
+					2 * t + (writeFlags.get(t) ? 1 : 0));
+			entries[t] = new Wire[] { key, values.get(t) };
+		}
+		Wire[][] sorted = new PermutationNetworkGadget(entries, description).getOutputElements();
+
+		int maxBitwidth = Math.max(addressBitwidth, timeBitwidth);
+		Wire prevAddress = null, prevTime = null, prevValue = null;
+		for (int k = 0; k < numOfEntries; k++) {
+			WireArray bits = sorted[k][0].getBitWires(keyBitwidth);
+			Wire isRead = bits.get(0).invAsBit();
+			Wire time = bits.packAsBits(1, timeBitwidth + 1);
+			Wire address = bits.packAsBits(timeBitwidth + 1, keyBitwidth);
+			Wire value = sorted[k][1];
+
+			if (k == 0) {
+				generator.addAssertion(isRead, value, generator.getZeroWire(), debugStr("first read is not zero"));
+			} else {
+				// if the address is the same, the time must increase, otherwise
+				// the address must increase
+				Wire sameAddress = address.isEqualTo(prevAddress);
+				Wire addressDiff = address.sub(prevAddress);
+				Wire timeDiff = time.sub(prevTime);
+				Wire delta = sameAddress.mul(timeDiff.sub(addressDiff)).add(addressDiff).sub(1);
+				delta.restrictBitLength(maxBitwidth);
+
+				// a read returns the previous value of the same address, or
+				// zero if it is the first access to the address
+				Wire readSame = sameAddress.mul(isRead);
+				generator.addAssertion(readSame, value.sub(prevValue), generator.getZeroWire(),
+						debugStr("inconsistent read"));
+				generator.addAssertion(isRead.sub(readSame), value, generator.getZeroWire(),
+						debugStr("first read is not zero"));
+			}
+			prevAddress = address;
+			prevTime = time;
+			prevValue = value;
+		}
+	}
+
+	private void record(Wire address, Wire value, boolean isWrite) {
+		addresses.add(address);
+		values.add(value);
+		writeFlags.add(isWrite);
+	}
+
+	private HashMap<BigInteger, BigInteger> getSimulation(CircuitEvaluator evaluator) {
+		synchronized (simulations) {
+			return simulations.get(evaluator);
+		}
+	}
+
+	private void checkNotFinalized() {
+		if (finalized) {
+			throw new IllegalStateException("The accesses were already finalized");
+		}
+	}
+
+	/**
+	 * Returns the values read, in order.
+	 */
+	@Override
+	public Wire[] getOutputWires() {
+		return readValues.toArray(new Wire[readValues.size()]);
+	}
+}
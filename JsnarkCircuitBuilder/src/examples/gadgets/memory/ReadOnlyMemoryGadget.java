@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package examples.gadgets.memory;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import circuit.config.Config;
+import circuit.operations.Gadget;
+import circuit.structure.Wire;
+import circuit.structure.WireArray;
+
+/**
+ * Looks up one or more indexes in a constant table of field elements, at a
+ * cost of O(sqrt(n)) constraints per lookup instead of the O(n) of a linear
+ * scan (see AESSBoxNaiveLookupGadget).
+ *
+ * The S-box gadgets (AESSBoxGadgetOptimized1/2) check that the point
+ * index*256+value belongs to the table, which needs the values to be bounded
+ * (and range checked). To allow any field elements (e.g. the coordinates of
+ * fixed-base EC tables), this gadget computes the value directly instead: the
+ * bits of the index are split into a high part a and a low part b, and the
+ * table (padded with zeros to a power of two) is interpolated by a polynomial
+ * of the form sum_j b^j * R_j(a). Given the powers of a and b, the R_j(a) are
+ * linear combinations, and only one multiplication per power of b is needed.
+ * For a table of 256 entries, a lookup costs 43 constraints, in addition to
+ * splitting the index (which is free when its bits already exist).
+ *
+ * The index is restricted to ceil(log2(n)) bits, and the indexes between n and
+ * the next power of two return zero. The interpolation is computed once per
+ * table and reused by all the gadgets that look up the same table, and the
+ * powers of an index are shared by the lookups of the same index in different
+ * tables (e.g. the two coordinates of a point).
+ */
+public class ReadOnlyMemoryGadget extends Gadget {
+
+	private static HashMap<List<BigInteger>, Interpolation> interpolations = new HashMap<List<BigInteger>, Interpolation>();
+
+	private BigInteger[] table;
+	private Wire[] indexes;
+	private Wire[] outputs;
+
+	public ReadOnlyMemoryGadget(BigInteger[] table, Wire index, String... desc) {
+		this(table, new Wire[] { index }, desc);
+	}
+
+	public ReadOnlyMemoryGadget(BigInteger[] table, Wire[] indexes, String... desc) {
+		super(desc);
+		if (table.length == 0) {
+			throw new IllegalArgumentException("Empty table");
+		}
+		this.table = table;
+		this.indexes = indexes;
+		buildCircuit();
+	}
+
+	protected void buildCircuit() {
+		Interpolation interpolation = getInterpolation(table);
+		outputs = new Wire[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			outputs[i] = lookup(interpolation, indexes[i]);
+		}
+	}
+
+	private Wire lookup(Interpolation interpolation, Wire index) {
+		int lowBits = interpolation.lowBits;
+		int highBits = interpolation.highBits;
+		if (lowBits + highBits == 0) {
+			// a table of one entry
+			generator.addZeroAssertion(index);
+			return generator.createConstantWire(interpolation.coeffs[0][0]);
+		}
+		WireArray bits = index.getBitWires(lowBits + highBits);
+		Wire[] powersOfA = computePowers(bits.packAsBits(lowBits, lowBits + highBits), 1 << highBits);
+		Wire[] powersOfB = computePowers(bits.packAsBits(0, lowBits), 1 << lowBits);
+
+		Wire result = generator.getZeroWire();
+		for (int j = 0; j < powersOfB.length; j++) {
+			Wire r = generator.getZeroWire();
+			for (int t = 0; t < powersOfA.length; t++) {
+				r = r.add(powersOfA[t].mul(interpolation.coeffs[j][t]));
+			}
+			result = result.add(j == 0 ? r : powersOfB[j].mul(r));
+		}
+		return result;
+	}
+
+	private Wire[] computePowers(Wire x, int num) {
+		Wire[] powers = new Wire[num];
+		powers[0] = generator.getOneWire();
+		for (int i = 1; i < num; i++) {
+			powers[i] = i == 1 ? x : powers[i - 1].mul(x);
+		}
+		return powers;
+	}
+
+	private static synchronized Interpolation getInterpolation(BigInteger[] table) {
+		List<BigInteger> key = Arrays.asList(table.clone());
+		Interpolation interpolation = interpolations.get(key);
+		if (interpolation == null) {
+			interpolation = new Interpolation(table);
+			interpolations.put(key, interpolation);
+		}
+		return interpolation;
+	}
+
+	/*
+	 * The coefficients of the table polynomial: coeffs[j][t] is the
+	 * coefficient of b^j * a^t.
+	 */
+	private static class Interpolation {
+
+		int lowBits, highBits;
+		BigInteger[][] coeffs;
+
+		Interpolation(BigInteger[] table) {
+			int numBits = BigInteger.valueOf(table.length - 1).bitLength();
+			// the cost is (2^highBits - 2) + (2^lowBits - 2) + (2^lowBits - 1)
+			// constraints, which is minimized by the following
+			lowBits = numBits / 2;
+			highBits = numBits - lowBits;
+			int numA = 1 << highBits, numB = 1 << lowBits;
+
+			BigInteger p = Config.FIELD_PRIME;
+			BigInteger[][] lagrangeA = computeLagrangeCoeffs(numA);
+			BigInteger[][] lagrangeB = computeLagrangeCoeffs(numB);
+
+			// interpolate in a for every low part, then in b
+			BigInteger[][] columns = new BigInteger[numB][numA];
+			for (int b = 0; b < numB; b++) {
+				Arrays.fill(columns[b], BigInteger.ZERO);
+				for (int a = 0; a < numA; a++) {
+					int idx = a * numB + b;
+					if (idx >= table.length || table[idx].signum() == 0) {
+						continue;
+					}
+					BigInteger v = table[idx].mod(p);
+					for (int t = 0; t < numA; t++) {
+						columns[b][t] = columns[b][t].add(v.multiply(lagrangeA[a][t]));
+					}
+				}
+				for (int t = 0; t < numA; t++) {
+					columns[b][t] = columns[b][t].mod(p);
+				}
+			}
+			coeffs = new BigInteger[numB][numA];
+			for (int j = 0; j < numB; j++) {
+				for (int t = 0; t < numA; t++) {
+					BigInteger sum = BigInteger.ZERO;
+					for (int b = 0; b < numB; b++) {
+						sum = sum.add(lagrangeB[b][j].multiply(columns[b][t]));
+					}
+					coeffs[j][t] = sum.mod(p);
+				}
+			}
+		}
+
+		// l[i][t] is the coefficient of x^t in the Lagrange polynomial that is
+		// one at i and zero at the other points of 0, 1, ..., num-1
+		private static BigInteger[][] computeLagrangeCoeffs(int num) {
+			BigInteger p = Config.FIELD_PRIME;
+			// the product of (x - i) for all the points
+			BigInteger[] all = new BigInteger[num + 1];
+			Arrays.fill(all, BigInteger.ZERO);
+			all[0] = BigInteger.ONE;
+			for (int i = 0; i < num; i++) {
+				for (int t = i + 1; t > 0; t--) {
+					all[t] = all[t - 1].subtract(all[t].multiply(BigInteger.valueOf(i))).mod(p);
+				}
+				all[0] = all[0].multiply(BigInteger.valueOf(-i)).mod(p);
+			}
+			BigInteger[][] l = new BigInteger[num][num];
+			for (int i = 0; i < num; i++) {
+				// divide by (x - i), and by the product of (i - j) for j != i
+				BigInteger denominator = BigInteger.ONE;
+				for (int j = 0; j < num; j++) {
+					if (j != i) {
+						denominator = denominator.multiply(BigInteger.valueOf(i - j));
+					}
+				}
+				BigInteger inverse = denominator.mod(p).modInverse(p);
+				BigInteger carry = BigInteger.ZERO;
+				for (int t = num - 1; t >= 0; t--) {
+					carry = all[t + 1].add(carry.multiply(BigInteger.valueOf(i))).mod(p);
+					l[i][t] = carry.multiply(inverse).mod(p);
+				}
+			}
+			return l;
+		}
+	}
+
+	@Override
+	public Wire[] getOutputWires() {
+		return outputs;
+	}
+}
@@ -3,19 +3,31 @@
  *******************************************************************************/
 package examples.tests.blockciphers;
 
+import java.io.File;
 import java.math.BigInteger;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
 
 import junit.framework.TestCase;
 
 import org.junit.Test;
 
+import circuit.config.Config;
 import circuit.eval.CircuitEvaluator;
 import circuit.structure.CircuitGenerator;
 import circuit.structure.Wire;
 import examples.gadgets.blockciphers.AES128CipherGadget;
+import examples.gadgets.blockciphers.AES128ModeGadget;
 import examples.gadgets.blockciphers.sbox.AESSBoxGadgetOptimized2;
+import examples.gadgets.blockciphers.sbox.util.CoefficientCache;
+import examples.gadgets.blockciphers.sbox.util.LinearSystemSolver;
 
 
 public class AES128_Test extends TestCase {
@@ -374,6 +386,145 @@ public class AES128_Test extends TestCase {
 		}
 	}
 
+	@Test
+	public void testModes() throws Exception {
 
-	
+		AES128CipherGadget.SBoxOption previous = AES128CipherGadget.sBoxOption;
+		AES128CipherGadget.sBoxOption = AES128CipherGadget.SBoxOption.OPTIMIZED2;
+		try {
+			checkModes();
+		} finally {
+			AES128CipherGadget.sBoxOption = previous;
+		}
+	}
+
+	private void checkModes() throws Exception {
+
+		final byte[] key = new byte[16];
+		final byte[] iv = new byte[16];
+		final byte[] message = new byte[50];
+		for (int i = 0; i < 16; i++) {
+			key[i] = (byte) (i * 17 + 1);
+			// the counter carries into the upper bytes
+			iv[i] = (byte) (i < 13 ? i * 5 : 0xff);
+		}
+		for (int i = 0; i < message.length; i++) {
+			message[i] = (byte) (i * 29 + 11);
+		}
+
+		// CTR with a secret iv, CTR with a public iv, and CBC
+		int[] numOfConstraints = new int[3];
+		for (int option = 0; option < 3; option++) {
+			final int opt = option;
+			final AES128ModeGadget.Mode mode = option < 2 ? AES128ModeGadget.Mode.CTR : AES128ModeGadget.Mode.CBC;
+			final int length = mode == AES128ModeGadget.Mode.CTR ? message.length : 48;
+			CircuitGenerator generator = new CircuitGenerator("AES128_Modes_Test" + option) {
+
+				private Wire[] plaintext;
+				private Wire[] keyWires;
+				private Wire[] ivWires;
+
+				@Override
+				protected void buildCircuit() {
+					plaintext = createInputWireArray(length);
+					keyWires = createInputWireArray(16);
+					if (opt == 1) {
+						ivWires = new Wire[16];
+						for (int i = 0; i < 16; i++) {
+							ivWires[i] = createConstantWire(iv[i] & 0xff);
+						}
+					} else {
+						ivWires = createInputWireArray(16);
+					}
+					makeOutputArray(new AES128ModeGadget(plaintext, keyWires, ivWires, mode).getOutputWires());
+				}
+
+				@Override
+				public void generateSampleInput(CircuitEvaluator evaluator) {
+					for (int i = 0; i < length; i++) {
+						evaluator.setWireValue(plaintext[i], message[i] & 0xff);
+					}
+					for (int i = 0; i < 16; i++) {
+						evaluator.setWireValue(keyWires[i], key[i] & 0xff);
+						if (opt != 1) {
+							evaluator.setWireValue(ivWires[i], iv[i] & 0xff);
+						}
+					}
+				}
+			};
+			generator.generateCircuit();
+			generator.evalCircuit();
+			CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+
+			Cipher cipher = Cipher.getInstance(mode == AES128ModeGadget.Mode.CTR ? "AES/CTR/NoPadding"
+					: "AES/CBC/NoPadding");
+			cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+			byte[] expected = cipher.doFinal(message, 0, length);
+			ArrayList<Wire> outputs = generator.getOutWires();
+			assertEquals(expected.length, outputs.size());
+			for (int i = 0; i < expected.length; i++) {
+				assertEquals(BigInteger.valueOf(expected[i] & 0xff), evaluator.getWireValue(outputs.get(i)));
+			}
+			numOfConstraints[option] = generator.getNumOfConstraints();
+		}
+		// the counter blocks of a public iv are constants
+		assertTrue(numOfConstraints[1] < numOfConstraints[0]);
+	}
+
+	@Test
+	public void testCachedCoefficientsAreChecked() throws Exception {
+
+		// with 15 bits, the solution of the second shuffle (seed 3) accepts
+		// all the S-box entries, but the prover can cheat with one of its
+		// sets. When it is found in the cache, it must be replaced by the
+		// solution of the first shuffle (seed 2).
+		int bitCount = 15;
+		String key = "AESSBoxGadgetOptimized2 bitCount=" + bitCount;
+		ArrayList<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i <= 255; i++) {
+			list.add(256 * i + AES128CipherGadget.SBox[i]);
+		}
+		Collections.shuffle(list, new Random(2));
+		Collections.shuffle(list, new Random(3));
+		ArrayList<BigInteger[]> coeffSets = new ArrayList<BigInteger[]>();
+		for (int i = 0; i < 16; i++) {
+			BigInteger[][] mat = new BigInteger[16][17];
+			for (int k = 0; k < 16; k++) {
+				int value = list.get(k + i * 16);
+				BigInteger v = BigInteger.valueOf(value + 1);
+				BigInteger product = v.multiply(v).mod(Config.FIELD_PRIME);
+				for (int j = 0; j < 16; j++) {
+					if (j < bitCount) {
+						mat[k][j] = BigInteger.valueOf((value >> j) & 1);
+					} else {
+						mat[k][j] = product;
+						product = product.multiply(v).mod(Config.FIELD_PRIME);
+					}
+				}
+				mat[k][16] = BigInteger.ONE;
+			}
+			new LinearSystemSolver(mat).solveInPlace();
+			BigInteger[] coeffs = new BigInteger[16];
+			for (int j = 0; j < 16; j++) {
+				coeffs[j] = mat[j][16];
+			}
+			coeffSets.add(coeffs);
+		}
+
+		String previousDirectory = Config.sBoxCacheDirectory;
+		File directory = Files.createTempDirectory("sbox_cache_test").toFile();
+		Config.sBoxCacheDirectory = directory.getPath();
+		try {
+			CoefficientCache.store(key, 3, coeffSets);
+			AESSBoxGadgetOptimized2.setBitCount(bitCount);
+			AESSBoxGadgetOptimized2.solveLinearSystems();
+			assertEquals(2, CoefficientCache.load(key).seed);
+		} finally {
+			Config.sBoxCacheDirectory = previousDirectory;
+			for (File f : directory.listFiles()) {
+				f.delete();
+			}
+			directory.delete();
+		}
+	}
 }
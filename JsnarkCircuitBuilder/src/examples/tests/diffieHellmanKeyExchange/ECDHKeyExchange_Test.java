@@ -125,6 +125,136 @@ public class ECDHKeyExchange_Test extends TestCase {
 		assertEquals(evaluator.getWireValue(output.get(1)), new BigInteger("4167917227796707610764894996898236918915412447839980711033808347811701875717"));	
 	}
 
+
+	@Test
+	public void testFixedBaseCase() {
+		
+		CircuitGenerator generator = new CircuitGenerator("ECDH_Test_FixedBase") {
+
+			int exponentBitlength = ECDHKeyExchangeGadget.SECRET_BITWIDTH;			
+			private Wire[] secretBits;
+			private Wire baseX;
+			private Wire hX;
+			
+			@Override
+			protected void buildCircuit() {
+				
+				secretBits = createInputWireArray(exponentBitlength, "exponent");
+				baseX = createConstantWire(new BigInteger("4"));
+				hX = createInputWire();
+
+				int numOfConstraints = getNumOfConstraints();
+				ECDHKeyExchangeGadget keyExchangeGadget = 
+						new ECDHKeyExchangeGadget(baseX, hX, secretBits);
+
+				// the secret bit checks cost 1 constraint per bit, and the
+				// multiplication by H costs 10 per bit (4 for doubling, and 6
+				// for adding). The multiplication by the fixed base should cost
+				// less than 3 per bit (instead of 6 using double-and-add).
+				assertTrue(getNumOfConstraints() - numOfConstraints < exponentBitlength * (1 + 10 + 3));
+
+				makeOutput(keyExchangeGadget.getOutputPublicValue());		
+				
+				// Just for testing. In real scenarios, this should not be made public
+				makeOutput(keyExchangeGadget.getSharedSecret());
+				
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				
+				evaluator.setWireValue(hX, new BigInteger("21766081959050939664800904742925354518084319102596785077490863571049214729748"));
+				
+				BigInteger exponent = new BigInteger("13867691842196510828352345865165018381161315605899394650350519162543016860992");
+				for(int i = 0; i < exponentBitlength; i++){
+					evaluator.setWireValue(secretBits[i], exponent.testBit(i)?1:0);
+				}
+			}
+		};
+
+		generator.generateCircuit();
+		generator.evalCircuit();
+		CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+		ArrayList<Wire> output = generator.getOutWires();
+
+		assertEquals(evaluator.getWireValue(output.get(0)), new BigInteger("13458082339735734368462130456283583571822918321676509705348825437102113182254"));
+		assertEquals(evaluator.getWireValue(output.get(1)), new BigInteger("4167917227796707610764894996898236918915412447839980711033808347811701875717"));	
+	}
+
+	@Test
+	public void testMultipleRecipients() {
+
+		BigInteger[] hXs = new BigInteger[] {
+				new BigInteger("21766081959050939664800904742925354518084319102596785077490863571049214729748"),
+				new BigInteger("13458082339735734368462130456283583571822918321676509705348825437102113182254"),
+				new BigInteger("4167917227796707610764894996898236918915412447839980711033808347811701875717") };
+
+		int[] batchCost = new int[1];
+		BigInteger[] batchOutputs = runKeyExchange(hXs, batchCost);
+		assertEquals(batchOutputs[0], new BigInteger("13458082339735734368462130456283583571822918321676509705348825437102113182254"));
+		assertEquals(batchOutputs[1], new BigInteger("4167917227796707610764894996898236918915412447839980711033808347811701875717"));
+
+		// every recipient gets the same key as in a separate key exchange,
+		// and the secret checks and the public value are shared
+		int[] singleCost = new int[1];
+		for (int i = 0; i < hXs.length; i++) {
+			BigInteger[] outputs = runKeyExchange(new BigInteger[] { hXs[i] }, singleCost);
+			assertEquals(outputs[0], batchOutputs[0]);
+			assertEquals(outputs[1], batchOutputs[i + 1]);
+		}
+
+		// an added recipient costs 3 constraints for checking its point, and
+		// 10 per bit: 4 for doubling, and 6 for adding and selecting
+		int costPerRecipient = 3 + 10 * (ECDHKeyExchangeGadget.SECRET_BITWIDTH - 1);
+		assertEquals(singleCost[0] + (hXs.length - 1) * costPerRecipient, batchCost[0]);
+	}
+
+	// runs a key exchange with the fixed base and the given recipients, and
+	// returns the outputs and the number of constraints of the gadget
+	private BigInteger[] runKeyExchange(final BigInteger[] hXValues, final int[] numOfConstraints) {
+
+		CircuitGenerator generator = new CircuitGenerator("ECDH_Test_MultipleRecipients") {
+
+			int exponentBitlength = ECDHKeyExchangeGadget.SECRET_BITWIDTH;
+			private Wire[] secretBits;
+			private Wire[] hXs;
+
+			@Override
+			protected void buildCircuit() {
+
+				secretBits = createInputWireArray(exponentBitlength, "exponent");
+				hXs = createInputWireArray(hXValues.length);
+
+				int n = getNumOfConstraints();
+				ECDHKeyExchangeGadget keyExchangeGadget =
+						new ECDHKeyExchangeGadget(createConstantWire(new BigInteger("4")), hXs, secretBits);
+				numOfConstraints[0] = getNumOfConstraints() - n;
+
+				makeOutputArray(keyExchangeGadget.getOutputWires());
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+
+				for (int i = 0; i < hXValues.length; i++) {
+					evaluator.setWireValue(hXs[i], hXValues[i]);
+				}
+				BigInteger exponent = new BigInteger("13867691842196510828352345865165018381161315605899394650350519162543016860992");
+				for(int i = 0; i < exponentBitlength; i++){
+					evaluator.setWireValue(secretBits[i], exponent.testBit(i)?1:0);
+				}
+			}
+		};
+
+		generator.generateCircuit();
+		generator.evalCircuit();
+		CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+		BigInteger[] outputs = new BigInteger[hXValues.length + 1];
+		for (int i = 0; i < outputs.length; i++) {
+			outputs[i] = evaluator.getWireValue(generator.getOutWires().get(i));
+		}
+		return outputs;
+	}
 	
 	@Test
 	public void testInputValidation1() {
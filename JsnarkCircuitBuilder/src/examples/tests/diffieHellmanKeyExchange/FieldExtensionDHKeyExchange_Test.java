@@ -161,6 +161,76 @@ public class FieldExtensionDHKeyExchange_Test extends TestCase {
 	
 	}
 	
+
+	@Test
+	public void testMultipleParties() {
+		
+		CircuitGenerator generator = new CircuitGenerator("FieldExtension_Test4") {
+
+			int mu = 4;
+			int omega = 7;
+			int exponentBitlength = 397;
+			
+			private Wire[] exponentBits;
+			private Wire[] g;
+			private Wire[] h;
+
+			@Override
+			protected void buildCircuit() {
+				
+				exponentBits = createInputWireArray(exponentBitlength, "exponent");
+
+				g = createInputWireArray(mu);
+				h = createInputWireArray(mu);
+
+				// the second party's input is the base itself, so its derived
+				// key is g^s
+				FieldExtensionDHKeyExchange fieldExtensionDHKeyExchange = new FieldExtensionDHKeyExchange(g,
+						new Wire[][] { h, g }, exponentBits, omega, "");
+
+				makeOutputArray(fieldExtensionDHKeyExchange.getOutputWires());
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(g[0],new BigInteger("16377448892084713529161739182205318095580119111576802375181616547062197291263"));
+				evaluator.setWireValue(g[1],new BigInteger("13687683608888423916085091250849188813359145430644908352977567823030408967189"));
+				evaluator.setWireValue(g[2],new BigInteger("12629166084120705167185476169390021031074363183264910102253898080559854363106"));
+				evaluator.setWireValue(g[3],new BigInteger("19441276922979928804860196077335093208498949640381586557241379549605420212272"));
+
+				evaluator.setWireValue(h[0],new BigInteger("8252578783913909531884765397785803733246236629821369091076513527284845891757"));
+				evaluator.setWireValue(h[1],new BigInteger("20829599225781884356477513064431048695774529855095864514701692089787151865093"));
+				evaluator.setWireValue(h[2],new BigInteger("1540379511125324102377803754608881114249455137236500477169164628692514244862"));
+				evaluator.setWireValue(h[3],new BigInteger("1294177986177175279602421915789749270823809536595962994745244158374705688266"));
+
+				BigInteger exponent = new BigInteger("151828783241023778037546088811142494551372361892819281986925142448620047716812787162715261182186261271525615616651551515");
+				for(int i = 0; i < exponentBitlength; i++){
+					evaluator.setWireValue(exponentBits[i], exponent.testBit(i)?1:0);
+				}
+			}
+		};
+
+		generator.generateCircuit();
+		generator.evalCircuit();
+		CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+		ArrayList<Wire> output = generator.getOutWires();
+
+		BigInteger[] g_to_s = new BigInteger[] {
+				new BigInteger("9327289243415079515318132023689497171271904433099600200400859968177425894580"),
+				new BigInteger("21312311033900790023937954575527091756377215260488498667283640904465223526236"),
+				new BigInteger("19883079534945520345012965173409210670280801176341700376612297932480562491904"),
+				new BigInteger("11262499765857836098986663841690204003097813561305051025968110590253003094192") };
+		BigInteger[] h_to_s = new BigInteger[] {
+				new BigInteger("2202294410438304085016660740566673536814787951643742901558895317916637664703"),
+				new BigInteger("18724398730888665000453307259637219298475373267590805228665739285983831525279"),
+				new BigInteger("21875304682329937834628267681832507202983143541480299478306965773109713498819"),
+				new BigInteger("12006400062454647262588139453308241334465382550157910424084838650858146672647") };
+		for (int i = 0; i < 4; i++) {
+			assertEquals(evaluator.getWireValue(output.get(i)), g_to_s[i]);
+			assertEquals(evaluator.getWireValue(output.get(4 + i)), h_to_s[i]);
+			assertEquals(evaluator.getWireValue(output.get(8 + i)), g_to_s[i]);
+		}
+	}
 	
 	@Test
 	public void testInputValidation() {
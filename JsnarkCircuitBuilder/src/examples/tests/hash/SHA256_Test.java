@@ -13,7 +13,9 @@ import circuit.eval.CircuitEvaluator;
 import circuit.structure.CircuitGenerator;
 import circuit.structure.Wire;
 import examples.gadgets.hash.SHA256Gadget;
+import examples.gadgets.hash.SHA256IncrementalGadget;
 import java.math.BigInteger;
+import java.security.MessageDigest;
 
 /**
  * Tests SHA256 standard cases.
@@ -225,4 +227,140 @@ public class SHA256_Test extends TestCase {
 		}
 
 	}
+
+	@Test
+	public void testMidstate() throws Exception {
+
+		// a fixed prefix of two blocks, followed by a variable message
+		final byte[] prefix = new byte[128];
+		for (int i = 0; i < prefix.length; i++) {
+			prefix[i] = (byte) (i * 31 + 7);
+		}
+		final String inputStr = "abcdefghijklmnopqrstuvwxyz";
+		MessageDigest md = MessageDigest.getInstance("SHA-256");
+		md.update(prefix);
+		md.update(inputStr.getBytes());
+		String expectedDigest = Util.padZeros(new BigInteger(1, md.digest()).toString(16), 64);
+
+		final long[] midstate = SHA256Gadget.computeMidstate(prefix);
+		int[] numOfConstraints = new int[3];
+		for (int mode = 0; mode < 3; mode++) {
+			final int m = mode;
+			CircuitGenerator generator = new CircuitGenerator("SHA2_Test_Midstate" + mode) {
+
+				Wire[] inputWires;
+				Wire[] stateWires;
+
+				@Override
+				protected void buildCircuit() {
+					inputWires = createInputWireArray(inputStr.length());
+					Wire[] digest;
+					if (m == 0) {
+						// the whole message is hashed in the circuit
+						Wire[] prefixWires = createInputWireArray(prefix.length);
+						digest = new SHA256Gadget(Util.concat(prefixWires, inputWires), 8, prefix.length
+								+ inputStr.length(), false, true).getOutputWires();
+						stateWires = prefixWires;
+					} else {
+						// the prefix is compressed outside the circuit
+						stateWires = m == 1 ? createConstantWireArray(midstate) : createInputWireArray(8);
+						digest = new SHA256Gadget(stateWires, prefix.length, inputWires, 8, inputStr.length(), false,
+								true).getOutputWires();
+					}
+					makeOutputArray(digest);
+				}
+
+				@Override
+				public void generateSampleInput(CircuitEvaluator e) {
+					for (int i = 0; i < inputStr.length(); i++) {
+						e.setWireValue(inputWires[i], inputStr.charAt(i));
+					}
+					if (m == 0) {
+						for (int i = 0; i < prefix.length; i++) {
+							e.setWireValue(stateWires[i], prefix[i] & 0xff);
+						}
+					} else if (m == 2) {
+						for (int i = 0; i < 8; i++) {
+							e.setWireValue(stateWires[i], midstate[i]);
+						}
+					}
+				}
+			};
+
+			generator.generateCircuit();
+			generator.evalCircuit();
+			CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+
+			String outDigest = "";
+			for (Wire w : generator.getOutWires()) {
+				outDigest += Util.padZeros(evaluator.getWireValue(w).toString(16), 8);
+			}
+			assertEquals(expectedDigest, outDigest);
+			numOfConstraints[mode] = generator.getNumOfConstraints();
+		}
+		// two compressions are saved
+		assertTrue(numOfConstraints[1] < numOfConstraints[0] / 2);
+		assertTrue(numOfConstraints[2] < numOfConstraints[0] / 2);
+	}
+
+	@Test
+	public void testVariableLength() throws Exception {
+
+		// a fixed header that spans more than a block, followed by a tail of
+		// up to 70 bytes whose length is a witness
+		final byte[] message = new byte[140];
+		for (int i = 0; i < message.length; i++) {
+			message[i] = (byte) (i * 57 + 3);
+		}
+		final int headerLength = 70;
+		final int maxTailLength = 70;
+		final int[] tailLength = new int[1];
+
+		CircuitGenerator generator = new CircuitGenerator("SHA2_Test_VariableLength") {
+
+			Wire[] headerWires;
+			Wire[] tailWires;
+			Wire lengthWire;
+
+			@Override
+			protected void buildCircuit() {
+				headerWires = createInputWireArray(headerLength);
+				tailWires = createProverWitnessWireArray(maxTailLength);
+				lengthWire = createProverWitnessWire();
+				SHA256IncrementalGadget sha = new SHA256IncrementalGadget();
+				sha.update(headerWires);
+				makeOutputArray(sha.digest(tailWires, lengthWire));
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator e) {
+				for (int i = 0; i < headerLength; i++) {
+					e.setWireValue(headerWires[i], message[i] & 0xff);
+				}
+				// the bytes after the length are arbitrary
+				for (int i = 0; i < maxTailLength; i++) {
+					e.setWireValue(tailWires[i], i < tailLength[0] ? message[headerLength + i] & 0xff : 0xff);
+				}
+				e.setWireValue(lengthWire, tailLength[0]);
+			}
+		};
+		generator.generateCircuit();
+
+		// including the lengths at which the padding moves to the next block
+		int[] lengths = { 0, 1, 49, 50, 57, 58, 69, 70 };
+		for (int length : lengths) {
+			tailLength[0] = length;
+			generator.evalCircuit();
+			CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(message, 0, headerLength + length);
+			String expectedDigest = Util.padZeros(new BigInteger(1, md.digest()).toString(16), 64);
+			String outDigest = "";
+			for (Wire w : generator.getOutWires()) {
+				outDigest += Util.padZeros(evaluator.getWireValue(w).toString(16), 8);
+			}
+			assertEquals("length " + length, expectedDigest, outDigest);
+		}
+	}
 }
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package examples.tests.math;
+
+import java.math.BigInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import util.Util;
+import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.Wire;
+import examples.gadgets.math.FieldDivisionGadget;
+
+public class FieldDivision_Test extends TestCase {
+
+	@Test
+	public void testBatchedInversions() {
+
+		final int numIns = 100;
+		final BigInteger[] aVals = Util.randomBigIntegerArray(numIns, Config.FIELD_PRIME);
+		final BigInteger[] bVals = Util.randomBigIntegerArray(numIns, Config.FIELD_PRIME);
+		bVals[7] = BigInteger.ONE;
+		aVals[9] = BigInteger.ZERO;
+
+		CircuitGenerator generator = new CircuitGenerator("Field_Division_Test") {
+
+			Wire[] a;
+			Wire[] b;
+
+			@Override
+			protected void buildCircuit() {
+				a = createInputWireArray(numIns);
+				b = createInputWireArray(numIns);
+				Wire chain = getOneWire();
+				for (int i = 0; i < numIns; i++) {
+					// independent divisions
+					makeOutput(new FieldDivisionGadget(a[i], b[i]).getOutputWires()[0]);
+					if (i % 10 == 0) {
+						// a division that depends on the previous ones
+						chain = new FieldDivisionGadget(chain.add(a[i]), b[i]).getOutputWires()[0];
+						makeOutput(chain.mul(2));
+					}
+				}
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(a, aVals);
+				evaluator.setWireValue(b, bVals);
+			}
+		};
+		generator.generateCircuit();
+
+		BigInteger p = Config.FIELD_PRIME;
+		BigInteger[] expected = new BigInteger[numIns + numIns / 10];
+		BigInteger chain = BigInteger.ONE;
+		int idx = 0;
+		for (int i = 0; i < numIns; i++) {
+			expected[idx++] = aVals[i].multiply(bVals[i].modInverse(p)).mod(p);
+			if (i % 10 == 0) {
+				chain = chain.add(aVals[i]).multiply(bVals[i].modInverse(p)).mod(p);
+				expected[idx++] = chain.multiply(BigInteger.valueOf(2)).mod(p);
+			}
+		}
+
+		boolean previousBatched = Config.batchedInversions;
+		boolean previousCompiled = Config.compiledEvaluation;
+		boolean previousKernel = Config.witnessKernelEvaluation;
+		try {
+			for (int mode = 0; mode < 8; mode++) {
+				Config.batchedInversions = (mode & 1) != 0;
+				Config.compiledEvaluation = (mode & 2) != 0;
+				Config.witnessKernelEvaluation = (mode & 4) != 0;
+				CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+				generator.generateSampleInput(evaluator);
+				evaluator.evaluate();
+				assertFalse(evaluator.hasPendingInversions());
+				for (int i = 0; i < expected.length; i++) {
+					assertEquals(expected[i], evaluator.getWireValue(generator.getOutWires().get(i)));
+				}
+			}
+		} finally {
+			Config.batchedInversions = previousBatched;
+			Config.compiledEvaluation = previousCompiled;
+			Config.witnessKernelEvaluation = previousKernel;
+		}
+	}
+
+	@Test
+	public void testDivisionByZero() {
+
+		CircuitGenerator generator = new CircuitGenerator("Field_Division_Test2") {
+
+			Wire[] inputs;
+
+			@Override
+			protected void buildCircuit() {
+				inputs = createInputWireArray(3);
+				makeOutput(new FieldDivisionGadget(inputs[0], inputs[1]).getOutputWires()[0]);
+				makeOutput(new FieldDivisionGadget(inputs[0], inputs[2]).getOutputWires()[0]);
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(inputs[0], 5);
+				evaluator.setWireValue(inputs[1], 6);
+				evaluator.setWireValue(inputs[2], 0);
+			}
+		};
+		generator.generateCircuit();
+		CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+		generator.generateSampleInput(evaluator);
+		try {
+			evaluator.evaluate();
+			fail("Expected the division by zero to fail");
+		} catch (ArithmeticException e) {
+			// as with BigInteger.modInverse()
+		}
+	}
+}
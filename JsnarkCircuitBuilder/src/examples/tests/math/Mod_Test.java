@@ -4,14 +4,20 @@
 package examples.tests.math;
 
 import java.math.BigInteger;
+import java.util.Arrays;
 
 import junit.framework.TestCase;
 
 import org.junit.Test;
 
+import util.Util;
+import circuit.auxiliary.LongElement;
+import circuit.config.Config;
 import circuit.eval.CircuitEvaluator;
 import circuit.structure.CircuitGenerator;
 import circuit.structure.Wire;
+import examples.gadgets.math.FieldDivisionGadget;
+import examples.gadgets.math.LongIntegerModGadget;
 import examples.gadgets.math.ModConstantGadget;
 import examples.gadgets.math.ModGadget;
 
@@ -87,6 +93,80 @@ public class Mod_Test extends TestCase {
 		Wire rWire = generator.getOutWires().get(0);
 		assertEquals(evaluator.getWireValue(rWire), BigInteger.valueOf(a % b));
 	}
-	
 
+	@Test
+	public void testParallelWitnessComputations() {
+
+		final int numIns = 64;
+		final BigInteger[] aVals = Util.randomBigIntegerArray(numIns, 32);
+		final BigInteger[] bVals = Util.randomBigIntegerArray(numIns, 16);
+		final BigInteger longA = Util.nextRandomBigInteger(512);
+		final BigInteger longB = Util.nextRandomBigInteger(256).setBit(255);
+		for (int i = 0; i < numIns; i++) {
+			bVals[i] = bVals[i].add(BigInteger.ONE);
+		}
+
+		CircuitGenerator generator = new CircuitGenerator("Mod_Test3") {
+
+			Wire[] a;
+			Wire[] b;
+			LongElement longAWire;
+			LongElement longBWire;
+
+			@Override
+			protected void buildCircuit() {
+				a = createInputWireArray(numIns);
+				b = createInputWireArray(numIns);
+				Wire chain = getOneWire();
+				for (int i = 0; i < numIns; i++) {
+					// independent computations
+					Wire r = new ModGadget(a[i], b[i], 32).getOutputWires()[0];
+					makeOutput(r);
+					// computations that depend on the previous ones
+					chain = new ModConstantGadget(chain.mul(r), 64, BigInteger.valueOf(1000003)).getOutputWires()[0];
+					if (i % 8 == 0) {
+						// a computation that does not declare its wires
+						chain = chain.add(new FieldDivisionGadget(a[i], b[i]).getOutputWires()[0]);
+						chain = chain.getBitWires(Config.LOG2_FIELD_PRIME).packAsBits(32);
+					}
+				}
+				makeOutput(chain);
+				longAWire = createLongElementInput(512);
+				longBWire = createLongElementInput(256);
+				LongElement r = new LongIntegerModGadget(longAWire, longBWire, true).getRemainder();
+				makeOutputArray(r.mul(r).getArray());
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(a, aVals);
+				evaluator.setWireValue(b, bVals);
+				evaluator.setWireValue(longAWire, longA, LongElement.CHUNK_BITWIDTH);
+				evaluator.setWireValue(longBWire, longB, LongElement.CHUNK_BITWIDTH);
+			}
+		};
+		generator.generateCircuit();
+
+		int previousThreads = Config.numOfWitnessThreads;
+		try {
+			BigInteger[] expected = null;
+			for (int threads : new int[] { 1, 4 }) {
+				Config.numOfWitnessThreads = threads;
+				CircuitEvaluator evaluator = new CircuitEvaluator(generator);
+				generator.generateSampleInput(evaluator);
+				evaluator.evaluate();
+				for (int i = 0; i < numIns; i++) {
+					assertEquals(aVals[i].mod(bVals[i]), evaluator.getWireValue(generator.getOutWires().get(i)));
+				}
+				BigInteger[] assignment = evaluator.getAssignment();
+				if (expected == null) {
+					expected = assignment;
+				} else {
+					assertTrue(Arrays.equals(expected, assignment));
+				}
+			}
+		} finally {
+			Config.numOfWitnessThreads = previousThreads;
+		}
+	}
 }
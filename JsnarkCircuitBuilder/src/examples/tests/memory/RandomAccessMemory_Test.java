@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package examples.tests.memory;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import util.Util;
+import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.Wire;
+import examples.gadgets.memory.PermutationNetworkGadget;
+import examples.gadgets.memory.RandomAccessMemoryGadget;
+
+public class RandomAccessMemory_Test extends TestCase {
+
+	@Test
+	public void testPermutationNetwork() {
+
+		Random rand = new Random(1);
+		for (int n = 1; n <= 33; n++) {
+			ArrayList<Integer> list = new ArrayList<Integer>();
+			for (int i = 0; i < n; i++) {
+				list.add(i);
+			}
+			Collections.shuffle(list, rand);
+			final int[] destinations = new int[n];
+			for (int i = 0; i < n; i++) {
+				destinations[i] = list.get(i);
+			}
+			final int size = n;
+
+			CircuitGenerator generator = new CircuitGenerator("Permutation_Network_Test_" + n) {
+
+				Wire[] inputs;
+
+				@Override
+				protected void buildCircuit() {
+					inputs = createInputWireArray(size);
+					Wire[][] elements = new Wire[size][];
+					for (int i = 0; i < size; i++) {
+						elements[i] = new Wire[] { inputs[i], inputs[i].mul(3) };
+					}
+					makeOutputArray(new PermutationNetworkGadget(elements) {
+						@Override
+						protected int[] computeDestinations(CircuitEvaluator evaluator) {
+							return destinations;
+						}
+					}.getOutputWires());
+				}
+
+				@Override
+				public void generateSampleInput(CircuitEvaluator evaluator) {
+					for (int i = 0; i < size; i++) {
+						evaluator.setWireValue(inputs[i], 100 + i);
+					}
+				}
+			};
+			generator.generateCircuit();
+			generator.evalCircuit();
+			CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+			for (int i = 0; i < n; i++) {
+				int k = destinations[i];
+				assertEquals(BigInteger.valueOf(100 + i), evaluator.getWireValue(generator.getOutWires().get(2 * k)));
+				assertEquals(BigInteger.valueOf(3 * (100 + i)),
+						evaluator.getWireValue(generator.getOutWires().get(2 * k + 1)));
+			}
+		}
+	}
+
+	@Test
+	public void testReadsAndWrites() {
+
+		final int memorySize = 16;
+		final int numOfAccesses = 100;
+		final BigInteger[] initialValues = Util.randomBigIntegerArray(memorySize, Config.FIELD_PRIME);
+		// the addresses go up to 31: the upper half of the memory is not
+		// initialized, and contains zeros
+		final int[] addressValues = new int[numOfAccesses];
+		final boolean[] isWrite = new boolean[numOfAccesses];
+		final BigInteger[] writeValues = Util.randomBigIntegerArray(numOfAccesses, Config.FIELD_PRIME);
+		Random rand = new Random(2);
+		for (int i = 0; i < numOfAccesses; i++) {
+			addressValues[i] = rand.nextInt(2 * memorySize);
+			isWrite[i] = rand.nextBoolean();
+		}
+
+		CircuitGenerator generator = new CircuitGenerator("RAM_Test") {
+
+			Wire[] contents;
+			Wire[] addresses;
+			Wire[] values;
+
+			@Override
+			protected void buildCircuit() {
+				contents = createInputWireArray(memorySize);
+				addresses = createInputWireArray(numOfAccesses);
+				values = createInputWireArray(numOfAccesses);
+				RandomAccessMemoryGadget memory = new RandomAccessMemoryGadget(5, contents);
+				for (int i = 0; i < numOfAccesses; i++) {
+					if (isWrite[i]) {
+						memory.write(addresses[i], values[i]);
+					} else {
+						makeOutput(memory.read(addresses[i]));
+					}
+				}
+				memory.finalizeAccesses();
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				evaluator.setWireValue(contents, initialValues);
+				evaluator.setWireValue(values, writeValues);
+				for (int i = 0; i < numOfAccesses; i++) {
+					evaluator.setWireValue(addresses[i], addressValues[i]);
+				}
+			}
+		};
+		generator.generateCircuit();
+		generator.evalCircuit();
+		CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+
+		BigInteger[] memory = new BigInteger[2 * memorySize];
+		for (int i = 0; i < 2 * memorySize; i++) {
+			memory[i] = i < memorySize ? initialValues[i] : BigInteger.ZERO;
+		}
+		int idx = 0;
+		for (int i = 0; i < numOfAccesses; i++) {
+			if (isWrite[i]) {
+				memory[addressValues[i]] = writeValues[i];
+			} else {
+				assertEquals(memory[addressValues[i]], evaluator.getWireValue(generator.getOutWires().get(idx++)));
+			}
+		}
+	}
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package examples.tests.memory;
+
+import java.math.BigInteger;
+
+import junit.framework.TestCase;
+
+import org.junit.Test;
+
+import util.Util;
+import circuit.config.Config;
+import circuit.eval.CircuitEvaluator;
+import circuit.structure.CircuitGenerator;
+import circuit.structure.Wire;
+import examples.gadgets.blockciphers.AES128CipherGadget;
+import examples.gadgets.memory.ReadOnlyMemoryGadget;
+
+public class ReadOnlyMemory_Test extends TestCase {
+
+	@Test
+	public void testFieldElementTables() {
+
+		// tables of different sizes, including sizes that are not powers of
+		// two (the indexes beyond the table return zero)
+		int[] tableSizes = { 1, 2, 3, 17, 200 };
+		for (final int tableSize : tableSizes) {
+			final BigInteger[] table = Util.randomBigIntegerArray(tableSize, Config.FIELD_PRIME);
+			final int numIndexBits = BigInteger.valueOf(tableSize - 1).bitLength();
+			final int[] indexValues = new int[] { 0, tableSize - 1, tableSize / 2, (1 << numIndexBits) - 1 };
+
+			CircuitGenerator generator = new CircuitGenerator("ROM_Test_" + tableSize) {
+
+				Wire[] indexes;
+
+				@Override
+				protected void buildCircuit() {
+					indexes = createInputWireArray(indexValues.length);
+					makeOutputArray(new ReadOnlyMemoryGadget(table, indexes).getOutputWires());
+				}
+
+				@Override
+				public void generateSampleInput(CircuitEvaluator evaluator) {
+					for (int i = 0; i < indexValues.length; i++) {
+						evaluator.setWireValue(indexes[i], indexValues[i]);
+					}
+				}
+			};
+			generator.generateCircuit();
+			generator.evalCircuit();
+			CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+			for (int i = 0; i < indexValues.length; i++) {
+				BigInteger expected = indexValues[i] < tableSize ? table[indexValues[i]] : BigInteger.ZERO;
+				assertEquals(expected, evaluator.getWireValue(generator.getOutWires().get(i)));
+			}
+		}
+	}
+
+	@Test
+	public void testSBoxTable() {
+
+		final BigInteger[] sBox = new BigInteger[256];
+		final BigInteger[] inverseSBox = new BigInteger[256];
+		for (int i = 0; i < 256; i++) {
+			sBox[i] = BigInteger.valueOf(AES128CipherGadget.SBox[i]);
+			inverseSBox[AES128CipherGadget.SBox[i]] = BigInteger.valueOf(i);
+		}
+
+		CircuitGenerator generator = new CircuitGenerator("ROM_Test_SBox") {
+
+			Wire[] inputs;
+
+			@Override
+			protected void buildCircuit() {
+				inputs = createInputWireArray(256);
+				for (Wire w : inputs) {
+					w.getBitWires(8);
+				}
+				int numOfConstraints = getNumOfConstraints();
+				Wire[] outputs = new ReadOnlyMemoryGadget(sBox, inputs).getOutputWires();
+				assertEquals(numOfConstraints + 256 * 43, getNumOfConstraints());
+
+				// a lookup of the same indexes in another table reuses the
+				// powers, and costs one multiplication per power of the low
+				// part
+				numOfConstraints = getNumOfConstraints();
+				Wire[] inverses = new ReadOnlyMemoryGadget(inverseSBox, inputs).getOutputWires();
+				assertEquals(numOfConstraints + 256 * 15, getNumOfConstraints());
+
+				makeOutputArray(outputs);
+				makeOutputArray(inverses);
+			}
+
+			@Override
+			public void generateSampleInput(CircuitEvaluator evaluator) {
+				for (int i = 0; i < 256; i++) {
+					evaluator.setWireValue(inputs[i], i);
+				}
+			}
+		};
+		generator.generateCircuit();
+		generator.evalCircuit();
+		CircuitEvaluator evaluator = generator.getCircuitEvaluator();
+		for (int i = 0; i < 256; i++) {
+			assertEquals(sBox[i], evaluator.getWireValue(generator.getOutWires().get(i)));
+			assertEquals(inverseSBox[i], evaluator.getWireValue(generator.getOutWires().get(256 + i)));
+		}
+	}
+}
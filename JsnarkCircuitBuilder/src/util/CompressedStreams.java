@@ -0,0 +1,239 @@
+/*******************************************************************************
+ * Author: Ahmed Kosba <akosba@cs.umd.edu>
+ *******************************************************************************/
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import circuit.config.Config;
+
+/**
+ * Opens circuit and input files, compressing or decompressing them
+ * transparently when their name ends with ".gz".
+ *
+ * With more than one compression thread, the output is split into blocks that
+ * are compressed in parallel, each as a separate gzip member. A sequence of
+ * gzip members is a valid gzip file, which GZIPInputStream and the gzip tools
+ * read as one stream.
+ */
+public class CompressedStreams {
+
+	public static final String EXTENSION = ".gz";
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	public static boolean isCompressed(String fileName) {
+		return fileName.endsWith(EXTENSION);
+	}
+
+	/**
+	 * Returns the file name that the generator and the evaluator write to,
+	 * according to Config.compressOutputFiles.
+	 */
+	public static String outputFileName(String fileName) {
+		return Config.compressOutputFiles ? fileName + EXTENSION : fileName;
+	}
+
+	/**
+	 * Returns the arguments of an external command, with every compressed file
+	 * replaced by a decompressed temporary copy. This is needed for the
+	 * libsnark executable, which cannot read gzip. The copies are removed by
+	 * deletePlainCopies().
+	 */
+	public static String[] plainCopies(String... args) throws IOException {
+		String[] copies = args.clone();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i] != null && isCompressed(args[i])) {
+					String name = Paths.get(args[i]).getFileName().toString();
+					Path copy = Files.createTempFile("jsnark-",
+							"-" + name.substring(0, name.length() - EXTENSION.length()));
+					copies[i] = copy.toString();
+					InputStream in = openInput(args[i]);
+					try {
+						Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+					} finally {
+						in.close();
+					}
+				}
+			}
+		} catch (IOException e) {
+			deletePlainCopies(args, copies);
+			throw e;
+		}
+		return copies;
+	}
+
+	public static void deletePlainCopies(String[] args, String[] copies) {
+		for (int i = 0; i < args.length; i++) {
+			if (copies[i] != null && !copies[i].equals(args[i])) {
+				new File(copies[i]).delete();
+			}
+		}
+	}
+
+	public static InputStream openInput(String fileName) throws IOException {
+		InputStream in = new FileInputStream(fileName);
+		if (isCompressed(fileName)) {
+			return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+		} else {
+			return new BufferedInputStream(in, BUFFER_SIZE);
+		}
+	}
+
+	public static OutputStream openOutput(String fileName) throws IOException {
+		return openOutput(fileName, Config.compressionLevel, Config.numOfCompressionThreads);
+	}
+
+	public static OutputStream openOutput(String fileName, int level, int numOfThreads) throws FileNotFoundException,
+			IOException {
+		OutputStream out = new FileOutputStream(fileName);
+		if (!isCompressed(fileName)) {
+			return new BufferedOutputStream(out, BUFFER_SIZE);
+		} else if (numOfThreads > 1) {
+			return new ParallelGzipOutputStream(out, level, numOfThreads);
+		} else {
+			return new BufferedOutputStream(new LeveledGzipOutputStream(out, level), BUFFER_SIZE);
+		}
+	}
+
+	private static class LeveledGzipOutputStream extends GZIPOutputStream {
+
+		LeveledGzipOutputStream(OutputStream out, int level) throws IOException {
+			super(out, BUFFER_SIZE);
+			def.setLevel(level);
+		}
+	}
+
+	private static class ParallelGzipOutputStream extends OutputStream {
+
+		private final OutputStream out;
+		private final int level;
+		private final int maxPendingBlocks;
+		private final ExecutorService executor;
+		private final ArrayDeque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+		private byte[] block = new byte[BLOCK_SIZE];
+		private int blockSize;
+		private boolean empty = true;
+		private boolean closed;
+
+		ParallelGzipOutputStream(OutputStream out, int level, int numOfThreads) {
+			this.out = out;
+			this.level = level;
+			this.maxPendingBlocks = 2 * numOfThreads;
+			// daemon threads, so that a stream that is never closed does not
+			// keep the JVM alive
+			executor = Executors.newFixedThreadPool(numOfThreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "gzip-compressor");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (blockSize == BLOCK_SIZE) {
+				submitBlock();
+			}
+			block[blockSize++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (blockSize == BLOCK_SIZE) {
+					submitBlock();
+				}
+				int n = Math.min(len, BLOCK_SIZE - blockSize);
+				System.arraycopy(b, off, block, blockSize, n);
+				blockSize += n;
+				off += n;
+				len -= n;
+			}
+		}
+
+		private void submitBlock() throws IOException {
+			if (blockSize == 0 && !(empty && closed)) {
+				return;
+			}
+			empty = false;
+			final byte[] data = block;
+			final int size = blockSize;
+			pendingBlocks.add(executor.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					ByteArrayOutputStream compressed = new ByteArrayOutputStream(size / 4 + 64);
+					GZIPOutputStream gzip = new LeveledGzipOutputStream(compressed, level);
+					gzip.write(data, 0, size);
+					gzip.close();
+					return compressed.toByteArray();
+				}
+			}));
+			block = new byte[BLOCK_SIZE];
+			blockSize = 0;
+			while (pendingBlocks.size() >= maxPendingBlocks) {
+				writeNextBlock();
+			}
+		}
+
+		private void writeNextBlock() throws IOException {
+			try {
+				out.write(pendingBlocks.poll().get());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while compressing", e);
+			} catch (ExecutionException e) {
+				throw new IOException("Compression failed", e.getCause());
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			submitBlock();
+			while (!pendingBlocks.isEmpty()) {
+				writeNextBlock();
+			}
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			try {
+				flush();
+			} finally {
+				executor.shutdownNow();
+				out.close();
+			}
+		}
+	}
+}